@@ -0,0 +1,263 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CODEC BENCHMARK
+//
+// Writes and reads one "payload" per operation with the serializers that every
+// request goes through. The payloads are:
+//
+//   integer, long, uuid, time   - a single value
+//   message_<n>                 - a message with an n byte body
+//   conversation_<n>            - a conversation with n users
+//   messages_<n>                - a collection of n messages with 100 byte bodies
+//
+// "stream" is where the bytes go. "memory" uses byte array streams that are reused
+// between operations, so only the serializer allocates. "socket" uses the plain
+// streams of a loopback socket, the way a connection hands them to the server and
+// clients, with a thread on the other end that drains what is written and keeps
+// sending the encoded payload to be read.
+//
+// Run with the GC profiler (run_bench.sh turns it on) to see how much each
+// operation allocates. With the JMH jars that make_bench.sh lists in place, this
+// builds and runs on its own with:
+//
+//   sh make.sh && sh make_bench.sh
+//   sh run_bench.sh CodecBenchmark -p payload=uuid,message_1000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+  @Param({
+      "integer", "long", "uuid", "time",
+      "message_10", "message_100", "message_1000", "message_10000",
+      "conversation_1000",
+      "messages_1000"
+  })
+  public String payload;
+
+  @Param({ "memory", "socket" })
+  public String stream;
+
+  private Serializer<Object> serializer;
+  private Object value;
+
+  private OutputStream out;
+  private InputStream in;
+
+  private ByteArrayOutputStream memoryOut;
+  private ByteArrayInputStream memoryIn;
+
+  private ServerSocket server;
+  private Socket near;
+  private Socket far;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+
+    choose(payload);
+
+    final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    serializer.write(encoded, value);
+    final byte[] bytes = encoded.toByteArray();
+
+    if ("memory".equals(stream)) {
+      memoryOut = new ByteArrayOutputStream(bytes.length);
+      memoryIn = new ByteArrayInputStream(bytes);
+      out = memoryOut;
+      in = memoryIn;
+    } else if ("socket".equals(stream)) {
+      server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+      near = new Socket(server.getInetAddress(), server.getLocalPort());
+      far = server.accept();
+      out = near.getOutputStream();
+      in = near.getInputStream();
+      start("drain", new Drain(far.getInputStream()));
+      start("feed", new Feed(far.getOutputStream(), bytes));
+    } else {
+      throw new IllegalArgumentException("Unknown stream " + stream);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (server != null) {
+      // Closing the sockets stops the drain and feed threads.
+      near.close();
+      far.close();
+      server.close();
+    }
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    if (memoryOut != null) {
+      memoryOut.reset();
+    }
+    serializer.write(out, value);
+  }
+
+  @Benchmark
+  public Object read() throws IOException {
+    if (memoryIn != null) {
+      memoryIn.reset();
+    }
+    return serializer.read(in);
+  }
+
+  private void choose(String payload) {
+
+    final String[] parts = payload.split("_");
+    final int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+
+    final Random random = new Random(0);
+    final Uuid.Generator ids = new LinearUuidGenerator(Uuids.fromString("100.101"), 1, Integer.MAX_VALUE);
+
+    switch (parts[0]) {
+      case "integer":
+        use(Serializers.INTEGER, random.nextInt());
+        break;
+      case "long":
+        use(Serializers.LONG, random.nextLong());
+        break;
+      case "uuid":
+        use(Uuids.SERIALIZER, ids.make());
+        break;
+      case "time":
+        use(Time.SERIALIZER, Time.now());
+        break;
+      case "message":
+        use(Message.SERIALIZER, message(ids, random, count));
+        break;
+      case "conversation":
+        final Conversation conversation = new Conversation(ids.make(), ids.make(), Time.now(), "Benchmark");
+        for (int i = 0; i < count; i++) {
+          conversation.users.add(ids.make());
+        }
+        conversation.firstMessage = ids.make();
+        conversation.lastMessage = ids.make();
+        use(Conversation.SERIALIZER, conversation);
+        break;
+      case "messages":
+        final Collection<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          messages.add(message(ids, random, 100));
+        }
+        use(Serializers.collection(Message.SERIALIZER), messages);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown payload " + payload);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void use(Serializer<T> serializer, T value) {
+    this.serializer = (Serializer<Object>) serializer;
+    this.value = value;
+  }
+
+  private static Message message(Uuid.Generator ids, Random random, int length) {
+    final char[] body = new char[length];
+    for (int i = 0; i < length; i++) {
+      body[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new Message(ids.make(), Uuids.NULL, Uuids.NULL, Time.now(), ids.make(), new String(body));
+  }
+
+  private static void start(String name, Runnable runnable) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Reads and drops everything written to the socket.
+  private static final class Drain implements Runnable {
+
+    private final InputStream in;
+
+    public Drain(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public void run() {
+      final byte[] buffer = new byte[64 * 1024];
+      try {
+        while (in.read(buffer) >= 0) { }
+      } catch (IOException ex) {
+        // The socket was closed.
+      }
+    }
+  }
+
+  // Keeps the socket full of encoded payloads so that a read never waits for
+  // more than the socket to be refilled.
+  private static final class Feed implements Runnable {
+
+    private final OutputStream out;
+    private final byte[] bytes;
+
+    public Feed(OutputStream out, byte[] bytes) {
+      this.out = out;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          out.write(bytes);
+        }
+      } catch (IOException ex) {
+        // The socket was closed.
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import codeu.chat.util.Serializers;
+
+// B-TREE STORE BENCHMARK
+//
+// StoreBenchmark against a BTreeStore with "pointers" pointers per node. The
+// tree is built in one batch so that setting up ten million keys writes the log
+// in one go, but every insert that is timed appends its record to the log the
+// way the server's inserts do. The server syncs once per request, which is not
+// timed here.
+@State(Scope.Benchmark)
+public class BTreeStoreBenchmark extends StoreBenchmark {
+
+  @Param({ "2", "8", "32" })
+  public int pointers;
+
+  private File log;
+
+  @Override
+  protected StoreAccessor<Integer, Integer> build(int[] keys) throws Exception {
+
+    log = File.createTempFile("store_benchmark", ".log");
+    log.delete();
+
+    BTreeStore<Integer, Integer> tree = new BTreeStore<>(
+        pointers, INTEGER_COMPARE, Serializers.INTEGER, Serializers.INTEGER, log.getPath());
+
+    tree.beginBatch();
+    for (final int key : keys) {
+      tree = tree.insert(key, key, true);
+    }
+    tree.endBatch();
+
+    return tree;
+  }
+
+  @Override
+  protected StoreAccessor<Integer, Integer> insert(StoreAccessor<Integer, Integer> store, int key) {
+    return ((BTreeStore<Integer, Integer>) store).insert(key, key, true);
+  }
+
+  @Override
+  protected void release() {
+    log.delete();
+  }
+}
@@ -0,0 +1,41 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// MEMORY STORE BENCHMARK
+//
+// StoreBenchmark against the in-memory Store, which keeps no log.
+@State(Scope.Benchmark)
+public class MemoryStoreBenchmark extends StoreBenchmark {
+
+  @Override
+  protected StoreAccessor<Integer, Integer> build(int[] keys) {
+    final Store<Integer, Integer> store = new Store<>(INTEGER_COMPARE);
+    for (final int key : keys) {
+      store.insert(key, key);
+    }
+    return store;
+  }
+
+  @Override
+  protected StoreAccessor<Integer, Integer> insert(StoreAccessor<Integer, Integer> store, int key) {
+    ((Store<Integer, Integer>) store).insert(key, key);
+    return store;
+  }
+}
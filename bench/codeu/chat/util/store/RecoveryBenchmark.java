@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import codeu.chat.util.Serializers;
+
+// RECOVERY BENCHMARK
+//
+// How long a BTreeStore takes to rebuild itself from a log of "records" inserts,
+// which is what the server waits for on every start. The log is written once per
+// trial and then replayed by opening a new tree over it. Every replay is timed on
+// its own since a single one of the larger logs runs for seconds.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx12g" })
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+  @Param({ "1000", "100000", "1000000", "10000000" })
+  public int records;
+
+  @Param({ "2", "8", "32" })
+  public int pointers;
+
+  private File log;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+
+    log = File.createTempFile("recovery_benchmark", ".log");
+    log.delete();
+
+    final Random random = new Random(0);
+
+    BTreeStore<Integer, Integer> root = open();
+
+    root.beginBatch();
+    for (int i = 0; i < records; i++) {
+      final int key = random.nextInt();
+      root = root.insert(key, key, true);
+    }
+    root.endBatch();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    log.delete();
+  }
+
+  @Benchmark
+  public BTreeStore<Integer, Integer> recover() {
+    return open();
+  }
+
+  private BTreeStore<Integer, Integer> open() {
+    return new BTreeStore<>(pointers,
+                            StoreBenchmark.INTEGER_COMPARE,
+                            Serializers.INTEGER,
+                            Serializers.INTEGER,
+                            log.getPath());
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// STORE BENCHMARK
+//
+// The operations the server uses, timed against a store that already holds
+// "size" keys. The keys are the even numbers below 2 * size, added in a random
+// order. Lookups pick an existing key at random and inserts add an odd key
+// between two existing ones, so every insert lands somewhere inside the store
+// rather than at its end.
+//
+// Inserts change the store, so they are timed in batches of INSERTS distinct
+// keys, one batch per iteration, and the store is built again before the next
+// iteration. Every batch starts from the same "size" keys rather than from a
+// store that has grown with every iteration before it. Their score is the time
+// for the whole batch.
+//
+// The same benchmarks run against each store: BTreeStoreBenchmark and
+// MemoryStoreBenchmark only say how the store is built and added to.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx12g" })
+@State(Scope.Benchmark)
+public abstract class StoreBenchmark {
+
+  protected static final Comparator<Integer> INTEGER_COMPARE = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      return Integer.compare(a, b);
+    }
+  };
+
+  // How many values a range lookup returns.
+  private static final int RANGE = 100;
+
+  // How many keys one batch of inserts adds. Small next to the smallest store so
+  // that it is much the same size at the end of a batch as at the start.
+  private static final int INSERTS = 100;
+
+  // Steps through the odd keys so that the keys of a batch are all different.
+  // Prime, so it shares no factor with any size.
+  private static final int STRIDE = 7919;
+
+  @Param({ "1000", "100000", "1000000", "10000000" })
+  public int size;
+
+  private final Random random = new Random(0);
+
+  private int[] keys;
+  private StoreAccessor<Integer, Integer> store;
+
+  // Whether the store has had keys inserted since it was built, and where the
+  // current batch of inserts is in the odd keys.
+  private boolean changed;
+  private int offset;
+  private int inserted;
+
+  // Build the store with the given keys, each mapped to itself.
+  protected abstract StoreAccessor<Integer, Integer> build(int[] keys) throws Exception;
+
+  // Add a key to the store and return the store to use from then on.
+  protected abstract StoreAccessor<Integer, Integer> insert(StoreAccessor<Integer, Integer> store,
+                                                            int key);
+
+  // Let go of what "build" made, before the store is built again and at the end.
+  protected void release() throws Exception { }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+
+    keys = new int[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = 2 * i;
+    }
+
+    // Shuffle so the store is not built from sorted keys.
+    for (int i = size - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int key = keys[i];
+      keys[i] = keys[j];
+      keys[j] = key;
+    }
+
+    store = build(keys);
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() throws Exception {
+    if (changed) {
+      store = null;
+      release();
+      store = build(keys);
+      changed = false;
+    }
+    offset = random.nextInt(size);
+    inserted = 0;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    store = null;
+    release();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 5, batchSize = INSERTS)
+  @Measurement(iterations = 20, batchSize = INSERTS)
+  public void insert() {
+    final long step = (long) STRIDE * inserted++;
+    store = insert(store, 2 * (int) ((offset + step) % size) + 1);
+    changed = true;
+  }
+
+  @Benchmark
+  public Integer first() {
+    return store.first(2 * random.nextInt(size));
+  }
+
+  @Benchmark
+  public void range(Blackhole blackhole) {
+    final int start = 2 * random.nextInt(size);
+    for (final Integer value : store.range(start, start + 2 * RANGE)) {
+      blackhole.consume(value);
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void all(Blackhole blackhole) {
+    for (final Integer value : store.all()) {
+      blackhole.consume(value);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+#!/bin/bash
+
+# Copyright 2017 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Builds the JMH benchmarks in ./bench into ./bench_bin, apart from ./bin. The
+# benchmarks are compiled against the project's classes, so run make.sh first.
+#
+# JMH is not checked in. Put its jars in ./third_party/jmh before building. The
+# benchmarks build without warnings against these, from Maven Central:
+#
+#   org.openjdk.jmh:jmh-core:1.37
+#   org.openjdk.jmh:jmh-generator-annprocess:1.37
+#   net.sf.jopt-simple:jopt-simple:5.0.4
+#   org.apache.commons:commons-math3:3.6.1
+
+JMH_CP=$(ls ./third_party/jmh/*.jar 2> /dev/null | tr '\n' ':')
+
+if [ -z "$JMH_CP" ]; then
+  echo "No JMH jars found in ./third_party/jmh" >&2
+  exit 1
+fi
+
+mkdir -p bench_bin
+
+javac -Xlint $(find bench | grep "\\.java$") -d ./bench_bin -sourcepath ./bench -cp "$JMH_CP./bin"
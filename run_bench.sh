@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Copyright 2017 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Runs the benchmarks built by make_bench.sh and writes their results to
+# bench_results.json. The GC profiler is on so that the results also show how
+# much each operation allocates. Arguments are passed through to JMH, for
+# example to run only the recovery benchmark with smaller logs:
+#
+#   sh run_bench.sh RecoveryBenchmark -p records=1000,100000
+
+JMH_CP=$(ls ./third_party/jmh/*.jar 2> /dev/null | tr '\n' ':')
+
+java -cp "$JMH_CP./bench_bin:./bin" org.openjdk.jmh.Main -prof gc -rf json -rff bench_results.json "$@"
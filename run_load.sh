@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Copyright 2017 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Sends load to a running server (and relay, if given) and reports throughput and
+# latency. Fails if any latency or error limit is broken. Arguments are
+# "name=value" pairs that are passed through, for example:
+#
+#   sh run_load.sh server=localhost@2007 relay=localhost@2008 rate=500 duration=60
+#
+# See codeu.chat.LoadGenerator for every argument and its default.
+
+java -cp ./bin codeu.chat.LoadGenerator "$@"
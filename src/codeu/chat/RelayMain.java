@@ -15,11 +15,17 @@
 package codeu.chat;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import codeu.chat.common.Hub;
+import codeu.chat.common.Secret;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Management;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
 import codeu.chat.util.connections.ServerConnectionSource;
@@ -28,6 +34,13 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  // The relay back end does not lock on reads, so connections can be handled
+  // on more than one thread.
+  private static final int HANDLER_THREADS = 4;
+
+  private static final String USAGE =
+      "Usage: RelayMain <port> [<team id>=<team secret> ...] (for example 2008 100.101=ABABAB)";
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -40,26 +53,50 @@ final class RelayMain {
 
     LOG.info("============================= START OF LOG =============================");
 
+    if (args.length < 1) {
+      System.out.println(USAGE);
+      return;
+    }
+
     final int myPort = Integer.parseInt(args[0]);
 
+    // Any other arguments are teams that the relay should accept in the form
+    // "<team id>=<team secret>" (for example "100.101=ABABAB").
+    final Map<Uuid, byte[]> teams = new LinkedHashMap<>();
+
+    for (int i = 1; i < args.length; i++) {
+      final String[] tokens = args[i].split("=");
+      if (tokens.length != 2 || tokens[0].isEmpty() || tokens[1].isEmpty()) {
+        System.out.println("ERROR: Bad team \"" + args[i] + "\"");
+        System.out.println(USAGE);
+        return;
+      }
+      teams.put(Uuids.fromString(tokens[0]), Secret.parse(tokens[1]));
+    }
+
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
 
       LOG.info("Starting relay...");
 
-      startRelay(source);
+      startRelay(source, teams);
 
     } catch (IOException ex) {
       LOG.error(ex, "Failed to establish server accept port");
     }
   }
 
-  private static void startRelay(ConnectionSource source) {
+  private static void startRelay(ConnectionSource source, Map<Uuid, byte[]> teams) {
 
     final Server relay = new Server(1024, 16);
 
     LOG.info("Relay object created.");
 
-    // TODO: Load team information
+    Management.register("Logger", Logger.mxBean());
+    Management.register("Relay", relay);
+
+    for (final Map.Entry<Uuid, byte[]> team : teams.entrySet()) {
+      relay.addTeam(team.getKey(), team.getValue());
+    }
 
     final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
 
@@ -67,12 +104,13 @@ final class RelayMain {
 
     LOG.info("Starting relay main loop...");
 
-    final Runnable hub = new Hub(source, new Hub.Handler() {
+    final Hub hub = new Hub(source, new Hub.Handler() {
 
       @Override
-      public void handle(Connection connection) throws Exception {
+      public boolean handle(Connection connection) throws Exception {
 
         frontEnd.handleConnection(connection);
+        return true;
 
       }
 
@@ -83,7 +121,9 @@ final class RelayMain {
         LOG.error(ex, "Exception handling connection.");
 
       }
-    });
+    }, HANDLER_THREADS);
+
+    Management.register("Hub", hub);
 
     LOG.info("Starting hub...");
 
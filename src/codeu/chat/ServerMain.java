@@ -15,7 +15,10 @@
 
 package codeu.chat;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import codeu.chat.common.Hub;
 import codeu.chat.common.Relay;
@@ -26,6 +29,8 @@ import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Management;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
@@ -36,6 +41,14 @@ final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  private static final int RELAY_READ_SIZE = 1024;
+  private static final long RELAY_SYNC_MS = 1000;
+
+  // The server's metrics are written to this file, in the directory the server is
+  // run from, once a minute.
+  private static final File METRICS_FILE = new File("chat_server_metrics.txt");
+  private static final long METRICS_DUMP_MS = 60 * 1000;
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -53,17 +66,21 @@ final class ServerMain {
 
     final int myPort = Integer.parseInt(args[2]);
 
-    final RemoteAddress relayAddress = args.length > 3 ?
-                                       RemoteAddress.parse(args[3]) :
-                                       null;
+    // The relay address can be a comma separated list of addresses. When there is
+    // more than one address, each one is a shard of the relay.
+    final List<ConnectionSource> relaySources = new ArrayList<>();
+
+    if (args.length > 3) {
+      for (final String address : args[3].split(",")) {
+        final RemoteAddress relayAddress = RemoteAddress.parse(address);
+        relaySources.add(new ClientConnectionSource(relayAddress.host, relayAddress.port));
+      }
+    }
 
-    try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort);
-        final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
-    ) {
+    try (final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort)) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      runServer(id, secret, serverSource, relaySources);
 
     } catch (IOException ex) {
 
@@ -75,22 +92,31 @@ final class ServerMain {
   private static void runServer(Uuid id,
                                 byte[] secret,
                                 ConnectionSource serverSource,
-                                ConnectionSource relaySource) {
+                                List<ConnectionSource> relaySources) {
 
-    final Relay relay = relaySource == null ?
+    final Relay relay = relaySources.isEmpty() ?
                         new NoOpRelay() :
-                        new RemoteRelay(relaySource);
+                        new RemoteRelay(relaySources);
 
     final Server server = new Server(id, secret, relay);
 
     LOG.info("Server object created.");
 
-    final Runnable hub = new Hub(serverSource, new Hub.Handler() {
+    Management.register("Logger", Logger.mxBean());
+    Management.register("Server", server);
+
+    if (!relaySources.isEmpty()) {
+      startRelaySync(server);
+    }
+
+    startMetricsDump();
+
+    final Hub hub = new Hub(serverSource, new Hub.Handler() {
 
       @Override
-      public void handle(Connection connection) throws Exception {
+      public boolean handle(Connection connection) throws Exception {
 
-        server.handleConnection(connection);
+        return server.handleConnection(connection);
 
       }
 
@@ -103,10 +129,62 @@ final class ServerMain {
       }
     });
 
+    Management.register("Hub", hub);
+
     LOG.info("Starting hub...");
 
     hub.run();
 
     LOG.info("Hub exited.");
   }
+
+  private static void startRelaySync(final Server server) {
+
+    final Thread sync = new Thread() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            // Keep reading without waiting while there is a backlog to catch up on.
+            if (server.syncWithRelay(RELAY_READ_SIZE) == 0) {
+              Thread.sleep(RELAY_SYNC_MS);
+            }
+          } catch (InterruptedException ex) {
+            return;
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception during relay sync.");
+          }
+        }
+      }
+    };
+
+    sync.setDaemon(true);
+    sync.start();
+
+    LOG.info("Relay sync started.");
+  }
+
+  private static void startMetricsDump() {
+
+    final Thread dump = new Thread() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            Thread.sleep(METRICS_DUMP_MS);
+            Metrics.dumpTo(METRICS_FILE);
+          } catch (InterruptedException ex) {
+            return;
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception writing metrics to %s.", METRICS_FILE);
+          }
+        }
+      }
+    };
+
+    dump.setDaemon(true);
+    dump.start();
+
+    LOG.info("Metrics dump started.");
+  }
 }
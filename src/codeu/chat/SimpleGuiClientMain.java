@@ -16,6 +16,7 @@ package codeu.chat;
 
 import java.io.IOException;
 
+import codeu.chat.client.AsyncClient;
 import codeu.chat.client.Controller;
 import codeu.chat.client.simplegui.ChatSimpleGui;
 import codeu.chat.client.View;
@@ -47,12 +48,15 @@ final class SimpleGuiClientMain {
     try (
       final ConnectionSource source = new ClientConnectionSource(address.host, address.port)
     ) {
-      final Controller controller = new Controller(source);
-      final View view = new View(source);
+      // The GUI makes its calls through "async", which closes the connections of
+      // calls that time out.
+      final AsyncClient async = new AsyncClient();
+      final Controller controller = new Controller(async.watch(source));
+      final View view = new View(async.watch(source));
 
       LOG.info("Creating client...");
 
-      runClient(controller, view);
+      runClient(controller, view, async);
 
     } catch (Exception ex) {
       System.out.println("ERROR: Exception setting up client. Check log for details.");
@@ -60,9 +64,9 @@ final class SimpleGuiClientMain {
     }
   }
 
-  private static void runClient(Controller controller, View view) {
+  private static void runClient(Controller controller, View view, AsyncClient async) {
 
-    final ChatSimpleGui chatSimpleGui = new ChatSimpleGui(controller, view);
+    final ChatSimpleGui chatSimpleGui = new ChatSimpleGui(controller, view, async);
 
     LOG.info("Created client");
 
@@ -0,0 +1,349 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// ASYNC CLIENT
+//
+// Runs client calls off the caller's thread. The View and Controller - and the
+// Client* classes built on them - block until the server answers, which is fine
+// for the command line but freezes a GUI. Each call returns a future right away
+// and runs later on the client's I/O thread.
+//
+// There is only one I/O thread, so calls run one at a time in the order they were
+// made. The Client* classes keep state that is not safe to share between threads
+// and this keeps them to one thread. It also means a call made after another
+// sees what the first one did.
+//
+// Work that can wait, like reading ahead, is run with runWhenIdle. It only starts
+// once no calls are waiting, so a call made after it only ever waits for the one
+// idle action that is already running. Idle work should come in small pieces.
+//
+// Every call has a timeout. Cancelling a call, or letting it time out, before it
+// starts means it never runs. If it is already talking to the server its thread
+// is interrupted and its result is dropped. Interrupting does not stop a thread
+// that is blocked reading a socket, so the connections a call opens through a
+// source from "watch" are also closed. That ends the read and the call, and the
+// calls waiting behind it go on.
+public final class AsyncClient implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(AsyncClient.class);
+
+  public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+  private final ExecutorService io = Executors.newSingleThreadExecutor(daemon("client-io"));
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(daemon("client-timeout"));
+
+  private final long timeoutMs;
+
+  // Calls that have been made and not finished yet.
+  private final AtomicInteger pending = new AtomicInteger();
+
+  // Idle actions waiting for the client to have no calls, and whether one has been
+  // handed to the I/O thread. Both guarded by "idle".
+  private final Deque<Runnable> idle = new ArrayDeque<>();
+  private boolean idleRunning;
+
+  // The call running on the I/O thread, that thread and the connections the call
+  // has opened through a watched source. All guarded by "open".
+  private final List<Connection> open = new ArrayList<>();
+  private CompletableFuture<?> runningCall;
+  private Thread runningThread;
+
+  public AsyncClient() {
+    this(DEFAULT_TIMEOUT_MS);
+  }
+
+  public AsyncClient(long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  public <T> CompletableFuture<T> call(Callable<T> call) {
+    return call(call, timeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  // CALL
+  //
+  // Run the call on the I/O thread. The future fails with a TimeoutException if
+  // the call has not finished within the timeout, counting the time spent waiting
+  // behind other calls.
+  public <T> CompletableFuture<T> call(final Callable<T> call, long timeout, TimeUnit unit) {
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    pending.incrementAndGet();
+
+    final Future<?> task = io.submit(new Runnable() {
+      @Override
+      public void run() {
+        // Cancelled or timed out while waiting for its turn.
+        if (result.isDone()) {
+          return;
+        }
+        started(result);
+        try {
+          result.complete(call.call());
+        } catch (Throwable ex) {
+          result.completeExceptionally(ex);
+        } finally {
+          finished();
+        }
+      }
+    });
+
+    final Future<?> timeoutTask = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        result.completeExceptionally(new TimeoutException("Call to server timed out."));
+      }
+    }, timeout, unit);
+
+    result.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable error) {
+        final boolean last = pending.decrementAndGet() == 0;
+        timeoutTask.cancel(false);
+        if (error != null) {
+          task.cancel(true);
+          abandon(result);
+        }
+        if (last) {
+          runIdle();
+        }
+      }
+    });
+
+    return result;
+  }
+
+  public CompletableFuture<Void> run(final Runnable action) {
+    return call(new Callable<Void>() {
+      @Override
+      public Void call() {
+        action.run();
+        return null;
+      }
+    });
+  }
+
+  // RUN WHEN IDLE
+  //
+  // Run the action on the I/O thread once there are no calls waiting for it. Idle
+  // actions wait in their own queue and are handed to the I/O thread one at a
+  // time, each only once the last call has finished, so a call made while one is
+  // waiting goes ahead of it. There is no timeout - the action may wait for as
+  // long as the client is busy.
+  public CompletableFuture<Void> runWhenIdle(final Runnable action) {
+
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    synchronized (idle) {
+      idle.add(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            action.run();
+            result.complete(null);
+          } catch (Throwable ex) {
+            result.completeExceptionally(ex);
+          }
+        }
+      });
+    }
+
+    runIdle();
+
+    return result;
+  }
+
+  // Hand the next idle action to the I/O thread if no calls are waiting and no
+  // other idle action is. Called again when a call or idle action finishes.
+  private void runIdle() {
+
+    final Runnable next;
+
+    synchronized (idle) {
+      if (idleRunning || idle.isEmpty() || pending.get() > 0 || io.isShutdown()) {
+        return;
+      }
+      next = idle.poll();
+      idleRunning = true;
+    }
+
+    try {
+      io.execute(new Runnable() {
+        @Override
+        public void run() {
+          // A call was made after this was handed over. It waits behind the call
+          // until the calls are done.
+          if (pending.get() > 0) {
+            synchronized (idle) {
+              idle.addFirst(next);
+              idleRunning = false;
+            }
+          } else {
+            try {
+              next.run();
+            } finally {
+              synchronized (idle) {
+                idleRunning = false;
+              }
+            }
+          }
+          runIdle();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      // The client was closed.
+      synchronized (idle) {
+        idleRunning = false;
+      }
+    }
+  }
+
+  // WATCH
+  //
+  // Wrap a connection source so that the connections a call opens through it are
+  // closed if the call times out or is cancelled while it runs. Connections that
+  // outlive their call, like a subscription's, are left alone once the call that
+  // opened them has finished.
+  public ConnectionSource watch(final ConnectionSource source) {
+    return new ConnectionSource() {
+
+      @Override
+      public Connection connect() throws IOException {
+        return opened(source.connect());
+      }
+
+      @Override
+      public void close() throws IOException {
+        source.close();
+      }
+    };
+  }
+
+  private void started(CompletableFuture<?> call) {
+    synchronized (open) {
+      runningCall = call;
+      runningThread = Thread.currentThread();
+    }
+  }
+
+  private void finished() {
+    synchronized (open) {
+      runningCall = null;
+      runningThread = null;
+      open.clear();
+    }
+  }
+
+  private Connection opened(final Connection connection) throws IOException {
+
+    synchronized (open) {
+      if (Thread.currentThread() == runningThread) {
+        // The call was given up on before it got this far.
+        if (runningCall.isDone()) {
+          connection.close();
+          throw new IOException("Call to server was abandoned.");
+        }
+        open.add(connection);
+      }
+    }
+
+    return new Connection() {
+
+      @Override
+      public InputStream in() throws IOException {
+        return connection.in();
+      }
+
+      @Override
+      public OutputStream out() throws IOException {
+        return connection.out();
+      }
+
+      @Override
+      public void close() throws IOException {
+        synchronized (open) {
+          open.remove(connection);
+        }
+        connection.close();
+      }
+    };
+  }
+
+  // Close the connections of the call if it is the one running.
+  private void abandon(CompletableFuture<?> call) {
+
+    final List<Connection> toClose = new ArrayList<>();
+
+    synchronized (open) {
+      if (runningCall == call) {
+        toClose.addAll(open);
+        open.clear();
+      }
+    }
+
+    for (final Connection connection : toClose) {
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close the connection of an abandoned call.");
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    io.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  private static ThreadFactory daemon(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+}
@@ -0,0 +1,299 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.Delta;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CLIENT CACHE
+//
+// What the client last read from the server, kept between runs so that there is
+// something to show before the server answers. Every entry is keyed by a Uuid and
+// remembers the server generation it was read at, so bringing it up to date only
+// asks for what changed after that.
+//
+// The cache holds at most "capacity" bytes, counting each value by its serialized
+// size, and adding past that drops the least recently used entries. The cache as
+// a whole also has a generation: the one at which it last held everything of its
+// kind. Once an entry has been dropped the cache is no longer complete and has no
+// generation until it is cleared.
+//
+// The cache is only written to disk by "save", nothing is logged as it changes.
+// Losing what changed since the last save only costs a bigger update next time.
+// All methods are safe to call from any thread.
+//
+// "get" returns the cached value itself. A value that is changed in place must be
+// changed while holding the cache's lock (synchronized on the cache) and then
+// reported with "changed", so that a save at the same time never writes half of
+// a change and the value is not measured again in full.
+public final class ClientCache<T> {
+
+  private final static Logger.Log LOG = Logger.newLog(ClientCache.class);
+
+  private static final class Entry<T> {
+
+    public final long generation;
+    public final T value;
+    public final long size;
+
+    public Entry(long generation, T value, long size) {
+      this.generation = generation;
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  private final File file;
+  private final Serializer<T> serializer;
+  private final long capacity;
+
+  // Kept in access order so that the first entry is the least recently used.
+  private final LinkedHashMap<Uuid, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long size = 0;
+  private long generation = Delta.UNKNOWN;
+  private boolean complete = true;
+  private boolean changed = false;
+
+  // Open the cache saved in the file, or start with an empty one if there is no
+  // file or it cannot be read.
+  public ClientCache(File file, Serializer<T> serializer, long capacity) {
+
+    this.file = file;
+    this.serializer = serializer;
+    this.capacity = capacity;
+
+    if (file.exists()) {
+      try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        load(in);
+      } catch (IOException | RuntimeException ex) {
+        LOG.warning("Client cache %s could not be read, starting empty: %s", file, ex);
+        clear();
+      }
+    }
+  }
+
+  // Get the value for the key, or null if it is not cached. Counts as a use of the
+  // entry.
+  public synchronized T get(Uuid key) {
+    final Entry<T> entry = entries.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  // The generation the key's value was read at, UNKNOWN if it is not cached.
+  public synchronized long generation(Uuid key) {
+    final Entry<T> entry = entries.get(key);
+    return entry == null ? Delta.UNKNOWN : entry.generation;
+  }
+
+  // PUT
+  //
+  // Cache the value, replacing anything under the key. The whole value is measured,
+  // so a value that was changed in place should be reported with "changed" instead.
+  public synchronized void put(Uuid key, long generation, T value) {
+
+    drop(key);
+
+    final Entry<T> entry = new Entry<>(generation, value, sizeOf(serializer, value));
+
+    entries.put(key, entry);
+    size += entry.size;
+    changed = true;
+
+    evict();
+  }
+
+  // CHANGED
+  //
+  // Record that the value under the key was changed in place, is now up to date
+  // with "generation" and grew by "bytes" when serialized (less than zero if it
+  // shrank). If the key no longer holds that value it is put again.
+  public synchronized void changed(Uuid key, long generation, T value, long bytes) {
+
+    final Entry<T> entry = entries.get(key);
+
+    if (entry == null || entry.value != value) {
+      put(key, generation, value);
+      return;
+    }
+
+    entries.put(key, new Entry<>(generation, value, entry.size + bytes));
+    size += bytes;
+    changed = true;
+
+    evict();
+  }
+
+  public synchronized void remove(Uuid key) {
+    changed |= drop(key);
+  }
+
+  // Every cached value, least recently used first. Does not count as a use.
+  public synchronized List<T> values() {
+    final List<T> values = new ArrayList<>(entries.size());
+    for (final Entry<T> entry : entries.values()) {
+      values.add(entry.value);
+    }
+    return values;
+  }
+
+  // Every cached key, least recently used first. Does not count as a use.
+  public synchronized List<Uuid> keys() {
+    return new ArrayList<>(entries.keySet());
+  }
+
+  // The generation at which the cache held everything, or UNKNOWN if it never did
+  // or some of it has been dropped since.
+  public synchronized long generation() {
+    return complete ? generation : Delta.UNKNOWN;
+  }
+
+  public synchronized void setGeneration(long generation) {
+    this.generation = generation;
+    changed = true;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+    generation = Delta.UNKNOWN;
+    complete = true;
+    changed = true;
+  }
+
+  // The number of bytes the cached values take.
+  public synchronized long size() {
+    return size;
+  }
+
+  public synchronized int count() {
+    return entries.size();
+  }
+
+  // SAVE
+  //
+  // Write the cache to its file if anything changed since it was opened or last
+  // saved. The file is replaced in one step so a crash while saving leaves the
+  // last saved cache behind. The values are written holding the cache's lock, so
+  // changes made in place wait for it.
+  public synchronized void save() throws IOException {
+
+    if (!changed) {
+      return;
+    }
+
+    final File temp = new File(file.getPath() + ".tmp");
+
+    try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+      Serializers.LONG.write(out, generation());
+      Serializers.INTEGER.write(out, entries.size());
+      for (final Map.Entry<Uuid, Entry<T>> entry : entries.entrySet()) {
+        Uuids.SERIALIZER.write(out, entry.getKey());
+        Serializers.LONG.write(out, entry.getValue().generation);
+        serializer.write(out, entry.getValue().value);
+      }
+    }
+
+    Files.move(temp.toPath(), file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    changed = false;
+  }
+
+  private synchronized void load(InputStream in) throws IOException {
+
+    final long savedGeneration = Serializers.LONG.read(in);
+    final int count = Serializers.INTEGER.read(in);
+
+    // Entries were saved least recently used first, so putting them back in the
+    // same order restores their order and drops the oldest if the capacity has
+    // shrunk since.
+    for (int i = 0; i < count; i++) {
+      final Uuid key = Uuids.SERIALIZER.read(in);
+      final long entryGeneration = Serializers.LONG.read(in);
+      put(key, entryGeneration, serializer.read(in));
+    }
+
+    generation = savedGeneration;
+    changed = false;
+  }
+
+  // Drop the least recently used entries until the cache is within its capacity.
+  private void evict() {
+
+    final Iterator<Map.Entry<Uuid, Entry<T>>> eldest = entries.entrySet().iterator();
+
+    while (size > capacity && eldest.hasNext()) {
+      size -= eldest.next().getValue().size;
+      eldest.remove();
+      complete = false;
+    }
+  }
+
+  private boolean drop(Uuid key) {
+    final Entry<T> entry = entries.remove(key);
+    if (entry != null) {
+      size -= entry.size;
+    }
+    return entry != null;
+  }
+
+  // The number of bytes the value takes when serialized.
+  static <V> long sizeOf(Serializer<V> serializer, V value) {
+    final CountingStream counter = new CountingStream();
+    try {
+      serializer.write(counter, value);
+    } catch (IOException ex) {
+      // Counting never fails to write.
+      throw new IllegalStateException(ex);
+    }
+    return counter.count;
+  }
+
+  private static final class CountingStream extends OutputStream {
+
+    public long count = 0;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -14,21 +14,75 @@
 
 package codeu.chat.client;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.client.AsyncClient;
 import codeu.chat.client.ClientConversation;
 import codeu.chat.client.ClientMessage;
 import codeu.chat.client.ClientUser;
 import codeu.chat.client.Controller;
 import codeu.chat.client.View;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
 
 public final class ClientContext {
 
+  private final static Logger.Log LOG = Logger.newLog(ClientContext.class);
+
+  // What is read from the server is cached in these files, in the directory the
+  // client is run from, and saved when the client exits.
+  private static final File USER_CACHE = new File("ClientCache_User.cache");
+  private static final File CONVERSATION_CACHE = new File("ClientCache_Conversation.cache");
+  private static final File MESSAGE_CACHE = new File("ClientCache_Message.cache");
+
+  private static final long USER_CACHE_BYTES = 1024 * 1024;
+  private static final long CONVERSATION_CACHE_BYTES = 1024 * 1024;
+  private static final long MESSAGE_CACHE_BYTES = 16 * 1024 * 1024;
+
   public final ClientUser user;
   public final ClientConversation conversation;
   public final ClientMessage message;
 
+  // Runs the calls above off the caller's thread, for clients that cannot block.
+  public final AsyncClient async;
+
   public ClientContext(Controller controller, View view) {
-    user = new ClientUser(controller, view);
-    conversation = new ClientConversation(controller, view, user);
-    message = new ClientMessage(controller, view, user, conversation);
+    this(controller, view, new AsyncClient());
+  }
+
+  // The controller and view should read from a source watched by "async" so that
+  // calls that time out have their connections closed.
+  public ClientContext(Controller controller, View view, AsyncClient async) {
+
+    final ClientCache<User> users =
+        new ClientCache<>(USER_CACHE, User.SERIALIZER, USER_CACHE_BYTES);
+    final ClientCache<ConversationSummary> conversations =
+        new ClientCache<>(CONVERSATION_CACHE, ConversationSummary.SERIALIZER, CONVERSATION_CACHE_BYTES);
+    final ClientCache<List<Message>> messages =
+        new ClientCache<>(MESSAGE_CACHE, ClientMessage.MESSAGES_SERIALIZER, MESSAGE_CACHE_BYTES);
+
+    this.async = async;
+    user = new ClientUser(controller, view, users);
+    conversation = new ClientConversation(controller, view, user, conversations);
+    message = new ClientMessage(controller, view, user, conversation, messages);
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        for (final ClientCache<?> cache : Arrays.asList(users, conversations, messages)) {
+          try {
+            cache.save();
+          } catch (IOException | RuntimeException ex) {
+            // The I/O thread may still be changing the cache as the client exits.
+            LOG.error(ex, "Failed to save the client cache.");
+          }
+        }
+      }
+    });
   }
 }
@@ -14,20 +14,24 @@
 
 package codeu.chat.client;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.lang.StringBuilder;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
+import codeu.chat.common.Page;
 import codeu.chat.client.ClientUser;
 import codeu.chat.common.Uuid;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Method;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.store.BTreeStore;
-import codeu.chat.util.store.BTreeIterator;
 import codeu.chat.common.User;
 
 
@@ -35,9 +39,11 @@ public final class ClientConversation {
 
   private final static Logger.Log LOG = Logger.newLog(ClientConversation.class);
   private final static String STORE_FILENAME = "ClientConversation_StringConversationSummary.log";
+  private final static int PAGE_SIZE = 50;
 
   private final Controller controller;
   private final View view;
+  private final ClientCache<ConversationSummary> cache;
 
   private ConversationSummary currentSummary = null;
   private Conversation currentConversation = null;
@@ -54,10 +60,39 @@ public final class ClientConversation {
           new BTreeStore<>(BTreeStore.NUM_POINTERS, String.CASE_INSENSITIVE_ORDER,
                   Serializers.STRING, ConversationSummary.SERIALIZER, STORE_FILENAME);
 
-  public ClientConversation(Controller controller, View view, ClientUser userContext) {
+  // The cursor for the next page of conversations, null once every page is loaded.
+  // Pages come in title order so each page goes after everything already loaded.
+  private byte[] nextPage = Page.FIRST;
+
+  // The server's conversation generation when the known conversations were last
+  // brought up to date. Updates only ask for what changed after it.
+  private long generation = Delta.UNKNOWN;
+
+  public ClientConversation(Controller controller, View view, ClientUser userContext,
+                            ClientCache<ConversationSummary> cache) {
     this.controller = controller;
     this.view = view;
     this.userContext = userContext;
+    this.cache = cache;
+    restoreConversations();
+  }
+
+  // Start from the conversations cached by an earlier run if the cache holds all
+  // of them. They are shown as they are until reconcileConversations asks the
+  // server what changed.
+  private void restoreConversations() {
+    final long cached = cache.generation();
+    if (cached == Delta.UNKNOWN) {
+      return;
+    }
+    summariesSortedByTitle.clear(STORE_FILENAME);
+    for (final ConversationSummary cs : cache.values()) {
+      summariesByUuid.put(cs.id, cs);
+      summariesSortedByTitle = summariesSortedByTitle.insert(cs.title, cs, false);
+    }
+    nextPage = null;
+    generation = cached;
+    LOG.info("Restored %d cached conversations, generation=%d", summariesByUuid.size(), generation);
   }
 
   public void setMessageContext(ClientMessage messageContext) {
@@ -125,7 +160,7 @@ public final class ClientConversation {
       deletingCurrent = true;
     }
     controller.removeConversation(getConversation(cs.id));
-    summariesByUuid.remove(cs.id);
+    forgetConversation(cs.id);
     updateAllConversations(deletingCurrent ? true : false);
     LOG.info("Conversation removed: Title= \"%s\"\n", title);
     System.out.format("Conversation removed: Title= \"%s\"\n", title);
@@ -182,22 +217,118 @@ public final class ClientConversation {
     return summariesSortedByTitle.all();
   }
 
-  // Update the list of known Conversations.
-  // If the input currentChanged is true, then re-establish the state of
-  // the current Conversation, including its messages.
-  public void updateAllConversations(boolean currentChanged) {
+  public boolean hasMoreConversations() {
+    return nextPage != null;
+  }
+
+  // Load the next page of Conversations. Returns the newly loaded Conversations
+  // in title order.
+  public Collection<ConversationSummary> loadMoreConversations() {
+    if (nextPage == null) {
+      return Collections.emptyList();
+    }
+
+    final Page<ConversationSummary> page = view.getConversationsPage(nextPage, PAGE_SIZE);
+
+    for (final ConversationSummary cs : page.items) {
+      rememberConversation(cs, generation);
+    }
+
+    nextPage = page.isLast() ? null : page.next;
+    return page.items;
+  }
+
+  // Forget the known Conversations and load only the first page of them again.
+  // The rest can be loaded with loadMoreConversations when they are needed.
+  public Collection<ConversationSummary> reloadConversations() {
+    clearConversations();
+    return loadMoreConversations();
+  }
 
+  // Bring the known Conversations up to date and get all of them in title order.
+  // Conversations restored from the cache, like Conversations that have all been
+  // paged in, only need what changed since. Otherwise only the first page is
+  // loaded again.
+  public Collection<ConversationSummary> reconcileConversations() {
+    if (hasMoreConversations()) {
+      return reloadConversations();
+    }
+    refreshConversations();
+    final Collection<ConversationSummary> conversations = new ArrayList<>();
+    for (final ConversationSummary cs : summariesSortedByTitle.all()) {
+      conversations.add(cs);
+    }
+    return conversations;
+  }
+
+  private void clearConversations() {
     summariesByUuid.clear();
     summariesSortedByTitle.clear(STORE_FILENAME);
+    cache.clear();
+    nextPage = Page.FIRST;
+    generation = Delta.UNKNOWN;
+  }
 
-    for (final ConversationSummary cs : view.getAllConversations()) {
-      summariesByUuid.put(cs.id, cs);
-      summariesSortedByTitle = summariesSortedByTitle.insert(cs.title, cs, false);
+  // Keep a Conversation read from the server at the given generation.
+  private void rememberConversation(ConversationSummary cs, long readAt) {
+    summariesByUuid.put(cs.id, cs);
+    summariesSortedByTitle = summariesSortedByTitle.insert(cs.title, cs, false);
+    cache.put(cs.id, readAt, cs);
+  }
+
+  private void forgetConversation(Uuid id) {
+    final ConversationSummary cs = summariesByUuid.remove(id);
+    if (cs != null) {
+      summariesSortedByTitle = summariesSortedByTitle.delete(cs.title);
+    }
+    cache.remove(id);
+  }
+
+  // Only the conversations added or removed since the last update are sent
+  // unless the server can no longer tell what changed or some pages have not
+  // been loaded yet, then every conversation is loaded again.
+  private void refreshConversations() {
+
+    final Delta<ConversationSummary> delta = view.getConversationsChangedSince(generation);
+
+    if (delta.isNotModifiedSince(generation)) {
+      return;
     }
 
+    if (delta.reset || hasMoreConversations()) {
+
+      clearConversations();
+
+      while (hasMoreConversations()) {
+        loadMoreConversations();
+      }
+
+    } else {
+
+      for (final Uuid id : delta.removed) {
+        forgetConversation(id);
+      }
+
+      for (final ConversationSummary cs : delta.changed) {
+        forgetConversation(cs.id);
+        rememberConversation(cs, delta.generation);
+      }
+    }
+
+    generation = delta.generation;
+    cache.setGeneration(generation);
+  }
+
+  // Update the list of known Conversations.
+  // If the input currentChanged is true, then re-establish the state of
+  // the current Conversation, including its messages.
+  public void updateAllConversations(boolean currentChanged) {
+
+    refreshConversations();
+
     if (currentChanged) {
       updateCurrentConversation();
-      messageContext.resetCurrent(true);
+      messageContext.resetCurrent(false);
     }
   }
 
@@ -234,29 +365,25 @@ public final class ClientConversation {
     printConversation(c, null);
   }
 
+  // Ask the server for the conversations whose title starts with the given text.
+  // Only the first page of them is shown.
   public String searchConversation(String title){
     if(title.equals("")){
         System.out.println("Enter Conversation title");
         return "Enter Conversation title";
     }
     StringBuilder sb=new StringBuilder();
-    ClientUser user = new ClientUser(controller, view);
-    user.updateUsers();
-    updateAllConversations(false);
-    BTreeIterator<String, ConversationSummary> conversations = summariesSortedByTitle.all().iterator();
-    boolean found=false;
-    while(conversations.hasNext()){
-      ConversationSummary summary=conversations.next();
-      if(summary==null) break;
-      if(title.equalsIgnoreCase(summary.title)) {
-        sb.append(ClientConversation.printConversationFriendly(summary));
-        found=true;
-      }
-    }
-    if(!found) {
-      System.out.println(sb.toString());
+    final Page<ConversationSummary> found = view.searchConversations(title, Page.FIRST, PAGE_SIZE);
+    if(found.items.isEmpty()) {
       return "Conversation not found";
     }
+    for (final ConversationSummary summary : found.items) {
+      sb.append(ClientConversation.printConversationFriendly(summary));
+    }
+    if (!found.isLast()) {
+      System.out.format("Showing the first %d conversations.\n", found.items.size());
+      sb.append("Showing the first " + found.items.size() + " conversations.\n");
+    }
     return sb.toString();
   }
 }
@@ -15,27 +15,53 @@
 package codeu.chat.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessageMatch;
+import codeu.chat.common.Page;
+import codeu.chat.common.Time;
 import codeu.chat.common.Uuid;
 import codeu.chat.common.Uuids;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Method;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
 import codeu.chat.util.store.BTreeStore;
-import codeu.chat.util.store.BTreeIterator;
 
 public final class ClientMessage {
 
   private final static Logger.Log LOG = Logger.newLog(ClientMessage.class);
 
-  private final static int MESSAGE_MAX_COUNT = 100;
-  private final static int MESSAGE_FETCH_COUNT = 5;
+  private final static int MESSAGE_FETCH_COUNT = 100;
+  private final static int SEARCH_COUNT = 50;
+
+  // A conversation's cached messages, in conversation order.
+  static final Serializer<List<Message>> MESSAGES_SERIALIZER = new Serializer<List<Message>>() {
+
+    @Override
+    public void write(OutputStream out, List<Message> value) throws IOException {
+      Serializers.collection(Message.SERIALIZER).write(out, value);
+    }
+
+    @Override
+    public List<Message> read(InputStream in) throws IOException {
+      return new ArrayList<>(Serializers.collection(Message.SERIALIZER).read(in));
+    }
+  };
 
   private final Controller controller;
   private final View view;
@@ -45,17 +71,38 @@ public final class ClientMessage {
   private final Map<Uuid, Message> messageByUuid = new HashMap<>();
 
   private Conversation conversationHead;
-  private final List<Message> conversationContents = new ArrayList<>();
+  private List<Message> conversationContents = new ArrayList<>();
+
+  // Every conversation that has been read keeps its messages here, along with the
+  // server's message generation when they were last brought up to date, so that
+  // coming back to it, or refreshing it, only asks the server for what is newer
+  // than the last cached message. A conversation that has not changed since costs
+  // one small round trip to check. conversationContents is the cached list of the
+  // current conversation. The lists are changed in place, always holding the
+  // cache's lock, and only what a change adds is measured for the cache's size.
+  private final ClientCache<List<Message>> messageCache;
+
+  private Subscription subscription;
+  private Uuid subscribed;
+
+  // Every push event for the subscribed conversation invalidates its cached
+  // messages. While no event has arrived since they were last brought up to date
+  // they match the server and an update needs no round trip at all.
+  private final AtomicLong pushed = new AtomicLong();
+  private Subscription checkedWith = null;
+  private long checkedAt = 0;
 
   private final ClientUser userContext;
   private final ClientConversation conversationContext;
 
   public ClientMessage(Controller controller, View view, ClientUser userContext,
-                       ClientConversation conversationContext) {
+                       ClientConversation conversationContext,
+                       ClientCache<List<Message>> messageCache) {
     this.controller = controller;
     this.view = view;
     this.userContext = userContext;
     this.conversationContext = conversationContext;
+    this.messageCache = messageCache;
     this.conversationContext.setMessageContext(this);
   }
 
@@ -93,12 +140,20 @@ public final class ClientMessage {
   }
 
   public List<Message> getConversationContents(ConversationSummary summary) {
-    if (conversationHead == null || summary == null || !conversationHead.id.equals(summary.id)) {
-      updateMessages(summary, true);
-    }
+    updateMessages(summary, false);
     return conversationContents;
   }
 
+  // Get the messages cached for a conversation without asking the server, so that
+  // there is something to show while getConversationContents brings them up to
+  // date.
+  public List<Message> getCachedConversationContents(ConversationSummary summary) {
+    synchronized (messageCache) {
+      final List<Message> cached = (summary == null) ? null : messageCache.get(summary.id);
+      return (cached == null) ? new ArrayList<Message>() : new ArrayList<>(cached);
+    }
+  }
+
   // For m-add command.
   public void addMessage(Uuid author, Uuid conversation, String body) {
     final boolean validInputs = isValidBody(body) && (author != null) && (conversation != null);
@@ -111,10 +166,25 @@ public final class ClientMessage {
     } else {
       LOG.info("New message:, Author= %s UUID= %s", author, message.id);
       current = message;
+      writeThrough(conversation, message);
     }
     updateMessages(false);
   }
 
+  // Add a message this client just wrote to its conversation's cached messages if
+  // it directly follows them. Their generation is left alone so that the next
+  // update still asks the server for anything else that changed. If it does not
+  // follow them someone else wrote in between and they are out of date.
+  private void writeThrough(Uuid conversation, Message message) {
+    final List<Message> cached = messageCache.get(conversation);
+    if (cached != null && Uuids.equals(message.previous, lastId(cached))) {
+      appendCached(conversation, messageCache.generation(conversation), cached,
+                   Collections.singletonList(message));
+    } else {
+      checkedWith = null;
+    }
+  }
+
   // For m-remove command.
   public void removeMessage(String stringIndex) {
     int index = Integer.parseInt(stringIndex);
@@ -123,8 +193,11 @@ public final class ClientMessage {
       Message message = conversationContents.get(index);
       Uuid conversation = conversationContext.getCurrent().id;
       controller.removeMessage(message, conversation);
-      conversationContents.remove(message);
-      removeUpdates(message, index);
+      synchronized (messageCache) {
+        conversationContents.remove(message);
+        removeUpdates(message, index);
+        messageCache.put(conversation, messageCache.generation(conversation), conversationContents);
+      }
       updateMessages(conversationContext.getCurrent(), false);
       LOG.info("Message removed: Index= \"%s\"\n", stringIndex);
       System.out.format("Message removed: Index= \"%s\"\n", stringIndex);
@@ -136,8 +209,11 @@ public final class ClientMessage {
 
   private void removeUpdates(Message message, int index) {
     if (!message.previous.equals(Uuids.NULL)) {
-      Message previousMessage = conversationContents.get(index - 1);
-      previousMessage.next = message.next;
+      // The previous message may be older than the cached ones.
+      if (index > 0) {
+        Message previousMessage = conversationContents.get(index - 1);
+        previousMessage.next = message.next;
+      }
     } else {
       if (conversationContents.size() != 0 && !message.next.equals(Uuids.NULL)) {
         conversationContents.get(0).previous = Uuids.NULL;
@@ -173,6 +249,10 @@ public final class ClientMessage {
   // Show all messages attached to the current conversation. This will balk if the conversation
   // has too many messages (use m-next and m-show instead).
   public void showAllMessages() {
+    if (conversationContext.hasCurrent()) {
+      // Only the newest messages are read at first.
+      loadAllMessages(conversationContext.getCurrent());
+    }
     if (conversationContents.size() == 0) {
       System.out.println(" Current Conversation has no messages");
     } else {
@@ -207,49 +287,319 @@ public final class ClientMessage {
     Method.notImplemented();
   }
 
-  // Determine the next message ID of the current conversation to start pulling.
-  // This requires a read of the last read message to determine if the chain has been extended.
-  private Uuid getCurrentMessageFetchId(boolean replaceAll) {
-    if (replaceAll || conversationContents.isEmpty()) {
-      // Fetch/refetch all the messages.
-      conversationContents.clear();
-      LOG.info("Refetch all messages: replaceAll=%s firstMessage=%s", replaceAll,
-              conversationHead.firstMessage);
-      return conversationHead.firstMessage;
-    } else {
-      // Locate last known message. Its next, if any, becomes our starting point.
-      return getCurrentTailMessageId();
+  // Have the server push new and removed messages in the given conversation to
+  // the listener. Replaces any earlier subscription.
+  public void subscribe(Uuid conversation, final Subscription.Listener listener) {
+    if (subscription != null) {
+      subscription.close();
     }
+    subscribed = conversation;
+    subscription = view.subscribe(Arrays.asList(conversation), new Subscription.Listener() {
+      @Override
+      public void onMessage(Uuid conversation, Message message) {
+        pushed.incrementAndGet();
+        listener.onMessage(conversation, message);
+      }
+
+      @Override
+      public void onRemoved(Uuid conversation, Uuid message) {
+        pushed.incrementAndGet();
+        listener.onRemoved(conversation, message);
+      }
+    });
   }
 
-  private Uuid getCurrentTailMessageId() {
-    Uuid nextMessageId = conversationContents.get(conversationContents.size() - 1).id;
-    final List<Message> messageTail = new ArrayList<>(view.getMessages(nextMessageId, 1));
-    if (messageTail.size() > 0) {
-      final Message msg = messageTail.get(0);
-      nextMessageId = msg.next;
-    } else {
-      // fall back.
-      LOG.warning("Failed to get tail of messages, starting from %s", nextMessageId);
-      conversationContents.clear();
-      nextMessageId = conversationHead.firstMessage;
+  public boolean isSubscribed() {
+    return subscription != null && subscription.isOpen();
+  }
+
+  // Get the cached messages for a conversation, dropping them first if everything
+  // should be fetched again.
+  private List<Message> getCachedMessages(Uuid conversation, boolean replaceAll) {
+    List<Message> cached = messageCache.get(conversation);
+    if (cached == null) {
+      cached = new ArrayList<>();
+      messageCache.put(conversation, Delta.UNKNOWN, cached);
+    } else if (replaceAll) {
+      LOG.info("Refetch all messages: conversation=%s", conversation);
+      replaceCached(conversation, Delta.UNKNOWN, cached, new ArrayList<Message>());
+    }
+    return cached;
+  }
+
+  // Add the messages to the end of a conversation's cached messages, linking the
+  // last cached message to the first of them. Only the added messages and the one
+  // whose link changed are measured, not the whole conversation.
+  private void appendCached(Uuid conversation, long generation, List<Message> cached,
+                            List<Message> added) {
+    synchronized (messageCache) {
+      long bytes = 0;
+      if (!cached.isEmpty() && !added.isEmpty()) {
+        final Message last = cached.get(cached.size() - 1);
+        bytes -= sizeOf(last);
+        last.next = added.get(0).id;
+        bytes += sizeOf(last);
+      }
+      for (final Message message : added) {
+        bytes += sizeOf(message);
+      }
+      cached.addAll(added);
+      messageCache.changed(conversation, generation, cached, bytes);
+    }
+  }
+
+  // Replace everything in a conversation's cached messages with the given messages.
+  private void replaceCached(Uuid conversation, long generation, List<Message> cached,
+                             List<Message> messages) {
+    synchronized (messageCache) {
+      cached.clear();
+      cached.addAll(messages);
+      messageCache.put(conversation, generation, cached);
+    }
+  }
+
+  private static long sizeOf(Message message) {
+    return ClientCache.sizeOf(Message.SERIALIZER, message);
+  }
+
+  // True if the conversation's cached messages are known to match the server - it
+  // is subscribed to and nothing has been pushed since they were last checked.
+  private boolean isUpToDate(Uuid conversation) {
+    return isSubscribed() &&
+           checkedWith == subscription &&
+           Uuids.equals(conversation, subscribed) &&
+           pushed.get() == checkedAt &&
+           messageCache.get(conversation) != null;
+  }
+
+  private static Uuid lastId(List<Message> cached) {
+    return cached.isEmpty() ? Uuids.NULL : cached.get(cached.size() - 1).id;
+  }
+
+  // Append every message newer than the last cached one. Nothing is sent back if
+  // the conversation has not changed since the cached generation. If a message was
+  // removed since then, or the server no longer has the last cached message, the
+  // cache is thrown away and started again from the newest messages.
+  private int fetchMessagesSince(Uuid conversation, List<Message> cached) {
+
+    final long since = messageCache.generation(conversation);
+
+    if (since == Delta.UNKNOWN) {
+      return fetchNewestMessages(conversation, cached);
+    }
+
+    final Delta<Message> delta =
+            view.getMessagesChangedSince(conversation, since, lastId(cached), MESSAGE_FETCH_COUNT);
+
+    if (delta.isNotModifiedSince(since)) {
+      return 0;
+    }
+
+    if (delta.reset) {
+      LOG.info("Messages removed from %s, starting from the newest messages", conversation);
+      return fetchNewestMessages(conversation, cached);
+    }
+
+    final List<Message> added = new ArrayList<>(delta.changed);
+    long generation = delta.generation;
+
+    if (added.size() == MESSAGE_FETCH_COUNT) {
+      // There may be more than a page, read the rest of them.
+      final Page<Message> rest = view.getConversationMessages(
+          conversation, lastId(added), Time.fromMs(0), Integer.MAX_VALUE);
+      added.addAll(rest.items);
+      if (!rest.isLast()) {
+        // What was read is kept, but the next update starts again as the cache
+        // does not have everything up to the generation.
+        LOG.warning("Not all new messages of %s were read", conversation);
+        generation = Delta.UNKNOWN;
+      }
+    }
+
+    if (!added.isEmpty() && !Uuids.equals(added.get(0).previous, lastId(cached))) {
+      LOG.warning("Cached messages for %s are stale, starting from the newest messages",
+              conversation);
+      return fetchNewestMessages(conversation, cached);
+    }
+
+    appendCached(conversation, generation, cached, added);
+    return added.size();
+  }
+
+  // Start the cached messages again with only the newest of the conversation,
+  // however long it is. Older ones are added by loadOlderMessages. The generation
+  // is read first so that anything that changes while the messages are read is
+  // picked up by the next update.
+  private int fetchNewestMessages(Uuid conversation, List<Message> cached) {
+
+    final Delta<Message> delta =
+            view.getMessagesChangedSince(conversation, Delta.UNKNOWN, Uuids.NULL, 0);
+
+    final List<Message> newest = new ArrayList<>();
+
+    final Conversation head = conversationContext.getConversation(conversation);
+    if (head != null && !Uuids.equals(head.lastMessage, Uuids.NULL)) {
+      // The range counts back from the last message and includes it.
+      newest.addAll(view.getMessages(head.lastMessage, 1 - MESSAGE_FETCH_COUNT));
+    }
+
+    replaceCached(conversation, delta.generation, cached, newest);
+    return cached.size();
+  }
+
+  // Add up to "count" messages before the first cached one of the conversation.
+  // Returns how many were added, none once the cached messages start from the
+  // first message of the conversation.
+  public int loadOlderMessages(ConversationSummary conversation, int count) {
+
+    final List<Message> cached = messageCache.get(conversation.id);
+
+    if (cached == null || !hasOlderMessages(cached) || count <= 0) {
+      return 0;
+    }
+
+    final Uuid first = cached.get(0).id;
+    final List<Message> older = new ArrayList<>(view.getMessages(first, -count));
+
+    // The range counts back from the first cached message and includes it.
+    if (older.isEmpty() || !Uuids.equals(older.get(older.size() - 1).id, first)) {
+      LOG.warning("First cached message of %s is gone, older messages not loaded", conversation.id);
+      return 0;
+    }
+    older.remove(older.size() - 1);
+
+    long bytes = 0;
+    for (final Message message : older) {
+      bytes += sizeOf(message);
+    }
+
+    synchronized (messageCache) {
+      cached.addAll(0, older);
+      messageCache.changed(conversation.id, messageCache.generation(conversation.id), cached, bytes);
+    }
+    return older.size();
+  }
+
+  // Read every message of the conversation if the cached messages
+  // do not start from its first message. Returns how many were added.
+  public int loadAllMessages(ConversationSummary conversation) {
+
+    final List<Message> cached = messageCache.get(conversation.id);
+
+    if (cached == null || !hasOlderMessages(cached)) {
+      return 0;
+    }
+
+    final Uuid last = lastId(cached);
+    final List<Message> all = new ArrayList<>(
+        view.getConversationMessages(conversation.id, Uuids.NULL, Time.fromMs(0), Integer.MAX_VALUE)
+            .items);
+
+    // Anything newer than the cached messages is left for the next update.
+    int end = all.size() - 1;
+    while (end >= 0 && !Uuids.equals(all.get(end).id, last)) {
+      end--;
+    }
+
+    if (end < 0) {
+      LOG.warning("Last cached message of %s is gone, older messages not loaded", conversation.id);
+      return 0;
+    }
+
+    final int added = end + 1 - cached.size();
+    replaceCached(conversation.id, messageCache.generation(conversation.id), cached,
+                  all.subList(0, end + 1));
+    return added;
+  }
+
+  // PREFETCH ORDER
+  //
+  // Pick up to "count" of the conversations to bring into the cache ahead of time
+  // so that they show at once when one is picked. Summaries do not say when a
+  // conversation was last active, so the conversations whose messages were read
+  // most recently go first, then the newest conversations.
+  public List<ConversationSummary> prefetchOrder(Collection<ConversationSummary> conversations,
+                                                 int count) {
+
+    final Map<Uuid, ConversationSummary> left = new HashMap<>();
+    for (final ConversationSummary conversation : conversations) {
+      left.put(conversation.id, conversation);
+    }
+
+    final List<ConversationSummary> picked = new ArrayList<>();
+
+    final List<Uuid> recent = messageCache.keys();
+    for (int i = recent.size() - 1; i >= 0 && picked.size() < count; i--) {
+      final ConversationSummary conversation = left.remove(recent.get(i));
+      if (conversation != null) {
+        picked.add(conversation);
+      }
+    }
+
+    final List<ConversationSummary> newest = new ArrayList<>(left.values());
+    Collections.sort(newest, new Comparator<ConversationSummary>() {
+      @Override
+      public int compare(ConversationSummary a, ConversationSummary b) {
+        return b.creation.compareTo(a.creation);
+      }
+    });
+    for (int i = 0; i < newest.size() && picked.size() < count; i++) {
+      picked.add(newest.get(i));
+    }
+
+    return picked;
+  }
+
+  // PREFETCH MESSAGES
+  //
+  // Bring the newest messages of one conversation into the cache. Returns the
+  // authors of its cached messages so that the names of several conversations'
+  // authors can be looked up together afterwards.
+  public Set<Uuid> prefetchMessages(ConversationSummary conversation) {
+
+    final List<Message> cached = getCachedMessages(conversation.id, false);
+    final int added = fetchMessagesSince(conversation.id, cached);
+
+    final Set<Uuid> authors = new HashSet<>();
+    for (final Message message : cached) {
+      authors.add(message.author);
     }
-    return nextMessageId;
+
+    LOG.info("Prefetched %d messages of %s with %d authors", added, conversation.id, authors.size());
+    return authors;
+  }
+
+  private static boolean hasOlderMessages(List<Message> cached) {
+    return !cached.isEmpty() && !Uuids.equals(cached.get(0).previous, Uuids.NULL);
   }
 
   // Update the list of messages for the current conversation.
-  // Currently rereads the entire message chain.
+  // Only messages newer than the cached ones are read unless replaceAll is set.
   public void updateMessages(boolean replaceAll) {
     updateMessages(conversationContext.getCurrent(), replaceAll);
   }
   // Update the list of messages for the given conversation.
-  // Currently rereads the entire message chain.
+  // Only messages newer than the cached ones are read unless replaceAll is set.
   public void updateMessages(ConversationSummary conversation, boolean replaceAll) {
     if (conversation == null) {
       LOG.error("conversation argument is null - do nothing.");
       return;
     }
 
+    if (!replaceAll && conversationHead != null &&
+        Uuids.equals(conversationHead.id, conversation.id) && isUpToDate(conversation.id)) {
+      conversationContents = messageCache.get(conversation.id);
+      LOG.info("Nothing pushed for conversation %s, %d cached messages are up to date.",
+              conversation.id, conversationContents.size());
+      current = (conversationContents.size() > 0) ? conversationContents.get(0) : null;
+      return;
+    }
+
+    // Events pushed from here on invalidate what is fetched now.
+    final Subscription watching =
+            (isSubscribed() && Uuids.equals(conversation.id, subscribed)) ? subscription : null;
+    final long before = pushed.get();
+
     conversationHead = conversationContext.getConversation(conversation.id);
     if (conversationHead == null) {
       LOG.info("ConversationHead is null");
@@ -257,27 +607,14 @@ public final class ClientMessage {
       LOG.info("ConversationHead: Title=\"%s\" UUID=%s first=%s last=%s\n",
               conversationHead.title, conversationHead.id, conversationHead.firstMessage,
               conversationHead.lastMessage);
-      Uuid nextMessageId = getCurrentMessageFetchId(replaceAll);
-
-      //  Stay in loop until all messages read (up to safety limit)
-      while (!nextMessageId.equals(Uuids.NULL) && conversationContents.size() < MESSAGE_MAX_COUNT) {
-
-        for (final Message msg : view.getMessages(nextMessageId, MESSAGE_FETCH_COUNT)) {
-          conversationContents.add(msg);
-          // Race: message possibly added since conversation fetched.  If that occurs,
-          // pretend the newer messages do not exist - they'll get picked up next time).
-          if (msg.next.equals(Uuids.NULL) || msg.id.equals(conversationHead.lastMessage)) {
-            msg.next = Uuids.NULL;
-            break;
-          }
-        }
-         if(!conversationContents.isEmpty()) nextMessageId = conversationContents.get(conversationContents.size() - 1).next;
-        else break;
-      }
-      LOG.info("Retrieved %d messages for conversation %s (%s).\n",
-              conversationContents.size(), conversationHead.id, conversationHead.title);
+      conversationContents = getCachedMessages(conversationHead.id, replaceAll);
+      final int added = fetchMessagesSince(conversationHead.id, conversationContents);
+      LOG.info("Retrieved %d new messages for conversation %s (%s), %d in total.\n",
+              added, conversationHead.id, conversationHead.title, conversationContents.size());
       // Set current to first message of conversation.
       current = (conversationContents.size() > 0) ? conversationContents.get(0) : null;
+      checkedWith = watching;
+      checkedAt = before;
     }
   }
 
@@ -319,33 +656,24 @@ public final class ClientMessage {
     printMessage(m, null);
   }
 
+  // Ask the server for the messages that contain the given text. Only the first
+  // page of them is shown.
   public String searchMessage(String words){
     StringBuilder sb=new StringBuilder("");
     if(words.equals("")) {
       System.out.println("Enter text to search");
       return "Enter text to search";
     }
-    boolean found=false;
-    ClientUser user = new ClientUser(controller, view);
-    user.updateUsers();
-    ClientConversation conversation=new ClientConversation(controller, view, null);//not the best implementation
-    conversation.updateAllConversations(false);
-    updateMessages(false);
-    BTreeIterator<String, ConversationSummary> conversations = ClientConversation.summariesSortedByTitle.all().iterator();
-    while(conversations.hasNext()) {
-      ConversationSummary summary=conversations.next();
-      if(summary==null) break;
-      updateMessages(summary, true);
-      for (Message message : conversationContents) {
-        if (message.content.toLowerCase().contains(words.toLowerCase())) {
-          found = true;
-          sb.append(printMessageFriendly(summary, message, null));
-        }
-      }
+    final Page<MessageMatch> found = view.searchMessages(words, Page.FIRST, SEARCH_COUNT);
+    for (final MessageMatch match : found.items) {
+      sb.append(printMessageFriendly(match.conversation, match.message, null));
     }
-    if(!found){
+    if(found.items.isEmpty()){
       sb.append("Message notfound");
       System.out.println("Message not found");
+    } else if (!found.isLast()) {
+      System.out.format("Showing the first %d messages.\n", found.items.size());
+      sb.append("Showing the first " + found.items.size() + " messages.\n");
     }
     return sb.toString();
   }
@@ -14,24 +14,24 @@
 
 package codeu.chat.client;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.lang.StringBuilder;
 
+import codeu.chat.common.Delta;
+import codeu.chat.common.Page;
 import codeu.chat.common.User;
-import codeu.chat.client.ClientConversation;
 import codeu.chat.client.ClientContext;
 import codeu.chat.common.Uuid;
-import codeu.chat.common.Uuids;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.store.BTreeStore;
 import java.util.Iterator;
 import codeu.chat.util.store.BTreeStore;
-import codeu.chat.util.store.BTreeIterator;
-import codeu.chat.common.ConversationSummary;
 //import codeu.chat.client.Password;
 
 public final class ClientUser {
@@ -40,9 +40,10 @@ public final class ClientUser {
 
   private static final String STORE_FILENAME = "ClientUser_StringUser.log";
 
-  private static final Collection<Uuid> EMPTY = Arrays.asList(new Uuid[0]);
+  private static final int PAGE_SIZE = 50;
   private final Controller controller;
   private final View view;
+  private final ClientCache<User> cache;
 
   private User current = null;
 
@@ -53,9 +54,38 @@ public final class ClientUser {
           = new BTreeStore<>(BTreeStore.NUM_POINTERS, String.CASE_INSENSITIVE_ORDER, Serializers.STRING, User.SERIALIZER,
           STORE_FILENAME);
 
-  public ClientUser(Controller controller, View view) {
+  // The cursor for the next page of users, null once every page is loaded. Pages
+  // come in name order so each page goes after everything already loaded.
+  private byte[] nextPage = Page.FIRST;
+
+  // The server's user generation when the known users were last brought up to
+  // date. Updates only ask for what changed after it.
+  private long generation = Delta.UNKNOWN;
+
+  public ClientUser(Controller controller, View view, ClientCache<User> cache) {
     this.controller = controller;
     this.view = view;
+    this.cache = cache;
+    if (usersById.isEmpty()) {
+      restoreUsers();
+    }
+  }
+
+  // Start from the users cached by an earlier run if the cache holds all of them.
+  // They are shown as they are until reconcileUsers asks the server what changed.
+  private void restoreUsers() {
+    final long cached = cache.generation();
+    if (cached == Delta.UNKNOWN) {
+      return;
+    }
+    usersByName.clear(STORE_FILENAME);
+    for (final User user : cache.values()) {
+      usersById.put(user.id, user);
+      usersByName = usersByName.insert(user.name, user, true);
+    }
+    nextPage = null;
+    generation = cached;
+    LOG.info("Restored %d cached users, generation=%d", usersById.size(), generation);
   }
 
   // Validate the username string
@@ -125,8 +155,7 @@ public final class ClientUser {
 
     User user = usersByName.first(name);
     controller.removeUser(user);
-    usersById.remove(user.id);
-    usersByName.delete(name);
+    forgetUser(user.id);
     updateUsers();
     System.out.format("User removed, Name= \"%s\"\n", name);
     LOG.info("User removed, Name= \"%s\"\n", name);
@@ -140,7 +169,13 @@ public final class ClientUser {
     }
   }
 
+  // Users that have not been loaded by a page yet are asked for by id.
   public User lookup(Uuid id) {
+    if (!usersById.containsKey(id)) {
+      for (final User user : view.getUsers(Arrays.asList(id))) {
+        usersById.put(user.id, user);
+      }
+    }
     return (usersById.containsKey(id)) ? usersById.get(id) : null;
   }
 
@@ -154,18 +189,133 @@ public final class ClientUser {
     }
   }
 
+  // Get the names of the given users. The ones that are not known yet are asked
+  // for in one request. A user the server does not know has a null name.
+  public Map<Uuid, String> getNames(Collection<Uuid> ids) {
+
+    final Collection<Uuid> unknown = new ArrayList<>();
+    for (final Uuid id : ids) {
+      if (!usersById.containsKey(id)) {
+        unknown.add(id);
+      }
+    }
+
+    if (!unknown.isEmpty()) {
+      for (final User user : view.getUsers(unknown)) {
+        usersById.put(user.id, user);
+      }
+    }
+
+    final Map<Uuid, String> names = new HashMap<>();
+    for (final Uuid id : ids) {
+      final User user = usersById.get(id);
+      names.put(id, (user == null) ? null : user.name);
+    }
+    return names;
+  }
+
   public Iterable<User> getUsers() {
     return usersByName.all();
   }
 
-  public void updateUsers() {
+  public boolean hasMoreUsers() {
+    return nextPage != null;
+  }
+
+  // Load the next page of users. Returns the newly loaded users in name order.
+  public Collection<User> loadMoreUsers() {
+    if (nextPage == null) {
+      return Collections.emptyList();
+    }
+
+    final Page<User> page = view.getUsersPage(nextPage, PAGE_SIZE);
+
+    for (final User user : page.items) {
+      rememberUser(user, generation);
+    }
+
+    nextPage = page.isLast() ? null : page.next;
+    return page.items;
+  }
+
+  // Forget the known users and load only the first page of them again. The rest
+  // can be loaded with loadMoreUsers when they are needed.
+  public Collection<User> reloadUsers() {
+    clearUsers();
+    return loadMoreUsers();
+  }
+
+  // Bring the known users up to date and get all of them in name order. Users
+  // restored from the cache, like users that have all been paged in, only need
+  // what changed since. Otherwise only the first page is loaded again.
+  public Collection<User> reconcileUsers() {
+    if (hasMoreUsers()) {
+      return reloadUsers();
+    }
+    updateUsers();
+    final Collection<User> users = new ArrayList<>();
+    for (final User user : usersByName.all()) {
+      users.add(user);
+    }
+    return users;
+  }
+
+  private void clearUsers() {
     usersById.clear();
     usersByName.clear(STORE_FILENAME);
+    cache.clear();
+    nextPage = Page.FIRST;
+    generation = Delta.UNKNOWN;
+  }
 
-    for (final User user : view.getUsersExcluding(EMPTY)) {
-      usersById.put(user.id, user);
-      usersByName = usersByName.insert(user.name, user, true);
+  // Keep a user read from the server at the given generation.
+  private void rememberUser(User user, long readAt) {
+    usersById.put(user.id, user);
+    usersByName = usersByName.insert(user.name, user, true);
+    cache.put(user.id, readAt, user);
+  }
+
+  private void forgetUser(Uuid id) {
+    final User user = usersById.remove(id);
+    if (user != null) {
+      usersByName = usersByName.delete(user.name);
+    }
+    cache.remove(id);
+  }
+
+  // Bring the known users up to date. Only the users added or removed since the
+  // last update are sent unless the server can no longer tell what changed or
+  // some pages have not been loaded yet, then every user is loaded again.
+  public void updateUsers() {
+
+    final Delta<User> delta = view.getUsersChangedSince(generation);
+
+    if (delta.isNotModifiedSince(generation)) {
+      return;
+    }
+
+    if (delta.reset || hasMoreUsers()) {
+
+      clearUsers();
+
+      while (hasMoreUsers()) {
+        loadMoreUsers();
+      }
+
+    } else {
+
+      for (final Uuid id : delta.removed) {
+        forgetUser(id);
+      }
+
+      for (final User user : delta.changed) {
+        forgetUser(user.id);
+        rememberUser(user, delta.generation);
+      }
     }
+
+    generation = delta.generation;
+    cache.setGeneration(generation);
   }
 
   public static String getUserInfoString(User user) {
@@ -182,30 +332,27 @@ public final class ClientUser {
     System.out.println(getUserInfoString(user));
   }
 
-  public  String searchUser(String name){
-    updateUsers();
+  // Ask the server for the users whose name starts with the given text. Only the
+  // first page of them is shown.
+  public String searchUser(String name){
     if(name.equals("")) {
       System.out.println("Enter name to search");
       return "Enter name to search";
     }
 
     StringBuilder sb=new StringBuilder();
-    User user=usersByName.first(name);
-    if(user==null) {
+    final Page<User> found = view.searchUsers(name, Page.FIRST, PAGE_SIZE);
+    if(found.items.isEmpty()) {
       System.out.format("%s does not exist \n", name);
       sb.append(name+ " does not exist\n");
     }
-    else{
+    for (final User user : found.items) {
       System.out.println(getUserInfoString(user));
-      System.out.println("Conversations:");
-      sb.append("Conversations for ["+name+"]:\n");
-      ClientConversation conversation=new ClientConversation(controller, view, null);//not the best implementation
-      conversation.updateAllConversations(false);
-      BTreeIterator<String, ConversationSummary> conversations = ClientConversation.summariesSortedByTitle.all().iterator();
-      while(conversations.hasNext()){
-        ConversationSummary summary=conversations.next();
-        if(Uuids.equals(summary.owner, user.id))  sb.append(ClientConversation.printConversationFriendly(summary));
-      }
+      sb.append(getUserInfoString(user));
+    }
+    if (!found.isLast()) {
+      System.out.format("Showing the first %d users.\n", found.items.size());
+      sb.append("Showing the first " + found.items.size() + " users.\n");
     }
     return sb.toString();
   }
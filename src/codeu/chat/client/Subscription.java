@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTION
+//
+// A connection the server keeps open to push new and removed messages to the
+// client. Events are read on a thread of the subscription's own and handed to the
+// listener on that thread. The server drops subscribers that fall too far behind,
+// after which "isOpen" is false and the client should subscribe again. The server
+// also pings quiet subscriptions now and then, which are ignored here.
+public final class Subscription implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  public interface Listener {
+
+    // ON MESSAGE
+    //
+    // Called with each new message in one of the subscribed conversations.
+    void onMessage(Uuid conversation, Message message);
+
+    // ON REMOVED
+    //
+    // Called with the id of each message removed from one of the subscribed
+    // conversations.
+    void onRemoved(Uuid conversation, Uuid message);
+
+  }
+
+  private final Connection connection;
+  private volatile boolean open = true;
+
+  Subscription(final Connection connection, final Listener listener) {
+
+    this.connection = connection;
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+
+          final InputStream in = connection.in();
+
+          while (true) {
+            final int type = Serializers.INTEGER.read(in);
+            if (type == NetworkCode.MESSAGE_EVENT) {
+              final Uuid conversation = Uuids.SERIALIZER.read(in);
+              final Message message = Message.SERIALIZER.read(in);
+              listener.onMessage(conversation, message);
+            } else if (type == NetworkCode.MESSAGE_REMOVED_EVENT) {
+              final Uuid conversation = Uuids.SERIALIZER.read(in);
+              final Uuid message = Uuids.SERIALIZER.read(in);
+              listener.onRemoved(conversation, message);
+            } else if (type == NetworkCode.SUBSCRIPTION_PING_EVENT) {
+              // Only sent so that the server finds out if we have gone away.
+            } else {
+              break;
+            }
+          }
+
+        } catch (IOException ex) {
+          if (open) {
+            LOG.error(ex, "Subscription connection failed.");
+          }
+        } finally {
+          close();
+        }
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() {
+    open = false;
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close subscription.");
+    }
+  }
+}
@@ -14,15 +14,23 @@
 
 package codeu.chat.client;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
 import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessageMatch;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
 import codeu.chat.common.Time;
 import codeu.chat.common.User;
 import codeu.chat.common.Uuid;
@@ -281,4 +289,376 @@ public final class View implements BasicView, LogicalView{
 
     return messages;
   }
+
+  @Override
+  public Collection<Message> getMessagesSince(Uuid conversation, Uuid lastMessage, int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_SINCE_REQUEST);
+      Uuids.SERIALIZER.write(connection.out(), conversation);
+      Uuids.SERIALIZER.write(connection.out(), lastMessage);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_SINCE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  // The server sends a bounded number of messages for each request, so this asks
+  // again after the last one it was sent until it has all of them or the limit.
+  // If a request fails the messages read so far are returned in a page that is not
+  // the last, so that they are not taken for the whole conversation.
+  @Override
+  public Page<Message> getConversationMessages(Uuid conversation, Uuid after, Time since, int limit) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    boolean more = true;
+    Uuid last = after;
+
+    try {
+
+      while (more && messages.size() < limit) {
+
+        more = false;
+
+        try (final Connection connection = source.connect()) {
+
+          Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST);
+          Uuids.SERIALIZER.write(connection.out(), conversation);
+          Uuids.SERIALIZER.write(connection.out(), last);
+          Time.SERIALIZER.write(connection.out(), since);
+          Serializers.INTEGER.write(connection.out(), limit - messages.size());
+
+          final InputStream in = new BufferedInputStream(connection.in());
+
+          if (Serializers.INTEGER.read(in) != NetworkCode.GET_CONVERSATION_MESSAGES_RESPONSE) {
+            LOG.error("Response from server failed.");
+            return new Page<>(messages, cursor(last));
+          }
+
+          // The messages come in chunks until an empty one, then whether there are
+          // more after the last of them.
+          Collection<Message> chunk = Serializers.collection(Message.SERIALIZER).read(in);
+          while (!chunk.isEmpty()) {
+            messages.addAll(chunk);
+            chunk = Serializers.collection(Message.SERIALIZER).read(in);
+          }
+          more = Serializers.BOOLEAN.read(in);
+
+          if (!messages.isEmpty()) {
+            last = messages.get(messages.size() - 1).id;
+          }
+        }
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      more = true;
+    }
+
+    return new Page<>(messages, more ? cursor(last) : Page.FIRST);
+  }
+
+  // The cursor for the messages after the given one.
+  private static byte[] cursor(Uuid last) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      Uuids.SERIALIZER.write(out, last);
+    } catch (IOException ex) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(ex);
+    }
+    return out.toByteArray();
+  }
+
+  // Get the server's counters and latency histograms as text, one per line.
+  public String getMetrics() {
+
+    String metrics = "";
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_METRICS_REQUEST);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_METRICS_RESPONSE) {
+        metrics = Serializers.STRING.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return metrics;
+  }
+
+  @Override
+  public Page<ConversationSummary> getConversationsPage(byte[] cursor, int size) {
+
+    Page<ConversationSummary> page = new Page<ConversationSummary>(
+        new ArrayList<ConversationSummary>(), Page.FIRST);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST);
+      Serializers.BYTES.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), size);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE) {
+        page = Page.serializer(ConversationSummary.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return page;
+  }
+
+  @Override
+  public Page<User> getUsersPage(byte[] cursor, int size) {
+
+    Page<User> page = new Page<User>(new ArrayList<User>(), Page.FIRST);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_PAGE_REQUEST);
+      Serializers.BYTES.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), size);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_PAGE_RESPONSE) {
+        page = Page.serializer(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return page;
+  }
+
+  @Override
+  public Page<User> searchUsers(String prefix, byte[] cursor, int size) {
+
+    Page<User> page = new Page<User>(new ArrayList<User>(), Page.FIRST);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_USERS_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.BYTES.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), size);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_USERS_RESPONSE) {
+        page = Page.serializer(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return page;
+  }
+
+  @Override
+  public Page<ConversationSummary> searchConversations(String prefix, byte[] cursor, int size) {
+
+    Page<ConversationSummary> page = new Page<ConversationSummary>(new ArrayList<ConversationSummary>(), Page.FIRST);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_CONVERSATIONS_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.BYTES.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), size);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_CONVERSATIONS_RESPONSE) {
+        page = Page.serializer(ConversationSummary.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return page;
+  }
+
+  @Override
+  public Page<MessageMatch> searchMessages(String text, byte[] cursor, int size) {
+
+    Page<MessageMatch> page = new Page<MessageMatch>(new ArrayList<MessageMatch>(), Page.FIRST);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Serializers.STRING.write(connection.out(), text);
+      Serializers.BYTES.write(connection.out(), cursor);
+      Serializers.INTEGER.write(connection.out(), size);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        page = Page.serializer(MessageMatch.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return page;
+  }
+
+  @Override
+  public Delta<User> getUsersChangedSince(long generation) {
+
+    Delta<User> delta = Delta.notModified(generation);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_CHANGED_REQUEST);
+      Serializers.LONG.write(connection.out(), generation);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.GET_USERS_CHANGED_RESPONSE) {
+        delta = Delta.serializer(User.SERIALIZER).read(connection.in());
+      } else if (type != NetworkCode.NOT_MODIFIED_RESPONSE) {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return delta;
+  }
+
+  @Override
+  public Delta<ConversationSummary> getConversationsChangedSince(long generation) {
+
+    Delta<ConversationSummary> delta = Delta.notModified(generation);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_CHANGED_REQUEST);
+      Serializers.LONG.write(connection.out(), generation);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.GET_CONVERSATIONS_CHANGED_RESPONSE) {
+        delta = Delta.serializer(ConversationSummary.SERIALIZER).read(connection.in());
+      } else if (type != NetworkCode.NOT_MODIFIED_RESPONSE) {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return delta;
+  }
+
+  @Override
+  public Delta<Message> getMessagesChangedSince(Uuid conversation,
+                                                long generation,
+                                                Uuid lastMessage,
+                                                int limit) {
+
+    Delta<Message> delta = Delta.notModified(generation);
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_CHANGED_REQUEST);
+      Uuids.SERIALIZER.write(connection.out(), conversation);
+      Serializers.LONG.write(connection.out(), generation);
+      Uuids.SERIALIZER.write(connection.out(), lastMessage);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.GET_MESSAGES_CHANGED_RESPONSE) {
+        delta = Delta.serializer(Message.SERIALIZER).read(connection.in());
+      } else if (type != NetworkCode.NOT_MODIFIED_RESPONSE) {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return delta;
+  }
+
+  // SUBSCRIBE
+  //
+  // Ask the server to push every new message in the given conversations to the
+  // listener. Returns null if the server did not accept the subscription.
+  public Subscription subscribe(Collection<Uuid> conversations, Subscription.Listener listener) {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Serializers.collection(Uuids.SERIALIZER).write(connection.out(), conversations);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SUBSCRIBE_RESPONSE) {
+        return new Subscription(connection, listener);
+      }
+
+      LOG.error("Response from server failed.");
+      connection.close();
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      closeQuietly(connection);
+    }
+
+    return null;
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      if (connection != null) {
+        connection.close();
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Failed to close connection.");
+    }
+  }
 }
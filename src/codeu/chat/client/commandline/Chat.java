@@ -378,7 +378,7 @@ public final class Chat {
                       lineScanner, PAGE_SIZE);
       if (navigator.chooseFromList()) {
         newCurrent = navigator.getSelectedChoice();
-        clientContext.message.resetCurrent(newCurrent != previous);
+        clientContext.message.resetCurrent(false);
         System.out.format("OK. Conversation \"%s\" selected.\n", newCurrent.title);
       } else {
         System.out.println("OK. Current Conversation is unchanged.");
@@ -33,6 +33,7 @@ import java.net.URL;
 import javax.sound.sampled.*;
 
 
+import codeu.chat.client.AsyncClient;
 import codeu.chat.client.ClientContext;
 import codeu.chat.client.Password;
 import codeu.chat.client.Controller;
@@ -60,8 +61,8 @@ public final class ChatSimpleGui {
   private GridBagConstraints searchPanelC;
 
   // Constructor - sets up the Chat Application
-  public ChatSimpleGui(Controller controller, View view) {
-    clientContext = new ClientContext(controller, view);
+  public ChatSimpleGui(Controller controller, View view, AsyncClient async) {
+    clientContext = new ClientContext(controller, view, async);
   }
 
   // Run the GUI client
@@ -20,18 +20,34 @@ import java.awt.event.ActionListener;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.client.ClientContext;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
 
 // NOTE: JPanel is serializable, but there is no need to serialize ConversationPanel
 // without the @SuppressWarnings, the compiler will complain of no override for serialVersionUID
 @SuppressWarnings("serial")
 public final class ConversationPanel extends JPanel {
 
+  // How many conversations have their messages read before they are picked.
+  private static final int PREFETCH_COUNT = 5;
+
   private final ClientContext clientContext;
   private final MessagePanel messagePanel;
 
+  // The conversations in the list, in the same order. Only changed from the event
+  // dispatch thread, along with the list.
+  private final List<ConversationSummary> shown = new ArrayList<>();
+
   public ConversationPanel(ClientContext clientContext, MessagePanel messagePanel) {
     super(new GridBagLayout());
     this.clientContext = clientContext;
@@ -69,6 +85,28 @@ public final class ConversationPanel extends JPanel {
     listShowPanel.add(listScrollPane);
     listScrollPane.setMinimumSize(new Dimension(250, 200));
 
+    // Only the first page of conversations is loaded up front, the rest are
+    // loaded as the list is scrolled.
+    PageLoader.attach(listScrollPane, new PageLoader.Loader() {
+      @Override
+      public CompletableFuture<?> loadMore() {
+        return SwingCalls.then(clientContext.async.call(new Callable<Collection<ConversationSummary>>() {
+          @Override
+          public Collection<ConversationSummary> call() {
+            return clientContext.conversation.loadMoreConversations();
+          }
+        }), ConversationPanel.this, new SwingCalls.Callback<Collection<ConversationSummary>>() {
+          @Override
+          public void done(Collection<ConversationSummary> conversations) {
+            for (final ConversationSummary conv : conversations) {
+              shown.add(conv);
+              listModel.addElement(conv.title);
+            }
+          }
+        });
+      }
+    });
+
     // Button bar
     final JPanel buttonPanel = new JPanel();
     final GridBagConstraints buttonPanelC = new GridBagConstraints();
@@ -122,17 +160,32 @@ public final class ConversationPanel extends JPanel {
     addButton.addActionListener(new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        if (clientContext.user.hasCurrent()) {
-          final String s = (String) JOptionPane.showInputDialog(
-                  ConversationPanel.this, "Enter title:", "Add Conversation", JOptionPane.PLAIN_MESSAGE,
-                  null, null, "");
-          if (s != null && s.length() > 0) {
-            clientContext.conversation.startConversation(s, clientContext.user.getCurrent().id);
-            ConversationPanel.this.getAllConversations(listModel);
+        SwingCalls.then(clientContext.async.call(new Callable<User>() {
+          @Override
+          public User call() {
+            return clientContext.user.getCurrent();
           }
-        } else {
-          JOptionPane.showMessageDialog(ConversationPanel.this, "You are not signed in.");
-        }
+        }), ConversationPanel.this, new SwingCalls.Callback<User>() {
+          @Override
+          public void done(final User owner) {
+            if (owner == null) {
+              JOptionPane.showMessageDialog(ConversationPanel.this, "You are not signed in.");
+              return;
+            }
+            final String s = (String) JOptionPane.showInputDialog(
+                    ConversationPanel.this, "Enter title:", "Add Conversation", JOptionPane.PLAIN_MESSAGE,
+                    null, null, "");
+            if (s != null && s.length() > 0) {
+              clientContext.async.run(new Runnable() {
+                @Override
+                public void run() {
+                  clientContext.conversation.startConversation(s, owner.id);
+                }
+              });
+              ConversationPanel.this.getAllConversations(listModel);
+            }
+          }
+        });
       }
     });
 
@@ -141,70 +194,132 @@ public final class ConversationPanel extends JPanel {
       @Override
       public void valueChanged(ListSelectionEvent e) {
         if (objectList.getSelectedIndex() != -1) {
-          final int index = objectList.getSelectedIndex();
-          final String data = objectList.getSelectedValue();
-          final ConversationSummary cs = ConversationPanel.this.lookupByTitle(data, index);
+          final ConversationSummary cs = shown.get(objectList.getSelectedIndex());
 
-          clientContext.conversation.setCurrent(cs);
+          clientContext.async.run(new Runnable() {
+            @Override
+            public void run() {
+              clientContext.conversation.setCurrent(cs);
+            }
+          });
 
           messagePanel.update(cs);
         }
       }
     });
 
-    // User clicks Conversation Remove button.
+    // User clicks Conversation Remove button. Whether the user may remove it is
+    // checked on the I/O thread along with the removal, and only the answer comes
+    // back to be shown.
     removeButton.addActionListener(new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        if (!clientContext.user.hasCurrent()) {
-          JOptionPane.showMessageDialog(ConversationPanel.this, "Error: must be signed in to remove user!", "Error", JOptionPane.ERROR_MESSAGE);
-          return;
-        }
         final String data = objectList.getSelectedValue();
-        for (ConversationSummary s : clientContext.conversation.getConversationSummaries()) {
-          if (clientContext.conversation.getCurrent().title.equals(data)) {
-            if (!clientContext.user.getCurrent().id.equals(s.owner)) {
-              JOptionPane.showMessageDialog(ConversationPanel.this, "Error: must be owner of conversation to remove!", "Error", JOptionPane.ERROR_MESSAGE);
+        SwingCalls.then(clientContext.async.call(new Callable<String>() {
+          @Override
+          public String call() {
+            if (!clientContext.user.hasCurrent()) {
+              return "Error: must be signed in to remove user!";
+            }
+            for (ConversationSummary s : clientContext.conversation.getConversationSummaries()) {
+              if (clientContext.conversation.getCurrent().title.equals(data)) {
+                if (!clientContext.user.getCurrent().id.equals(s.owner)) {
+                  return "Error: must be owner of conversation to remove!";
+                }
+              }
+            }
+            for (int m = 0; m < clientContext.message.currentMessageCount(); m++) {
+              final String mIndex = Integer.toString(m);
+              clientContext.message.removeMessage(mIndex);
+            }
+            clientContext.conversation.setCurrent(null);
+            clientContext.conversation.removeConversation(data);
+            return null;
+          }
+        }), ConversationPanel.this, new SwingCalls.Callback<String>() {
+          @Override
+          public void done(String error) {
+            if (error != null) {
+              JOptionPane.showMessageDialog(ConversationPanel.this, error, "Error", JOptionPane.ERROR_MESSAGE);
               return;
             }
+            messagePanel.update((ConversationSummary) null);
+            ConversationPanel.this.getAllConversations(listModel);
           }
-        }
-        for (int m = 0; m < clientContext.message.currentMessageCount(); m++) {
-          final String mIndex = Integer.toString(m);
-          clientContext.message.removeMessage(mIndex);
-        }
-        final ConversationSummary cs = null;
-        clientContext.conversation.setCurrent(cs);
-        messagePanel.update(cs); // only works if cs is null
-        clientContext.conversation.removeConversation(data);
-        ConversationPanel.this.getAllConversations(listModel);
+        });
       }
     });
 
+    // Show the conversations cached by the last run while the server is asked what
+    // changed since.
+    getCachedConversations(listModel);
     getAllConversations(listModel);
   }
 
-  // Populate ListModel - updates display objects.
-  private void getAllConversations(DefaultListModel<String> convDisplayList) {
-    clientContext.conversation.updateAllConversations(false);
-    convDisplayList.clear();
-
-    for (final ConversationSummary conv : clientContext.conversation.getConversationSummaries()) {
-      convDisplayList.addElement(conv.title);
-    }
+  private void getCachedConversations(final DefaultListModel<String> convDisplayList) {
+    showConversations(convDisplayList, new Callable<Collection<ConversationSummary>>() {
+      @Override
+      public Collection<ConversationSummary> call() {
+        final Collection<ConversationSummary> conversations = new ArrayList<>();
+        for (final ConversationSummary conv : clientContext.conversation.getConversationSummaries()) {
+          conversations.add(conv);
+        }
+        return conversations;
+      }
+    });
   }
 
-  // Locate the Conversation object for a selected title string.
-  // index handles possible duplicate titles.
-  private ConversationSummary lookupByTitle(String title, int index) {
+  // Populate ListModel - updates display objects. Calls made before this one,
+  // like adding a conversation, have finished by the time it runs. The messages
+  // of the conversations most likely to be picked are then read ahead while the
+  // client has nothing else to do, one conversation at a time so that a click
+  // never waits for more than one of them. The names of their authors are looked
+  // up together at the end.
+  private void getAllConversations(final DefaultListModel<String> convDisplayList) {
+    showConversations(convDisplayList, new Callable<Collection<ConversationSummary>>() {
+      @Override
+      public Collection<ConversationSummary> call() {
+        final Collection<ConversationSummary> conversations =
+            clientContext.conversation.reconcileConversations();
+
+        // Only used on the I/O thread.
+        final Set<Uuid> authors = new HashSet<>();
+
+        for (final ConversationSummary conversation :
+             clientContext.message.prefetchOrder(conversations, PREFETCH_COUNT)) {
+          clientContext.async.runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+              authors.addAll(clientContext.message.prefetchMessages(conversation));
+            }
+          });
+        }
+
+        clientContext.async.runWhenIdle(new Runnable() {
+          @Override
+          public void run() {
+            clientContext.user.getNames(authors);
+          }
+        });
 
-    int localIndex = 0;
-    for (final ConversationSummary cs : clientContext.conversation.getConversationSummaries()) {
-      if ((localIndex >= index) && cs.title.equals(title)) {
-        return cs;
+        return conversations;
       }
-      localIndex++;
-    }
-    return null;
+    });
+  }
+
+  private void showConversations(final DefaultListModel<String> convDisplayList,
+                                 Callable<Collection<ConversationSummary>> call) {
+    SwingCalls.then(clientContext.async.call(call), this,
+                    new SwingCalls.Callback<Collection<ConversationSummary>>() {
+      @Override
+      public void done(Collection<ConversationSummary> conversations) {
+        shown.clear();
+        convDisplayList.clear();
+        for (final ConversationSummary conv : conversations) {
+          shown.add(conv);
+          convDisplayList.addElement(conv.title);
+        }
+      }
+    });
   }
 }
@@ -0,0 +1,123 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.simplegui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.AbstractListModel;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+// MESSAGE LIST MODEL
+//
+// The messages of a conversation as rows of a list. A row is only formatted when
+// the list asks for it - with a fixed cell size that is only for the rows on
+// screen - and is kept until its message leaves the list. Changing the messages
+// only tells the list about the rows that were added or removed.
+//
+// Author names are looked up before the messages are handed over, since the event
+// dispatch thread cannot ask the server. Only used from that thread.
+@SuppressWarnings("serial")
+final class MessageListModel extends AbstractListModel<String> {
+
+  private List<Message> messages = new ArrayList<>();
+  private final Map<Uuid, String> authors = new HashMap<>();
+  private final Map<Uuid, String> rows = new HashMap<>();
+
+  @Override
+  public int getSize() {
+    return messages.size();
+  }
+
+  @Override
+  public String getElementAt(int index) {
+    final Message message = messages.get(index);
+    String row = rows.get(message.id);
+    if (row == null) {
+      final String authorName = authors.get(message.author);
+      // Display author name if available.  Otherwise display the author UUID.
+      row = String.format("%s: [%s]: %s",
+              ((authorName == null) ? message.author : authorName), message.creation, message.content);
+      rows.put(message.id, row);
+    }
+    return row;
+  }
+
+  public Message getMessage(int index) {
+    return messages.get(index);
+  }
+
+  // SET MESSAGES
+  //
+  // Show the given messages in place of the current ones. Rows that the two lists
+  // start and end with are kept, so adding messages at either end or removing some
+  // in between only touches those rows. "names" has the names of the authors.
+  public void setMessages(List<Message> update, Map<Uuid, String> names) {
+
+    if (addAuthors(names) && !messages.isEmpty()) {
+      // Rows formatted before a name was known show the author's id instead.
+      rows.clear();
+      fireContentsChanged(this, 0, messages.size() - 1);
+    }
+
+    final List<Message> old = messages;
+
+    int start = 0;
+    while (start < old.size() && start < update.size() &&
+           Uuids.equals(old.get(start).id, update.get(start).id)) {
+      start++;
+    }
+
+    int end = 0;
+    while (end < old.size() - start && end < update.size() - start &&
+           Uuids.equals(old.get(old.size() - 1 - end).id, update.get(update.size() - 1 - end).id)) {
+      end++;
+    }
+
+    final int removed = old.size() - start - end;
+    final int added = update.size() - start - end;
+
+    if (removed > 0) {
+      for (final Message message : old.subList(start, start + removed)) {
+        rows.remove(message.id);
+      }
+      final List<Message> kept = new ArrayList<>(old.subList(0, start));
+      kept.addAll(old.subList(old.size() - end, old.size()));
+      messages = kept;
+      fireIntervalRemoved(this, start, start + removed - 1);
+    }
+
+    messages = new ArrayList<>(update);
+
+    if (added > 0) {
+      fireIntervalAdded(this, start, start + added - 1);
+    }
+  }
+
+  private boolean addAuthors(Map<Uuid, String> names) {
+    boolean changed = false;
+    for (final Map.Entry<Uuid, String> name : names.entrySet()) {
+      if (name.getValue() != null && !name.getValue().equals(authors.get(name.getKey()))) {
+        authors.put(name.getKey(), name.getValue());
+        changed = true;
+      }
+    }
+    return changed;
+  }
+}
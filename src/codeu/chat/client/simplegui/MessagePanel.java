@@ -18,12 +18,21 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import javax.swing.*;
-
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.client.ClientContext;
+import codeu.chat.client.Subscription;
 import codeu.chat.common.ConversationSummary;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
 import codeu.chat.client.simplegui.ChatSimpleGui;
 
 // NOTE: JPanel is serializable, but there is no need to serialize MessagePanel
@@ -34,10 +43,46 @@ public final class MessagePanel extends JPanel {
   // These objects are modified by the Conversation Panel.
   private final JLabel messageOwnerLabel = new JLabel("Owner:", JLabel.RIGHT);
   private final JLabel messageConversationLabel = new JLabel("Conversation:", JLabel.LEFT);
-  private final DefaultListModel<String> messageListModel = new DefaultListModel<>();
+  private final MessageListModel messageListModel = new MessageListModel();
+  private final JList<String> messageList = new JList<>(messageListModel);
+  private final JScrollPane messageListScrollPane = new JScrollPane(messageList);
+
+  // Rows are all given the size of this one instead of each being measured, which
+  // would mean formatting every row. Longer rows are cut off.
+  private static final String PROTOTYPE_ROW = String.format("%120s", "");
+
+  // How many older messages are read when the list is scrolled up to the top.
+  private static final int OLDER_PAGE_SIZE = 100;
 
   private final ClientContext clientContext;
 
+  // The conversation the server is pushing new messages for.
+  private ConversationSummary watching;
+
+  // The conversation in the list and the call that is filling it. A newer call
+  // cancels the one before so that an old conversation's messages never land in
+  // the list.
+  private ConversationSummary shownConversation = null;
+  private CompletableFuture<?> loading = null;
+
+  // Set while the list is being moved to keep the right rows on screen, so that
+  // moving it does not count as scrolling to the top.
+  private boolean positioning = false;
+
+  // Messages read on the I/O thread, with their authors' names.
+  private static final class Contents {
+
+    public final ConversationSummary conversation;
+    public final List<Message> messages;
+    public final Map<Uuid, String> names;
+
+    public Contents(ConversationSummary conversation, List<Message> messages, Map<Uuid, String> names) {
+      this.conversation = conversation;
+      this.messages = messages;
+      this.names = names;
+    }
+  }
+
   public MessagePanel(ClientContext clientContext) {
     super(new GridBagLayout());
     this.clientContext = clientContext;
@@ -45,21 +90,75 @@ public final class MessagePanel extends JPanel {
   }
 
   // External agent calls this to trigger an update of this panel's contents.
-  public void update(ConversationSummary owningConversation) {
+  public void update(final ConversationSummary owningConversation) {
 
-    final User u = (owningConversation == null) ?
-            null :
-            clientContext.user.lookup(owningConversation.owner);
-
-    messageOwnerLabel.setText("Owner: " +
-            ((u==null) ?
-                    ((owningConversation==null) ? "" : owningConversation.owner) :
-                    u.name));
+    SwingCalls.then(clientContext.async.call(new Callable<User>() {
+      @Override
+      public User call() {
+        return (owningConversation == null) ?
+                null :
+                clientContext.user.lookup(owningConversation.owner);
+      }
+    }), this, new SwingCalls.Callback<User>() {
+      @Override
+      public void done(User u) {
+        messageOwnerLabel.setText("Owner: " +
+                ((u==null) ?
+                        ((owningConversation==null) ? "" : owningConversation.owner) :
+                        u.name));
+      }
+    });
 
     messageConversationLabel.setText("Conversation: " +
             ((owningConversation==null) ? "" : owningConversation.title));
 
+    getCachedMessages(owningConversation);
     getAllMessages(owningConversation);
+    watch(owningConversation);
+  }
+
+  // Subscribe to the shown conversation so that new messages show up without
+  // pressing Update. Every refresh hands over a new summary of the conversation,
+  // so conversations are matched by id.
+  private void watch(final ConversationSummary conversation) {
+    if (conversation == null ||
+        (isWatching(conversation) && clientContext.message.isSubscribed())) {
+      return;
+    }
+
+    watching = conversation;
+
+    final Runnable refresh = new Runnable() {
+      @Override
+      public void run() {
+        if (isWatching(conversation)) {
+          getAllMessages(conversation);
+        }
+      }
+    };
+
+    final Subscription.Listener listener = new Subscription.Listener() {
+      @Override
+      public void onMessage(Uuid conversationId, Message message) {
+        SwingUtilities.invokeLater(refresh);
+      }
+
+      @Override
+      public void onRemoved(Uuid conversationId, Uuid message) {
+        SwingUtilities.invokeLater(refresh);
+      }
+    };
+
+    clientContext.async.run(new Runnable() {
+      @Override
+      public void run() {
+        clientContext.message.subscribe(conversation.id, listener);
+      }
+    });
+  }
+
+  private boolean isWatching(ConversationSummary conversation) {
+    return watching != null && Uuids.equals(watching.id, conversation.id);
   }
 
   private void initialize() {
@@ -104,16 +203,25 @@ public final class MessagePanel extends JPanel {
 
     // messageListModel is an instance variable so Conversation panel
     // can update it.
-    final JList<String> userList = new JList<>(messageListModel);
+    final JList<String> userList = messageList;
     userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     userList.setVisibleRowCount(15);
     userList.setSelectedIndex(-1);
+    userList.setPrototypeCellValue(PROTOTYPE_ROW);
 
-    final JScrollPane userListScrollPane = new JScrollPane(userList);
+    final JScrollPane userListScrollPane = messageListScrollPane;
     listShowPanel.add(userListScrollPane);
     userListScrollPane.setMinimumSize(new Dimension(500, 200));
     userListScrollPane.setPreferredSize(new Dimension(500, 200));
 
+    // Scrolling up to the top of the list reads older messages.
+    PageLoader.attachTop(userListScrollPane, new PageLoader.Loader() {
+      @Override
+      public CompletableFuture<?> loadMore() {
+        return loadOlderMessages();
+      }
+    });
+
     // Button panel
     final JPanel buttonPanel = new JPanel();
     final GridBagConstraints buttonPanelC = new GridBagConstraints();
@@ -163,10 +271,14 @@ public final class MessagePanel extends JPanel {
                   MessagePanel.this, "Enter message:", "Add Message", JOptionPane.PLAIN_MESSAGE,
                   null, null, "");
           if (messageText != null && messageText.length() > 0) {
-            clientContext.message.addMessage(
-                    clientContext.user.getCurrent().id,
-                    clientContext.conversation.getCurrentId(),
-                    messageText);
+            final Uuid author = clientContext.user.getCurrent().id;
+            final Uuid conversation = clientContext.conversation.getCurrentId();
+            clientContext.async.run(new Runnable() {
+              @Override
+              public void run() {
+                clientContext.message.addMessage(author, conversation, messageText);
+              }
+            });
             MessagePanel.this.getAllMessages(clientContext.conversation.getCurrent());
             ChatSimpleGui.playSound("message.wav");
           }
@@ -186,13 +298,18 @@ public final class MessagePanel extends JPanel {
           JOptionPane.showMessageDialog(MessagePanel.this, "You must select a conversation.", "Error", JOptionPane.ERROR_MESSAGE);
           return;
         } else {
-          Message requestedDeletion = clientContext.message.getConversationContents(clientContext.conversation.getCurrent()).get(userList.getSelectedIndex());
+          Message requestedDeletion = messageListModel.getMessage(userList.getSelectedIndex());
           if (!requestedDeletion.author.equals(clientContext.user.getCurrent().id)) {
             JOptionPane.showMessageDialog(MessagePanel.this, "Error: must be author of message to remove!", "Error", JOptionPane.ERROR_MESSAGE);
             return;
           }
           final String data = Integer.toString(userList.getSelectedIndex());
-          clientContext.message.removeMessage(data);
+          clientContext.async.run(new Runnable() {
+            @Override
+            public void run() {
+              clientContext.message.removeMessage(data);
+            }
+          });
           MessagePanel.this.getAllMessages(clientContext.conversation.getCurrent());
         }
       }
@@ -202,19 +319,124 @@ public final class MessagePanel extends JPanel {
     getAllMessages(clientContext.conversation.getCurrent());
   }
 
-  // Populate ListModel
-  // TODO: don't refetch messages if current conversation not changed
-  private void getAllMessages(ConversationSummary conversation) {
-    messageListModel.clear();
+  // Show the messages cached for the conversation while getAllMessages asks the
+  // server for what changed. Reading the cache is quick so it is not cancelled by
+  // the call that follows it, and it always lands before that call's result.
+  private void getCachedMessages(final ConversationSummary conversation) {
+
+    if (loading != null) {
+      loading.cancel(true);
+    }
+
+    showMessages(conversation, new Callable<List<Message>>() {
+      @Override
+      public List<Message> call() {
+        return clientContext.message.getCachedConversationContents(conversation);
+      }
+    });
+  }
+
+  // Populate ListModel. Refreshing a conversation that is subscribed to and has
+  // had nothing pushed since it was last shown does not reach the server.
+  private void getAllMessages(final ConversationSummary conversation) {
+
+    if (loading != null) {
+      loading.cancel(true);
+    }
+
+    loading = showMessages(conversation, new Callable<List<Message>>() {
+      @Override
+      public List<Message> call() {
+        return new ArrayList<>(clientContext.message.getConversationContents(conversation));
+      }
+    });
+  }
+
+  // Add the page of messages before the first one in the list.
+  private CompletableFuture<?> loadOlderMessages() {
+
+    final ConversationSummary conversation = shownConversation;
+
+    if (positioning || conversation == null || (loading != null && !loading.isDone())) {
+      return CompletableFuture.completedFuture(null);
+    }
 
-    for (final Message m : clientContext.message.getConversationContents(conversation)) {
-      // Display author name if available.  Otherwise display the author UUID.
-      final String authorName = clientContext.user.getName(m.author);
+    loading = showMessages(conversation, new Callable<List<Message>>() {
+      @Override
+      public List<Message> call() {
+        return (clientContext.message.loadOlderMessages(conversation, OLDER_PAGE_SIZE) == 0) ?
+                null :
+                clientContext.message.getCachedConversationContents(conversation);
+      }
+    });
+
+    return loading;
+  }
 
-      final String displayString = String.format("%s: [%s]: %s",
-              ((authorName == null) ? m.author : authorName), m.creation, m.content);
+  // Read the messages on the I/O thread and put them in the list. A call that
+  // returns null leaves the list as it is.
+  private CompletableFuture<?> showMessages(final ConversationSummary conversation,
+                                            final Callable<List<Message>> call) {
 
-      messageListModel.addElement(displayString);
+    return SwingCalls.then(clientContext.async.call(new Callable<Contents>() {
+      @Override
+      public Contents call() throws Exception {
+
+        final List<Message> messages = call.call();
+
+        if (messages == null) {
+          return null;
+        }
+
+        final Set<Uuid> authors = new HashSet<>();
+        for (final Message m : messages) {
+          authors.add(m.author);
+        }
+
+        return new Contents(conversation, messages, clientContext.user.getNames(authors));
+      }
+    }), this, new SwingCalls.Callback<Contents>() {
+      @Override
+      public void done(Contents contents) {
+        if (contents != null) {
+          show(contents);
+        }
+      }
+    });
+  }
+
+  // Put the messages in the list. A conversation that was not shown before starts
+  // at its newest message, and the list keeps following the newest message while
+  // it is scrolled to the bottom. Otherwise the rows on screen stay where they are
+  // when older messages are added above them.
+  private void show(Contents contents) {
+
+    final JScrollBar bar = messageListScrollPane.getVerticalScrollBar();
+    final int rowHeight = messageList.getFixedCellHeight();
+
+    final boolean atBottom = contents.conversation != shownConversation ||
+            bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - rowHeight;
+
+    final Message first = (messageListModel.getSize() == 0) ? null : messageListModel.getMessage(0);
+    int added = 0;
+    while (first != null && added < contents.messages.size() &&
+           !Uuids.equals(contents.messages.get(added).id, first.id)) {
+      added++;
+    }
+
+    positioning = true;
+    try {
+      shownConversation = contents.conversation;
+      messageListModel.setMessages(contents.messages, contents.names);
+      messageListScrollPane.validate();
+
+      if (atBottom) {
+        bar.setValue(bar.getMaximum());
+      } else if (added < contents.messages.size()) {
+        bar.setValue(bar.getValue() + added * rowHeight);
+      }
+    } finally {
+      positioning = false;
     }
   }
 }
@@ -0,0 +1,74 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.simplegui;
+
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.util.concurrent.CompletableFuture;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+
+// PAGE LOADER
+//
+// Fills a list a page at a time. When the list's scroll pane is scrolled close to
+// the bottom the next page is loaded and added to the end of the list - or, for
+// lists that grow upwards, close to the top and added to the start. Only one page
+// is asked for at a time.
+final class PageLoader implements AdjustmentListener {
+
+  public interface Loader {
+
+    // LOAD MORE
+    //
+    // Start adding the next page to the list. Does nothing when every page is
+    // loaded. The future completes once the page has been added.
+    CompletableFuture<?> loadMore();
+
+  }
+
+  // How many rows from the end the next page starts loading.
+  private static final int ROWS_AHEAD = 5;
+
+  private final Loader loader;
+  private final boolean top;
+
+  private CompletableFuture<?> loading = null;
+
+  private PageLoader(Loader loader, boolean top) {
+    this.loader = loader;
+    this.top = top;
+  }
+
+  public static void attach(JScrollPane scrollPane, Loader loader) {
+    scrollPane.getVerticalScrollBar().addAdjustmentListener(new PageLoader(loader, false));
+  }
+
+  public static void attachTop(JScrollPane scrollPane, Loader loader) {
+    scrollPane.getVerticalScrollBar().addAdjustmentListener(new PageLoader(loader, true));
+  }
+
+  @Override
+  public void adjustmentValueChanged(AdjustmentEvent event) {
+    final JScrollBar bar = (JScrollBar) event.getAdjustable();
+    // A list's unit increment is the height of one row.
+    final int ahead = ROWS_AHEAD * bar.getUnitIncrement(1);
+    final boolean close = top ?
+        bar.getValue() <= bar.getMinimum() + ahead :
+        bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - ahead;
+    if ((loading == null || loading.isDone()) && close) {
+      loading = loader.loadMore();
+    }
+  }
+}
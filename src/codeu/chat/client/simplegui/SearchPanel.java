@@ -4,6 +4,7 @@ import javax.swing.*;
 import javax.swing.border.Border;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.Callable;
 
 import codeu.chat.client.ClientContext;
 import codeu.chat.client.Password;
@@ -91,8 +92,13 @@ public final class SearchPanel extends JPanel{
             @Override
             public void actionPerformed(ActionEvent e){
                 infoPanel.setText("");
-                String name=query.getText();
-                infoPanel.setText(clientContext.user.searchUser(name));
+                final String name=query.getText();
+                search(infoPanel, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return clientContext.user.searchUser(name);
+                    }
+                });
             }
         });
 
@@ -100,8 +106,13 @@ public final class SearchPanel extends JPanel{
             @Override
             public void actionPerformed(ActionEvent e){
                 infoPanel.setText("");
-                String title=query.getText();
-                infoPanel.setText(clientContext.conversation.searchConversation(title));
+                final String title=query.getText();
+                search(infoPanel, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return clientContext.conversation.searchConversation(title);
+                    }
+                });
             }
         });
 
@@ -109,10 +120,25 @@ public final class SearchPanel extends JPanel{
             @Override
             public void actionPerformed(ActionEvent e){
                 infoPanel.setText("");
-                String word=query.getText();
-                infoPanel.setText(clientContext.message.searchMessage(word));
+                final String word=query.getText();
+                search(infoPanel, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return clientContext.message.searchMessage(word);
+                    }
+                });
             }
         });
 
     }
-}
\ No newline at end of file
+
+    // Run the search off the event dispatch thread and show what it finds.
+    private void search(final JTextArea infoPanel, Callable<String> search) {
+        SwingCalls.then(clientContext.async.call(search), this, new SwingCalls.Callback<String>() {
+            @Override
+            public void done(String found) {
+                infoPanel.setText(found);
+            }
+        });
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.simplegui;
+
+import java.awt.Component;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import codeu.chat.util.Logger;
+
+// SWING CALLS
+//
+// Hands the results of async client calls back to the event dispatch thread. The
+// panels only touch their Swing components from the callbacks, so results are
+// applied in the order the calls were made.
+final class SwingCalls {
+
+  private final static Logger.Log LOG = Logger.newLog(SwingCalls.class);
+
+  public interface Callback<T> {
+
+    // DONE
+    //
+    // Called on the event dispatch thread with the result of the call.
+    void done(T value);
+
+  }
+
+  private static final Executor EVENT_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable runnable) {
+      SwingUtilities.invokeLater(runnable);
+    }
+  };
+
+  private SwingCalls() { }
+
+  // THEN
+  //
+  // Pass the call's result to the callback on the event dispatch thread. A call
+  // that fails is reported in a dialog over the parent instead and a cancelled
+  // call is dropped. The returned future completes once the callback has run and
+  // cancelling it cancels the call.
+  public static <T> CompletableFuture<T> then(final CompletableFuture<T> call,
+                                              final Component parent,
+                                              final Callback<T> callback) {
+
+    final CompletableFuture<T> done = call.whenCompleteAsync(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable error) {
+
+        final Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+
+        if (cause == null) {
+          callback.done(value);
+        } else if (!(cause instanceof CancellationException)) {
+          LOG.error(cause, "Call to server failed.");
+          JOptionPane.showMessageDialog(
+              parent,
+              (cause instanceof TimeoutException) ? "The server did not respond." : "Call to server failed.",
+              "Error",
+              JOptionPane.ERROR_MESSAGE);
+        }
+      }
+    }, EVENT_THREAD);
+
+    done.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable error) {
+        if (done.isCancelled()) {
+          call.cancel(true);
+        }
+      }
+    });
+
+    return done;
+  }
+}
@@ -20,7 +20,11 @@ import java.awt.event.ActionListener;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.client.ClientContext;
 import codeu.chat.common.ConversationSummary;
@@ -89,6 +93,27 @@ public final class UserPanel extends JPanel {
         listShowPanel.add(userListScrollPane);
         userListScrollPane.setPreferredSize(new Dimension(150, 150));
 
+        // Only the first page of users is loaded up front, the rest are loaded as
+        // the list is scrolled.
+        PageLoader.attach(userListScrollPane, new PageLoader.Loader() {
+            @Override
+            public CompletableFuture<?> loadMore() {
+                return SwingCalls.then(clientContext.async.call(new Callable<Collection<User>>() {
+                    @Override
+                    public Collection<User> call() {
+                        return clientContext.user.loadMoreUsers();
+                    }
+                }), UserPanel.this, new SwingCalls.Callback<Collection<User>>() {
+                    @Override
+                    public void done(Collection<User> users) {
+                        for (final User u : users) {
+                            listModel.addElement(u.name);
+                        }
+                    }
+                });
+            }
+        });
+
         // Current User panel
         final JPanel currentPanel = new JPanel();
         final GridBagConstraints currentPanelC = new GridBagConstraints();
@@ -190,8 +215,17 @@ public final class UserPanel extends JPanel {
                             final String password = String.valueOf(pField.getPassword());
                             if (password != null && password.length() > 0) {
                                 if (Password.authenticateUserGUI(data, password)) {
-                                    clientContext.user.signInUser(data, 1);
-                                    userSignedInLabel.setText("Hello " + data);
+                                    SwingCalls.then(clientContext.async.call(new Callable<Boolean>() {
+                                        @Override
+                                        public Boolean call() {
+                                            return clientContext.user.signInUser(data, 1);
+                                        }
+                                    }), UserPanel.this, new SwingCalls.Callback<Boolean>() {
+                                        @Override
+                                        public void done(Boolean signedIn) {
+                                            userSignedInLabel.setText("Hello " + data);
+                                        }
+                                    });
                                     break;
                                 }
                             }
@@ -225,7 +259,17 @@ public final class UserPanel extends JPanel {
             public void valueChanged(ListSelectionEvent e) {
                 if (userList.getSelectedIndex() != -1) {
                     final String data = userList.getSelectedValue();
-                    userInfoPanel.setText(clientContext.user.showUserInfo(data));
+                    SwingCalls.then(clientContext.async.call(new Callable<String>() {
+                        @Override
+                        public String call() {
+                            return clientContext.user.showUserInfo(data);
+                        }
+                    }), UserPanel.this, new SwingCalls.Callback<String>() {
+                        @Override
+                        public void done(String info) {
+                            userInfoPanel.setText(info);
+                        }
+                    });
                 }
             }
         });
@@ -243,25 +287,68 @@ public final class UserPanel extends JPanel {
                     JOptionPane.showMessageDialog(UserPanel.this, "Error: cannot remove another user!", "Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-                clientContext.user.signOutUser();
-                clientContext.user.removeUser(data);
+                clientContext.async.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        clientContext.user.signOutUser();
+                        clientContext.user.removeUser(data);
+                    }
+                });
                 userSignedInLabel.setText("not signed in");
                 userInfoPanel.setText("");
                 UserPanel.this.getAllUsers(listModel);
             }
         });
 
+        // Show the users cached by the last run while the server is asked what
+        // changed since.
+        getCachedUsers(listModel);
         getAllUsers(listModel);
     }
 
-    // Swing UI: populate ListModel object - updates display objects.
-    private void getAllUsers(DefaultListModel<String> usersList) {
-        clientContext.user.updateUsers();
-        usersList.clear();
+    private void getCachedUsers(final DefaultListModel<String> usersList) {
+        showUsers(usersList, new Callable<Collection<User>>() {
+            @Override
+            public Collection<User> call() {
+                final Collection<User> users = new ArrayList<>();
+                for (final User u : clientContext.user.getUsers()) {
+                    users.add(u);
+                }
+                return users;
+            }
+        });
+    }
+
+    // Swing UI: populate ListModel object - updates display objects. Calls made
+    // before this one, like adding a user, have finished by the time it runs.
+    private void getAllUsers(final DefaultListModel<String> usersList) {
+        showUsers(usersList, new Callable<Collection<User>>() {
+            @Override
+            public Collection<User> call() {
+                return clientContext.user.reconcileUsers();
+            }
+        });
+    }
 
-        for (final User u : clientContext.user.getUsers()) {
-            usersList.addElement(u.name);
-        }
+    private void showUsers(final DefaultListModel<String> usersList, Callable<Collection<User>> call) {
+        SwingCalls.then(clientContext.async.call(call), this, new SwingCalls.Callback<Collection<User>>() {
+            @Override
+            public void done(Collection<User> users) {
+                usersList.clear();
+                for (final User u : users) {
+                    usersList.addElement(u.name);
+                }
+            }
+        });
+    }
+
+    private void addUser(final String name, final String securityDetails) {
+        clientContext.async.run(new Runnable() {
+            @Override
+            public void run() {
+                clientContext.user.addUser(name, securityDetails);
+            }
+        });
     }
 
     private void createPasswordInputDialog(DefaultListModel<String> listModel, int mode) {
@@ -343,7 +430,7 @@ public final class UserPanel extends JPanel {
                 if (pass_one.equals(pass_two) && (userName != null && userName.length() > 0)) {
                     JOptionPane.showMessageDialog(panel, Password.passwordStrength(pass_one), "PASSWORD STRENGTH", JOptionPane.INFORMATION_MESSAGE);
                     String securityDetails=pass_one + "$" + question + "$" + answer;
-                    if(mode==0) clientContext.user.addUser(userName, securityDetails);
+                    if(mode==0) addUser(userName, securityDetails);
                     if(mode==1) ClientUser.usersByName.first(userName).security=Password.createPassword(userName, securityDetails);//overwrite existing
                     UserPanel.this.getAllUsers(listModel);
                     break;
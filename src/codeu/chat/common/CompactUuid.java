@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.util.Arrays;
+
+// COMPACT UUID
+//
+// The uuid that Uuids, its serializer and the generators make: the ids in one
+// array that never changes, with the tail and the hash worked out when it is
+// made. See FlatUuid.
+final class CompactUuid extends FlatUuid {
+
+  private final int[] ids;
+  private final int id;
+  private final int hash;
+
+  // Made the first time it is asked for. The uuid never changes, so two threads
+  // that both make it make the same value and either can be kept.
+  private CompactUuid root;
+
+  // The array becomes the uuid's own and must not be changed after.
+  private CompactUuid(int[] ids) {
+    this.ids = ids;
+    this.id = ids[ids.length - 1];
+    this.hash = hash(ids, ids.length);
+  }
+
+  @Override
+  int[] ids() { return ids; }
+
+  @Override
+  int length() { return ids.length; }
+
+  @Override
+  public int id() { return id; }
+
+  @Override
+  public int hashCode() { return hash; }
+
+  @Override
+  public Uuid root() {
+    if (root == null && ids.length > 1) {
+      root = copyOf(ids, ids.length - 1);
+    }
+    return root;
+  }
+
+  // Make a uuid that takes the array, root first, as its own. Only for arrays that
+  // no one else has.
+  static CompactUuid wrap(int[] ids) {
+    return new CompactUuid(ids);
+  }
+
+  // Make a uuid from the first "length" ids in the array, root first.
+  static CompactUuid copyOf(int[] ids, int length) {
+    return new CompactUuid(Arrays.copyOf(ids, length));
+  }
+
+  // Make a uuid one link below "root", or a single link if "root" is null.
+  static CompactUuid child(Uuid root, int id) {
+    final int length = root == null ? 0 : Uuids.length(root);
+    final int[] ids = new int[length + 1];
+    fill(root, ids, length);
+    ids[length] = id;
+    return new CompactUuid(ids);
+  }
+
+  // The same uuid as a CompactUuid, which is the uuid itself if it already is one.
+  static CompactUuid of(Uuid uuid) {
+
+    if (uuid == null || uuid instanceof CompactUuid) {
+      return (CompactUuid) uuid;
+    }
+
+    if (uuid instanceof FlatUuid) {
+      final FlatUuid flat = (FlatUuid) uuid;
+      return copyOf(flat.ids(), flat.length());
+    }
+
+    final int length = Uuids.length(uuid);
+    final int[] ids = new int[length];
+    fill(uuid, ids, length);
+    return new CompactUuid(ids);
+  }
+
+  // Put the chain of "uuid", which is "length" long, at the start of "ids".
+  private static void fill(Uuid uuid, int[] ids, int length) {
+
+    if (uuid instanceof FlatUuid) {
+      System.arraycopy(((FlatUuid) uuid).ids(), 0, ids, 0, length);
+      return;
+    }
+
+    int i = length - 1;
+    for (Uuid current = uuid; current != null; current = current.root()) {
+      ids[i--] = current.id();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// DELTA
+//
+// What changed in a collection after a generation the client already knew. The
+// client applies the changed and removed items to what it has and remembers the
+// new generation. If "reset" is set the server could not work out what changed
+// and the client has to drop what it has and load it again.
+public final class Delta<T> {
+
+  // The generation to use before anything has been loaded. The server never gives
+  // it out so asking for changes since it always resets.
+  public static final long UNKNOWN = -1;
+
+  public static <T> Serializer<Delta<T>> serializer(final Serializer<T> itemSerializer) {
+
+    return new Serializer<Delta<T>>() {
+
+      @Override
+      public void write(OutputStream out, Delta<T> value) throws IOException {
+        Serializers.LONG.write(out, value.generation);
+        Serializers.BOOLEAN.write(out, value.reset);
+        Serializers.collection(itemSerializer).write(out, value.changed);
+        Serializers.collection(Uuids.SERIALIZER).write(out, value.removed);
+      }
+
+      @Override
+      public Delta<T> read(InputStream in) throws IOException {
+        return new Delta<T>(
+            Serializers.LONG.read(in),
+            Serializers.BOOLEAN.read(in),
+            Serializers.collection(itemSerializer).read(in),
+            Serializers.collection(Uuids.SERIALIZER).read(in)
+        );
+      }
+    };
+  }
+
+  public final long generation;
+  public final boolean reset;
+  public final Collection<T> changed;
+  public final Collection<Uuid> removed;
+
+  public Delta(long generation, boolean reset, Collection<T> changed, Collection<Uuid> removed) {
+    this.generation = generation;
+    this.reset = reset;
+    this.changed = changed;
+    this.removed = removed;
+  }
+
+  // Nothing has changed since the generation the client knew.
+  public static <T> Delta<T> notModified(long generation) {
+    return new Delta<T>(generation, false, new ArrayList<T>(), new ArrayList<Uuid>());
+  }
+
+  public boolean isNotModifiedSince(long since) {
+    return generation == since && !reset && changed.isEmpty() && removed.isEmpty();
+  }
+}
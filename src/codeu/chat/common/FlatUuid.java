@@ -0,0 +1,126 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+// FLAT UUID
+//
+// A uuid that keeps its whole chain in one array, root first, instead of as one
+// object per link. Each also keeps its hash and the id at its tail in fields of
+// its own. Tails are where uuids most often differ, so most comparisons are
+// settled without leaving the object; only uuids with the same tail go on to walk
+// their arrays. Uuids takes these shortcuts whenever both sides are flat. A flat
+// uuid has no root object to hand out - a CompactUuid makes its root the first
+// time it is asked and a UuidView makes a new one every time - so code that walks
+// chains should go through Uuids, which reads the arrays, rather than "root".
+//
+// CompactUuid is the immutable one that is stored and sent. UuidView is the
+// reusable one used to look ids up.
+abstract class FlatUuid implements Uuid {
+
+  // The ids root first. Only the first "length()" of them are the uuid's.
+  abstract int[] ids();
+
+  abstract int length();
+
+  @Override
+  public abstract int id();
+
+  @Override
+  public abstract int hashCode();
+
+  @Override
+  public Uuid root() {
+    return length() == 1 ? null : CompactUuid.copyOf(ids(), length() - 1);
+  }
+
+  // Whether the two have the same root, without making either root.
+  static boolean sameRoot(FlatUuid a, FlatUuid b) {
+
+    if (a.length() != b.length()) {
+      return false;
+    }
+
+    final int[] x = a.ids();
+    final int[] y = b.ids();
+
+    for (int i = a.length() - 2; i >= 0; i--) {
+      if (x[i] != y[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Uuid && Uuids.equals(this, (Uuid) other);
+  }
+
+  @Override
+  public String toString() {
+    return Uuids.toString(this);
+  }
+
+  // The same value as Uuids.hash gives for the chain.
+  static int hash(int[] ids, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash ^= 31 + ids[i];
+    }
+    return hash;
+  }
+
+  static boolean equals(FlatUuid a, FlatUuid b) {
+
+    if (a.id() != b.id() || a.hashCode() != b.hashCode() || a.length() != b.length()) {
+      return false;
+    }
+
+    final int[] x = a.ids();
+    final int[] y = b.ids();
+
+    for (int i = a.length() - 2; i >= 0; i--) {
+      if (x[i] != y[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // The same order as Uuids.compare.
+  static int compare(FlatUuid a, FlatUuid b) {
+
+    if (a.id() != b.id()) {
+      return Integer.compare(a.id(), b.id());
+    }
+
+    final int[] x = a.ids();
+    final int[] y = b.ids();
+
+    int i = a.length() - 2;
+    int j = b.length() - 2;
+
+    for (; i >= 0 && j >= 0; i--, j--) {
+      if (x[i] != y[j]) {
+        return Integer.compare(x[i], y[j]);
+      }
+    }
+
+    // A chain that runs out first comes first.
+    return i >= 0 ? 1 : (j >= 0 ? -1 : 0);
+  }
+}
@@ -16,6 +16,8 @@ package codeu.chat.common;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
@@ -24,8 +26,12 @@ import codeu.chat.util.connections.ConnectionSource;
 //
 // A hub allows opening connections with a connection source and using each
 // connection to be safely run on different threads. This allow servers
-// to connect to more clients at one time but still serve them one-at-a-time.
-public final class Hub implements Runnable {
+// to connect to more clients at one time but still serve them one-at-a-time
+// unless the hub is given more than one handler thread.
+//
+// How busy the hub is can be watched over JMX through HubMXBean, and how long
+// connections wait for a handler with the flight recorder through HubWaitEvent.
+public final class Hub implements Runnable, HubMXBean {
 
   // HANDLER
   //
@@ -39,8 +45,10 @@ public final class Hub implements Runnable {
     // HANDLE
     //
     // Takes the given connection and completes all work for that connection
-    // independent of any past or future connections.
-    void handle(Connection connection) throws Exception;
+    // independent of any past or future connections. Returns true if the hub
+    // should close the connection, or false if the handler has kept it open to
+    // use after "handle" returns - then closing it is up to the handler.
+    boolean handle(Connection connection) throws Exception;
 
     // ON EXCEPTION
     //
@@ -64,17 +72,40 @@ public final class Hub implements Runnable {
 
   }
 
-  private final BlockingQueue<Connection> connections = new LinkedBlockingQueue<>();
+  // A connection waiting for a handler, with the event that times its wait.
+  private static final class Waiting {
+
+    public final Connection connection;
+    public final HubWaitEvent event;
+
+    public Waiting(Connection connection, HubWaitEvent event) {
+      this.connection = connection;
+      this.event = event;
+    }
+  }
+
+  private final BlockingQueue<Waiting> connections = new LinkedBlockingQueue<>();
 
   private final ConnectionSource source;
   private final Handler handler;
 
+  private final AtomicInteger busy = new AtomicInteger();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private final AtomicLong handled = new AtomicLong();
+  private volatile long started = 0;
+
   private final Processor createConnection = new Processor() {
 
     @Override
     public boolean process() {
       try {
-        connections.put(source.connect());
+        final Connection connection = source.connect();
+
+        final HubWaitEvent event = new HubWaitEvent();
+        event.begin();
+        event.queueDepth = connections.size();
+
+        connections.put(new Waiting(connection, event));
         return true;
       } catch (InterruptedException ex) {
         return false;
@@ -89,9 +120,27 @@ public final class Hub implements Runnable {
     public boolean process() {
       try {
 
-        final Connection connection = connections.take();
-        handler.handle(connection);
-        connection.close();
+        final Waiting waiting = connections.take();
+        final Connection connection = waiting.connection;
+
+        waiting.event.end();
+        if (waiting.event.shouldCommit()) {
+          waiting.event.commit();
+        }
+
+        busy.incrementAndGet();
+        final long start = System.nanoTime();
+
+        try {
+          if (handler.handle(connection)) {
+            connection.close();
+          }
+        } finally {
+          busyNanos.addAndGet(System.nanoTime() - start);
+          busy.decrementAndGet();
+          handled.incrementAndGet();
+        }
+
         return true;
 
       } catch (InterruptedException ex) {
@@ -108,23 +157,69 @@ public final class Hub implements Runnable {
   };
 
   private final Thread connectionThread = threadFromProcessor(createConnection);
-  private final Thread handlerThread = threadFromProcessor(handleConnection);
+  private final Thread[] handlerThreads;
 
   public Hub(ConnectionSource source, Handler handler) {
+    this(source, handler, 1);
+  }
+
+  // HUB
+  //
+  // Create a hub that will use "handlers" threads to handle connections. This
+  // should only be more than one when the handler is safe to call from more
+  // than one thread at a time.
+  public Hub(ConnectionSource source, Handler handler, int handlers) {
 
     this.source = source;
     this.handler = handler;
 
+    this.handlerThreads = new Thread[Math.max(1, handlers)];
+    for (int i = 0; i < handlerThreads.length; i++) {
+      handlerThreads[i] = threadFromProcessor(handleConnection);
+    }
   }
 
   public void run() {
 
+    started = System.nanoTime();
+
     connectionThread.start();
-    handlerThread.start();
+    for (final Thread handlerThread : handlerThreads) {
+      handlerThread.start();
+    }
 
     forceJoin(connectionThread);
-    forceJoin(handlerThread);
+    for (final Thread handlerThread : handlerThreads) {
+      forceJoin(handlerThread);
+    }
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return connections.size();
+  }
+
+  @Override
+  public int getHandlerThreads() {
+    return handlerThreads.length;
+  }
+
+  @Override
+  public int getBusyHandlers() {
+    return busy.get();
+  }
+
+  @Override
+  public double getHandlerUtilization() {
+    final long elapsed = System.nanoTime() - started;
+    return (started == 0 || elapsed <= 0) ?
+        0 :
+        Math.min(1.0, (double) busyNanos.get() / ((double) elapsed * handlerThreads.length));
+  }
 
+  @Override
+  public long getConnectionsHandled() {
+    return handled.get();
   }
 
   private static Thread threadFromProcessor(final Processor processor) {
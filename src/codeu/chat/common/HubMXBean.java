@@ -0,0 +1,36 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+// HUB MX BEAN
+//
+// What a hub shows over JMX.
+public interface HubMXBean {
+
+  // Connections that have been accepted and are waiting for a handler.
+  int getQueueDepth();
+
+  int getHandlerThreads();
+
+  // Handlers working on a connection right now.
+  int getBusyHandlers();
+
+  // The share of the handlers' time spent on connections since the hub started,
+  // from 0 to 1.
+  double getHandlerUtilization();
+
+  long getConnectionsHandled();
+
+}
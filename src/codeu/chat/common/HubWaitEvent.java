@@ -0,0 +1,41 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// HUB WAIT EVENT
+//
+// A flight recorder event for the time a connection waits in a Hub's queue until
+// a handler thread takes it. Off until a recording turns it on (see chat.jfc).
+@Name("codeu.chat.HubWait")
+@Label("Hub Queue Wait")
+@Category({ "CodeU Chat", "Hub" })
+@Description("A connection waiting for a handler thread")
+@Enabled(false)
+@StackTrace(false)
+final class HubWaitEvent extends Event {
+
+  @Label("Queue Depth")
+  @Description("The connections that were already waiting when this one arrived")
+  int queueDepth;
+}
@@ -68,4 +68,81 @@ public interface LogicalView {
   //   no messages will be returned.
   Collection<Message> getMessages(Uuid rootMessage, int range);
 
+  // GET MESSAGES SINCE
+  //
+  //   Get up to |limit| messages from a single conversation that come after the
+  //   given message, in order. If the last message is NULL or is no longer found,
+  //   messages are returned from the start of the conversation. A caller can tell
+  //   the difference as the first message's previous will not be the last message.
+  //   If the conversation is not found no messages will be returned.
+  Collection<Message> getMessagesSince(Uuid conversation, Uuid lastMessage, int limit);
+
+  // GET CONVERSATION MESSAGES
+  //
+  //   Get up to |limit| messages from a single conversation, in order, that come
+  //   after the given message and were created at or after |since|. A NULL or
+  //   missing message starts from the start of the conversation, as for
+  //   getMessagesSince. The server returns a large but bounded number of messages
+  //   at a time. A page that is not the last stopped short of the limit or of the
+  //   end of the conversation and more can be read after its last message.
+  Page<Message> getConversationMessages(Uuid conversation, Uuid after, Time since, int limit);
+
+  // GET CONVERSATIONS PAGE
+  //
+  //   Get up to |size| conversation summaries ordered by title, starting from
+  //   the given cursor. Use Page.FIRST to get the first page and the page's
+  //   next cursor to get the page after it.
+  Page<ConversationSummary> getConversationsPage(byte[] cursor, int size);
+
+  // GET USERS PAGE
+  //
+  //   Get up to |size| users ordered by name, starting from the given cursor.
+  //   Use Page.FIRST to get the first page and the page's next cursor to get
+  //   the page after it.
+  Page<User> getUsersPage(byte[] cursor, int size);
+
+  // SEARCH USERS
+  //
+  //   Get one page of the users whose name starts with the prefix, ignoring
+  //   case, in name order.
+  Page<User> searchUsers(String prefix, byte[] cursor, int size);
+
+  // SEARCH CONVERSATIONS
+  //
+  //   Get one page of the conversations whose title starts with the prefix,
+  //   ignoring case, in title order.
+  Page<ConversationSummary> searchConversations(String prefix, byte[] cursor, int size);
+
+  // SEARCH MESSAGES
+  //
+  //   Get one page of the messages that contain the text, ignoring case, newest
+  //   first. Only text that starts at the beginning of a word is found.
+  Page<MessageMatch> searchMessages(String text, byte[] cursor, int size);
+
+  // GET USERS CHANGED SINCE
+  //
+  //   Get the users that were added or removed after the given generation. If
+  //   the server can no longer tell what changed the delta is a reset with no
+  //   users in it and all the users need to be loaded again.
+  Delta<User> getUsersChangedSince(long generation);
+
+  // GET CONVERSATIONS CHANGED SINCE
+  //
+  //   Get the conversations that were added or removed after the given
+  //   generation. If the server can no longer tell what changed the delta is a
+  //   reset with no conversations in it and all the conversations need to be
+  //   loaded again.
+  Delta<ConversationSummary> getConversationsChangedSince(long generation);
+
+  // GET MESSAGES CHANGED SINCE
+  //
+  //   If a conversation's messages changed after the given generation, get up to
+  //   |limit| messages after the last message as GET MESSAGES SINCE would. If a
+  //   message was removed since the generation the delta is a reset and the
+  //   messages come from the start of the conversation instead.
+  Delta<Message> getMessagesChangedSince(Uuid conversation,
+                                         long generation,
+                                         Uuid lastMessage,
+                                         int limit);
+
 }
@@ -0,0 +1,58 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+
+// MESSAGE MATCH
+//
+// A message found by a search along with the conversation it is in.
+public final class MessageMatch {
+
+  public static final Serializer<MessageMatch> SERIALIZER = new Serializer<MessageMatch>() {
+
+    @Override
+    public void write(OutputStream out, MessageMatch value) throws IOException {
+
+      ConversationSummary.SERIALIZER.write(out, value.conversation);
+      Message.SERIALIZER.write(out, value.message);
+
+    }
+
+    @Override
+    public MessageMatch read(InputStream in) throws IOException {
+
+      return new MessageMatch(
+          ConversationSummary.SERIALIZER.read(in),
+          Message.SERIALIZER.read(in)
+      );
+
+    }
+  };
+
+  public final ConversationSummary conversation;
+  public final Message message;
+
+  public MessageMatch(ConversationSummary conversation, Message message) {
+
+    this.conversation = conversation;
+    this.message = message;
+
+  }
+}
@@ -53,6 +53,38 @@ public final class NetworkCode {
       REMOVE_CONVERSATION_REQUEST = 33,
       REMOVE_CONVERSATION_RESPONSE = 34,
       REMOVE_MESSAGE_REQUEST = 35,
-      REMOVE_MESSAGE_RESPONSE = 36;
+      REMOVE_MESSAGE_RESPONSE = 36,
+      RELAY_CURSOR_REQUEST = 37,
+      RELAY_CURSOR_RESPONSE = 38,
+      RELAY_READ_COMPRESSED_REQUEST = 39,
+      RELAY_READ_COMPRESSED_RESPONSE = 40,
+      GET_MESSAGES_SINCE_REQUEST = 41,
+      GET_MESSAGES_SINCE_RESPONSE = 42,
+      SUBSCRIBE_REQUEST = 43,
+      SUBSCRIBE_RESPONSE = 44,
+      MESSAGE_EVENT = 45,
+      GET_CONVERSATIONS_PAGE_REQUEST = 46,
+      GET_CONVERSATIONS_PAGE_RESPONSE = 47,
+      GET_USERS_PAGE_REQUEST = 48,
+      GET_USERS_PAGE_RESPONSE = 49,
+      NOT_MODIFIED_RESPONSE = 50,
+      GET_USERS_CHANGED_REQUEST = 51,
+      GET_USERS_CHANGED_RESPONSE = 52,
+      GET_CONVERSATIONS_CHANGED_REQUEST = 53,
+      GET_CONVERSATIONS_CHANGED_RESPONSE = 54,
+      GET_MESSAGES_CHANGED_REQUEST = 55,
+      GET_MESSAGES_CHANGED_RESPONSE = 56,
+      SEARCH_USERS_REQUEST = 57,
+      SEARCH_USERS_RESPONSE = 58,
+      SEARCH_CONVERSATIONS_REQUEST = 59,
+      SEARCH_CONVERSATIONS_RESPONSE = 60,
+      SEARCH_MESSAGES_REQUEST = 61,
+      SEARCH_MESSAGES_RESPONSE = 62,
+      MESSAGE_REMOVED_EVENT = 63,
+      GET_CONVERSATION_MESSAGES_REQUEST = 64,
+      GET_CONVERSATION_MESSAGES_RESPONSE = 65,
+      GET_METRICS_REQUEST = 66,
+      GET_METRICS_RESPONSE = 67,
+      SUBSCRIPTION_PING_EVENT = 68;
 
 }
@@ -0,0 +1,66 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// PAGE
+//
+// One page of a listing and the cursor for the page after it. A cursor only means
+// something to the server that made it - clients hold on to it and send it back to
+// get the next page. The FIRST cursor asks for the first page and a page whose next
+// cursor is empty is the last page.
+public final class Page<T> {
+
+  public static final byte[] FIRST = new byte[0];
+
+  public static <T> Serializer<Page<T>> serializer(final Serializer<T> itemSerializer) {
+
+    return new Serializer<Page<T>>() {
+
+      @Override
+      public void write(OutputStream out, Page<T> value) throws IOException {
+        Serializers.collection(itemSerializer).write(out, value.items);
+        Serializers.BYTES.write(out, value.next);
+      }
+
+      @Override
+      public Page<T> read(InputStream in) throws IOException {
+        return new Page<T>(
+            Serializers.collection(itemSerializer).read(in),
+            Serializers.BYTES.read(in)
+        );
+      }
+    };
+  }
+
+  public final Collection<T> items;
+  public final byte[] next;
+
+  public Page(Collection<T> items, byte[] next) {
+    this.items = items;
+    this.next = next;
+  }
+
+  public boolean isLast() {
+    return next.length == 0;
+  }
+}
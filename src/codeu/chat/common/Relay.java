@@ -121,6 +121,10 @@ public interface Relay {
   // part of as the relay does not track users or conversations. In order to write
   // a message to the relay, a team must write their team id and team secret or
   // else the relay will reject the message.
+  //
+  // The message's id is the idempotency key for the write. Writing the same message
+  // again (for example retrying after a lost response) will succeed but the relay
+  // will not store a second copy.
   boolean write(Uuid teamId,
                 byte[] teamSecret,
                 Bundle.Component user,
@@ -137,4 +141,12 @@ public interface Relay {
   // was given Uuids.NULL.
   Collection<Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range);
 
+  // CURSOR
+  //
+  // Get the id of the last bundle that the team acknowledged. Using a bundle as the
+  // root of a read acknowledges it. This allows a server that lost track of its
+  // position to resume reading from where the relay last saw it. If the team has not
+  // acknowledged any bundles (or is not known to the relay) Uuids.NULL is returned.
+  Uuid cursor(Uuid teamId, byte[] teamSecret);
+
 }
@@ -0,0 +1,150 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// RELAY BUNDLES
+//
+// The compressed form of a page of bundles that the relay sends back for a
+// RELAY_READ_COMPRESSED_REQUEST. The same user names and conversation titles show
+// up again and again in a page so all the component text (and security) is written
+// once to a dictionary at the start of the page. Each component then refers to its
+// text by its index in the dictionary. The whole page is then deflated as one
+// block.
+public final class RelayBundles {
+
+  private static final int NO_TEXT = -1;
+
+  private static final Serializer<Collection<Relay.Bundle>> DICTIONARY_SERIALIZER =
+      new Serializer<Collection<Relay.Bundle>>() {
+
+    @Override
+    public void write(OutputStream out, Collection<Relay.Bundle> value) throws IOException {
+
+      final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+      for (final Relay.Bundle bundle : value) {
+        addText(dictionary, bundle.user());
+        addText(dictionary, bundle.conversation());
+        addText(dictionary, bundle.message());
+      }
+
+      Serializers.collection(Serializers.STRING).write(out, dictionary.keySet());
+
+      Serializers.INTEGER.write(out, value.size());
+
+      for (final Relay.Bundle bundle : value) {
+        Uuids.SERIALIZER.write(out, bundle.id());
+        Time.SERIALIZER.write(out, bundle.time());
+        Uuids.SERIALIZER.write(out, bundle.team());
+        writeComponent(out, dictionary, bundle.user());
+        writeComponent(out, dictionary, bundle.conversation());
+        writeComponent(out, dictionary, bundle.message());
+      }
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(InputStream in) throws IOException {
+
+      final List<String> dictionary =
+          new ArrayList<>(Serializers.collection(Serializers.STRING).read(in));
+
+      final int size = Serializers.INTEGER.read(in);
+      final Collection<Relay.Bundle> bundles = new ArrayList<>(size);
+
+      for (int i = 0; i < size; i++) {
+
+        final Uuid id = Uuids.SERIALIZER.read(in);
+        final Time time = Time.SERIALIZER.read(in);
+        final Uuid team = Uuids.SERIALIZER.read(in);
+        final Relay.Bundle.Component user = readComponent(in, dictionary);
+        final Relay.Bundle.Component conversation = readComponent(in, dictionary);
+        final Relay.Bundle.Component message = readComponent(in, dictionary);
+
+        bundles.add(new Relay.Bundle() {
+          @Override
+          public Uuid id() { return id; }
+          @Override
+          public Time time() { return time; }
+          @Override
+          public Uuid team() { return team; }
+          @Override
+          public Relay.Bundle.Component user() { return user; }
+          @Override
+          public Relay.Bundle.Component conversation() { return conversation; }
+          @Override
+          public Relay.Bundle.Component message() { return message; }
+        });
+      }
+
+      return bundles;
+    }
+  };
+
+  public static final Serializer<Collection<Relay.Bundle>> COMPRESSED_SERIALIZER =
+      Serializers.compressed(DICTIONARY_SERIALIZER);
+
+  private static void addText(Map<String, Integer> dictionary, Relay.Bundle.Component component) {
+    for (final String text : new String[] { component.text(), component.security() }) {
+      if (text != null && !dictionary.containsKey(text)) {
+        dictionary.put(text, dictionary.size());
+      }
+    }
+  }
+
+  private static void writeComponent(OutputStream out,
+                                     Map<String, Integer> dictionary,
+                                     Relay.Bundle.Component component) throws IOException {
+
+    Uuids.SERIALIZER.write(out, component.id());
+    Serializers.INTEGER.write(out, dictionary.get(component.text()));
+    Time.SERIALIZER.write(out, component.time());
+    Serializers.INTEGER.write(out, component.security() == null ?
+                                   NO_TEXT :
+                                   dictionary.get(component.security()));
+  }
+
+  private static Relay.Bundle.Component readComponent(InputStream in,
+                                                      List<String> dictionary) throws IOException {
+
+    final Uuid id = Uuids.SERIALIZER.read(in);
+    final String text = dictionary.get(Serializers.INTEGER.read(in));
+    final Time time = Time.SERIALIZER.read(in);
+    final int securityIndex = Serializers.INTEGER.read(in);
+    final String security = securityIndex == NO_TEXT ? null : dictionary.get(securityIndex);
+
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return time; }
+      @Override
+      public String security() { return security; }
+    };
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+// UUID VIEW
+//
+// A flat uuid whose ids can be replaced, so that ids that are only looked up do
+// not need a new uuid each. It compares as quickly as the uuids it is looked up
+// against. A view changes whenever it is set again, so it must never be kept by
+// anything that outlives the lookup; Uuids.complete copies it.
+public final class UuidView extends FlatUuid {
+
+  private int[] ids = new int[4];
+  private int length = 0;
+  private int id = 0;
+  private int hash = 0;
+
+  @Override
+  int[] ids() { return ids; }
+
+  @Override
+  int length() { return length; }
+
+  @Override
+  public int id() { return id; }
+
+  @Override
+  public int hashCode() { return hash; }
+
+  // Make the view the first "length" ids of the array, root first. The ids are
+  // copied so the array can be reused.
+  public UuidView set(int[] ids, int length) {
+
+    if (length < 1) {
+      throw new IllegalArgumentException("A uuid needs at least one id");
+    }
+
+    if (this.ids.length < length) {
+      this.ids = new int[Math.max(length, 2 * this.ids.length)];
+    }
+
+    System.arraycopy(ids, 0, this.ids, 0, length);
+    this.length = length;
+    this.id = ids[length - 1];
+    this.hash = hash(this.ids, length);
+
+    return this;
+  }
+}
@@ -18,7 +18,6 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Objects;
 
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
@@ -40,10 +39,7 @@ public final class Uuids {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
-      int length = 0;
-      for (Uuid current = value; current != null; current = current.root()) {
-        length += 1;
-      }
+      final int length = length(value);
 
       // To make things easy, limit the max length to be 255. It should be unlikely
       // that this limit will ever be reached as most chains should be less than
@@ -54,6 +50,14 @@ public final class Uuids {
         throw new IOException("Max supported Uuid chain length is 255");
       }
 
+      if (value instanceof FlatUuid) {
+        final int[] ids = ((FlatUuid) value).ids();
+        for (int i = length - 1; i >= 0; i--) {
+          Serializers.INTEGER.write(out, ids[i]);
+        }
+        return;
+      }
+
       for (Uuid current = value; current != null; current = current.root()) {
         Serializers.INTEGER.write(out, current.id());
       }
@@ -65,63 +69,77 @@ public final class Uuids {
       // "input.read" can only return one by of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
       final int length = in.read();
-      final int[] chain = new int[length];
 
-      for (int i = 0; i < length; i++) {
-        chain[i] = Serializers.INTEGER.read(in);
+      if (length == 0) {
+        return null;
       }
 
-      Uuid head = null;
+      final int[] chain = new int[length];
 
+      // The chain is written from the tail to the root.
       for (int i = length - 1; i >= 0; i--) {
-        head = complete(deserializedUuid(head, chain[i]));
+        chain[i] = Serializers.INTEGER.read(in);
       }
 
-      return head;
-    }
-
-    private Uuid deserializedUuid(final Uuid root, final int id) {
-      return new Uuid() {
-        @Override
-        public Uuid root() { return root; }
-        @Override
-        public int id() { return id; }
-      };
+      return CompactUuid.wrap(chain);
     }
   };
 
-  // Wrap a Uuid to add definitions for the "equals" and "hashCode" methods so that
-  // they will call into the "equals" and "hash" functions defined in Uuids.
+  // Make a Uuid with the same chain as "source" that has definitions for the
+  // "equals" and "hashCode" methods that agree with the "equals" and "hash"
+  // functions defined in Uuids. The result is a CompactUuid, so a Uuid that is
+  // already one comes back as it is and anything else is copied, including views.
   public static Uuid complete(final Uuid source) {
+    return CompactUuid.of(source);
+  }
 
-    return new Uuid() {
-
-      @Override
-      public Uuid root() { return source.root(); }
-
-      @Override
-      public int id() { return source.id(); }
+  // CHILD
+  //
+  // Make the Uuid one link below "root" with the given id, or a Uuid of just the id
+  // if "root" is null. This is how generators make new ids under their root.
+  public static Uuid child(Uuid root, int id) {
+    return CompactUuid.child(root, id);
+  }
 
-      @Override
-      public boolean equals(Object other) {
-        return other instanceof Uuid && Uuids.equals(source, (Uuid) other);
-      }
+  // The number of links in the chain, 0 for null.
+  public static int length(Uuid id) {
 
-      @Override
-      public int hashCode() { return Uuids.hash(source); }
+    if (id instanceof FlatUuid) {
+      return ((FlatUuid) id).length();
+    }
 
-      @Override
-      public String toString() {
-        return Uuids.toString(source);
-      }
-    };
+    int length = 0;
+    for (Uuid current = id; current != null; current = current.root()) {
+      length += 1;
+    }
+    return length;
   }
 
   // Check if two Uuids share the same root. This check is only one level deep.
   public static boolean related(Uuid a, Uuid b) {
+
+    if (a instanceof FlatUuid && b instanceof FlatUuid) {
+      return FlatUuid.sameRoot((FlatUuid) a, (FlatUuid) b);
+    }
+
     return equals(a.root(), b.root());
   }
 
+  // The id at the root of the chain, which is the uuid's own id for a chain of one
+  // link. Reads it without making any of the roots along the way.
+  public static int rootId(Uuid id) {
+
+    if (id instanceof FlatUuid) {
+      return ((FlatUuid) id).ids()[0];
+    }
+
+    Uuid current = id;
+    while (current.root() != null) {
+      current = current.root();
+    }
+    return current.id();
+  }
+
   // Check if two Uuids represent the same value even if they are different refereces. This
   // means that all ids from the tail to the root have the same ids.
   public static boolean equals(Uuid a, Uuid b) {
@@ -142,6 +160,10 @@ public final class Uuids {
       return false;
     }
 
+    if (a instanceof FlatUuid && b instanceof FlatUuid) {
+      return FlatUuid.equals((FlatUuid) a, (FlatUuid) b);
+    }
+
     // Check id before checking the root as the ids are more likely to differ
     // and will short-circuit the logic preventing us from wasting time checking
     // the full chain.
@@ -149,23 +171,56 @@ public final class Uuids {
 
   }
 
-  // Compute a hash code for the Uuids by walking up the chain.
+  // Compute a hash code for the Uuids by walking up the chain. Each link adds
+  // "31 + id", which is what Objects.hash(id) gives without boxing the id.
   public static int hash(Uuid id) {
 
+    if (id instanceof FlatUuid) {
+      return id.hashCode();
+    }
+
     int hash = 0;
 
     for (Uuid current = id; current != null; current = current.root()) {
-      hash ^= Objects.hash(current.id());
+      hash ^= 31 + current.id();
     }
 
     return hash;
   }
 
+  // COMPARE
+  //
+  // Order Uuids by their ids from the tail to the root. When one chain runs out
+  // before the other differs, the shorter one comes first and null comes before
+  // everything.
+  public static int compare(Uuid a, Uuid b) {
+
+    if (a == b) { return 0; }
+
+    if (a == null) { return -1; }
+
+    if (b == null) { return 1; }
+
+    if (a instanceof FlatUuid && b instanceof FlatUuid) {
+      return FlatUuid.compare((FlatUuid) a, (FlatUuid) b);
+    }
+
+    final int order = Integer.compare(a.id(), b.id());
+    return order == 0 ? compare(a.root(), b.root()) : order;
+  }
+
   // Compute human-readable representation for Uuids
   // Use long internally to avoid negative integers.
   public static String toString(Uuid id) {
     final StringBuilder build = new StringBuilder();
-    buildString(id, build);
+    if (id instanceof FlatUuid) {
+      final FlatUuid flat = (FlatUuid) id;
+      for (int i = 0; i < flat.length(); i++) {
+        build.append(".").append(flat.ids()[i] & ((1L << 32) - 1));
+      }
+    } else {
+      buildString(id, build);
+    }
     return String.format("[UUID:%s]", build.substring(1));  // index of 1 to skip initial '.'
   }
 
@@ -181,24 +236,22 @@ public final class Uuids {
   //
   // Create a uuid from a sting.
   public static Uuid fromString(String string) {
-    return fromString(null, string.split("\\."), 0);
-  }
-
-  private static Uuid fromString(final Uuid root, String[] tokens, int index) {
 
-    final int id = Integer.parseInt(tokens[index]);
+    final String[] tokens = string.split("\\.");
+    final int[] ids = new int[tokens.length];
 
-    final Uuid link = complete(new Uuid() {
-      @Override
-      public Uuid root() { return root; }
-      @Override
-      public int id() { return id; }
-    });
+    for (int i = 0; i < tokens.length; i++) {
+      ids[i] = Integer.parseInt(tokens[i]);
+    }
 
-    final int nextIndex = index + 1;
+    return CompactUuid.wrap(ids);
+  }
 
-    return nextIndex < tokens.length ?
-        fromString(link, tokens, nextIndex) :
-        link;
+  // FROM IDS
+  //
+  // Create a uuid from the first "length" ids in the array, root first, or null if
+  // "length" is 0. The array is not kept so it can be reused once this returns.
+  public static Uuid fromIds(int[] ids, int length) {
+    return length == 0 ? null : CompactUuid.copyOf(ids, length);
   }
 }
@@ -0,0 +1,50 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.relay;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// RELAY REQUEST EVENT
+//
+// A flight recorder event for each read or write the relay handles. Off until a
+// recording turns it on (see chat.jfc).
+@Name("codeu.chat.RelayRequest")
+@Label("Relay Request")
+@Category({ "CodeU Chat", "Relay" })
+@Description("A read or write handled by the relay")
+@Enabled(false)
+@StackTrace(false)
+final class RelayRequestEvent extends Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Team")
+  String team;
+
+  @Label("Bundles")
+  @Description("The number of bundles read, or written")
+  int bundles;
+
+  @Label("Authorized")
+  boolean authorized;
+}
@@ -17,19 +17,22 @@ package codeu.chat.relay;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Time;
 import codeu.chat.common.Uuid;
 import codeu.chat.common.Uuids;
 import codeu.chat.util.Logger;
+import codeu.chat.util.RecentSet;
 
-public final class Server implements Relay {
+public final class Server implements Relay, ServerMXBean {
 
   private final static Logger.Log LOG = Logger.newLog(Server.class);
 
@@ -63,6 +66,7 @@ public final class Server implements Relay {
 
   private static final class Bundle implements Relay.Bundle {
 
+    private final long sequence;
     private final Uuid id;
     private final Time time;
     private final Uuid team;
@@ -70,14 +74,15 @@ public final class Server implements Relay {
     private final Component conversation;
     private final Component message;
 
-    public Bundle(Uuid id,
+    public Bundle(long sequence,
                   Time time,
                   Uuid team,
                   Component user,
                   Component conversation,
                   Component message) {
 
-      this.id = id;
+      this.sequence = sequence;
+      this.id = makeId(sequence);
       this.time = time;
       this.team = team;
       this.user = user;
@@ -106,14 +111,37 @@ public final class Server implements Relay {
 
   }
 
-  private final Queue<Relay.Bundle> history = new LinkedList<>();
-  private final Map<Uuid, byte[]> teamSecrets = new HashMap<>();
+  // HISTORY
+  //
+  // The history is a ring of "maxHistory" slots. Writes are sequenced one at a time
+  // through "writeLock" but reads never take a lock. A writer fills the slot for the
+  // next sequence number and only then publishes that sequence number through
+  // "published". A reader takes a snapshot of "published" and walks the ring up to
+  // it. As a writer can lap a slow reader, each slot that is read is checked against
+  // the sequence number the reader expected to find there.
+  private final AtomicReferenceArray<Bundle> history;
+  private final AtomicLong published = new AtomicLong(0);
+  private final Object writeLock = new Object();
+
+  // WRITES
+  //
+  // The (team, message id) of recent writes. A team's message id is used as the
+  // idempotency key for a write so that a server can safely retry a write that it
+  // did not hear back about. Only touched while holding "writeLock".
+  private final RecentSet<List<Uuid>> writes;
+
+  private final ConcurrentMap<Uuid, byte[]> teamSecrets = new ConcurrentHashMap<>();
+
+  // The sequence number of the last bundle that each team acknowledged.
+  private final ConcurrentMap<Uuid, AtomicLong> teamCursors = new ConcurrentHashMap<>();
 
   private final int maxHistory;
-  private final int maxRead;
 
-  // Okay, some reasoning behind why I'm using a statically initialized linear
-  // generator for the ids for the relay server.
+  // Can be changed over JMX while the relay runs.
+  private volatile int maxRead;
+
+  // Okay, some reasoning behind why the ids for the relay server are just the
+  // sequence number of the bundle.
   //
   //   Point A : The ids only need to be uniqiue for a single run time of the
   //             relay. Ids from the relay are only used as a position into its
@@ -126,11 +154,13 @@ public final class Server implements Relay {
   //             each message was 160 bytes long the relay server would need
   //             over 319 GB of ram.
   //
+  //   Point C : As the id is the sequence number, finding the root of a read is
+  //             just finding the slot for that sequence number. There is no need
+  //             to search the history.
+  //
   // As a side note, the ids start at 1 and not 0 to avoid the first id from
   // matching the NULL id which is defined as (null, 0);
 
- private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
-
   // SERVER
   //
   // When initializing the server keep the following in mind.
@@ -138,8 +168,19 @@ public final class Server implements Relay {
   //   - Keep "maxRead" small enough to avoid any one client from connecting to
   //     the server for too long.
   public Server(int maxHistory, int maxRead) {
+    this(maxHistory, maxRead, maxHistory);
+  }
+
+  // SERVER
+  //
+  // Duplicate writes are only spotted within the last "dedupWindow" writes. Keep
+  // it at least as large as "maxHistory" so that a duplicate can not land in the
+  // history beside its twin.
+  public Server(int maxHistory, int maxRead, int dedupWindow) {
     this.maxHistory = Math.max(0, maxHistory);
     this.maxRead = Math.max(0, maxRead);
+    this.history = new AtomicReferenceArray<>(this.maxHistory);
+    this.writes = new RecentSet<>(Math.max(0, dedupWindow));
   }
 
   // ADD TEAM
@@ -151,10 +192,10 @@ public final class Server implements Relay {
 
     LOG.info("Adding team to relay %s", id);
 
-    final boolean open = teamSecrets.get(id) == null;
+    final boolean open = teamSecrets.putIfAbsent(id, secret) == null;
 
     if (open) {
-      teamSecrets.put(id, secret);
+      teamCursors.putIfAbsent(id, new AtomicLong(0));
     }
 
     LOG.info(open ?
@@ -164,6 +205,55 @@ public final class Server implements Relay {
     return open;
   }
 
+  // LAG
+  //
+  // The number of bundles that the relay has accepted since the last bundle that
+  // the team acknowledged. Unknown teams have no lag.
+  public long lag(Uuid teamId) {
+    final AtomicLong cursor = teamCursors.get(teamId);
+    return cursor == null ? 0 : Math.max(0, published.get() - cursor.get());
+  }
+
+  @Override
+  public int getHistorySize() {
+    return (int) Math.min(published.get(), maxHistory);
+  }
+
+  @Override
+  public int getMaxHistory() {
+    return maxHistory;
+  }
+
+  @Override
+  public long getPublishedBundles() {
+    return published.get();
+  }
+
+  @Override
+  public long getEvictedBundles() {
+    return Math.max(0, published.get() - maxHistory);
+  }
+
+  @Override
+  public Map<String, Long> getTeamLag() {
+    final Map<String, Long> lags = new TreeMap<>();
+    for (final Uuid team : teamCursors.keySet()) {
+      lags.put(Uuids.toString(team), lag(team));
+    }
+    return lags;
+  }
+
+  @Override
+  public int getMaxRead() {
+    return maxRead;
+  }
+
+  @Override
+  public void setMaxRead(int maxRead) {
+    LOG.info("Relay maxRead changed from %d to %d", this.maxRead, maxRead);
+    this.maxRead = Math.max(0, maxRead);
+  }
+
   @Override
   public Relay.Bundle.Component pack(Uuid id, String text, Time time, String security) {
     return new Component(id, text, time, security);
@@ -176,6 +266,29 @@ public final class Server implements Relay {
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
 
+    final RelayRequestEvent event = new RelayRequestEvent();
+    event.begin();
+
+    final boolean written = writeBundle(teamId, teamSecret, user, conversation, message);
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = "WRITE";
+      event.team = Uuids.toString(teamId);
+      event.bundles = written ? 1 : 0;
+      event.authorized = written;
+      event.commit();
+    }
+
+    return written;
+  }
+
+  private boolean writeBundle(Uuid teamId,
+                              byte[] teamSecret,
+                              Relay.Bundle.Component user,
+                              Relay.Bundle.Component conversation,
+                              Relay.Bundle.Component message) {
+
     if (authenticate(teamId, teamSecret)) {
 
       LOG.info(
@@ -185,17 +298,40 @@ public final class Server implements Relay {
           conversation.id(),
           message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
+      synchronized (writeLock) {
+
+        if (!writes.add(Arrays.asList(teamId, message.id()))) {
+
+          // The write already went through. Report success so that the writer
+          // stops retrying but do not add it to the history a second time.
+          LOG.info("Dropping duplicate write team=%s message=%s", teamId, message.id());
+
+          return true;
+        }
+
+        final long sequence = published.get() + 1;
+
+        if (sequence > Integer.MAX_VALUE) {
+          throw new IllegalStateException("Uuid overflow");
+        }
+
+        if (maxHistory > 0) {
+          history.set(slot(sequence), new Bundle(
+              sequence,
+              Time.now(),
+              teamId,
+              user,
+              conversation,
+              message));
+        }
+
+        // Only publish the sequence number once the slot is filled so that readers
+        // never see a sequence number before its bundle.
+        published.set(sequence);
       }
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
+      return true;
+
     } else {
 
       LOG.warning(
@@ -212,39 +348,65 @@ public final class Server implements Relay {
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
 
+    final RelayRequestEvent event = new RelayRequestEvent();
+    event.begin();
+
+    final Collection<Relay.Bundle> found = readBundles(teamId, teamSecret, root, range);
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = "READ";
+      event.team = Uuids.toString(teamId);
+      event.bundles = found.size();
+      event.authorized = authenticate(teamId, teamSecret);
+      event.commit();
+    }
+
+    return found;
+  }
+
+  private Collection<Relay.Bundle> readBundles(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
+
     final Collection<Relay.Bundle> found = new ArrayList<>();
 
     if (authenticate(teamId, teamSecret)) {
 
-      int remaining = Math.min(range, maxRead);
+      final int allowed = Math.max(0, Math.min(range, maxRead));
 
       LOG.info(
          "Request to read from server requested=%d allowed=%d",
           range,
           maxRead);
 
-      // Writing is a one way flag (once set it will not be unset) that switches
-      // between looking for the starting message and writing all messages to the
-      // output.
-      boolean writing = root == Uuids.NULL || root == null;
+      final long last = published.get();
+      final long first = Math.max(1, last - maxHistory + 1);
+      final long rootSequence = sequenceOf(root);
+
+      // Reading from a root acknowledges everything up to and including the root.
+      if (rootSequence > 0 && rootSequence <= last) {
+        acknowledge(teamId, rootSequence);
+      }
 
-      for (final Relay.Bundle message : history) {
+      // If the root is not in the history (or is NULL) start from the earliest
+      // bundle that is still in the history.
+      long next = rootSequence >= first && rootSequence <= last ? rootSequence + 1 : first;
 
-        if (writing && remaining > 0) {
-          found.add(message);
-        }
+      for (; maxHistory > 0 && next <= last && found.size() < allowed; next++) {
 
-        remaining = Math.max(remaining - 1, 0);
+        final Bundle bundle = history.get(slot(next));
 
-        // Only update "writing" after the check as the root is already known and
-        // should not be included in the output.
-        writing |= Uuids.equals(root, message.id());
+        // A writer lapped this read and replaced the bundle. There is no way to
+        // get the old bundle back so skip it.
+        if (bundle != null && bundle.sequence == next) {
+          found.add(bundle);
+        }
       }
 
       LOG.info(
-          "Read request complete requested=%d fullfilled=%d",
+          "Read request complete requested=%d fullfilled=%d lag=%d",
           range,
-          found.size());
+          found.size(),
+          lag(teamId));
 
     } else {
 
@@ -256,6 +418,43 @@ public final class Server implements Relay {
     return found;
   }
 
+  @Override
+  public Uuid cursor(Uuid teamId, byte[] teamSecret) {
+
+    if (authenticate(teamId, teamSecret)) {
+      final AtomicLong cursor = teamCursors.get(teamId);
+      return cursor == null || cursor.get() == 0 ? Uuids.NULL : makeId(cursor.get());
+    }
+
+    LOG.info("Unauthorized attempt to read cursor from server team=%s", teamId);
+
+    return Uuids.NULL;
+  }
+
+  private void acknowledge(Uuid teamId, long sequence) {
+
+    final AtomicLong cursor = teamCursors.get(teamId);
+
+    // Cursors only ever move forward. Servers may re-read from an older root after
+    // a restart and that should not move the cursor back.
+    for (long current = cursor.get();
+         current < sequence && !cursor.compareAndSet(current, sequence);
+         current = cursor.get()) {
+    }
+  }
+
+  private int slot(long sequence) {
+    return (int) (sequence % maxHistory);
+  }
+
+  private static long sequenceOf(Uuid id) {
+    return id == null || Uuids.length(id) != 1 ? 0 : Math.max(0, id.id());
+  }
+
+  private static Uuid makeId(long sequence) {
+    return Uuids.child(null, (int) sequence);
+  }
+
   private boolean authenticate(Uuid id, byte[] secret) {
     return id != null && Arrays.equals(secret, teamSecrets.get(id));
   }
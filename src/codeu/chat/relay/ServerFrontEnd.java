@@ -21,6 +21,7 @@ import java.util.Collection;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
+import codeu.chat.common.RelayBundles;
 import codeu.chat.common.Time;
 import codeu.chat.common.Uuid;
 import codeu.chat.common.Uuids;
@@ -42,7 +43,7 @@ public final class ServerFrontEnd {
       final Uuid id = Uuids.SERIALIZER.read(in);
       final String text = Serializers.STRING.read(in);
       final Time time = Time.SERIALIZER.read(in);
-      String security=Serializers.STRING.read(in);//TODO : not sure
+      final String security = Serializers.nullable(Serializers.STRING).read(in);
 
       // I could have passed the relay and use its "pack" method but that would
       // have been more work than just building an object here.
@@ -63,6 +64,7 @@ public final class ServerFrontEnd {
       Uuids.SERIALIZER.write(out, value.id());
       Serializers.STRING.write(out, value.text());
       Time.SERIALIZER.write(out, value.time());
+      Serializers.nullable(Serializers.STRING).write(out, value.security());
     }
   };
 
@@ -117,14 +119,16 @@ public final class ServerFrontEnd {
     LOG.info("Handling Connection - start");
 
     switch (Serializers.INTEGER.read(connection.in())) {
-      case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
+      case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection, false); break;
+      case NetworkCode.RELAY_READ_COMPRESSED_REQUEST: handleReadMessage(connection, true); break;
       case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+      case NetworkCode.RELAY_CURSOR_REQUEST: handleCursorMessage(connection); break;
     }
 
     LOG.info("Handling Connection - end");
   }
 
-  private void handleReadMessage(Connection connection) throws IOException {
+  private void handleReadMessage(Connection connection, boolean compressed) throws IOException {
 
     LOG.info("Handling Read Message - start");
 
@@ -134,17 +138,23 @@ public final class ServerFrontEnd {
     final int range = Serializers.INTEGER.read(connection.in());
 
     LOG.info(
-        "Reading team=%s root=%s range=%d",
+        "Reading team=%s root=%s range=%d compressed=%s",
         teamId,
         root,
-        range);
+        range,
+        compressed);
 
     final Collection<Relay.Bundle> result = backEnd.read(teamId, teamSecret, root, range);
 
     LOG.info("Reading result.size=%d", result.size());
 
-    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
-    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+    if (compressed) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_COMPRESSED_RESPONSE);
+      RelayBundles.COMPRESSED_SERIALIZER.write(connection.out(), result);
+    } else {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
+      Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+    }
 
     LOG.info("Handling Read Message - end");
   }
@@ -179,4 +189,21 @@ public final class ServerFrontEnd {
 
     LOG.info("Handling Write Message - end");
   }
+
+  private void handleCursorMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Cursor Message - start");
+
+    final Uuid teamId = Uuids.SERIALIZER.read(connection.in());
+    final byte[] teamSecret = Serializers.BYTES.read(connection.in());
+
+    final Uuid cursor = backEnd.cursor(teamId, teamSecret);
+
+    LOG.info("Cursor team=%s cursor=%s", teamId, cursor);
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_CURSOR_RESPONSE);
+    Uuids.SERIALIZER.write(connection.out(), cursor);
+
+    LOG.info("Handling Cursor Message - end");
+  }
 }
@@ -0,0 +1,42 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.util.Map;
+
+// SERVER MX BEAN
+//
+// What the relay shows over JMX. "maxRead" can be changed while it runs.
+public interface ServerMXBean {
+
+  // Bundles in the history now, at most "maxHistory".
+  int getHistorySize();
+
+  int getMaxHistory();
+
+  // Bundles accepted since the relay started.
+  long getPublishedBundles();
+
+  // Bundles that have been pushed out of the history by newer ones.
+  long getEvictedBundles();
+
+  // How many bundles each team is behind, by team id.
+  Map<String, Long> getTeamLag();
+
+  int getMaxRead();
+
+  void setMaxRead(int maxRead);
+
+}
@@ -0,0 +1,93 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import codeu.chat.common.Uuid;
+
+// CHANGE LOG
+//
+// The ids of the most recent changes to one kind of object, each with the
+// generation it was made in. This is enough to tell a client that knows an older
+// generation which objects it needs to look at again. Only the last "capacity"
+// changes are kept - a client that is further behind than that has to start over.
+public final class ChangeLog {
+
+  private static final class Change {
+
+    public final long generation;
+    public final Uuid id;
+
+    public Change(long generation, Uuid id) {
+      this.generation = generation;
+      this.id = id;
+    }
+  }
+
+  private final int capacity;
+  private final Deque<Change> changes = new ArrayDeque<>();
+
+  // Every change after "complete" is still in the log.
+  private long complete;
+  private long generation;
+
+  public ChangeLog(int capacity, long start) {
+    this.capacity = capacity;
+    this.complete = start;
+    this.generation = start;
+  }
+
+  public long generation() {
+    return generation;
+  }
+
+  public void record(long generation, Uuid id) {
+
+    this.generation = generation;
+    changes.addLast(new Change(generation, id));
+
+    if (changes.size() > capacity) {
+      complete = changes.removeFirst().generation;
+    }
+  }
+
+  // CHANGED SINCE
+  //
+  // Get the ids of everything that changed after the given generation, or null if
+  // the log does not go back that far (or the generation was never given out).
+  public Collection<Uuid> changedSince(long since) {
+
+    if (since < complete || since > generation) {
+      return null;
+    }
+
+    final Collection<Uuid> ids = new LinkedHashSet<>();
+
+    for (final Iterator<Change> it = changes.descendingIterator(); it.hasNext(); ) {
+      final Change change = it.next();
+      if (change.generation <= since) {
+        break;
+      }
+      ids.add(change.id);
+    }
+
+    return ids;
+  }
+}
@@ -14,12 +14,22 @@
 
 package codeu.chat.server;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.Conversation;
 import codeu.chat.common.Message;
 import codeu.chat.common.RawController;
+import codeu.chat.common.Relay;
 import codeu.chat.common.Time;
 import codeu.chat.common.User;
 import codeu.chat.common.Uuid;
@@ -64,7 +74,7 @@ public final class Controller implements RawController, BasicController {
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
       message = new Message(id, Uuids.NULL, Uuids.NULL, creationTime, author, body);
-      model.add(message);
+      model.add(conversation, message);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -109,11 +119,177 @@ public final class Controller implements RawController, BasicController {
       model.conversationById().update(conversation, foundConversation);
       model.conversationByText().update(foundConversation.title, foundConversation);
       model.conversationByTime().update(foundConversation.creation, foundConversation);
+      model.messagesAdded(conversation);
     }
 
     return message;
   }
 
+  // INGEST
+  //
+  // Apply a batch of bundles from the relay in one go. Each user and conversation
+  // is looked up (or created) once for the whole batch and the new messages of each
+  // conversation are linked together in creation order before they are added, so
+  // each message is written once and each conversation is updated once. All the
+  // log writes for the batch are held back until the batch is done. Bundles whose
+  // message is already known are skipped. Returns the messages that were added.
+  public Collection<Message> ingest(Collection<Relay.Bundle> bundles) {
+
+    final Map<Uuid, User> users = new HashMap<>();
+    final Map<Uuid, Conversation> conversations = new HashMap<>();
+    final Map<Uuid, List<Message>> added = new LinkedHashMap<>();
+    final Set<Uuid> seen = new HashSet<>();
+
+    final List<Message> result = new ArrayList<>();
+
+    model.beginBatch();
+
+    try {
+
+      for (final Relay.Bundle bundle : bundles) {
+
+        final Relay.Bundle.Component relayMessage = bundle.message();
+
+        if (!seen.add(relayMessage.id()) || !isIdFree(relayMessage.id())) {
+          continue;
+        }
+
+        final User user = resolveUser(users, bundle.user());
+
+        final Conversation conversation = user == null ?
+            null :
+            resolveConversation(conversations, bundle.conversation(), user);
+
+        if (conversation == null) {
+          LOG.warning("Failed to apply bundle %s", bundle.id());
+          continue;
+        }
+
+        List<Message> messages = added.get(conversation.id);
+        if (messages == null) {
+          messages = new ArrayList<>();
+          added.put(conversation.id, messages);
+        }
+
+        messages.add(new Message(relayMessage.id(),
+                                 Uuids.NULL,
+                                 Uuids.NULL,
+                                 relayMessage.time(),
+                                 user.id,
+                                 relayMessage.text()));
+
+        conversation.users.add(user.id);
+      }
+
+      for (final Map.Entry<Uuid, List<Message>> entry : added.entrySet()) {
+        result.addAll(append(conversations.get(entry.getKey()), entry.getValue()));
+      }
+
+    } finally {
+      model.endBatch();
+    }
+
+    LOG.info("Ingested %d of %d bundles into %d conversations",
+             result.size(),
+             bundles.size(),
+             added.size());
+
+    return result;
+  }
+
+  // Add the messages to the end of the conversation. All the links between the new
+  // messages are made before they are added so that they do not need updating.
+  private List<Message> append(Conversation conversation, List<Message> messages) {
+
+    Collections.sort(messages, new Comparator<Message>() {
+      @Override
+      public int compare(Message a, Message b) {
+        return a.creation.compareTo(b.creation);
+      }
+    });
+
+    final Message lastMessage = Uuids.equals(conversation.lastMessage, Uuids.NULL) ?
+        null :
+        model.messageById().first(conversation.lastMessage);
+
+    Uuid previous = lastMessage == null ? Uuids.NULL : lastMessage.id;
+
+    for (int i = 0; i < messages.size(); i++) {
+      final Message message = messages.get(i);
+      message.previous = previous;
+      message.next = i + 1 < messages.size() ? messages.get(i + 1).id : Uuids.NULL;
+      previous = message.id;
+      model.add(conversation.id, message);
+    }
+
+    if (lastMessage != null) {
+      lastMessage.next = messages.get(0).id;
+      model.messageById().update(lastMessage.id, lastMessage);
+      model.messageByText().update(lastMessage.content, lastMessage);
+      model.messageByTime().update(lastMessage.creation, lastMessage);
+    }
+
+    if (Uuids.equals(conversation.firstMessage, Uuids.NULL)) {
+      conversation.firstMessage = messages.get(0).id;
+    }
+
+    conversation.lastMessage = messages.get(messages.size() - 1).id;
+
+    model.conversationById().update(conversation.id, conversation);
+    model.conversationByText().update(conversation.title, conversation);
+    model.conversationByTime().update(conversation.creation, conversation);
+    model.messagesAdded(conversation.id);
+
+    return messages;
+  }
+
+  private User resolveUser(Map<Uuid, User> users, Relay.Bundle.Component relayUser) {
+
+    User user = users.get(relayUser.id());
+
+    if (user == null) {
+      user = model.userById().first(relayUser.id());
+    }
+
+    if (user == null) {
+      user = newUser(relayUser.id(), relayUser.text(), relayUser.time(), relayUser.security());
+    }
+
+    if (user != null) {
+      users.put(user.id, user);
+    }
+
+    return user;
+  }
+
+  private Conversation resolveConversation(Map<Uuid, Conversation> conversations,
+                                           Relay.Bundle.Component relayConversation,
+                                           User user) {
+
+    Conversation conversation = conversations.get(relayConversation.id());
+
+    if (conversation == null) {
+      conversation = model.conversationById().first(relayConversation.id());
+    }
+
+    if (conversation == null) {
+
+      // As the relay does not tell us who made the conversation - the first person who
+      // has a message in the conversation will get ownership over this server's copy
+      // of the conversation.
+      conversation = newConversation(relayConversation.id(),
+                                     relayConversation.text(),
+                                     user.id,
+                                     relayConversation.time());
+    }
+
+    if (conversation != null) {
+      conversations.put(conversation.id, conversation);
+    }
+
+    return conversation;
+  }
+
   @Override
   public void removeMessage(Message message, Uuid conversation) {
 
@@ -146,6 +322,7 @@ public final class Controller implements RawController, BasicController {
     }
 
     model.remove(message);
+    model.messageRemoved(conversation);
   }
 
   @Override
@@ -14,10 +14,17 @@
 
 package codeu.chat.server;
 
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import codeu.chat.common.Conversation;
-import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Message;
 import codeu.chat.common.Time;
 import codeu.chat.common.User;
@@ -34,15 +41,7 @@ public final class Model {
 
     @Override
     public int compare(Uuid a, Uuid b) {
-
-      if (a == b) { return 0; }
-
-      if (a == null && b != null) { return -1; }
-
-      if (a != null && b == null) { return 1; }
-
-      final int order = Integer.compare(a.id(), b.id());
-      return order == 0 ? compare(a.root(), b.root()) : order;
+      return Uuids.compare(a, b);
     }
   };
 
@@ -55,6 +54,15 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
+  // Newest first, messages made at the same time in id order.
+  private static final Comparator<Message> NEWEST_FIRST = new Comparator<Message>() {
+    @Override
+    public int compare(Message a, Message b) {
+      final int order = TIME_COMPARE.compare(b.creation, a.creation);
+      return order == 0 ? UUID_COMPARE.compare(a.id, b.id) : order;
+    }
+  };
+
   private BTreeStore<Uuid, User> userById = new BTreeStore<>(BTreeStore.NUM_POINTERS, UUID_COMPARE,
       Uuids.SERIALIZER, User.SERIALIZER, STORE_FILENAME + "UuidUser.log");
   private BTreeStore<Time, User> userByTime = new BTreeStore<>(BTreeStore.NUM_POINTERS, TIME_COMPARE,
@@ -79,11 +87,157 @@ public final class Model {
   private BTreeStore<String, Message> messageByText = new BTreeStore<>(BTreeStore.NUM_POINTERS, STRING_COMPARE,
       Serializers.STRING, Message.SERIALIZER, STORE_FILENAME + "StringMessage.log");
 
-  private final Uuid.Generator userGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
-  private Uuid currentUserGeneration = userGenerations.make();
+  // COUNTED STORES
+  //
+  // The stores as they were first made. The fields above are replaced as the
+  // stores change, but every node of a store shares its counts, so these give the
+  // counts of the stores as they are now. They are never replaced and their counts
+  // can be read without the server's lock.
+  private final List<BTreeStore<?, ?>> counted = Collections.unmodifiableList(Arrays.asList(stores()));
+  private final BTreeStore<?, ?> countedUsers = userById;
+  private final BTreeStore<?, ?> countedConversations = conversationById;
+  private final BTreeStore<?, ?> countedMessages = messageById;
+
+  // GENERATIONS
+  //
+  // Every change to users, conversations or a conversation's messages takes the
+  // next generation from one counter. A generation is the model's epoch in the
+  // high 32 bits and the counter in the low 32 bits. The epoch is picked at random
+  // each time the model is made, so generations that clients kept from before a
+  // restart - even ones the server's cache of the clients stored - do not match
+  // anything given out after it and those clients are told to start over. The
+  // counter starts again from zero, so this does not depend on the clock.
+  private static final int CHANGE_LOG_SIZE = 1024;
+
+  private static final class MessageGenerations {
+    public long changed;
+    public long removed;
+  }
+
+  private final int epoch = 1 + new Random().nextInt(Integer.MAX_VALUE - 1);
+  private final long firstGeneration = (long) epoch << 32;
+  private long generation = firstGeneration;
+
+  private final ChangeLog userChanges = new ChangeLog(CHANGE_LOG_SIZE, firstGeneration);
+  private final ChangeLog conversationChanges = new ChangeLog(CHANGE_LOG_SIZE, firstGeneration);
+  private final Map<Uuid, MessageGenerations> messageGenerations = new HashMap<>();
+
+  // SEARCH
+  //
+  // The words of every message and the conversation each message is in. Neither is
+  // written out - they are rebuilt from the stores when the model is made.
+  private final TextIndex<Message> messageWords = new TextIndex<>(NEWEST_FIRST);
+  private final Map<Uuid, Uuid> conversationByMessage = new HashMap<>();
+
+  // The messages of one conversation in conversation order, with the position of
+  // each, so that listing them does not mean following the links one lookup at a
+  // time. Messages are only ever added at the end of a conversation.
+  private static final class ConversationMessages {
+
+    public final List<Message> messages = new ArrayList<>();
+    public final Map<Uuid, Integer> positions = new HashMap<>();
+
+    public void add(Message message) {
+      positions.put(message.id, messages.size());
+      messages.add(message);
+    }
+
+    public void remove(Uuid id) {
+      final Integer position = positions.remove(id);
+      if (position != null) {
+        messages.remove((int) position);
+        for (int i = position; i < messages.size(); i++) {
+          positions.put(messages.get(i).id, i);
+        }
+      }
+    }
+  }
+
+  private final Map<Uuid, ConversationMessages> messagesByConversation = new HashMap<>();
+
+  public Model() {
+    for (final Conversation conversation : conversationById.all()) {
+      Message message = messageById.first(conversation.firstMessage);
+      while (message != null && !conversationByMessage.containsKey(message.id)) {
+        index(conversation.id, message);
+        message = messageById.first(message.next);
+      }
+    }
+  }
+
+  // BEGIN BATCH
+  //
+  // Hold back the log writes of every store until "endBatch" is called so that a
+  // large group of changes costs one write per store rather than one write per
+  // change.
+  public void beginBatch() {
+    for (final BTreeStore<?, ?> store : stores()) {
+      store.beginBatch();
+    }
+  }
+
+  // END BATCH
+  //
+  // Write out everything that was held back since "beginBatch". Every store's batch
+  // is ended even if one of them cannot be written, and then the first failure is
+  // thrown. The changes of the batch are already in the model but those that could
+  // not be written will not be there after a restart.
+  public void endBatch() {
+    UncheckedIOException failure = null;
+    for (final BTreeStore<?, ?> store : stores()) {
+      try {
+        store.endBatch();
+      } catch (UncheckedIOException ex) {
+        if (failure == null) {
+          failure = ex;
+        } else {
+          failure.addSuppressed(ex);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // SYNC
+  //
+  // Make every change written to the stores' logs since the last sync durable, with
+  // one sync for each store that has any. The stores write each change to their
+  // logs as it is made but leave syncing to this, so that a request that changes
+  // several stores pays for one sync per store rather than one per change. Every
+  // store is synced even if one of them cannot be, and then the first failure is
+  // thrown.
+  public void sync() {
+    UncheckedIOException failure = null;
+    for (final BTreeStore<?, ?> store : stores()) {
+      try {
+        store.sync();
+      } catch (UncheckedIOException ex) {
+        if (failure == null) {
+          failure = ex;
+        } else {
+          failure.addSuppressed(ex);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // Every store. The stores are replaced as they change so this is only good
+  // until the next change.
+  public BTreeStore<?, ?>[] stores() {
+    return new BTreeStore<?, ?>[] {
+        userById, userByTime, userByText,
+        conversationById, conversationByTime, conversationByText,
+        messageById, messageByTime, messageByText
+    };
+  }
 
   public void add(User user) {
-    currentUserGeneration = userGenerations.make();
+    userChanges.record(++generation, user.id);
 
     userById = userById.insert(user.id, user, true);
     userByTime = userByTime.insert(user.creation, user, true);
@@ -91,6 +245,7 @@ public final class Model {
   }
 
   public void remove(User user) {
+    userChanges.record(++generation, user.id);
     userById = userById.delete(user.id);
     userByTime = userByTime.delete(user.creation);
     userByText = userByText.delete(user.name);
@@ -108,20 +263,30 @@ public final class Model {
     return userByText;
   }
 
+  // The generation of the last change to users as a uuid, the epoch and then the
+  // counter.
   public Uuid userGeneration() {
-    return currentUserGeneration;
+    final long generation = userChanges.generation();
+    return Uuids.fromIds(new int[] { (int) (generation >>> 32), (int) generation }, 2);
+  }
+
+  public ChangeLog userChanges() {
+    return userChanges;
   }
 
   public void add(Conversation conversation) {
+    conversationChanges.record(++generation, conversation.id);
     conversationById = conversationById.insert(conversation.id, conversation, false);
     conversationByTime = conversationByTime.insert(conversation.creation, conversation, true);
     conversationByText = conversationByText.insert(conversation.title, conversation, true);
   }
 
   public void remove(Conversation conversation) {
+    conversationChanges.record(++generation, conversation.id);
     conversationById = conversationById.delete(conversation.id);
     conversationByTime = conversationByTime.delete(conversation.creation);
     conversationByText = conversationByText.delete(conversation.title);
+    messagesByConversation.remove(conversation.id);
   }
 
   public StoreAccessor<Uuid, Conversation> conversationById() {
@@ -136,16 +301,37 @@ public final class Model {
     return conversationByText;
   }
 
-  public void add(Message message) {
+  public ChangeLog conversationChanges() {
+    return conversationChanges;
+  }
+
+  public void add(Uuid conversation, Message message) {
     messageById = messageById.insert(message.id, message, false);
     messageByTime = messageByTime.insert(message.creation, message, true);
     messageByText = messageByText.insert(message.content, message, true);
+    index(conversation, message);
   }
 
   public void remove(Message message) {
     messageById = messageById.delete(message.id);
     messageByTime = messageByTime.delete(message.creation);
     messageByText = messageByText.delete(message.content);
+    messageWords.remove(message, message.content);
+    final Uuid conversation = conversationByMessage.remove(message.id);
+    if (conversation != null && messagesByConversation.containsKey(conversation)) {
+      messagesByConversation.get(conversation).remove(message.id);
+    }
+  }
+
+  private void index(Uuid conversation, Message message) {
+    messageWords.add(message, message.content);
+    conversationByMessage.put(message.id, conversation);
+    ConversationMessages messages = messagesByConversation.get(conversation);
+    if (messages == null) {
+      messages = new ConversationMessages();
+      messagesByConversation.put(conversation, messages);
+    }
+    messages.add(message);
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -159,4 +345,96 @@ public final class Model {
   public StoreAccessor<String, Message> messageByText() {
     return messageByText;
   }
+
+  // The messages found by a search come newest first.
+  public TextIndex<Message> messageWords() {
+    return messageWords;
+  }
+
+  // The conversation a message is in, or null if the message is not known.
+  public Uuid conversationOf(Uuid message) {
+    return conversationByMessage.get(message);
+  }
+
+  // The messages of a conversation in conversation order. The list is the model's
+  // own and must not be changed.
+  public List<Message> messagesOf(Uuid conversation) {
+    final ConversationMessages messages = messagesByConversation.get(conversation);
+    return messages == null ?
+        Collections.<Message>emptyList() :
+        Collections.unmodifiableList(messages.messages);
+  }
+
+  // The position of a message within its conversation, or -1 if the message is
+  // not known.
+  public int positionOf(Uuid message) {
+    final Uuid conversation = conversationByMessage.get(message);
+    final ConversationMessages messages =
+        conversation == null ? null : messagesByConversation.get(conversation);
+    final Integer position = messages == null ? null : messages.positions.get(message);
+    return position == null ? -1 : position;
+  }
+
+  // Every store, for their counts and logs. Unlike "stores" these can be used
+  // without the server's lock.
+  public List<BTreeStore<?, ?>> countedStores() {
+    return counted;
+  }
+
+  // The counts can be read without the server's lock.
+  public int userCount() {
+    return countedUsers.size();
+  }
+
+  public int conversationCount() {
+    return countedConversations.size();
+  }
+
+  public int messageCount() {
+    return countedMessages.size();
+  }
+
+  // MESSAGES ADDED
+  //
+  // Adding a message does not change its conversation's generation as it is not
+  // linked in yet, so whoever adds messages to a conversation has to call this
+  // once they are to move its generation on.
+  public void messagesAdded(Uuid conversation) {
+    messageGenerations(conversation).changed = ++generation;
+  }
+
+  public void messageRemoved(Uuid conversation) {
+    final MessageGenerations generations = messageGenerations(conversation);
+    generations.changed = ++generation;
+    generations.removed = generation;
+  }
+
+  // Whether the generation was given out by this model rather than one from before
+  // a restart.
+  public boolean isCurrentEpoch(long generation) {
+    return (generation >>> 32) == epoch;
+  }
+
+  // The generation of the last change to the conversation's messages.
+  public long messageGeneration(Uuid conversation) {
+    final MessageGenerations generations = messageGenerations.get(conversation);
+    return generations == null ? firstGeneration : generations.changed;
+  }
+
+  // The generation of the last time a message was removed from the conversation.
+  public long messageRemovalGeneration(Uuid conversation) {
+    final MessageGenerations generations = messageGenerations.get(conversation);
+    return generations == null ? firstGeneration : generations.removed;
+  }
+
+  private MessageGenerations messageGenerations(Uuid conversation) {
+    MessageGenerations generations = messageGenerations.get(conversation);
+    if (generations == null) {
+      generations = new MessageGenerations();
+      generations.changed = firstGeneration;
+      generations.removed = firstGeneration;
+      messageGenerations.put(conversation, generations);
+    }
+    return generations;
+  }
 }
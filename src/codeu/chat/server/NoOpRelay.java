@@ -20,6 +20,7 @@ import java.util.Collection;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Time;
 import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
 
 
 // NO OP RELAY
@@ -69,4 +70,9 @@ public final class NoOpRelay implements Relay {
 
     return new ArrayList<Relay.Bundle>();
   }
+
+  @Override
+  public Uuid cursor(Uuid teamId, byte[] teamSecret) {
+    return Uuids.NULL;
+  }
 }
@@ -24,23 +24,6 @@ import codeu.chat.common.Uuids;
 // to the caller.
 final class RandomUuidGenerator implements Uuid.Generator {
 
-  private static final class BasicUuid implements Uuid {
-
-    private final Uuid root;
-    private final int id;
-
-    public BasicUuid(Uuid root, int id) {
-      this.root = root;
-      this.id = id;
-    }
-
-    @Override
-    public Uuid root() { return root; }
-
-    @Override
-    public int id() { return id; }
-  }
-
   private final Uuid commonRoot;
   private final Random random;
 
@@ -51,6 +34,6 @@ final class RandomUuidGenerator implements Uuid.Generator {
 
   @Override
   public Uuid make() {
-    return Uuids.complete(new BasicUuid(commonRoot, random.nextInt()));
+    return Uuids.child(commonRoot, random.nextInt());
   }
 }
@@ -17,11 +17,16 @@ package codeu.chat.server;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
+import codeu.chat.common.RelayBundles;
 import codeu.chat.common.Time;
 import codeu.chat.common.Uuid;
 import codeu.chat.common.Uuids;
@@ -71,7 +76,7 @@ public final class RemoteRelay implements Relay {
       final Uuid id = Uuids.SERIALIZER.read(in);
       final String text = Serializers.STRING.read(in);
       final Time time = Time.SERIALIZER.read(in);
-      String security=Serializers.STRING.read(in);
+      final String security = Serializers.nullable(Serializers.STRING).read(in);
 
       return new Component(id, time, text, security);
     }
@@ -81,6 +86,7 @@ public final class RemoteRelay implements Relay {
       Uuids.SERIALIZER.write(out, value.id());
       Serializers.STRING.write(out, value.text());
       Time.SERIALIZER.write(out, value.time());
+      Serializers.nullable(Serializers.STRING).write(out, value.security());
     }
   };
 
@@ -124,10 +130,47 @@ public final class RemoteRelay implements Relay {
     }
   };
 
-  private final ConnectionSource source;
+  // SHARDS
+  //
+  // A remote relay can be made up of more than one relay process (shard). Each
+  // bundle is written to a single shard picked from its conversation's id so that
+  // all the messages in a conversation stay in order on one shard. Reads go to
+  // every shard and the results are merged by the time each bundle reached its
+  // relay.
+  //
+  // Every shard counts its bundle ids from 1, so with more than one shard the ids
+  // would collide. The bundles that are returned from a read have their id wrapped
+  // with the shard they came from and the position in each shard is kept in
+  // "cursors". With a single shard nothing is wrapped and the ids are passed through
+  // untouched.
+  private final ConnectionSource[] shards;
+  private final Uuid[] shardRoots;
+  private final Uuid[] cursors;
+
+  // COMPRESSION
+  //
+  // Reads ask each shard for a compressed page of bundles first. A relay that does
+  // not know RELAY_READ_COMPRESSED_REQUEST will not answer it, so that shard is
+  // marked here and every read after that uses the plain RELAY_READ_REQUEST.
+  private final boolean[] compressed;
 
   public RemoteRelay(ConnectionSource source) {
-    this.source = source;
+    this(Arrays.asList(source));
+  }
+
+  public RemoteRelay(List<ConnectionSource> shards) {
+
+    this.shards = shards.toArray(new ConnectionSource[shards.size()]);
+    this.shardRoots = new Uuid[this.shards.length];
+    this.cursors = new Uuid[this.shards.length];
+    this.compressed = new boolean[this.shards.length];
+
+    Arrays.fill(compressed, true);
+
+    for (int i = 0; i < this.shards.length; i++) {
+      shardRoots[i] = makeId(null, i + 1);
+      cursors[i] = Uuids.NULL;
+    }
   }
 
   @Override
@@ -142,6 +185,109 @@ public final class RemoteRelay implements Relay {
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
 
+    final int shard = shardFor(conversation.id());
+
+    LOG.info("Routing write conversation=%s shard=%d", conversation.id(), shard);
+
+    final RelayCallEvent event = new RelayCallEvent();
+    event.begin();
+
+    final boolean written = write(shards[shard], teamId, teamSecret, user, conversation, message);
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = "WRITE";
+      event.shard = shard;
+      event.team = Uuids.toString(teamId);
+      event.bundles = written ? 1 : 0;
+      event.commit();
+    }
+
+    return written;
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
+
+    if (shards.length == 1) {
+      return read(0, teamId, teamSecret, root, range);
+    }
+
+    final Collection<Relay.Bundle> result = new ArrayList<>();
+
+    synchronized (cursors) {
+
+      // A NULL root means start over from the beginning of every shard. Any other
+      // root is the last bundle the caller used, which moves that shard's cursor.
+      if (root == null || Uuids.equals(root, Uuids.NULL)) {
+        Arrays.fill(cursors, Uuids.NULL);
+      } else if (shardOf(root) >= 0) {
+        cursors[shardOf(root)] = makeId(null, root.id());
+      }
+
+      final List<Queue<Relay.Bundle>> pending = new ArrayList<>(shards.length);
+
+      for (int i = 0; i < shards.length; i++) {
+        pending.add(new ArrayDeque<>(read(i, teamId, teamSecret, cursors[i], range)));
+      }
+
+      // Each shard returns its bundles in order so taking the earliest head of all
+      // the shards each time keeps the merged result in order. Only the bundles that
+      // make it into the result move the cursors forward.
+      while (result.size() < range) {
+
+        int earliest = -1;
+
+        for (int i = 0; i < shards.length; i++) {
+          final Relay.Bundle head = pending.get(i).peek();
+          if (head != null &&
+              (earliest < 0 || head.time().compareTo(pending.get(earliest).peek().time()) < 0)) {
+            earliest = i;
+          }
+        }
+
+        if (earliest < 0) {
+          break;
+        }
+
+        final Relay.Bundle bundle = pending.get(earliest).remove();
+
+        cursors[earliest] = bundle.id();
+        result.add(fromShard(earliest, bundle));
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public Uuid cursor(Uuid teamId, byte[] teamSecret) {
+
+    if (shards.length == 1) {
+      return cursor(shards[0], teamId, teamSecret);
+    }
+
+    Uuid result = Uuids.NULL;
+
+    synchronized (cursors) {
+      for (int i = 0; i < shards.length; i++) {
+        cursors[i] = cursor(shards[i], teamId, teamSecret);
+        if (!Uuids.equals(cursors[i], Uuids.NULL)) {
+          result = makeId(shardRoots[i], cursors[i].id());
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private boolean write(ConnectionSource source,
+                        Uuid teamId,
+                        byte[] teamSecret,
+                        Relay.Bundle.Component user,
+                        Relay.Bundle.Component conversation,
+                        Relay.Bundle.Component message) {
+
     boolean result = false;
 
     try (final Connection connection = source.connect()) {
@@ -165,12 +311,51 @@ public final class RemoteRelay implements Relay {
     return result;
   }
 
-  @Override
-  public Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
+  private Collection<Relay.Bundle> read(int shard,
+                                        Uuid teamId,
+                                        byte[] teamSecret,
+                                        Uuid root,
+                                        int range) {
+
+    final RelayCallEvent event = new RelayCallEvent();
+    event.begin();
+
+    final Collection<Relay.Bundle> result = readShard(shard, teamId, teamSecret, root, range);
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = "READ";
+      event.shard = shard;
+      event.team = Uuids.toString(teamId);
+      event.bundles = result.size();
+      event.commit();
+    }
+
+    return result;
+  }
+
+  private Collection<Relay.Bundle> readShard(int shard,
+                                             Uuid teamId,
+                                             byte[] teamSecret,
+                                             Uuid root,
+                                             int range) {
+
+    if (compressed[shard]) {
+
+      final Collection<Relay.Bundle> result =
+          readCompressed(shards[shard], teamId, teamSecret, root, range);
+
+      if (result != null) {
+        return result;
+      }
+
+      LOG.info("Relay shard %d does not support compressed reads", shard);
+      compressed[shard] = false;
+    }
 
     final Collection<Relay.Bundle> result = new ArrayList<>();
 
-    try (final Connection connection = source.connect()) {
+    try (final Connection connection = shards[shard].connect()) {
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_REQUEST);
       Uuids.SERIALIZER.write(connection.out(), teamId);
@@ -189,4 +374,97 @@ public final class RemoteRelay implements Relay {
 
     return result;
   }
+
+  // Returns null if the relay did not answer with a compressed response.
+  private Collection<Relay.Bundle> readCompressed(ConnectionSource source,
+                                                  Uuid teamId,
+                                                  byte[] teamSecret,
+                                                  Uuid root,
+                                                  int range) {
+
+    final Collection<Relay.Bundle> result = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_COMPRESSED_REQUEST);
+      Uuids.SERIALIZER.write(connection.out(), teamId);
+      Serializers.BYTES.write(connection.out(), teamSecret);
+      Uuids.SERIALIZER.write(connection.out(), root);
+      Serializers.INTEGER.write(connection.out(), range);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_COMPRESSED_RESPONSE) {
+        result.addAll(RelayBundles.COMPRESSED_SERIALIZER.read(connection.in()));
+      } else {
+        return null;
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Unexpected error when sending RELAY_READ_COMPRESSED_REQUEST");
+    }
+
+    return result;
+  }
+
+  private Uuid cursor(ConnectionSource source, Uuid teamId, byte[] teamSecret) {
+
+    Uuid result = Uuids.NULL;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_CURSOR_REQUEST);
+      Uuids.SERIALIZER.write(connection.out(), teamId);
+      Serializers.BYTES.write(connection.out(), teamSecret);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_CURSOR_RESPONSE) {
+        result = Uuids.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Server did not handle RELAY_CURSOR_REQUEST");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Unexpected error when sending RELAY_CURSOR_REQUEST");
+    }
+
+    return result;
+  }
+
+  private int shardFor(Uuid conversation) {
+    return (Uuids.hash(conversation) & Integer.MAX_VALUE) % shards.length;
+  }
+
+  // Get the shard that a wrapped bundle id came from or -1 if the id was not
+  // wrapped by this relay.
+  private int shardOf(Uuid id) {
+
+    // Wrapped ids are the shard's root and one link below it. They are looked at
+    // for every bundle, so their roots are read without making them.
+    if (Uuids.length(id) != 2) {
+      return -1;
+    }
+
+    final int shard = Uuids.rootId(id) - 1;
+    return shard >= 0 && shard < shards.length ? shard : -1;
+  }
+
+  private Relay.Bundle fromShard(int shard, final Relay.Bundle bundle) {
+
+    final Uuid id = makeId(shardRoots[shard], bundle.id().id());
+
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public Time time() { return bundle.time(); }
+      @Override
+      public Uuid team() { return bundle.team(); }
+      @Override
+      public Relay.Bundle.Component user() { return bundle.user(); }
+      @Override
+      public Relay.Bundle.Component conversation() { return bundle.conversation(); }
+      @Override
+      public Relay.Bundle.Component message() { return bundle.message(); }
+    };
+  }
+
+  private static Uuid makeId(Uuid root, int id) {
+    return Uuids.child(root, id);
+  }
 }
@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+// REQUEST EVENT
+//
+// A flight recorder event for each request the server handles, from the moment
+// its type was read until it was answered. Like the other chat events it is off
+// until a recording turns it on (see chat.jfc), and while it is off creating and
+// committing one costs next to nothing.
+@Name("codeu.chat.Request")
+@Label("Request")
+@Category({ "CodeU Chat", "Server" })
+@Description("A request handled by the server")
+@Enabled(false)
+@StackTrace(false)
+final class RequestEvent extends Event {
+
+  @Label("Operation")
+  @Description("The request's network code without \"_REQUEST\"")
+  String operation;
+
+  @Label("User")
+  @Description("The user that made the request, for requests that name one")
+  String user;
+
+  @Label("Bytes In")
+  @DataAmount
+  long bytesIn;
+
+  @Label("Bytes Out")
+  @DataAmount
+  long bytesOut;
+
+  @Label("Failed")
+  boolean failed;
+
+  // Only turns the id into text when the event is being recorded.
+  void setUser(Uuid id) {
+    if (isEnabled()) {
+      user = Uuids.toString(id);
+    }
+  }
+}
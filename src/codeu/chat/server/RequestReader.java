@@ -0,0 +1,302 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.Time;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.UuidView;
+import codeu.chat.common.Uuids;
+
+// REQUEST READER
+//
+// Reads requests off their connections with buffers that are kept from one
+// request to the next. Reading a request fills one buffer from the socket rather
+// than going to the socket for every byte, and decoding from it makes nothing
+// that the request does not hand on:
+//
+//   - Numbers are read without boxing and strings straight out of the buffer.
+//
+//   - "readUuid" and "readUuids" make uuids for values that outlive the request,
+//     like the author of a new message.
+//
+//   - "lookupUuid" and "lookupUuids" return UuidViews that the reader reuses, for
+//     ids that are only looked up while the request is handled. They are only
+//     good until the next request starts and must never be kept.
+//
+// The reader is also an InputStream for anything read with a Serializer, and it
+// counts the bytes each request used. It is not thread safe; the server has one
+// reader for each handler thread, which reads and handles one request at a time.
+final class RequestReader extends InputStream {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  // Lookups this large are rare, so the views for them are let go of rather than
+  // kept for every request after.
+  private static final int MAX_POOLED_VIEWS = 4096;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final int[] chain = new int[255];
+
+  private final List<UuidView> views = new ArrayList<>();
+  private final List<Uuid> lookups = new ArrayList<>();
+
+  private InputStream source;
+  private int position = 0;
+  private int limit = 0;
+  private int viewsUsed = 0;
+  private long count = 0;
+
+  // Start reading a new request from the source. Everything read from the last
+  // request, including its lookups, is given up.
+  public void reset(InputStream source) {
+
+    this.source = source;
+
+    position = 0;
+    limit = 0;
+    count = 0;
+
+    viewsUsed = 0;
+    lookups.clear();
+
+    if (views.size() > MAX_POOLED_VIEWS) {
+      views.subList(MAX_POOLED_VIEWS, views.size()).clear();
+    }
+  }
+
+  // The number of bytes of the request read so far.
+  public long count() {
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    count++;
+    return buffer[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+
+    if (length == 0) {
+      return 0;
+    }
+
+    if (position == limit) {
+      // Nothing is buffered, so a large read goes straight into the caller's array.
+      if (length >= buffer.length) {
+        final int read = source.read(bytes, offset, length);
+        count += Math.max(read, 0);
+        return read;
+      }
+      if (!fill()) {
+        return -1;
+      }
+    }
+
+    final int read = Math.min(length, limit - position);
+    System.arraycopy(buffer, position, bytes, offset, read);
+    position += read;
+    count += read;
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (limit - position) + source.available();
+  }
+
+  // The same as Serializers.INTEGER.
+  public int readInt() throws IOException {
+
+    require(4);
+
+    final int value = ((buffer[position] & 0xFF) << 24) |
+                      ((buffer[position + 1] & 0xFF) << 16) |
+                      ((buffer[position + 2] & 0xFF) << 8) |
+                      (buffer[position + 3] & 0xFF);
+
+    position += 4;
+    count += 4;
+    return value;
+  }
+
+  // The same as Serializers.LONG.
+  public long readLong() throws IOException {
+    final long high = readInt();
+    final long low = readInt() & 0xFFFFFFFFL;
+    return (high << 32) | low;
+  }
+
+  public Time readTime() throws IOException {
+    return Time.fromMs(readLong());
+  }
+
+  // The same as Serializers.BYTES.
+  public byte[] readBytes() throws IOException {
+    final byte[] bytes = new byte[readLength()];
+    readFully(bytes);
+    return bytes;
+  }
+
+  // The same as Serializers.STRING. A string that fits in the buffer is decoded
+  // from it directly without copying its bytes out first.
+  public String readString() throws IOException {
+
+    final int length = readLength();
+
+    if (length > buffer.length) {
+      final byte[] bytes = new byte[length];
+      readFully(bytes);
+      return new String(bytes);
+    }
+
+    require(length);
+
+    final String value = new String(buffer, position, length);
+    position += length;
+    count += length;
+    return value;
+  }
+
+  // The same as Uuids.SERIALIZER.
+  public Uuid readUuid() throws IOException {
+    return Uuids.fromIds(chain, readChain());
+  }
+
+  // The same as Serializers.collection(Uuids.SERIALIZER).
+  public Collection<Uuid> readUuids() throws IOException {
+    final int size = readSize();
+    final Collection<Uuid> ids = new ArrayList<>(Math.min(size, BUFFER_SIZE));
+    for (int i = 0; i < size; i++) {
+      ids.add(readUuid());
+    }
+    return ids;
+  }
+
+  // LOOKUP UUID
+  //
+  // Read a uuid that will only be looked up. It is only good until the next
+  // request starts.
+  public Uuid lookupUuid() throws IOException {
+
+    final int length = readChain();
+
+    if (length == 0) {
+      return null;
+    }
+
+    if (viewsUsed == views.size()) {
+      views.add(new UuidView());
+    }
+
+    return views.get(viewsUsed++).set(chain, length);
+  }
+
+  // LOOKUP UUIDS
+  //
+  // Read a list of uuids that will only be looked up, as "lookupUuid". The list is
+  // the reader's own and is only good until the next request starts.
+  public Collection<Uuid> lookupUuids() throws IOException {
+    final int size = readSize();
+    for (int i = 0; i < size; i++) {
+      lookups.add(lookupUuid());
+    }
+    return lookups;
+  }
+
+  // Read a chain written tail first into "chain", root first. Returns its length.
+  private int readChain() throws IOException {
+
+    final int length = read();
+
+    if (length < 0) {
+      throw new EOFException("Request ended in a uuid");
+    }
+
+    for (int i = length - 1; i >= 0; i--) {
+      chain[i] = readInt();
+    }
+
+    return length;
+  }
+
+  private int readLength() throws IOException {
+    final int length = readInt();
+    if (length < 0) {
+      throw new IOException("Negative length " + length + " in request");
+    }
+    return length;
+  }
+
+  private int readSize() throws IOException {
+    final int size = readInt();
+    if (size < 0) {
+      throw new IOException("Negative collection size " + size + " in request");
+    }
+    return size;
+  }
+
+  private void readFully(byte[] bytes) throws IOException {
+    for (int read = 0; read < bytes.length; ) {
+      final int n = read(bytes, read, bytes.length - read);
+      if (n < 0) {
+        throw new EOFException("Request ended " + (bytes.length - read) + " bytes early");
+      }
+      read += n;
+    }
+  }
+
+  // Make sure the next "length" bytes are in the buffer, moving what is left of
+  // it to the front to make room if they are not.
+  private void require(int length) throws IOException {
+
+    if (limit - position >= length) {
+      return;
+    }
+
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+
+    while (limit < length) {
+      final int read = source.read(buffer, limit, buffer.length - limit);
+      if (read < 0) {
+        throw new EOFException("Request ended " + (length - limit) + " bytes early");
+      }
+      limit += read;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    final int read = source.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+}
@@ -15,32 +15,53 @@
 
 package codeu.chat.server;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessageMatch;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Time;
 import codeu.chat.common.User;
 import codeu.chat.common.Uuid;
 import codeu.chat.common.Uuids;
+import codeu.chat.util.Histogram;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.RecentSet;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.store.BTreeStore;
 
-public final class Server {
+public final class Server implements ServerMXBean {
 
   private final static Logger.Log LOG = Logger.newLog(Server.class);
 
+  private static final int APPLIED_MESSAGES = 4096;
+
+  // How many messages are written at a time when streaming a conversation.
+  private static final int MESSAGE_CHUNK_SIZE = 256;
+
   private final Uuid id;
   private final byte[] secret;
 
@@ -49,8 +70,36 @@ public final class Server {
   private final Controller controller;
 
   private final Relay relay;
+
+  // Held by whichever thread is syncing with the relay, so that syncs run one at a
+  // time without holding the server's own lock while they wait on the network.
+  private final Object syncLock = new Object();
   private Uuid lastSeen = Uuids.NULL;
 
+  // When the relay was last read and how far behind it the newest bundle read
+  // was, for ServerMXBean.
+  private volatile long lastSyncMs = -1;
+  private volatile long syncLagMs = -1;
+
+  // The ids of the messages most recently applied from the relay. This saves going
+  // to the model to find out that a replayed bundle has already been applied.
+  private final RecentSet<Uuid> appliedMessages = new RecentSet<>(APPLIED_MESSAGES);
+
+  private final Subscriptions subscriptions = new Subscriptions();
+
+  // Requests are read on the handler threads without the server's lock, so each
+  // thread has a reader and buffers of its own that serve all of its requests.
+  private final ThreadLocal<RequestReader> readers = new ThreadLocal<RequestReader>() {
+    @Override
+    protected RequestReader initialValue() {
+      return new RequestReader();
+    }
+  };
+
+  // The metrics of each type of request, by its NetworkCode. Guarded by itself, as
+  // requests are counted before the server's lock is taken.
+  private final Map<Integer, Operation> operations = new HashMap<>();
+
   public Server(Uuid id, byte[] secret, Relay relay) {
 
     this.id = id;
@@ -60,233 +109,918 @@ public final class Server {
     this.relay = relay;
   }
 
-  public void syncWithRelay(int maxReadSize) throws Exception {
-    for (final Relay.Bundle bundle :  relay.read(id, secret, lastSeen, maxReadSize)) {
-      onBundle(bundle);
-      lastSeen = bundle.id();
+  // SYNC WITH RELAY
+  //
+  // Read the next page of bundles from the relay and apply them. Returns the number
+  // of bundles that were read so that callers can keep reading while they are
+  // behind.
+  //
+  // Relay syncs and connections can come from different threads and both of them
+  // change the model, so the bundles are applied under the server's lock. Reading
+  // them from the relay shards is done before taking it so that connections are
+  // not held up behind the network.
+  public int syncWithRelay(int maxReadSize) throws Exception {
+
+    synchronized (syncLock) {
+
+      // Without a position of our own, pick up from wherever the relay last saw us
+      // rather than replaying the relay's whole history.
+      if (Uuids.equals(lastSeen, Uuids.NULL)) {
+        lastSeen = relay.cursor(id, secret);
+      }
+
+      final Collection<Relay.Bundle> bundles = relay.read(id, secret, lastSeen, maxReadSize);
+
+      synchronized (this) {
+        onBundles(bundles);
+      }
+
+      Relay.Bundle newest = null;
+      for (final Relay.Bundle bundle : bundles) {
+        lastSeen = bundle.id();
+        newest = bundle;
+      }
+
+      lastSyncMs = System.currentTimeMillis();
+      if (newest != null) {
+        syncLagMs = Math.max(0, lastSyncMs - newest.time().inMs());
+      }
+
+      return bundles.size();
     }
   }
 
+  // HANDLE CONNECTION
+  //
+  // Returns false when the connection has been kept open for a subscription, in
+  // which case the caller must not close it.
   public boolean handleConnection(Connection connection) throws Exception {
 
     LOG.info("Handling new connection...");
 
-    return onMessage(connection.in(), connection.out());
+    return onMessage(connection);
+  }
+
+  // REQUEST
+  //
+  // A request that has been read off its connection and is ready to be handled.
+  // Reading a request waits on the client, so it is done before the server's lock
+  // is taken and only handling it is done under the lock. A client that is slow to
+  // send its request holds up no one but itself.
+  private interface Request {
+    boolean handle(Connection connection, OutputStream out) throws IOException;
   }
 
-  private boolean onMessage(InputStream in, OutputStream out) throws IOException {
+  // REPLY
+  //
+  // The part of a response that is written after the server's lock is let go of.
+  // A handler that leaves one in "reply" has already taken everything it needs
+  // from the model, so a large response does not hold up other clients or relay
+  // syncs while it goes out.
+  private interface Reply {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private Reply reply;
+
+  // A write to the relay that a handler left to be made once the server's lock is
+  // let go of, so that other clients and relay syncs do not wait on the relay.
+  private Runnable relayWrite;
+
+  // ON MESSAGE
+  //
+  // Handle one request, recording how long it took from the moment its type was
+  // read, how many bytes it read and wrote and whether it failed. The same goes to
+  // a RequestEvent when the flight recorder is recording them.
+  //
+  // Requests are read without the server's lock and handled under it, as relay
+  // syncs change the model from another thread. A handler's Reply and relay write
+  // are made after the lock is let go of.
+  private boolean onMessage(Connection connection) throws IOException {
+
+    final CountingOutputStream out = new CountingOutputStream(connection.out());
+    final RequestEvent event = new RequestEvent();
+    final RequestReader reader = readers.get();
+
+    Operation operation = null;
+    Reply later = null;
+    Runnable toRelay = null;
+    long start = 0;
+    long bytesIn = 0;
+    boolean failed = true;
+
+    try {
+
+      reader.reset(connection.in());
+
+      final int type = reader.readInt();
+      operation = operation(type);
+
+      event.begin();
+      start = System.nanoTime();
+
+      final Request request;
+      try {
+        request = read(type, reader, event);
+      } finally {
+        bytesIn = reader.count();
+      }
+
+      final boolean done;
+
+      synchronized (this) {
+        try {
+          done = request.handle(connection, out);
+        } finally {
+          later = reply;
+          reply = null;
+          toRelay = relayWrite;
+          relayWrite = null;
+        }
+      }
+
+      try {
+        if (later != null) {
+          later.write(out);
+        }
+      } finally {
+        // A change that was made goes to the relay even if its client has gone.
+        if (toRelay != null) {
+          toRelay.run();
+        }
+      }
+
+      failed = false;
+      return done;
+
+    } finally {
+      // Nothing is recorded for a request whose type could not be read.
+      if (operation != null) {
+        operation.latency.record(System.nanoTime() - start);
+        operation.bytesIn.addAndGet(bytesIn);
+        operation.bytesOut.addAndGet(out.count);
+        if (failed) {
+          operation.errors.incrementAndGet();
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+          event.operation = operation.name;
+          event.bytesIn = bytesIn;
+          event.bytesOut = out.count;
+          event.failed = failed;
+          event.commit();
+        }
+      }
+    }
+  }
+
+  // READ
+  //
+  // Read the rest of a request of the given type. Nothing here touches the model;
+  // that is left to the Request, which the caller runs under the server's lock.
+  private Request read(int type, final RequestReader in, final RequestEvent event) throws IOException {
+
+    if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+
+      final Collection<Uuid> conversations = in.readUuids();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_RESPONSE);
+
+          subscriptions.subscribe(connection, conversations);
 
-    final int type = Serializers.INTEGER.read(in);
+          return false;
+        }
+      };
 
-    if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
+    } else if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
 
-      final Uuid author = Uuids.SERIALIZER.read(in);
-      final Uuid conversation = Uuids.SERIALIZER.read(in);
-      final String content = Serializers.STRING.read(in);
+      final Uuid author = in.readUuid();
+      final Uuid conversation = in.readUuid();
+      final String content = in.readString();
 
-      final Message message = controller.newMessage(author, conversation, content);
+      event.setUser(author);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-      Serializers.nullable(Message.SERIALIZER).write(out, message);
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      // Unlike the other calls - we need to send something the result of this
-      // call to the relay. Waiting until after the server has written back to
-      // the client allows the client to get the response, but the network
-      // connection has not been closed. However to wait after until the client-server
-      // connection was closed before sending would be very complicated.
+          final Message message = controller.newMessage(author, conversation, content);
 
-      sendToRelay(author, conversation, message.id);
+          // A change is made durable, with one sync for all the records it wrote,
+          // before the client is told of it.
+          model.sync();
+
+          // Unlike the other calls - the result of this call goes to the relay. What
+          // it needs is taken from the model here and sent once the lock is let go
+          // of and the client has its response.
+          relayWrite = sendToRelay(author, conversation, message.id);
+
+          Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
+          Serializers.nullable(Message.SERIALIZER).write(out, message);
+
+          subscriptions.publish(conversation, message);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.NEW_USER_REQUEST) {
 
-      final String name = Serializers.STRING.read(in);
+      final String name = in.readString();
+
+      final String security=in.readString();//TODO:confirm
 
-      String security=Serializers.STRING.read(in);//TODO:confirm
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      final User user = controller.newUser(name, security);
+          final User user = controller.newUser(name, security);
+          model.sync();
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+          Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
+          Serializers.nullable(User.SERIALIZER).write(out, user);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.NEW_CONVERSATION_REQUEST) {
 
-      final String title = Serializers.STRING.read(in);
-      final Uuid owner = Uuids.SERIALIZER.read(in);
+      final String title = in.readString();
+      final Uuid owner = in.readUuid();
+
+      event.setUser(owner);
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      final Conversation conversation = controller.newConversation(title, owner);
+          final Conversation conversation = controller.newConversation(title, owner);
+          model.sync();
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
-      Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
+          Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
+          Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_USERS_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuids.SERIALIZER).read(in);
+      final Collection<Uuid> ids = in.lookupUuids();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      final Collection<User> users = view.getUsers(ids);
+          final Collection<User> users = view.getUsers(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+          Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+          Serializers.collection(User.SERIALIZER).write(out, users);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
 
-      final Collection<ConversationSummary> conversations = view.getAllConversations();
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Collection<ConversationSummary> conversations = view.getAllConversations();
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
+          Serializers.collection(ConversationSummary.SERIALIZER).write(out, conversations);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-      Serializers.collection(ConversationSummary.SERIALIZER).write(out, conversations);
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuids.SERIALIZER).read(in);
+      final Collection<Uuid> ids = in.lookupUuids();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Collection<Conversation> conversations = view.getConversations(ids);
 
-      final Collection<Conversation> conversations = view.getConversations(ids);
+          Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
+          Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_ID_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuids.SERIALIZER).read(in);
+      final Collection<Uuid> ids = in.lookupUuids();
 
-      final Collection<Message> messages = view.getMessages(ids);
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+          final Collection<Message> messages = view.getMessages(ids);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(out, messages);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_USER_GENERATION_REQUEST) {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
-      Uuids.SERIALIZER.write(out, view.getUserGeneration());
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
+          Uuids.SERIALIZER.write(out, view.getUserGeneration());
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
 
-      final Collection<Uuid> ids = Serializers.collection(Uuids.SERIALIZER).read(in);
+      final Collection<Uuid> ids = in.lookupUuids();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      final Collection<User> users = view.getUsersExcluding(ids);
+          final Collection<User> users = view.getUsersExcluding(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+          Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
+          Serializers.collection(User.SERIALIZER).write(out, users);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
 
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+      final Time startTime = in.readTime();
+      final Time endTime = in.readTime();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
 
-      final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
+          Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
+          Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST) {
 
-      final String filter = Serializers.STRING.read(in);
+      final String filter = in.readString();
 
-      final Collection<Conversation> conversations = view.getConversations(filter);
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+          final Collection<Conversation> conversations = view.getConversations(filter);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
+          Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
 
-      final Uuid conversation = Uuids.SERIALIZER.read(in);
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+      final Uuid conversation = in.lookupUuid();
+      final Time startTime = in.readTime();
+      final Time endTime = in.readTime();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
-      final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
+          final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+          Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(out, messages);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST) {
 
-      final Uuid rootMessage = Uuids.SERIALIZER.read(in);
-      final int range = Serializers.INTEGER.read(in);
+      final Uuid rootMessage = in.lookupUuid();
+      final int range = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Collection<Message> messages = view.getMessages(rootMessage, range);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(out, messages);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST) {
+
+      final Uuid conversation = in.lookupUuid();
+      final Uuid after = in.lookupUuid();
+      final Time since = in.readTime();
+      final int limit = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<Message> page = view.getConversationMessages(conversation, after, since, limit);
+
+          // The messages' links change as messages are added and removed, so they are
+          // copied before the lock is let go of.
+          final List<Message> messages = new ArrayList<>(page.items.size());
+          for (final Message message : page.items) {
+            messages.add(new Message(message.id,
+                                     message.next,
+                                     message.previous,
+                                     message.creation,
+                                     message.author,
+                                     message.content));
+          }
+
+          final boolean more = !page.isLast();
+
+          // The messages go out in chunks so that the client can read them as they
+          // come. An empty chunk ends them and is followed by whether the conversation
+          // has more after the last one, which the client asks for next.
+          reply = new Reply() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+
+              final OutputStream buffered = new BufferedOutputStream(out);
+
+              Serializers.INTEGER.write(buffered, NetworkCode.GET_CONVERSATION_MESSAGES_RESPONSE);
+
+              for (int i = 0; i < messages.size(); i += MESSAGE_CHUNK_SIZE) {
+                Serializers.collection(Message.SERIALIZER).write(
+                    buffered, messages.subList(i, Math.min(messages.size(), i + MESSAGE_CHUNK_SIZE)));
+                buffered.flush();
+              }
+
+              Serializers.collection(Message.SERIALIZER).write(buffered, new ArrayList<Message>());
+              Serializers.BOOLEAN.write(buffered, more);
+              buffered.flush();
+            }
+          };
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST) {
+
+      final byte[] cursor = in.readBytes();
+      final int size = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<ConversationSummary> page = view.getConversationsPage(cursor, size);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE);
+          Page.serializer(ConversationSummary.SERIALIZER).write(out, page);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_USERS_PAGE_REQUEST) {
+
+      final byte[] cursor = in.readBytes();
+      final int size = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<User> page = view.getUsersPage(cursor, size);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_USERS_PAGE_RESPONSE);
+          Page.serializer(User.SERIALIZER).write(out, page);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.SEARCH_USERS_REQUEST) {
+
+      final String prefix = in.readString();
+      final byte[] cursor = in.readBytes();
+      final int size = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<User> page = view.searchUsers(prefix, cursor, size);
+
+          Serializers.INTEGER.write(out, NetworkCode.SEARCH_USERS_RESPONSE);
+          Page.serializer(User.SERIALIZER).write(out, page);
+
+          return true;
+        }
+      };
 
-      final Collection<Message> messages = view.getMessages(rootMessage, range);
+    } else if (type == NetworkCode.SEARCH_CONVERSATIONS_REQUEST) {
+
+      final String prefix = in.readString();
+      final byte[] cursor = in.readBytes();
+      final int size = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<ConversationSummary> page = view.searchConversations(prefix, cursor, size);
+
+          Serializers.INTEGER.write(out, NetworkCode.SEARCH_CONVERSATIONS_RESPONSE);
+          Page.serializer(ConversationSummary.SERIALIZER).write(out, page);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.SEARCH_MESSAGES_REQUEST) {
+
+      final String text = in.readString();
+      final byte[] cursor = in.readBytes();
+      final int size = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Page<MessageMatch> page = view.searchMessages(text, cursor, size);
+
+          Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+          Page.serializer(MessageMatch.SERIALIZER).write(out, page);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_USERS_CHANGED_REQUEST) {
+
+      final long generation = in.readLong();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Delta<User> delta = view.getUsersChangedSince(generation);
+
+          if (delta.isNotModifiedSince(generation)) {
+            Serializers.INTEGER.write(out, NetworkCode.NOT_MODIFIED_RESPONSE);
+          } else {
+            Serializers.INTEGER.write(out, NetworkCode.GET_USERS_CHANGED_RESPONSE);
+            Delta.serializer(User.SERIALIZER).write(out, delta);
+          }
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_CONVERSATIONS_CHANGED_REQUEST) {
+
+      final long generation = in.readLong();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Delta<ConversationSummary> delta = view.getConversationsChangedSince(generation);
+
+          if (delta.isNotModifiedSince(generation)) {
+            Serializers.INTEGER.write(out, NetworkCode.NOT_MODIFIED_RESPONSE);
+          } else {
+            Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_CHANGED_RESPONSE);
+            Delta.serializer(ConversationSummary.SERIALIZER).write(out, delta);
+          }
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_MESSAGES_CHANGED_REQUEST) {
+
+      final Uuid conversation = in.lookupUuid();
+      final long generation = in.readLong();
+      final Uuid lastMessage = in.lookupUuid();
+      final int limit = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Delta<Message> delta =
+              view.getMessagesChangedSince(conversation, generation, lastMessage, limit);
+
+          if (delta.isNotModifiedSince(generation)) {
+            Serializers.INTEGER.write(out, NetworkCode.NOT_MODIFIED_RESPONSE);
+          } else {
+            Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_CHANGED_RESPONSE);
+            Delta.serializer(Message.SERIALIZER).write(out, delta);
+          }
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_MESSAGES_SINCE_REQUEST) {
+
+      final Uuid conversation = in.lookupUuid();
+      final Uuid lastMessage = in.lookupUuid();
+      final int limit = in.readInt();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          final Collection<Message> messages = view.getMessagesSince(conversation, lastMessage, limit);
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_SINCE_RESPONSE);
+          Serializers.collection(Message.SERIALIZER).write(out, messages);
+
+          return true;
+        }
+      };
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
     } else if (type == NetworkCode.REMOVE_USER_REQUEST) {
 
       final User user = User.SERIALIZER.read(in);
-      controller.removeUser(user);
-      Serializers.INTEGER.write(out, NetworkCode.REMOVE_USER_RESPONSE);
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          controller.removeUser(user);
+          model.sync();
+          Serializers.INTEGER.write(out, NetworkCode.REMOVE_USER_RESPONSE);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.REMOVE_CONVERSATION_REQUEST) {
 
       final Conversation conversation = Conversation.SERIALIZER.read(in);
-      controller.removeConversation(conversation);
-      Serializers.INTEGER.write(out, NetworkCode.REMOVE_CONVERSATION_RESPONSE);
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          controller.removeConversation(conversation);
+          model.sync();
+          Serializers.INTEGER.write(out, NetworkCode.REMOVE_CONVERSATION_RESPONSE);
+
+          return true;
+        }
+      };
 
     } else if (type == NetworkCode.REMOVE_MESSAGE_REQUEST) {
 
       final Message message = Message.SERIALIZER.read(in);
-      final Uuid conversation = Uuids.SERIALIZER.read(in);
-      controller.removeMessage(message, conversation);
-      Serializers.INTEGER.write(out, NetworkCode.REMOVE_MESSAGE_RESPONSE);
+      final Uuid conversation = in.readUuid();
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          controller.removeMessage(message, conversation);
+          model.sync();
+          Serializers.INTEGER.write(out, NetworkCode.REMOVE_MESSAGE_RESPONSE);
+
+          subscriptions.publishRemoved(conversation, message.id);
+
+          return true;
+        }
+      };
+
+    } else if (type == NetworkCode.GET_METRICS_REQUEST) {
+
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
+
+          Serializers.INTEGER.write(out, NetworkCode.GET_METRICS_RESPONSE);
+          Serializers.STRING.write(out, Metrics.dump());
+
+          return true;
+        }
+      };
 
     } else {
       // In the case that the message was not handled make a dummy message with
       // the type "NO_MESSAGE" so that the client still gets something.
 
-      Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+      return new Request() {
+        @Override
+        public boolean handle(Connection connection, OutputStream out) throws IOException {
 
+          Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+
+          return true;
+        }
+      };
     }
+  }
 
-    return true;
+  // The JMX getters do not take the server's lock. The stores keep their counts as
+  // they change and the model reads them from stores that are never replaced.
+  @Override
+  public int getUserCount() {
+    return model.userCount();
   }
 
-  private void onBundle(Relay.Bundle bundle) {
+  @Override
+  public int getConversationCount() {
+    return model.conversationCount();
+  }
 
-    final Relay.Bundle.Component relayUser = bundle.user();
-    final Relay.Bundle.Component relayConversation = bundle.conversation();
-    final Relay.Bundle.Component relayMessage = bundle.user();
+  @Override
+  public int getMessageCount() {
+    return model.messageCount();
+  }
 
-    User user = model.userById().first(relayUser.id());
+  @Override
+  public Map<String, Integer> getStoreHeights() {
+    final Map<String, Integer> heights = new LinkedHashMap<>();
+    for (final BTreeStore<?, ?> store : model.countedStores()) {
+      heights.put(store.logName(), store.height());
+    }
+    return heights;
+  }
 
-    if (user == null) {
-      user = controller.newUser(relayUser.id(), relayUser.text(), relayUser.time(), relayUser.security());
-    } else {
-      controller.removeUser(user);
+  @Override
+  public Map<String, Integer> getStoreNodeCounts() {
+    final Map<String, Integer> counts = new LinkedHashMap<>();
+    for (final BTreeStore<?, ?> store : model.countedStores()) {
+      counts.put(store.logName(), store.nodeCount());
     }
+    return counts;
+  }
 
-    Conversation conversation = model.conversationById().first(relayConversation.id());
+  @Override
+  public Map<String, Long> getStoreLogSizes() {
+    final Map<String, Long> sizes = new LinkedHashMap<>();
+    for (final BTreeStore<?, ?> store : model.countedStores()) {
+      sizes.put(store.logName(), store.logSize());
+    }
+    return sizes;
+  }
 
-    if (conversation == null) {
+  @Override
+  public long getRelaySyncLagMs() {
+    return syncLagMs;
+  }
 
-      // As the relay does not tell us who made the conversation - the first person who
-      // has a message in the conversation will get ownership over this server's copy
-      // of the conversation.
-      conversation = controller.newConversation(relayConversation.id(),
-                                                relayConversation.text(),
-                                                user.id,
-                                                relayConversation.time());
-    } else {
-      controller.removeConversation(conversation);
+  @Override
+  public long getMsSinceRelaySync() {
+    final long last = lastSyncMs;
+    return (last < 0) ? -1 : System.currentTimeMillis() - last;
+  }
+
+  private Operation operation(int type) {
+    synchronized (operations) {
+      Operation operation = operations.get(type);
+      if (operation == null) {
+        operation = new Operation(requestName(type));
+        operations.put(type, operation);
+      }
+      return operation;
+    }
+  }
+
+  // The name of the request's NetworkCode without "_REQUEST". Anything that is
+  // not a request is counted as "UNKNOWN" so that a bad client cannot make up
+  // any number of names.
+  private static String requestName(int type) {
+    for (final Field field : NetworkCode.class.getFields()) {
+      try {
+        if (Modifier.isStatic(field.getModifiers()) &&
+            field.getType() == int.class &&
+            field.getInt(null) == type &&
+            field.getName().endsWith("_REQUEST")) {
+          return field.getName().substring(0, field.getName().length() - "_REQUEST".length());
+        }
+      } catch (IllegalAccessException ex) {
+        // Only public fields are listed.
+      }
     }
+    return "UNKNOWN";
+  }
 
-    Message message = model.messageById().first(relayMessage.id());
+  // The metrics kept for one type of request.
+  private static final class Operation {
+
+    public final String name;
+    public final Histogram latency;
+    public final AtomicLong errors;
+    public final AtomicLong bytesIn;
+    public final AtomicLong bytesOut;
+
+    public Operation(String name) {
+      this.name = name;
+      latency = Metrics.histogram("server." + name + ".latency");
+      errors = Metrics.counter("server." + name + ".errors");
+      bytesIn = Metrics.counter("server." + name + ".bytes_in");
+      bytesOut = Metrics.counter("server." + name + ".bytes_out");
+    }
+  }
 
-    if (message == null) {
-      message = controller.newMessage(relayMessage.id(),
-                                      user.id,
-                                      conversation.id,
-                                      relayMessage.text(),
-                                      relayMessage.time());
-    } else {
-      controller.removeMessage(message, conversation.id);
+  private static final class CountingOutputStream extends FilterOutputStream {
+
+    public long count = 0;
+
+    public CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+  private void onBundles(Collection<Relay.Bundle> bundles) {
+
+    // The same bundle can be read more than once - our own writes come back to us,
+    // and after a restart or a retry the relay may send bundles we already have.
+    // Applying a bundle again must not change anything. The controller skips any
+    // message it already has, this just saves it from looking.
+    final Collection<Relay.Bundle> fresh = new ArrayList<>();
+    final Map<Uuid, Uuid> conversationByMessage = new HashMap<>();
+
+    for (final Relay.Bundle bundle : bundles) {
+      if (appliedMessages.contains(bundle.message().id())) {
+        LOG.info("Skipping bundle %s - message %s already applied", bundle.id(), bundle.message().id());
+      } else {
+        fresh.add(bundle);
+        conversationByMessage.put(bundle.message().id(), bundle.conversation().id());
+      }
+    }
+
+    if (!fresh.isEmpty()) {
+      for (final Message message : controller.ingest(fresh)) {
+        appliedMessages.add(message.id);
+        subscriptions.publish(conversationByMessage.get(message.id), message);
+      }
     }
   }
 
-  private void sendToRelay(Uuid userId, Uuid conversationId, Uuid messageId) {
+  // Takes what the relay needs from the model, which must be done under the
+  // server's lock, and returns the write to the relay to be made without it.
+  private Runnable sendToRelay(Uuid userId, Uuid conversationId, Uuid messageId) {
 
     final User user = view.findUser(userId);
     final Conversation conversation = view.findConversation(conversationId);
     final Message message = view.findMessage(messageId);
 
-    relay.write(id,
-                secret,
-                relay.pack(user.id, user.name, user.creation, user.security),//maybe needed change
-                relay.pack(conversation.id, conversation.title, conversation.creation, null),
-                relay.pack(message.id, message.content, message.creation, null));
+    final Relay.Bundle.Component userComponent =
+        relay.pack(user.id, user.name, user.creation, user.security);//maybe needed change
+    final Relay.Bundle.Component conversationComponent =
+        relay.pack(conversation.id, conversation.title, conversation.creation, null);
+    final Relay.Bundle.Component messageComponent =
+        relay.pack(message.id, message.content, message.creation, null);
+
+    return new Runnable() {
+      @Override
+      public void run() {
+        relay.write(id, secret, userComponent, conversationComponent, messageComponent);
+      }
+    };
   }
 }
@@ -0,0 +1,44 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Map;
+
+// SERVER MX BEAN
+//
+// What a chat server shows over JMX. Store figures are keyed by the name of the
+// store's log file.
+public interface ServerMXBean {
+
+  int getUserCount();
+
+  int getConversationCount();
+
+  int getMessageCount();
+
+  Map<String, Integer> getStoreHeights();
+
+  Map<String, Integer> getStoreNodeCounts();
+
+  Map<String, Long> getStoreLogSizes();
+
+  // How old the newest bundle read by the last relay sync that read any was when
+  // it was read, by the relay's clock against ours. -1 before the first one.
+  long getRelaySyncLagMs();
+
+  // The time since the relay was last read from. -1 if it never has been.
+  long getMsSinceRelaySync();
+
+}
@@ -0,0 +1,290 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTIONS
+//
+// The clients that want to be told about new messages in some conversations. Each
+// subscriber keeps its connection open and gets a MESSAGE_EVENT for every new
+// message in the conversations it subscribed to, and a MESSAGE_REMOVED_EVENT for
+// every message removed from them.
+//
+// Publishing never waits on a client. Every subscriber has a bounded queue of
+// events and a small, fixed pool of writer threads drains the queues of whichever
+// subscribers have events waiting. A subscriber whose queue fills up is
+// disconnected - it can subscribe again and catch up with
+// GET_MESSAGES_SINCE_REQUEST.
+//
+// Subscribers never write back, so one that has gone away is only noticed when
+// writing to it fails. A timer sends a SUBSCRIPTION_PING_EVENT to every subscriber
+// that has been quiet for a ping interval, which fails once the client is gone,
+// and disconnects any subscriber whose write has been stuck for longer than that,
+// which frees its writer thread.
+public final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+  public static final int DEFAULT_WRITER_THREADS = 4;
+  public static final long DEFAULT_PING_MS = 15000;
+
+  private static final class Event {
+
+    public final Uuid conversation;
+    public final Message message;
+    public final Uuid removed;
+
+    public Event(Uuid conversation, Message message, Uuid removed) {
+      this.conversation = conversation;
+      this.message = message;
+      this.removed = removed;
+    }
+  }
+
+  private static final Event PING = new Event(null, null, null);
+
+  private final class Subscriber implements Runnable {
+
+    private final Connection connection;
+    private final Set<Uuid> conversations;
+    private final BlockingQueue<Event> events;
+
+    // Set while the subscriber is waiting for a writer or being written by one, so
+    // that only one writer has it at a time.
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // Only used by the writer that has the subscriber.
+    private OutputStream out;
+
+    private volatile long lastWriteMs = System.currentTimeMillis();
+    private volatile long writingSinceMs = -1;
+
+    public Subscriber(Connection connection, Collection<Uuid> conversations) {
+      this.connection = connection;
+      this.conversations = new HashSet<>(conversations);
+      this.events = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    @Override
+    public void run() {
+
+      writingSinceMs = System.currentTimeMillis();
+
+      try {
+
+        if (out == null) {
+          out = new BufferedOutputStream(connection.out());
+        }
+
+        // Write everything that is waiting before flushing so that a burst of
+        // messages goes out together.
+        for (Event event = events.poll(); event != null; event = events.poll()) {
+          if (event == PING) {
+            Serializers.INTEGER.write(out, NetworkCode.SUBSCRIPTION_PING_EVENT);
+          } else if (event.message != null) {
+            Serializers.INTEGER.write(out, NetworkCode.MESSAGE_EVENT);
+            Uuids.SERIALIZER.write(out, event.conversation);
+            Message.SERIALIZER.write(out, event.message);
+          } else {
+            Serializers.INTEGER.write(out, NetworkCode.MESSAGE_REMOVED_EVENT);
+            Uuids.SERIALIZER.write(out, event.conversation);
+            Uuids.SERIALIZER.write(out, event.removed);
+          }
+        }
+
+        out.flush();
+
+      } catch (IOException ex) {
+        LOG.info("Subscriber connection failed: %s", ex.getMessage());
+        disconnect(this);
+        return;
+      } finally {
+        writingSinceMs = -1;
+      }
+
+      lastWriteMs = System.currentTimeMillis();
+
+      // Events published after the queue was found empty, but before "scheduled"
+      // was cleared, did not schedule the subscriber again.
+      scheduled.set(false);
+      if (!events.isEmpty()) {
+        schedule(this);
+      }
+    }
+  }
+
+  private final int queueSize;
+  private final long pingMs;
+
+  private final ExecutorService writers;
+  private final ScheduledExecutorService timer;
+
+  // Publishing goes through every subscriber for every message while subscribers
+  // come and go far less often.
+  private final Collection<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  public Subscriptions() {
+    this(DEFAULT_QUEUE_SIZE);
+  }
+
+  public Subscriptions(int queueSize) {
+    this(queueSize, DEFAULT_WRITER_THREADS, DEFAULT_PING_MS);
+  }
+
+  public Subscriptions(int queueSize, int writerThreads, long pingMs) {
+
+    this.queueSize = queueSize;
+    this.pingMs = pingMs;
+
+    this.writers = Executors.newFixedThreadPool(writerThreads, daemon("subscription-writer"));
+    this.timer = Executors.newSingleThreadScheduledExecutor(daemon("subscription-ping"));
+
+    timer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        check();
+      }
+    }, pingMs, pingMs, TimeUnit.MILLISECONDS);
+  }
+
+  // SUBSCRIBE
+  //
+  // Start sending events for the given conversations down the connection. The
+  // connection now belongs to the subscriptions and will be closed when the
+  // subscriber is disconnected.
+  public void subscribe(Connection connection, Collection<Uuid> conversations) {
+
+    subscribers.add(new Subscriber(connection, conversations));
+
+    LOG.info("New subscriber conversations=%d subscribers=%d",
+             conversations.size(),
+             subscribers.size());
+  }
+
+  public void publish(Uuid conversation, Message message) {
+    publish(new Event(conversation, message, null));
+  }
+
+  public void publishRemoved(Uuid conversation, Uuid message) {
+    publish(new Event(conversation, null, message));
+  }
+
+  private void publish(Event event) {
+    for (final Subscriber subscriber : subscribers) {
+      if (subscriber.conversations.contains(event.conversation)) {
+        send(subscriber, event);
+      }
+    }
+  }
+
+  // CLOSE
+  //
+  // Disconnect every subscriber and stop the writers and the timer.
+  public void close() {
+    for (final Subscriber subscriber : subscribers) {
+      disconnect(subscriber);
+    }
+    writers.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  public int size() {
+    return subscribers.size();
+  }
+
+  private void send(Subscriber subscriber, Event event) {
+    if (subscriber.events.offer(event)) {
+      schedule(subscriber);
+    } else {
+      LOG.warning("Disconnecting slow subscriber - %d events waiting", queueSize);
+      disconnect(subscriber);
+    }
+  }
+
+  private void schedule(Subscriber subscriber) {
+    if (subscriber.scheduled.compareAndSet(false, true)) {
+      writers.execute(subscriber);
+    }
+  }
+
+  // CHECK
+  //
+  // Run by the timer. Pings the subscribers that have been quiet for a ping
+  // interval and disconnects the ones that have been stuck writing for longer.
+  private void check() {
+
+    final long now = System.currentTimeMillis();
+
+    for (final Subscriber subscriber : subscribers) {
+
+      final long writingSince = subscriber.writingSinceMs;
+
+      if (writingSince >= 0 && now - writingSince >= pingMs) {
+        LOG.warning("Disconnecting stuck subscriber - writing for %d ms", now - writingSince);
+        disconnect(subscriber);
+      } else if (now - subscriber.lastWriteMs >= pingMs) {
+        send(subscriber, PING);
+      }
+    }
+  }
+
+  private void disconnect(Subscriber subscriber) {
+
+    if (subscribers.remove(subscriber)) {
+
+      // Closing the connection stops a writer that is stuck writing to the client.
+      try {
+        subscriber.connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close subscriber connection");
+      }
+    }
+  }
+
+  private static ThreadFactory daemon(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+}
@@ -0,0 +1,241 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// TEXT INDEX
+//
+// Finds items by the words in their text. Every text is split into lower case
+// words and each word keeps the items whose text it appears in. A query matches
+// the items that have, for every word in the query, a word that starts with it -
+// "hel wor" finds "Hello world".
+public final class TextIndex<T> {
+
+  private final Comparator<? super T> order;
+  private final TreeMap<String, NavigableSet<T>> itemsByWord = new TreeMap<>();
+
+  // Items are told apart by "order" and the items found by a search come back
+  // sorted by it so that they can be paged through.
+  public TextIndex(Comparator<? super T> order) {
+    this.order = order;
+  }
+
+  public void add(T item, String text) {
+    for (final String word : words(text)) {
+      NavigableSet<T> items = itemsByWord.get(word);
+      if (items == null) {
+        items = new TreeSet<>(order);
+        itemsByWord.put(word, items);
+      }
+      items.add(item);
+    }
+  }
+
+  public void remove(T item, String text) {
+    for (final String word : words(text)) {
+      final NavigableSet<T> items = itemsByWord.get(word);
+      if (items != null) {
+        items.remove(item);
+        if (items.isEmpty()) {
+          itemsByWord.remove(word);
+        }
+      }
+    }
+  }
+
+  // SEARCH
+  //
+  // Get every item that matches the query. A query with no words in it matches
+  // nothing.
+  public NavigableSet<T> search(String query) {
+    final NavigableSet<T> found = new TreeSet<>(order);
+    for (final Iterator<T> it = search(query, null); it.hasNext(); ) {
+      found.add(it.next());
+    }
+    return found;
+  }
+
+  // SEARCH
+  //
+  // Walk the items that match the query in order, starting after "after" - or from
+  // the first match if it is null. Nothing is collected up front. The items of the
+  // query word with the fewest of them are merged from the items of every word
+  // that starts with it, one item at a time, and each is checked against the
+  // other query words as it comes. Reading a page of matches costs about as much
+  // as the items passed over to fill it, not every match.
+  //
+  // The iterator is only good until the index next changes.
+  public Iterator<T> search(String query, T after) {
+
+    final List<List<NavigableSet<T>>> terms = new ArrayList<>();
+
+    int driver = -1;
+    long fewest = Long.MAX_VALUE;
+
+    for (final String word : words(query)) {
+
+      final List<NavigableSet<T>> postings =
+          new ArrayList<>(itemsByWord.subMap(word, true, word + Character.MAX_VALUE, true).values());
+
+      long count = 0;
+      for (final NavigableSet<T> items : postings) {
+        count += items.size();
+      }
+
+      if (count == 0) {
+        return Collections.emptyIterator();
+      }
+
+      if (count < fewest) {
+        fewest = count;
+        driver = terms.size();
+      }
+
+      terms.add(postings);
+    }
+
+    if (terms.isEmpty()) {
+      return Collections.emptyIterator();
+    }
+
+    final List<NavigableSet<T>> merged = terms.remove(driver);
+
+    return new Matches(merged, terms, after);
+  }
+
+  // WORDS
+  //
+  // Split text into the lower case words that it is indexed by. Anything that is
+  // not a letter or a digit separates words.
+  public static Collection<String> words(String text) {
+    final List<String> words = new ArrayList<>();
+    for (final String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  // The items of one query word in order, merged from the items of each word that
+  // starts with it, keeping only those that the other query words also have.
+  private final class Matches implements Iterator<T> {
+
+    private final PriorityQueue<Head> heads = new PriorityQueue<>();
+    private final List<List<NavigableSet<T>>> others;
+
+    private T next;
+
+    public Matches(List<NavigableSet<T>> merged, List<List<NavigableSet<T>>> others, T after) {
+
+      this.others = others;
+
+      for (final NavigableSet<T> items : merged) {
+        final Iterator<T> it = (after == null) ? items.iterator() : items.tailSet(after, false).iterator();
+        if (it.hasNext()) {
+          heads.add(new Head(it));
+        }
+      }
+
+      next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      final T item = next;
+      next = advance();
+      return item;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private T advance() {
+      while (!heads.isEmpty()) {
+
+        final T item = heads.peek().item;
+
+        // An item with more than one word that starts with the query word is at
+        // the head of each of their lists.
+        while (!heads.isEmpty() && order.compare(heads.peek().item, item) == 0) {
+          final Head head = heads.poll();
+          if (head.it.hasNext()) {
+            head.item = head.it.next();
+            heads.add(head);
+          }
+        }
+
+        if (matchesOthers(item)) {
+          return item;
+        }
+      }
+      return null;
+    }
+
+    private boolean matchesOthers(T item) {
+      for (final List<NavigableSet<T>> term : others) {
+        boolean found = false;
+        for (final NavigableSet<T> items : term) {
+          if (items.contains(item)) {
+            found = true;
+            break;
+          }
+        }
+        if (!found) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private final class Head implements Comparable<Head> {
+
+      public final Iterator<T> it;
+      public T item;
+
+      public Head(Iterator<T> it) {
+        this.it = it;
+        this.item = it.next();
+      }
+
+      @Override
+      public int compareTo(Head other) {
+        return order.compare(item, other.item);
+      }
+    }
+  }
+}
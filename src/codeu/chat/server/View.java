@@ -14,6 +14,12 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -21,8 +27,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -30,12 +36,16 @@ import java.util.regex.Pattern;
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
 import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessageMatch;
+import codeu.chat.common.Page;
 import codeu.chat.common.SinglesView;
 import codeu.chat.common.Time;
 import codeu.chat.common.User;
 import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
 import codeu.chat.util.Logger;
 import codeu.chat.util.store.StoreAccessor;
 
@@ -43,6 +53,32 @@ public final class View implements BasicView, LogicalView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  // The most messages a single GET_MESSAGES_SINCE_REQUEST will return. Callers
+  // page through longer conversations.
+  private static final int MESSAGES_SINCE_LIMIT = 256;
+
+  // The most messages a single GET_CONVERSATION_MESSAGES_REQUEST will return. A
+  // longer conversation is read in more than one request.
+  private static final int CONVERSATION_MESSAGES_LIMIT = 4096;
+
+  // The most items a single page of a listing will hold.
+  private static final int PAGE_LIMIT = 256;
+
+  // Get the key a text store uses for a value.
+  private interface TextKey<T> {
+    String of(T value);
+  }
+
+  private static final TextKey<Conversation> CONVERSATION_TITLE = new TextKey<Conversation>() {
+    @Override
+    public String of(Conversation conversation) { return conversation.title; }
+  };
+
+  private static final TextKey<User> USER_NAME = new TextKey<User>() {
+    @Override
+    public String of(User user) { return user.name; }
+  };
+
   private final Model model;
 
   public View(Model model) {
@@ -149,37 +185,219 @@ public final class View implements BasicView, LogicalView, SinglesView {
   }
 
   @Override
-  public Collection<Message> getMessages(Uuid rootMessage, int range) {
+  public Collection<Message> getMessagesSince(Uuid conversation, Uuid lastMessage, int limit) {
 
-    int remaining = Math.abs(range);
-    LOG.info("in getMessage: UUID=%s range=%d", rootMessage, range);
+    final Collection<Message> found = new ArrayList<>();
+
+    found.addAll(getConversationMessages(conversation,
+                                         lastMessage,
+                                         Time.fromMs(0),
+                                         Math.min(limit, MESSAGES_SINCE_LIMIT)).items);
+
+    return found;
+  }
+
+  // The page's next cursor is the id of its last message when the conversation
+  // has more messages after it that match.
+  @Override
+  public Page<Message> getConversationMessages(Uuid conversation, Uuid after, Time since, int limit) {
+
+    final List<Message> messages = model.messagesOf(conversation);
+
+    final int start = Uuids.equals(model.conversationOf(after), conversation) ?
+        model.positionOf(after) + 1 :
+        0;
+
+    final int max = Math.max(0, Math.min(limit, CONVERSATION_MESSAGES_LIMIT));
+    final List<Message> found = new ArrayList<>();
+
+    for (final Message message : messages.subList(start, messages.size())) {
+      if (message.creation.compareTo(since) >= 0) {
+        if (found.size() == max && max > 0) {
+          final ByteArrayOutputStream next = new ByteArrayOutputStream();
+          try {
+            Uuids.SERIALIZER.write(next, found.get(max - 1).id);
+          } catch (IOException ex) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(ex);
+          }
+          return new Page<>(found, next.toByteArray());
+        }
+        if (found.size() == max) {
+          break;
+        }
+        found.add(message);
+      }
+    }
+
+    return new Page<>(found, Page.FIRST);
+  }
+
+  @Override
+  public Page<ConversationSummary> getConversationsPage(byte[] cursor, int size) {
+
+    final Page<Conversation> conversations =
+        page(model.conversationByText(), CONVERSATION_TITLE, "", cursor, size);
+
+    final Collection<ConversationSummary> summaries = new ArrayList<>();
+    for (final Conversation conversation : conversations.items) {
+      summaries.add(conversation.summary);
+    }
+
+    return new Page<>(summaries, conversations.next);
+  }
 
-    // We want to return the messages in order. If the range was negative
-    // the messages would be backwards. Use a linked list as it supports
-    // adding at the front and adding at the end.
+  @Override
+  public Page<User> getUsersPage(byte[] cursor, int size) {
+    return page(model.userByText(), USER_NAME, "", cursor, size);
+  }
 
-    final LinkedList<Message> found = new LinkedList<>();
+  @Override
+  public Page<User> searchUsers(String prefix, byte[] cursor, int size) {
+    return page(model.userByText(), USER_NAME, prefix, cursor, size);
+  }
 
-    // i <= remaining : must be "<=" and not just "<" or else "range = 0" would
-    // return nothing and we want it to return just the root because the description
-    // is that the function will return "range" around the root. Zero messages
-    // around the root means that it should just return the root.
+  @Override
+  public Page<ConversationSummary> searchConversations(String prefix, byte[] cursor, int size) {
 
-    Message current = model.messageById().first(rootMessage);
+    final Page<Conversation> conversations =
+        page(model.conversationByText(), CONVERSATION_TITLE, prefix, cursor, size);
 
-    if (range > 0) {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addLast(current);
-        current = model.messageById().first(current.next);
+    final Collection<ConversationSummary> summaries = new ArrayList<>();
+    for (final Conversation conversation : conversations.items) {
+      summaries.add(conversation.summary);
+    }
+
+    return new Page<>(summaries, conversations.next);
+  }
+
+  @Override
+  public Page<MessageMatch> searchMessages(String text, byte[] cursor, int size) {
+
+    final int limit = Math.max(1, Math.min(size, PAGE_LIMIT));
+    final List<MessageMatch> matches = new ArrayList<>();
+
+    // The index finds the messages with words that start with the words of the
+    // search, those still need to have the search text in them as it was given.
+    final String phrase = text.trim().toLowerCase(Locale.ROOT);
+
+    // A cursor is the time and id of the last message of the page before, which
+    // is all the index needs to find where it was.
+    Message after = null;
+
+    if (cursor.length > 0) {
+      try {
+        final ByteArrayInputStream in = new ByteArrayInputStream(cursor);
+        final Time creation = Time.SERIALIZER.read(in);
+        final Uuid id = Uuids.SERIALIZER.read(in);
+        after = new Message(id, Uuids.NULL, Uuids.NULL, creation, Uuids.NULL, "");
+      } catch (IOException ex) {
+        LOG.warning("Bad search cursor - starting from the first match");
       }
-    } else {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addFirst(current);
-        current = model.messageById().first(current.previous);
+    }
+
+    final Iterator<Message> found = model.messageWords().search(text, after);
+
+    Message last = null;
+
+    while (found.hasNext()) {
+
+      final Message message = found.next();
+      final Uuid conversationId = model.conversationOf(message.id);
+      final Conversation conversation =
+          (conversationId == null) ? null : model.conversationById().first(conversationId);
+
+      if (conversation == null || !message.content.toLowerCase(Locale.ROOT).contains(phrase)) {
+        continue;
+      }
+
+      if (matches.size() == limit) {
+        final ByteArrayOutputStream next = new ByteArrayOutputStream();
+        try {
+          Time.SERIALIZER.write(next, last.creation);
+          Uuids.SERIALIZER.write(next, last.id);
+        } catch (IOException ex) {
+          // Writing to memory does not fail.
+          throw new IllegalStateException(ex);
+        }
+        return new Page<>(matches, next.toByteArray());
       }
+
+      matches.add(new MessageMatch(conversation.summary, message));
+      last = message;
     }
 
-    return found;
+    return new Page<>(matches, Page.FIRST);
+  }
+
+  @Override
+  public Delta<User> getUsersChangedSince(long generation) {
+    return changedSince(model.userChanges(), model.userById(), generation);
+  }
+
+  @Override
+  public Delta<ConversationSummary> getConversationsChangedSince(long generation) {
+
+    final Delta<Conversation> conversations =
+        changedSince(model.conversationChanges(), model.conversationById(), generation);
+
+    final Collection<ConversationSummary> summaries = new ArrayList<>();
+    for (final Conversation conversation : conversations.changed) {
+      summaries.add(conversation.summary);
+    }
+
+    return new Delta<>(conversations.generation,
+                       conversations.reset,
+                       summaries,
+                       conversations.removed);
+  }
+
+  @Override
+  public Delta<Message> getMessagesChangedSince(Uuid conversation,
+                                                long generation,
+                                                Uuid lastMessage,
+                                                int limit) {
+
+    final long current = model.messageGeneration(conversation);
+
+    if (generation == current) {
+      return Delta.notModified(current);
+    }
+
+    // Removing a message changes the links of the messages around it, which the
+    // client may already have, so it has to start again from the first message.
+    final boolean reset = !model.isCurrentEpoch(generation) ||
+                          generation > current ||
+                          model.messageRemovalGeneration(conversation) > generation;
+
+    return new Delta<>(current,
+                       reset,
+                       getMessagesSince(conversation, reset ? Uuids.NULL : lastMessage, limit),
+                       new ArrayList<Uuid>());
+  }
+
+  @Override
+  public Collection<Message> getMessages(Uuid rootMessage, int range) {
+
+    LOG.info("in getMessage: UUID=%s range=%d", rootMessage, range);
+
+    final Uuid conversation = model.conversationOf(rootMessage);
+
+    if (conversation == null) {
+      return new ArrayList<>();
+    }
+
+    // The range includes the root - "range = 0" returns just the root. The
+    // messages are taken straight from the conversation's list in order rather
+    // than by following the links one message at a time.
+
+    final List<Message> messages = model.messagesOf(conversation);
+    final int root = model.positionOf(rootMessage);
+
+    final int from = (range > 0) ? root : Math.max(0, root + range);
+    final int to = (range > 0) ? (int) Math.min(messages.size(), (long) root + range + 1) : root + 1;
+
+    return new ArrayList<>(messages.subList(from, to));
   }
 
   @Override
@@ -191,6 +409,152 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
+  private static <T> Delta<T> changedSince(ChangeLog log,
+                                           StoreAccessor<Uuid, T> store,
+                                           long since) {
+
+    final long generation = log.generation();
+
+    if (since == generation) {
+      return Delta.notModified(generation);
+    }
+
+    final Collection<T> changed = new ArrayList<>();
+    final Collection<Uuid> removed = new ArrayList<>();
+
+    final Collection<Uuid> ids = log.changedSince(since);
+
+    if (ids == null) {
+      return new Delta<>(generation, true, changed, removed);
+    }
+
+    for (final Uuid id : ids) {
+      final T value = store.first(id);
+      if (value == null) {
+        removed.add(id);
+      } else {
+        changed.add(value);
+      }
+    }
+
+    return new Delta<>(generation, false, changed, removed);
+  }
+
+  // Read one page from a text store. A cursor is the key of the last value of the
+  // page before and how many values with that key have already been returned, so
+  // that a page can end part way through values that share a key. Only values
+  // whose key starts with the prefix are read - an empty prefix reads them all.
+  private static <T> Page<T> page(StoreAccessor<String, T> store,
+                                  TextKey<T> keys,
+                                  String prefix,
+                                  byte[] cursor,
+                                  int size) {
+
+    final int limit = Math.max(1, Math.min(size, PAGE_LIMIT));
+    final List<T> items = new ArrayList<>();
+
+    String lastKey = null;
+    int lastKeyCount = 0;
+
+    final List<Iterable<T>> sources = new ArrayList<>();
+
+    if (cursor.length == 0) {
+      addFrom(sources, store, prefix);
+    } else {
+      try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(cursor))) {
+        final int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+          throw new IOException("Bad key length " + length);
+        }
+        final byte[] key = new byte[length];
+        in.readFully(key);
+        lastKey = new String(key, StandardCharsets.UTF_8);
+        lastKeyCount = in.readInt();
+      } catch (IOException ex) {
+        LOG.warning("Bad page cursor - starting from the first page");
+        lastKey = null;
+        lastKeyCount = 0;
+        addFrom(sources, store, prefix);
+      }
+      if (lastKey != null) {
+        sources.add(store.at(lastKey));
+        sources.add(store.after(lastKey));
+      }
+    }
+
+    int toSkip = lastKeyCount;
+    boolean more = false;
+    boolean done = false;
+
+    for (final Iterable<T> source : sources) {
+      for (final T value : source) {
+
+        if (toSkip > 0) {
+          toSkip--;
+          continue;
+        }
+
+        final String key = keys.of(value);
+
+        // Keys are in order so the ones that start with the prefix are together.
+        if (!key.regionMatches(true, 0, prefix, 0, prefix.length())) {
+          done = true;
+          break;
+        }
+
+        if (items.size() == limit) {
+          more = true;
+          break;
+        }
+
+        if (lastKey != null && lastKey.equalsIgnoreCase(key)) {
+          lastKeyCount++;
+        } else {
+          lastKey = key;
+          lastKeyCount = 1;
+        }
+
+        items.add(value);
+      }
+      // Values skipped from the cursor's key only come from the first source.
+      toSkip = 0;
+      if (more || done) {
+        break;
+      }
+    }
+
+    if (!more) {
+      return new Page<>(items, Page.FIRST);
+    }
+
+    final ByteArrayOutputStream next = new ByteArrayOutputStream();
+
+    // The key is written with its length first, like Serializers.BYTES, so that
+    // keys of any length fit.
+    try (final DataOutputStream out = new DataOutputStream(next)) {
+      final byte[] key = lastKey.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(key.length);
+      out.write(key);
+      out.writeInt(lastKeyCount);
+    } catch (IOException ex) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(ex);
+    }
+
+    return new Page<>(items, next.toByteArray());
+  }
+
+  private static <T> void addFrom(List<Iterable<T>> sources,
+                                  StoreAccessor<String, T> store,
+                                  String prefix) {
+    if (prefix.isEmpty()) {
+      sources.add(store.all());
+    } else {
+      sources.add(store.at(prefix));
+      sources.add(store.after(prefix));
+    }
+  }
+
   private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HISTOGRAM
+//
+// Counts values, such as latencies in nanoseconds, so that percentiles can be read
+// back while they are still being recorded. Each power of two is split into 16
+// buckets, so a percentile is within about 6% of the true value whatever its size.
+// Small values are counted exactly.
+//
+// Recording takes no locks - every bucket is an atomic counter - so any number of
+// threads can record at once. Reading while others record sees each bucket as it
+// was at some point during the read.
+public final class Histogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  // Values below SUB_BUCKETS get a bucket each, every power of two above that gets
+  // SUB_BUCKETS of them.
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  // Count the value. Negative values are counted as zero.
+  public void record(long value) {
+
+    final long v = Math.max(0, value);
+
+    buckets.incrementAndGet(bucketOf(v));
+    count.incrementAndGet();
+    total.addAndGet(v);
+
+    long seen = max.get();
+    while (v > seen && !max.compareAndSet(seen, v)) {
+      seen = max.get();
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public double mean() {
+    final long n = count.get();
+    return (n == 0) ? 0 : (double) total.get() / n;
+  }
+
+  // PERCENTILE
+  //
+  // The value that "fraction" of the recorded values are at or below, for example
+  // 0.99 for the 99th percentile. Returns the top of the bucket the value fell in,
+  // but never more than the largest value recorded. Zero if nothing was recorded.
+  public long percentile(double fraction) {
+
+    final long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+
+    final long target = Math.max(1, (long) Math.ceil(fraction * n));
+
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= target) {
+        return Math.min(highestIn(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long highestIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
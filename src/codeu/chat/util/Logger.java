@@ -15,8 +15,27 @@
 package codeu.chat.util;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Stream;
 
+// LOGGER
+//
+// Logging for the chat classes, written out through java.util.logging. A call
+// first checks whether its level is logged at all and returns straight away if
+// not, before any formatting or stack walking.
+//
+// Logged records go into a fixed size buffer and a background thread writes them
+// to the handlers, so the caller never waits on a file or the console. The class
+// and method of the call, which the formatter prints, are read from the one frame
+// of the stack that holds them rather than from a whole stack trace. If the
+// buffer is full a record is dropped rather than holding up
+// the caller - errors wait a little for room first - and the writer reports how
+// many were dropped with the next record it writes.
 public final class Logger {
 
   public interface Log {
@@ -32,15 +51,73 @@ public final class Logger {
 
   }
 
+  // How many records can wait for the writer.
+  private static final int BUFFER_SIZE = 8192;
+
+  // How long an error waits for room in a full buffer before it is dropped.
+  private static final long ERROR_WAIT_MS = 100;
+
+  // How long flush waits for the writer to catch up.
+  private static final long FLUSH_WAIT_MS = 1000;
+
   private static final java.util.logging.Logger logger =
       java.util.logging.Logger.getLogger("codeu.chat");
 
+  private static final Buffer buffer = new Buffer(BUFFER_SIZE);
+
+  // Finds the frame of the call to a Log method. Only the frames down to it are
+  // walked.
+  private static final StackWalker walker = StackWalker.getInstance();
+  private static final Function<Stream<StackWalker.StackFrame>, StackWalker.StackFrame> caller =
+      new Function<Stream<StackWalker.StackFrame>, StackWalker.StackFrame>() {
+        @Override
+        public StackWalker.StackFrame apply(Stream<StackWalker.StackFrame> frames) {
+          // Skip "log" and the Log method that called it.
+          return frames.skip(2).findFirst().orElse(null);
+        }
+      };
+
+  private static final AtomicLong droppedTotal = new AtomicLong();
+
+  // Counts of records put in the buffer and written out, so that flush knows
+  // when the writer has caught up.
+  private static final AtomicLong added = new AtomicLong();
+  private static final AtomicLong written = new AtomicLong();
+  private static final Object progress = new Object();
+
   static {
     logger.setLevel(java.util.logging.Level.INFO);
 
     // Stop this logger from sending its messages up to the root. This will
     // make our logger the new root logger.
     logger.setUseParentHandlers(false);
+
+    final Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Entry entry = buffer.take();
+            try {
+              write(entry);
+            } catch (RuntimeException ex) {
+              // A handler failed. There is nowhere to report it, keep writing the rest.
+            }
+          }
+        } catch (InterruptedException ex) {
+          // Only interrupted as the program exits.
+        }
+      }
+    }, "logger");
+    writer.setDaemon(true);
+    writer.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        flush();
+      }
+    });
   }
 
   public static void enableFileOutput(String file) throws IOException {
@@ -59,55 +136,195 @@ public final class Logger {
     logger.addHandler(handler);
   }
 
+  // FLUSH
+  //
+  // Wait for the records logged so far to be written and flush the handlers. Gives
+  // up after a second so that a stuck handler cannot hold up the caller for long.
+  public static void flush() {
+
+    synchronized (progress) {
+      final long target = added.get();
+      final long deadline = System.currentTimeMillis() + FLUSH_WAIT_MS;
+      long left = FLUSH_WAIT_MS;
+      while (written.get() < target && left > 0) {
+        try {
+          progress.wait(left);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        left = deadline - System.currentTimeMillis();
+      }
+    }
+
+    for (final java.util.logging.Handler handler : logger.getHandlers()) {
+      handler.flush();
+    }
+  }
+
+  // The logger's level and buffer, for Management.register.
+  public static LoggerMXBean mxBean() {
+    return new LoggerMXBean() {
+
+      @Override
+      public String getLevel() {
+        return logger.getLevel().getName();
+      }
+
+      @Override
+      public void setLevel(String level) {
+        logger.setLevel(Level.parse(level));
+      }
+
+      @Override
+      public int getPendingRecords() {
+        return buffer.size();
+      }
+
+      @Override
+      public long getDroppedRecords() {
+        return droppedTotal.get() + buffer.dropped.get();
+      }
+    };
+  }
+
   public static Log newLog(Class<?> c) {
 
     final java.util.logging.Logger log =
         java.util.logging.Logger.getLogger(c.getName());
 
-    // Note: This Logger calls the standard java Logger, so the class/method lookup
-    // needs to go one level deeper.  Otherwise it will appear that all the log
-    // calls are coming from this object. Use logp() (log precise) to do this.
+    // Note: The call site is found from the stack at the point the record is
+    // logged. Every method here calls "log" directly so the caller is always
+    // two frames below it.
     return new Log() {
 
       @Override
       public void verbose(String message, Object... params) {
-        log.logp(java.util.logging.Level.FINE,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        log(log, Level.FINE, null, message, params);
       }
 
       @Override
       public void info(String message, Object... params) {
-        log.logp(java.util.logging.Level.INFO,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        log(log, Level.INFO, null, message, params);
       }
 
       @Override
       public void warning(String message, Object... params) {
-        log.logp(java.util.logging.Level.WARNING,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        log(log, Level.WARNING, null, message, params);
       }
 
       @Override
       public void error(String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        log(log, Level.SEVERE, null, message, params);
       }
 
       @Override
       public void error(Throwable error, String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params), error);
+        log(log, Level.SEVERE, error, message, params);
       }
     };
   }
+
+  private static void log(java.util.logging.Logger log,
+                          Level level,
+                          Throwable error,
+                          String message,
+                          Object... params) {
+
+    if (!log.isLoggable(level)) {
+      return;
+    }
+
+    // The record takes the time, thread and source of the call as it is made.
+    // The source is always set, even when it cannot be found, so that the record
+    // does not go looking for it on the writer's thread.
+    final LogRecord record = new LogRecord(level, String.format(message, params));
+    record.setLoggerName(log.getName());
+    record.setThrown(error);
+
+    final StackWalker.StackFrame site = walker.walk(caller);
+    record.setSourceClassName(site == null ? null : site.getClassName());
+    record.setSourceMethodName(site == null ? null : site.getMethodName());
+
+    final Entry entry = new Entry(log, record);
+
+    if (buffer.add(entry, level.intValue() >= Level.SEVERE.intValue() ? ERROR_WAIT_MS : 0)) {
+      added.incrementAndGet();
+    }
+  }
+
+  private static void write(Entry entry) {
+
+    final long dropped = buffer.takeDropped();
+    if (dropped > 0) {
+      droppedTotal.addAndGet(dropped);
+      logger.log(Level.WARNING, String.format("%d log records were dropped, the log buffer was full.", dropped));
+    }
+
+    try {
+      entry.log.log(entry.record);
+    } finally {
+      written.incrementAndGet();
+      synchronized (progress) {
+        progress.notifyAll();
+      }
+    }
+  }
+
+  // A record waiting to be written, and the logger to write it to.
+  static final class Entry {
+
+    public final java.util.logging.Logger log;
+    public final LogRecord record;
+
+    public Entry(java.util.logging.Logger log, LogRecord record) {
+      this.log = log;
+      this.record = record;
+    }
+  }
+
+  // BUFFER
+  //
+  // The records waiting for the writer, in a fixed size ring. A record that does
+  // not fit is dropped and counted.
+  static final class Buffer {
+
+    private final ArrayBlockingQueue<Entry> entries;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public Buffer(int capacity) {
+      entries = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // Add the entry, waiting up to "waitMs" for room. Returns false if it was
+    // dropped.
+    public boolean add(Entry entry, long waitMs) {
+      boolean added;
+      try {
+        added = (waitMs > 0) ?
+            entries.offer(entry, waitMs, TimeUnit.MILLISECONDS) :
+            entries.offer(entry);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        added = false;
+      }
+      if (!added) {
+        dropped.incrementAndGet();
+      }
+      return added;
+    }
+
+    public Entry take() throws InterruptedException {
+      return entries.take();
+    }
+
+    public int size() {
+      return entries.size();
+    }
+
+    // The number of entries dropped since the last call.
+    public long takeDropped() {
+      return dropped.getAndSet(0);
+    }
+  }
 }
@@ -0,0 +1,34 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+// LOGGER MX BEAN
+//
+// The logger over JMX. The level can be changed while the program runs and takes
+// effect for every log at once.
+public interface LoggerMXBean {
+
+  // A java.util.logging level name such as "INFO" or "FINE".
+  String getLevel();
+
+  void setLevel(String level);
+
+  // Records waiting for the writer.
+  int getPendingRecords();
+
+  // Records dropped because the buffer was full, since the program started.
+  long getDroppedRecords();
+
+}
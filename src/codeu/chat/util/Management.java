@@ -0,0 +1,42 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// MANAGEMENT
+//
+// Makes objects available over JMX under "codeu.chat:type=<type>" so that they
+// can be looked at, and some of them changed, with tools like jconsole while the
+// program runs.
+public final class Management {
+
+  private final static Logger.Log LOG = Logger.newLog(Management.class);
+
+  private Management() { }
+
+  // Register the bean, which must implement an interface whose name ends in
+  // "MXBean". A bean that cannot be registered is logged and left out.
+  public static void register(String type, Object bean) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          bean, new ObjectName("codeu.chat:type=" + type));
+    } catch (JMException ex) {
+      LOG.error(ex, "Failed to register %s with JMX.", type);
+    }
+  }
+}
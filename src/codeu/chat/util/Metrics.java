@@ -0,0 +1,110 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// METRICS
+//
+// Named counters and histograms shared by the whole process. Asking for a name
+// that does not exist yet creates it, so code can keep what it records in static
+// fields without any set up. Names are dotted, starting with the part of the
+// program they come from - "server." or "store.".
+//
+// Latencies are recorded in nanoseconds and shown in microseconds.
+public final class Metrics {
+
+  private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  private Metrics() { }
+
+  public static AtomicLong counter(String name) {
+    final AtomicLong counter = counters.get(name);
+    if (counter != null) {
+      return counter;
+    }
+    final AtomicLong created = new AtomicLong();
+    final AtomicLong raced = counters.putIfAbsent(name, created);
+    return (raced == null) ? created : raced;
+  }
+
+  public static Histogram histogram(String name) {
+    final Histogram histogram = histograms.get(name);
+    if (histogram != null) {
+      return histogram;
+    }
+    final Histogram created = new Histogram();
+    final Histogram raced = histograms.putIfAbsent(name, created);
+    return (raced == null) ? created : raced;
+  }
+
+  // DUMP
+  //
+  // Every counter and histogram as text, one per line in name order. Histograms
+  // that have recorded nothing are left out.
+  public static String dump() {
+
+    final StringBuilder text = new StringBuilder();
+
+    for (final Map.Entry<String, AtomicLong> counter : new TreeMap<>(counters).entrySet()) {
+      text.append(String.format("%s %d\n", counter.getKey(), counter.getValue().get()));
+    }
+
+    for (final Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+      final Histogram histogram = entry.getValue();
+      if (histogram.count() == 0) {
+        continue;
+      }
+      text.append(String.format(
+          "%s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p999=%.1fus max=%.1fus\n",
+          entry.getKey(),
+          histogram.count(),
+          histogram.mean() / 1000,
+          histogram.percentile(0.5) / 1000.0,
+          histogram.percentile(0.9) / 1000.0,
+          histogram.percentile(0.99) / 1000.0,
+          histogram.percentile(0.999) / 1000.0,
+          histogram.max() / 1000.0));
+    }
+
+    return text.toString();
+  }
+
+  // Write the dump to the file, replacing it in one step so that a reader never
+  // sees half of it.
+  public static void dumpTo(File file) throws IOException {
+
+    final File temp = new File(file.getPath() + ".tmp");
+
+    try (final OutputStream out = new FileOutputStream(temp)) {
+      out.write(dump().getBytes(StandardCharsets.UTF_8));
+    }
+
+    Files.move(temp.toPath(), file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
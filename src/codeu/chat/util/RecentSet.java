@@ -0,0 +1,59 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// RECENT SET
+//
+// A set that only remembers the last "capacity" values that were added to it.
+// When it is full, adding a new value forgets the oldest value. This is used to
+// spot repeats within a window without holding on to everything ever seen.
+//
+// A recent set is not thread safe. Callers need to do their own locking.
+public final class RecentSet<T> {
+
+  private final Map<T, Boolean> values;
+
+  public RecentSet(final int capacity) {
+
+    this.values = new LinkedHashMap<T, Boolean>() {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<T, Boolean> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // ADD
+  //
+  // Add a value to the set. Returns true if the value was not already in the
+  // set and false if it was.
+  public boolean add(T value) {
+    return values.put(value, Boolean.TRUE) == null;
+  }
+
+  public boolean contains(T value) {
+    return values.containsKey(value);
+  }
+
+  public int size() {
+    return values.size();
+  }
+}
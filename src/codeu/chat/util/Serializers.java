@@ -14,11 +14,15 @@
 
 package codeu.chat.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public final class Serializers {
 
@@ -62,6 +66,27 @@ public final class Serializers {
     }
   };
 
+  public static final Serializer<Long> LONG = new Serializer<Long>() {
+
+    @Override
+    public void write(OutputStream out, Long value) throws IOException {
+
+      INTEGER.write(out, (int) (value >>> 32));
+      INTEGER.write(out, (int) (value >>> 0));
+
+    }
+
+    @Override
+    public Long read(InputStream in) throws IOException {
+
+      final long high = INTEGER.read(in);
+      final long low = INTEGER.read(in) & 0xFFFFFFFFL;
+
+      return (high << 32) | low;
+
+    }
+  };
+
   public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
 
     @Override
@@ -128,6 +153,33 @@ public final class Serializers {
     };
   }
 
+  // COMPRESSED
+  //
+  // Write the value as a single block of bytes compressed with deflate. This is
+  // only worth it for large values with a lot of repetition in them.
+  public static <T> Serializer<T> compressed(final Serializer<T> serializer) {
+
+    return new Serializer<T>() {
+
+      @Override
+      public void write(OutputStream out, T value) throws IOException {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        try (final DeflaterOutputStream deflater = new DeflaterOutputStream(block)) {
+          serializer.write(deflater, value);
+        }
+        BYTES.write(out, block.toByteArray());
+      }
+
+      @Override
+      public T read(InputStream in) throws IOException {
+        try (final InputStream inflater =
+                 new InflaterInputStream(new ByteArrayInputStream(BYTES.read(in)))) {
+          return serializer.read(inflater);
+        }
+      }
+    };
+  }
+
   public static <T> Serializer<T> nullable(final Serializer<T> serializer) {
 
     final int NO_VALUE = 0x00;
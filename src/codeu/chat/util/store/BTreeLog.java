@@ -0,0 +1,306 @@
+package codeu.chat.util.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The format of a BTreeStore's log file.
+ *
+ * A log starts with a header (MAGIC then VERSION) and is followed by one record per
+ * change made to the tree. A record is its type, the length of its body, the body
+ * (the serialized key, and the value unless the record is a deletion) and a CRC32
+ * of the three. A record is only complete when its checksum matches, so a write
+ * that was cut short or bytes that changed on disk are found when the log is read
+ * rather than replayed into the tree.
+ *
+ * Logs written before records had checksums have no header. Those records are the
+ * type, key and value followed by a SUCCESS or ABORT byte.
+ */
+final class BTreeLog {
+
+    static final int MAGIC = 0x42544C47; // "BTLG"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+
+    // type, body length and checksum
+    static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    /**
+     * What a log file holds, judged by its first bytes.
+     */
+    enum Format {
+        // nothing, or only part of a header
+        EMPTY,
+        // a header followed by checksummed records
+        CHECKED,
+        // records from before there were checksums
+        LEGACY,
+        // a header with damaged bytes, followed by checksummed records
+        DAMAGED,
+        // too short for a header and neither, the start of the file is damaged
+        UNKNOWN
+    }
+
+    /**
+     * Opens a log file to append to. A store keeps the stream open and writes each
+     * record to it as one write. Flushing the stream makes what was written to it
+     * durable, so a store flushes once for a group of records rather than for each
+     * one. Tests replace it to fail writes part way.
+     */
+    interface Output {
+        OutputStream open(File file) throws IOException;
+    }
+
+    static final Output FILE_OUTPUT = new Output() {
+        @Override
+        public OutputStream open(File file) throws IOException {
+            final FileOutputStream stream = new FileOutputStream(file, true);
+            return new FilterOutputStream(stream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    stream.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    stream.getFD().sync();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // only what was flushed is synced
+                    stream.close();
+                }
+            };
+        }
+    };
+
+    private BTreeLog() { }
+
+    static byte[] header() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the complete record of the given type and body, ready to be written
+     * in one piece
+     */
+    static byte[] record(int type, byte[] body) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + RECORD_OVERHEAD);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeInt(checksum(type, body));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Format format(File file) throws IOException {
+        final byte[] start = new byte[HEADER_SIZE];
+        int read = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            for (int n = 0; read < start.length && n >= 0; read += Math.max(n, 0)) {
+                n = in.read(start, read, start.length - read);
+            }
+        }
+        final byte[] header = header();
+        if (read == HEADER_SIZE && Arrays.equals(start, header)) {
+            return Format.CHECKED;
+        }
+        if (read == HEADER_SIZE && (!isType(start[0])
+                                    || Arrays.equals(Arrays.copyOfRange(start, 1, HEADER_SIZE),
+                                                     Arrays.copyOfRange(header, 1, HEADER_SIZE)))) {
+            // a legacy log starts with a record type, so this is a header with damaged
+            // bytes, or one whose damaged first byte could pass for a record type
+            return Format.DAMAGED;
+        }
+        if (read > 0 && isType(start[0])) {
+            return Format.LEGACY;
+        }
+        if (read < HEADER_SIZE && Arrays.equals(Arrays.copyOf(start, read), Arrays.copyOf(header, read))) {
+            return Format.EMPTY;
+        }
+        return Format.UNKNOWN;
+    }
+
+    /**
+     * Writes a good header over the start of the file, leaving the records after it.
+     */
+    static void repairHeader(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(header());
+            raf.getFD().sync();
+        }
+    }
+
+    /**
+     * Cuts the file down to the given length, dropping whatever follows.
+     */
+    static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static boolean isType(int type) {
+        return type == BTreeStore.INSERTION || type == BTreeStore.DELETION || type == BTreeStore.UPDATE;
+    }
+
+    private static int checksum(int type, byte[] body) {
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body.length >>> 24);
+        crc.update(body.length >>> 16);
+        crc.update(body.length >>> 8);
+        crc.update(body.length);
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a LEGACY log. Reading past the end of the file throws EOFException, so
+     * that a record that was cut short stops the replay instead of being read as
+     * whatever the serializers make of the missing bytes.
+     */
+    static final class LegacyInput extends FilterInputStream {
+
+        LegacyInput(File file) throws IOException {
+            super(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+
+        /**
+         * @return the type of the next record, or -1 if the log ends before it
+         */
+        int nextType() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = in.read();
+            if (read < 0) {
+                throw new EOFException("The log ends part way through a record");
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int read = in.read(b, off, len);
+            if (read < 0) {
+                throw new EOFException("The log ends part way through a record");
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Reads the records of a CHECKED log in order. Reading stops at the end of the
+     * file or at the first record that is incomplete or does not match its
+     * checksum; nothing after that record can be trusted.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long length;
+        private long offset = HEADER_SIZE;
+        private boolean clean = true;
+        private int type;
+        private byte[] body;
+
+        Reader(File file) throws IOException {
+            length = file.length();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            in.readFully(new byte[HEADER_SIZE]);
+        }
+
+        /**
+         * @return true if another complete record was read, false if there are no
+         * more that can be used
+         */
+        boolean next() throws IOException {
+            final int read = in.read();
+            if (read < 0) {
+                return false;
+            }
+            // until the whole record checks out
+            clean = false;
+            if (!isType(read) || length - offset < RECORD_OVERHEAD) {
+                return false;
+            }
+            final int size = in.readInt();
+            if (size < 0 || size > length - offset - RECORD_OVERHEAD) {
+                return false;
+            }
+            final byte[] bytes = new byte[size];
+            in.readFully(bytes);
+            if (in.readInt() != checksum(read, bytes)) {
+                return false;
+            }
+            type = read;
+            body = bytes;
+            offset += RECORD_OVERHEAD + size;
+            clean = true;
+            return true;
+        }
+
+        int type() {
+            return type;
+        }
+
+        byte[] body() {
+            return body;
+        }
+
+        /**
+         * @return the number of bytes of the file that held the header and every
+         * complete record read so far
+         */
+        long offset() {
+            return offset;
+        }
+
+        /**
+         * @return false if reading stopped at a damaged record rather than at the
+         * end of the file
+         */
+        boolean clean() {
+            return clean;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package codeu.chat.util.store;
 
+import codeu.chat.util.Histogram;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Serializer;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Comparator;
 
@@ -12,9 +16,20 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     public static final int NUM_POINTERS = 2;
 
     private static final Logger.Log LOG = Logger.newLog(BTreeStore.class);
+
+    // Shared by every tree. Log writes are timed per record, or per batch when
+    // the records are written together, and syncs are timed on their own.
+    // Lookups are not timed here; the server times each read request whole.
+    private static final Histogram INSERT_LATENCY = Metrics.histogram("store.insert");
+    private static final Histogram UPDATE_LATENCY = Metrics.histogram("store.update");
+    private static final Histogram DELETE_LATENCY = Metrics.histogram("store.delete");
+    private static final Histogram LOG_WRITE_LATENCY = Metrics.histogram("store.log_write");
+    private static final Histogram LOG_SYNC_LATENCY = Metrics.histogram("store.log_sync");
+    // the types of log records, see BTreeLog
     public static final int INSERTION = 1;
     public static final int DELETION = 2;
     public static final int UPDATE = 3;
+    // how records ended in logs written before records had checksums
     public static final int SUCCESS = 4;
     public static final int ABORT = 5;
 
@@ -34,7 +49,15 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
      */
     public BTreeStore(int minNumPointers, Comparator<? super KEY> comparator, Serializer<KEY> keySerializer,
                       Serializer<VALUE> valueSerializer, String filename) {
-        this(new BTreeInformation<>(minNumPointers, comparator, keySerializer, valueSerializer, filename));
+        this(minNumPointers, comparator, keySerializer, valueSerializer, filename, BTreeLog.FILE_OUTPUT);
+    }
+
+    /**
+     * Constructor for a B-Tree that appends to its log through the given output
+     */
+    BTreeStore(int minNumPointers, Comparator<? super KEY> comparator, Serializer<KEY> keySerializer,
+               Serializer<VALUE> valueSerializer, String filename, BTreeLog.Output output) {
+        this(new BTreeInformation<>(minNumPointers, comparator, keySerializer, valueSerializer, filename, output));
         if (minNumPointers < 2) { // a BTree is only well defined if the min num pointers/node >= 2
             throw new IllegalArgumentException(
                 "Must have a minimimum of two pointers per node (when full)");
@@ -45,8 +68,8 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             if (fileExists) {
                 createTreeFromFile(treeInformation.file);
             } else {
-                treeInformation.file.createNewFile();
                 LOG.warning("Creating the file... could not recover the tree");
+                startLog();
             }
         } catch (IOException e) {
             LOG.error(e, "Error creating or reading the file");
@@ -64,39 +87,276 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     }
 
     private void createTreeFromFile(File file) throws IOException {
-        try(InputStream inputStream = new FileInputStream(file)) {
-            BTreeStore<KEY, VALUE> root = new BTreeStore<>(treeInformation);
-            while (true) {
-                int read = inputStream.read();
-                if (read == -1) {
-                    break;
+        switch (BTreeLog.format(file)) {
+            case EMPTY:
+                startLog();
+                break;
+            case CHECKED:
+                replay(file);
+                break;
+            case DAMAGED:
+                LOG.error("The header of %s is damaged, recovering the records after it", file);
+                replay(file);
+                BTreeLog.repairHeader(file);
+                break;
+            case LEGACY:
+                replayLegacy(file);
+                rewriteLog();
+                break;
+            default:
+                final File aside = new File(file.getPath() + ".corrupt");
+                LOG.error("The start of %s is damaged, moving it to %s and starting an empty tree", file, aside);
+                Files.move(file.toPath(), aside.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                startLog();
+                break;
+        }
+    }
+
+    /**
+     * Rebuilds the tree from the records of a checksummed log. If the log ends in a
+     * record that is incomplete or damaged, that record and anything after it is
+     * cut from the file so that new records follow the last good one.
+     */
+    private void replay(File file) throws IOException {
+        BTreeStore<KEY, VALUE> root = new BTreeStore<>(treeInformation);
+        final long end;
+        final boolean clean;
+        try (BTreeLog.Reader reader = new BTreeLog.Reader(file)) {
+            while (reader.next()) {
+                final InputStream body = new ByteArrayInputStream(reader.body());
+                final KEY key = treeInformation.keySerializer.read(body);
+                if (reader.type() == INSERTION) {
+                    // only inserts that happened are logged, so any duplicate was allowed
+                    root = root.insert(key, treeInformation.valueSerializer.read(body), true, false);
+                } else if (reader.type() == DELETION) {
+                    root = root.delete(key, false);
+                } else {
+                    root.modify(key, treeInformation.valueSerializer.read(body));
                 }
-                if (read == INSERTION) {
-                    KEY key = treeInformation.keySerializer.read(inputStream);
-                    VALUE value = treeInformation.valueSerializer.read(inputStream);
-                    int success = inputStream.read();
-                    if (success == SUCCESS) {
-                        root = root.insert(key, value, false, false);
-                    }
-                } else if (read == DELETION) {
-                    KEY key = treeInformation.keySerializer.read(inputStream);
-                    int success = inputStream.read();
-                    if (success == SUCCESS) {
-                        root = root.delete(key, false);
+            }
+            end = reader.offset();
+            clean = reader.clean();
+        }
+        if (!clean) {
+            LOG.warning("Log %s has a damaged or incomplete record at byte %d, dropping the last %d bytes",
+                file, end, file.length() - end);
+            BTreeLog.truncate(file, end);
+        }
+        deepCopy(root);
+    }
+
+    /**
+     * Rebuilds the tree from a log written before records had checksums, where
+     * each record ends in SUCCESS or ABORT. If the log ends part way through a
+     * record, the records before it are kept and the rest is dropped when the log
+     * is rewritten.
+     */
+    private void replayLegacy(File file) throws IOException {
+        try (BTreeLog.LegacyInput inputStream = new BTreeLog.LegacyInput(file)) {
+            BTreeStore<KEY, VALUE> root = new BTreeStore<>(treeInformation);
+            int records = 0;
+            try {
+                while (true) {
+                    int read = inputStream.nextType();
+                    if (read == -1) {
+                        break;
                     }
-                } else if (read == UPDATE) {
-                    KEY key = treeInformation.keySerializer.read(inputStream);
-                    VALUE value = treeInformation.valueSerializer.read(inputStream);
-                    int success = inputStream.read();
-                    if (success == SUCCESS) {
-                        root.modify(key, value);
+                    if (read == INSERTION) {
+                        KEY key = treeInformation.keySerializer.read(inputStream);
+                        VALUE value = treeInformation.valueSerializer.read(inputStream);
+                        int success = inputStream.read();
+                        if (success == SUCCESS) {
+                            root = root.insert(key, value, true, false);
+                        }
+                    } else if (read == DELETION) {
+                        KEY key = treeInformation.keySerializer.read(inputStream);
+                        int success = inputStream.read();
+                        if (success == SUCCESS) {
+                            root = root.delete(key, false);
+                        }
+                    } else if (read == UPDATE) {
+                        KEY key = treeInformation.keySerializer.read(inputStream);
+                        VALUE value = treeInformation.valueSerializer.read(inputStream);
+                        int success = inputStream.read();
+                        if (success == SUCCESS) {
+                            root.modify(key, value);
+                        }
                     }
+                    records++;
                 }
+            } catch (EOFException e) {
+                LOG.warning("Legacy log %s ends part way through a record, keeping the %d records before it",
+                    file, records);
             }
             deepCopy(root);
         }
     }
 
+    /**
+     * Starts the log over with just the header.
+     */
+    private void startLog() throws IOException {
+        if (treeInformation.file.exists()) {
+            BTreeLog.truncate(treeInformation.file, 0);
+        }
+        try (OutputStream outputStream = treeInformation.output.open(treeInformation.file)) {
+            outputStream.write(BTreeLog.header());
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Replaces the log with one that inserts everything in the tree. The new log is
+     * written beside the old one and then moved over it, so a crash part way
+     * leaves the old log as it was.
+     */
+    private void rewriteLog() throws IOException {
+        final File file = treeInformation.file;
+        final File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temp))) {
+            outputStream.write(BTreeLog.header());
+            writeEntries(this, outputStream);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Rewrote log %s with checksummed records", file);
+    }
+
+    private void writeEntries(BTreeStore<KEY, VALUE> node, OutputStream outputStream) throws IOException {
+        for (int i = 0; i <= node.numElems; i++) {
+            if (node.children[i] != null) {
+                writeEntries((BTreeStore<KEY, VALUE>) node.children[i], outputStream);
+            }
+            if (i < node.numElems) {
+                outputStream.write(record(INSERTION, (KEY) node.keys[i], (VALUE) node.values[i]));
+            }
+        }
+    }
+
+    /**
+     * Appends the record of a change that is about to be made to the tree. The
+     * caller has already checked that the change will happen, so only changes that
+     * happen are logged, and makes it only once this returns, so a change is never
+     * in the tree without being in the log. Each record goes to the log in a single
+     * write on the store's open stream, which puts it in the file but does not sync
+     * it; records are made durable together by sync, or by endBatch for a batch,
+     * whose records are held until then instead.
+     *
+     * If the record cannot be written the log is cut back to where it was, so that
+     * a part of the record is not left for later records to follow, and the
+     * failure is thrown to the caller without the change being made.
+     */
+    private void log(int type, KEY key, VALUE value) {
+        final byte[] record;
+        try {
+            record = record(type, key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing a record for log " + treeInformation.file, e);
+        }
+        final ByteArrayOutputStream batch = treeInformation.batch;
+        if (batch == null) {
+            append(record, false);
+        } else {
+            batch.write(record, 0, record.length);
+        }
+    }
+
+    /**
+     * Writes the bytes to the end of the log in one write. If they cannot all be
+     * written the stream is let go of and the log cut back to where it was.
+     */
+    private void append(byte[] bytes, boolean batch) {
+        final LogAppendEvent event = new LogAppendEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final long before = treeInformation.file.length();
+        try {
+            openLog().write(bytes);
+            treeInformation.unsynced = true;
+        } catch (IOException e) {
+            LOG.error(e, "Error writing to log %s", treeInformation.file);
+            closeLog(e);
+            cutBack(before, e);
+            throw new UncheckedIOException("Error writing to log " + treeInformation.file, e);
+        } finally {
+            LOG_WRITE_LATENCY.record(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.log = treeInformation.file.getPath();
+            event.bytes = bytes.length;
+            event.batch = batch;
+            event.commit();
+        }
+    }
+
+    /**
+     * Makes every record written to the log since the last sync durable, with one
+     * sync for all of them. Does nothing if there are none. Records held in a
+     * batch are not written until endBatch, which syncs them itself.
+     * @throws UncheckedIOException if the log could not be synced, in which case
+     * the records may not survive a crash of the machine
+     */
+    public void sync() {
+        if (!treeInformation.unsynced) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            openLog().flush();
+            treeInformation.unsynced = false;
+        } catch (IOException e) {
+            LOG.error(e, "Error syncing log %s", treeInformation.file);
+            closeLog(e);
+            throw new UncheckedIOException("Error syncing log " + treeInformation.file, e);
+        } finally {
+            LOG_SYNC_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    // the stream records are appended to, opened the first time it is needed and
+    // kept open after
+    private OutputStream openLog() throws IOException {
+        if (treeInformation.log == null) {
+            treeInformation.log = treeInformation.output.open(treeInformation.file);
+        }
+        return treeInformation.log;
+    }
+
+    // lets go of the log's stream after it failed, so that the next record opens
+    // it again, keeping the failure to close with the one that caused it
+    private void closeLog(IOException cause) {
+        final OutputStream log = treeInformation.log;
+        treeInformation.log = null;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    // cuts the log back to the given length after a failed write, keeping the
+    // failure to cut with the one that caused it
+    private void cutBack(long length, IOException cause) {
+        try {
+            BTreeLog.truncate(treeInformation.file, length);
+        } catch (IOException e) {
+            LOG.error(e, "Error cutting log %s back to %d bytes", treeInformation.file, length);
+            cause.addSuppressed(e);
+        }
+    }
+
+    private byte[] record(int type, KEY key, VALUE value) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        treeInformation.keySerializer.write(body, key);
+        if (type != DELETION) {
+            treeInformation.valueSerializer.write(body, value);
+        }
+        return BTreeLog.record(type, body.toByteArray());
+    }
+
     private void deepCopy(BTreeStore<KEY, VALUE> root) {
         this.parent = root.parent;
         this.children = root.children;
@@ -118,16 +378,60 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
         keys = new Object[treeInformation.maxNumPointers - 1];
         values = new Object[treeInformation.maxNumPointers - 1];
         numElems = 0;
+        treeInformation.size = 0;
+        treeInformation.height = 1;
+        treeInformation.nodes = 1;
+        if (treeInformation.log != null) {
+            try {
+                treeInformation.log.close();
+            } catch (IOException e) {
+                LOG.error(e, "Error closing log on clearing tree");
+            }
+            treeInformation.log = null;
+        }
+        treeInformation.unsynced = false;
         treeInformation.file.delete();
         treeInformation.file = new File(filename);
         try {
-            treeInformation.file.createNewFile();
+            startLog();
         } catch (IOException e) {
             LOG.error(e, "Error creating new file on clearing tree");
         }
 
     }
 
+    /**
+     * Starts a batch. Until endBatch is called, changes to the tree are applied as
+     * usual but their log records are held in memory and then appended to the file
+     * in a single write and synced once, rather than written one at a time.
+     * The batch is shared by every node of the tree.
+     *
+     * A batch's changes are in the tree before they are in the log, so they are
+     * only durable once endBatch returns.
+     */
+    public void beginBatch() {
+        if (treeInformation.batch == null) {
+            treeInformation.batch = new ByteArrayOutputStream();
+        }
+    }
+
+    /**
+     * Ends the current batch (if any), appends all of its log records to the file
+     * and syncs them, with any records written before the batch, in one sync.
+     * @throws UncheckedIOException if the records could not be written, in which
+     * case the log is cut back to where it was and the batch's changes, which are
+     * already in the tree, are not durable
+     */
+    public void endBatch() {
+        final ByteArrayOutputStream batch = treeInformation.batch;
+        treeInformation.batch = null;
+        if (batch == null || batch.size() == 0) {
+            return;
+        }
+        append(batch.toByteArray(), true);
+        sync();
+    }
+
     /**
      * To be used whenever the value associated with a key is changed
      * (current use case: a message is added to a conversation, so we need to update the conversation object)
@@ -136,31 +440,26 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
      * @param key - the key associated with the updated value
      * @param value - the updated value
      * @return true if the key was successfully updated, false otherwise
+     * @throws UncheckedIOException if the change could not be logged, in which case
+     * it is not made
      */
     @Override
     public boolean update(KEY key, VALUE value) {
-        try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-            outputStream.write(UPDATE);
-            treeInformation.keySerializer.write(outputStream, key);
-            treeInformation.valueSerializer.write(outputStream, value);
-            if (modify(key, value)) {
-                outputStream.write(SUCCESS);
-                outputStream.flush();
-                return true;
-            } else {
-                outputStream.write(ABORT);
-                outputStream.flush();
-                return false;
-            }
-        } catch (IOException e) {
-            LOG.error(e, "Error updating key and value");
-            try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-                outputStream.write(ABORT);
-                outputStream.flush();
-            } catch (IOException e1) {
-                LOG.error(e1, "error writing abort to file for update.", treeInformation.file);
-            }
+        final long start = System.nanoTime();
+        try {
+            return updateAndLog(key, value);
+        } finally {
+            UPDATE_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean updateAndLog(KEY key, VALUE value) {
+        BTreeIterator<KEY, VALUE> toChange = at(key).iterator();
+        if (!toChange.hasNext()) {
+            return false;
         }
+        log(UPDATE, key, value);
+        toChange.curr.values[toChange.index] = value;
         return true;
     }
 
@@ -243,41 +542,22 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     }
 
     private BTreeStore<KEY, VALUE> insert(KEY key, VALUE value, boolean allowDuplicates, boolean writeToFile) {
-        try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-            if (writeToFile) {
-                outputStream.write(INSERTION);
-                treeInformation.keySerializer.write(outputStream, key);
-                treeInformation.valueSerializer.write(outputStream, value);
-                outputStream.flush();
-            }
-            BTreeStore<KEY, VALUE> curr = this;
-            while (true) {
-                int index = curr.getNext(key, curr.numElems);
-                if (!allowDuplicates && index < curr.numElems && key.equals(curr.keys[index])) {
-                    return this;
-                }
-                if (curr.children[index] == null) {
-                    //first call, prev's value doesn't matter
-                    BTreeStore<KEY, VALUE> newRoot = insertIntoNode(curr, key, value, null, curr);
-                    if (writeToFile) {
-                        outputStream.write(SUCCESS);
-                    }
-                    outputStream.flush();
-                    return newRoot == null ? this : newRoot;
-                }
-                curr = (BTreeStore<KEY, VALUE>) curr.children[index];
+        BTreeStore<KEY, VALUE> curr = this;
+        while (true) {
+            int index = curr.getNext(key, curr.numElems);
+            if (!allowDuplicates && index < curr.numElems && key.equals(curr.keys[index])) {
+                return this;
             }
-        } catch (IOException e) {
-            LOG.error(e, "Error writing to file on insertion.", key, treeInformation.file);
-            if (writeToFile) {
-                try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-                    outputStream.write(ABORT);
-                    outputStream.flush();
-                } catch (IOException e1) {
-                    LOG.error(e1, "Error writing to file for abort in insert.", treeInformation.file);
+            if (curr.children[index] == null) {
+                if (writeToFile) {
+                    log(INSERTION, key, value);
                 }
+                //first call, prev's value doesn't matter
+                BTreeStore<KEY, VALUE> newRoot = insertIntoNode(curr, key, value, null, curr);
+                treeInformation.size++;
+                return newRoot == null ? this : newRoot;
             }
-            return this;
+            curr = (BTreeStore<KEY, VALUE>) curr.children[index];
         }
     }
 
@@ -287,49 +567,33 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
      * @param value: The element to add into the tree
      * @param allowDuplicates: true if allowDuplicates elements are allowed
      * @return The root of the tree after the insertion.
+     * @throws UncheckedIOException if the change could not be logged, in which case
+     * it is not made
      */
     public BTreeStore<KEY, VALUE> insert(KEY key, VALUE value, boolean allowDuplicates) {
         //always write to file upon real insert
-        return insert(key, value, allowDuplicates, true);
+        final long start = System.nanoTime();
+        try {
+            return insert(key, value, allowDuplicates, true);
+        } finally {
+            INSERT_LATENCY.record(System.nanoTime() - start);
+        }
     }
 
     private BTreeStore<KEY, VALUE> delete(KEY elem, boolean writeToFile) {
-        try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-            if (writeToFile) {
-                outputStream.write(DELETION);
-                treeInformation.keySerializer.write(outputStream, elem);
-                outputStream.flush();
-            }
-            BTreeIterator<KEY, VALUE> toDelete = at(elem).iterator();
-            BTreeStore<KEY, VALUE> result = this;
-            if (toDelete.hasNext()) {
-                result = removeFromTree(toDelete.curr, toDelete.index);
-                if (result == null) {
-                    result = this;
-                }
-                if (writeToFile) {
-                    outputStream.write(SUCCESS);
-                    outputStream.flush();
-                }
-            } else {
-                if (writeToFile) {
-                    outputStream.write(ABORT);
-                    outputStream.flush();
-                }
-            }
-            return result;
-        } catch (IOException e) {
-            LOG.error("Error writing to file on deletion.", elem, treeInformation.file);
-            if (writeToFile) {
-                try (FileOutputStream outputStream = new FileOutputStream(treeInformation.file, true)) {
-                    outputStream.write(ABORT);
-                    outputStream.flush();
-                } catch (IOException e1) {
-                    LOG.error(e1, "Error writing to file for abort in delete.", treeInformation.file);
-                }
-            }
+        BTreeIterator<KEY, VALUE> toDelete = at(elem).iterator();
+        if (!toDelete.hasNext()) {
             return this;
         }
+        if (writeToFile) {
+            log(DELETION, elem, null);
+        }
+        BTreeStore<KEY, VALUE> result = removeFromTree(toDelete.curr, toDelete.index);
+        treeInformation.size--;
+        if (result == null) {
+            result = this;
+        }
+        return result;
     }
 
     /**
@@ -337,9 +601,54 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
      * If multiple elements with the same key to be deleted exists, only one will be deleted
      * @param elem: the key of the element to be deleted
      * @return the root of the tree after the deletion
+     * @throws UncheckedIOException if the change could not be logged, in which case
+     * it is not made
      */
     public BTreeStore<KEY, VALUE> delete(KEY elem) {
-        return delete(elem, true);
+        final long start = System.nanoTime();
+        try {
+            return delete(elem, true);
+        } finally {
+            DELETE_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The counts of the tree are kept as it changes and shared by every node, so
+     * they can be read from any node of the tree, and from another thread than the
+     * one changing it, without walking the tree.
+     * @return the number of levels of nodes in the tree, 1 for a tree that is a single node
+     */
+    public int height() {
+        return treeInformation.height;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    public int nodeCount() {
+        return treeInformation.nodes;
+    }
+
+    /**
+     * @return the number of elements in the tree
+     */
+    public int size() {
+        return treeInformation.size;
+    }
+
+    /**
+     * @return the name of the file the tree's log is written to
+     */
+    public String logName() {
+        return treeInformation.file.getName();
+    }
+
+    /**
+     * @return the number of bytes in the tree's log file
+     */
+    public long logSize() {
+        return treeInformation.file.length();
     }
 
     /**
@@ -399,6 +708,7 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             VALUE centerValue = (VALUE) toInsert.values[adjustedCenter];
             BTreeStore<KEY, VALUE> newPointer = new BTreeStore<>(treeInformation);
             newPointer.parent = toInsert.parent;
+            treeInformation.nodes++;
 
             for (int i = adjustedCenter + 1; i < keys.length; i++) {
                 newPointer.keys[i - (adjustedCenter + 1)] = toInsert.keys[i];
@@ -462,6 +772,8 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
         newRoot.children[1] = childTwo;
         childTwo.parent = newRoot;
         newRoot.numElems = 1; //one element
+        treeInformation.nodes++;
+        treeInformation.height++;
         return newRoot;
     }
 
@@ -520,6 +832,7 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             deletingFrom.keys[deletingFrom.numElems] = parent.keys[parentIndex];
             deletingFrom.values[deletingFrom.numElems] = parent.values[parentIndex];
             deletingFrom.children[deletingFrom.numElems + 1] = rightSibling.children[0];
+            adopt(deletingFrom, deletingFrom.numElems + 1);
             deletingFrom.numElems++;
 
             parent.keys[parentIndex] = rightSibling.keys[0];
@@ -538,6 +851,7 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             insertIntoArray(deletingFrom.keys, parent.keys[parentIndex - 1], 0);
             insertIntoArray(deletingFrom.values, parent.values[parentIndex - 1], 0);
             insertIntoArray(deletingFrom.children, leftSibling.children[leftSibling.numElems], 0);
+            adopt(deletingFrom, 0);
             deletingFrom.numElems++;
 
             parent.keys[parentIndex - 1] = leftSibling.keys[leftSibling.numElems - 1];
@@ -555,6 +869,7 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
                 (KEY) parent.keys[parentIndex - 1], (VALUE) parent.values[parentIndex - 1], deletingFrom);
             if (parent.parent == null && parent.numElems == 1) {
                 deletingFrom.parent = null;
+                dropRoot();
                 return deletingFrom;
             }
             return deleteUpTheTree(parent, parentIndex - 1);
@@ -564,6 +879,7 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             (VALUE) parent.values[parentIndex], (BTreeStore<KEY, VALUE>) parent.children[parentIndex + 1]);
         if (parent.parent == null && parent.numElems == 1) {
             deletingFrom.parent = null;
+            dropRoot();
             return deletingFrom;
         }
         return deleteUpTheTree(parent, parentIndex);
@@ -579,13 +895,31 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
             left.keys[left.numElems + 1 + i] = right.keys[i];
             left.values[left.numElems + 1 + i] = right.values[i];
             left.children[left.numElems + 1 + i] = right.children[i];
+            adopt(left, left.numElems + 1 + i);
         }
 
         left.children[left.numElems + 1 + right.numElems] = right.children[right.numElems];
+        adopt(left, left.numElems + 1 + right.numElems);
         left.numElems = left.numElems + 1 + right.numElems;
+        treeInformation.nodes--;
         return left;
     }
 
+    // counts the root being dropped when its last element has been merged down
+    // into its only child, which becomes the new root
+    private void dropRoot() {
+        treeInformation.nodes--;
+        treeInformation.height--;
+    }
+
+    // points the child moved to the index of node back at node, the iterators and
+    // deletes walk up the tree through these
+    private void adopt(BTreeStore<KEY, VALUE> node, int index) {
+        if (node.children[index] != null) {
+            ((BTreeStore<KEY, VALUE>) node.children[index]).parent = node;
+        }
+    }
+
     // deletes the element at index from arr
     private <V> void deleteFromArray(V[] arr, int index) {
         for (int i = index; i < arr.length - 1; i++) {
@@ -653,21 +987,32 @@ public class BTreeStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
         private final Comparator<? super KEY> comparator;
         private final Serializer<KEY> keySerializer;
         private final Serializer<VALUE> valueSerializer;
+        private final BTreeLog.Output output;
         private File file;
+        private ByteArrayOutputStream batch;
+        // the open end of the log, and whether anything written to it is not synced
+        private OutputStream log;
+        private boolean unsynced = false;
+        // the counts of the tree, only changed by the thread changing the tree
+        private volatile int size = 0;
+        private volatile int height = 1;
+        private volatile int nodes = 1;
 
         public BTreeInformation(int minNumPointers, Comparator<? super KEY> comparator,
-                                Serializer<KEY> keySerializer, Serializer<VALUE> valueSerializer, File file) {
+                                Serializer<KEY> keySerializer, Serializer<VALUE> valueSerializer, File file,
+                                BTreeLog.Output output) {
             this.maxNumPointers = 2 * minNumPointers;
             this.comparator = comparator;
             this.keySerializer = keySerializer;
             this.valueSerializer = valueSerializer;
             this.file = file;
+            this.output = output;
         }
 
         public BTreeInformation(int minNumPointers, Comparator<? super KEY> comparator,
-                                Serializer<KEY> keySerializer, Serializer<VALUE> valueSerializer, String filename) {
-            this(minNumPointers, comparator, keySerializer, valueSerializer, new File(filename));
+                                Serializer<KEY> keySerializer, Serializer<VALUE> valueSerializer, String filename,
+                                BTreeLog.Output output) {
+            this(minNumPointers, comparator, keySerializer, valueSerializer, new File(filename), output);
         }
     }
 }
-
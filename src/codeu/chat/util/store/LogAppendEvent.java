@@ -0,0 +1,50 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// LOG APPEND EVENT
+//
+// A flight recorder event for each time a BTreeStore appends to its log: one log
+// record, or a whole batch of them when the batch ends. Off until a recording
+// turns it on (see chat.jfc).
+@Name("codeu.chat.LogAppend")
+@Label("Store Log Append")
+@Category({ "CodeU Chat", "Store" })
+@Description("An append to a store's log file")
+@Enabled(false)
+@StackTrace(false)
+final class LogAppendEvent extends Event {
+
+  @Label("Log")
+  String log;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Batch")
+  @Description("Whether the append wrote a batch of records")
+  boolean batch;
+}
@@ -0,0 +1,473 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import codeu.chat.client.Controller;
+import codeu.chat.client.View;
+import codeu.chat.common.Conversation;
+import codeu.chat.common.LinearUuidGenerator;
+import codeu.chat.common.Message;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.common.Time;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.server.RemoteRelay;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.ConnectionSource;
+
+// LOAD GENERATOR
+//
+// Drives a running server, and optionally a relay, with a steady stream of
+// requests from simulated users and reports how fast they were answered. Users
+// and conversations are created first, each conversation with one message in it,
+// then requests arrive at random (Poisson) times at "rate" per second for
+// "duration" seconds. Arrivals are open loop: a request is sent at its time
+// whether or not the earlier ones have been answered, and its latency is counted
+// from that time, so a server that falls behind shows it in the latencies rather
+// than by slowing the arrivals down.
+//
+// Every request goes through the client's own Controller, View and RemoteRelay.
+// The operations, picked at random by their weight in "mix", are:
+//
+//   NEW_MESSAGE            - a random user adds a message to a random conversation
+//   GET_MESSAGES_BY_RANGE  - read "range" messages from the start of a conversation
+//   GET_ALL_CONVERSATIONS  - read every conversation summary
+//   RELAY_WRITE            - write a bundle straight to the relay
+//   RELAY_READ             - read "range" bundles from the relay, following on from
+//                            the last read
+//
+// The relay operations only run when "relay" is given. They use their own team so
+// that reading does not move the server's place in the relay, and the relay has to
+// be started with that team, for example:
+//
+//   java codeu.chat.RelayMain 2008 100.101=ABABAB 100.200=ABABAB
+//
+// A request counts as failed when the call fails or comes back empty where there
+// is known to be something to read. The run fails, and exits with 1, if any
+// operation's p50, p99 or p999 latency or its share of failed requests is over its
+// limit. Arguments are "name=value" pairs, see DEFAULTS for the names. The same
+// "seed" sends the same sequence of requests.
+public final class LoadGenerator {
+
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DEFAULTS.put("server", "localhost@2007");   // the server to load
+    DEFAULTS.put("relay", "");                  // relay address(es), comma separated shards
+    DEFAULTS.put("team", "100.200");            // the team used for relay operations
+    DEFAULTS.put("secret", "ABABAB");           // that team's secret
+    DEFAULTS.put("users", "10");
+    DEFAULTS.put("conversations", "10");
+    DEFAULTS.put("rate", "100");                // requests per second
+    DEFAULTS.put("duration", "30");             // seconds of measured load
+    DEFAULTS.put("warmup", "5");                // seconds of load before measuring
+    DEFAULTS.put("threads", "64");              // requests that can be in flight at once
+    DEFAULTS.put("range", "16");                // messages or bundles per read
+    DEFAULTS.put("mix", "NEW_MESSAGE:40,GET_MESSAGES_BY_RANGE:40,GET_ALL_CONVERSATIONS:10," +
+                        "RELAY_WRITE:5,RELAY_READ:5");
+    DEFAULTS.put("p50", "50");                  // latency limits in ms
+    DEFAULTS.put("p99", "250");
+    DEFAULTS.put("p999", "1000");
+    DEFAULTS.put("errors", "0.001");            // share of requests that may fail
+    DEFAULTS.put("seed", "0");
+  }
+
+  // How long to wait for the requests still in flight when the run ends.
+  private static final long DRAIN_TIMEOUT_MS = 30000;
+
+  private enum Operation {
+    NEW_MESSAGE, GET_MESSAGES_BY_RANGE, GET_ALL_CONVERSATIONS, RELAY_WRITE, RELAY_READ;
+
+    public boolean usesRelay() {
+      return this == RELAY_WRITE || this == RELAY_READ;
+    }
+  }
+
+  private static final class Stats {
+
+    public final Histogram latency = new Histogram();
+    public final AtomicLong errors = new AtomicLong();
+
+    public void done(long intended, boolean ok) {
+      latency.record(System.nanoTime() - intended);
+      if (!ok) {
+        errors.incrementAndGet();
+      }
+    }
+  }
+
+  private final Map<String, String> options;
+
+  private final Controller controller;
+  private final View view;
+  private final RemoteRelay relay;
+  private final Uuid team;
+  private final byte[] secret;
+  private final int range;
+
+  private final List<User> users = new ArrayList<>();
+  private final List<Conversation> conversations = new ArrayList<>();
+  private final List<Uuid> firstMessages = new ArrayList<>();
+
+  // The last bundle read from the relay, shared by every RELAY_READ.
+  private volatile Uuid relayCursor = Uuids.NULL;
+
+  private LoadGenerator(Map<String, String> options) {
+
+    this.options = options;
+
+    final RemoteAddress server = RemoteAddress.parse(options.get("server"));
+    final ConnectionSource source = new ClientConnectionSource(server.host, server.port);
+
+    this.controller = new Controller(source);
+    this.view = new View(source);
+
+    final List<ConnectionSource> shards = new ArrayList<>();
+    for (final String address : options.get("relay").split(",")) {
+      if (!address.isEmpty()) {
+        final RemoteAddress relayAddress = RemoteAddress.parse(address);
+        shards.add(new ClientConnectionSource(relayAddress.host, relayAddress.port));
+      }
+    }
+
+    this.relay = shards.isEmpty() ? null : new RemoteRelay(shards);
+    this.team = Uuids.fromString(options.get("team"));
+    this.secret = Secret.parse(options.get("secret"));
+    this.range = Integer.parseInt(options.get("range"));
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    final Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+
+    for (final String arg : args) {
+      final int split = arg.indexOf('=');
+      if (split < 0 || !DEFAULTS.containsKey(arg.substring(0, split))) {
+        System.out.format("Unknown argument %s, expected one of %s\n", arg, DEFAULTS.keySet());
+        System.exit(2);
+      }
+      options.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+
+    final boolean passed = new LoadGenerator(options).run();
+
+    System.out.println(passed ? "PASS" : "FAIL");
+    System.exit(passed ? 0 : 1);
+  }
+
+  private boolean run() throws Exception {
+
+    final Map<Operation, Integer> mix = parseMix(options.get("mix"));
+    if (mix.isEmpty()) {
+      System.out.println("Nothing to send, the mix is empty.");
+      return false;
+    }
+
+    if (!populate(Integer.parseInt(options.get("users")),
+                  Integer.parseInt(options.get("conversations")))) {
+      return false;
+    }
+
+    final double rate = Double.parseDouble(options.get("rate"));
+    final long warmupNs = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+    final long durationNs = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+
+    final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    for (final Operation operation : mix.keySet()) {
+      stats.put(operation, new Stats());
+    }
+
+    final Stats warmup = new Stats();
+
+    final ExecutorService threads =
+        Executors.newFixedThreadPool(Integer.parseInt(options.get("threads")));
+
+    final Random random = new Random(Long.parseLong(options.get("seed")));
+    final LinearUuidGenerator messageIds =
+        new LinearUuidGenerator(team, random.nextInt(Integer.MAX_VALUE / 2), Integer.MAX_VALUE);
+
+    System.out.format("Sending %.0f requests per second for %d + %d seconds\n",
+                      rate, warmupNs / 1000000000, durationNs / 1000000000);
+
+    final long start = System.nanoTime();
+    final long measureFrom = start + warmupNs;
+    final long end = measureFrom + durationNs;
+
+    long sent = 0;
+
+    // Every random choice is made on this thread, in arrival order, so that the same
+    // seed always sends the same requests.
+    for (long intended = start; ; ) {
+
+      intended += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+
+      if (intended >= end) {
+        break;
+      }
+
+      for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+        LockSupport.parkNanos(wait);
+      }
+
+      final Operation operation = pick(mix, random);
+
+      threads.execute(request(operation,
+                              random,
+                              messageIds,
+                              intended,
+                              intended < measureFrom ? warmup : stats.get(operation)));
+      sent++;
+    }
+
+    threads.shutdown();
+
+    if (!threads.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      System.out.format("%d requests were still waiting after %d ms\n",
+                        threads.shutdownNow().size(), DRAIN_TIMEOUT_MS);
+    }
+
+    final double seconds = (System.nanoTime() - measureFrom) / 1e9;
+
+    System.out.format("Sent %d requests (%d during warmup)\n", sent, warmup.latency.count());
+
+    return report(stats, seconds);
+  }
+
+  // POPULATE
+  //
+  // Create the users and conversations that the requests use, with one message in
+  // every conversation so that there is always something to read.
+  private boolean populate(int userCount, int conversationCount) {
+
+    final long start = System.nanoTime();
+    final String run = Long.toString(System.currentTimeMillis(), 36);
+
+    for (int i = 0; i < userCount; i++) {
+      final User user = controller.newUser(String.format("load_%s_%d", run, i), "none");
+      if (user == null) {
+        System.out.println("Failed to create user.");
+        return false;
+      }
+      users.add(user);
+    }
+
+    for (int i = 0; i < conversationCount; i++) {
+
+      final Uuid owner = users.get(i % users.size()).id;
+      final Conversation conversation =
+          controller.newConversation(String.format("load %s %d", run, i), owner);
+
+      final Message first = conversation == null ?
+          null :
+          controller.newMessage(owner, conversation.id, "first");
+
+      if (first == null) {
+        System.out.println("Failed to create conversation.");
+        return false;
+      }
+
+      conversations.add(conversation);
+      firstMessages.add(first.id);
+    }
+
+    System.out.format("Created %d users and %d conversations in %d ms\n",
+                      userCount, conversationCount, (System.nanoTime() - start) / 1000000);
+
+    return true;
+  }
+
+  private Runnable request(final Operation operation,
+                           Random random,
+                           LinearUuidGenerator messageIds,
+                           final long intended,
+                           final Stats stats) {
+
+    final int conversation = random.nextInt(conversations.size());
+    final User user = users.get(random.nextInt(users.size()));
+    final Uuid messageId = operation == Operation.RELAY_WRITE ? messageIds.make() : null;
+
+    return new Runnable() {
+      @Override
+      public void run() {
+
+        boolean ok = false;
+
+        try {
+          switch (operation) {
+
+            case NEW_MESSAGE:
+              ok = controller.newMessage(
+                  user.id, conversations.get(conversation).id, "load " + intended) != null;
+              break;
+
+            case GET_MESSAGES_BY_RANGE:
+              ok = !view.getMessages(firstMessages.get(conversation), range).isEmpty();
+              break;
+
+            case GET_ALL_CONVERSATIONS:
+              ok = !view.getAllConversations().isEmpty();
+              break;
+
+            case RELAY_WRITE:
+              final Conversation target = conversations.get(conversation);
+              ok = relay.write(team,
+                               secret,
+                               relay.pack(user.id, user.name, user.creation, null),
+                               relay.pack(target.id, target.title, target.creation, null),
+                               relay.pack(messageId, "load " + intended, Time.now(), null));
+              break;
+
+            case RELAY_READ:
+              final Collection<Relay.Bundle> bundles = relay.read(team, secret, relayCursor, range);
+              Uuid last = Uuids.NULL;
+              for (final Relay.Bundle bundle : bundles) {
+                last = bundle.id();
+              }
+              // Start over once everything has been read.
+              relayCursor = last;
+              ok = true;
+              break;
+          }
+        } catch (Exception ex) {
+          ok = false;
+        }
+
+        stats.done(intended, ok);
+      }
+    };
+  }
+
+  private boolean report(Map<Operation, Stats> stats, double seconds) {
+
+    final double p50 = Double.parseDouble(options.get("p50"));
+    final double p99 = Double.parseDouble(options.get("p99"));
+    final double p999 = Double.parseDouble(options.get("p999"));
+    final double errors = Double.parseDouble(options.get("errors"));
+
+    System.out.format("%-22s %9s %9s %9s %9s %9s %9s %7s\n",
+                      "operation", "count", "per sec", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+
+    boolean passed = true;
+    final List<String> breaches = new ArrayList<>();
+
+    long total = 0;
+
+    for (final Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+
+      final Histogram latency = entry.getValue().latency;
+      final long count = latency.count();
+      final long failed = entry.getValue().errors.get();
+
+      total += count;
+
+      final double operationP50 = latency.percentile(0.5) / 1e6;
+      final double operationP99 = latency.percentile(0.99) / 1e6;
+      final double operationP999 = latency.percentile(0.999) / 1e6;
+      final double failedShare = count == 0 ? 0 : (double) failed / count;
+
+      System.out.format("%-22s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d\n",
+                        entry.getKey(),
+                        count,
+                        count / seconds,
+                        operationP50,
+                        operationP99,
+                        operationP999,
+                        latency.max() / 1e6,
+                        failed);
+
+      passed &= check(breaches, entry.getKey() + " p50", operationP50, p50);
+      passed &= check(breaches, entry.getKey() + " p99", operationP99, p99);
+      passed &= check(breaches, entry.getKey() + " p999", operationP999, p999);
+      passed &= check(breaches, entry.getKey() + " errors", failedShare, errors);
+    }
+
+    System.out.format("Answered %.1f requests per second\n", total / seconds);
+
+    for (final String breach : breaches) {
+      System.out.println(breach);
+    }
+
+    return passed;
+  }
+
+  private static boolean check(List<String> breaches, String name, double value, double limit) {
+    if (value > limit) {
+      breaches.add(String.format(Locale.ROOT, "%s is %.3f, over the limit of %.3f", name, value, limit));
+      return false;
+    }
+    return true;
+  }
+
+  // PARSE MIX
+  //
+  // Read "OPERATION:weight" pairs. Relay operations are left out when there is no
+  // relay to send them to.
+  private Map<Operation, Integer> parseMix(String mix) {
+
+    final Map<Operation, Integer> weights = new LinkedHashMap<>();
+
+    for (final String part : mix.split(",")) {
+
+      final String[] tokens = part.split(":");
+      final Operation operation = Operation.valueOf(tokens[0].trim().toUpperCase(Locale.ROOT));
+      final int weight = Integer.parseInt(tokens[1].trim());
+
+      if (operation.usesRelay() && relay == null) {
+        System.out.format("No relay given, leaving out %s\n", operation);
+      } else if (weight > 0) {
+        weights.put(operation, weight);
+      }
+    }
+
+    return weights;
+  }
+
+  private static Operation pick(Map<Operation, Integer> mix, Random random) {
+
+    int total = 0;
+    for (final int weight : mix.values()) {
+      total += weight;
+    }
+
+    int choice = random.nextInt(total);
+
+    for (final Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+      choice -= entry.getValue();
+      if (choice < 0) {
+        return entry.getKey();
+      }
+    }
+
+    throw new IllegalStateException("Weights changed while picking");
+  }
+}
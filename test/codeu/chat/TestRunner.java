@@ -22,12 +22,27 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.AsyncClientTest.class,
+             codeu.chat.client.ClientCacheTest.class,
+             codeu.chat.client.simplegui.MessageListModelTest.class,
+             codeu.chat.common.RelayBundlesTest.class,
              codeu.chat.common.SecretTest.class,
              codeu.chat.common.UuidTest.class,
              codeu.chat.common.UuidsTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.ChangeLogTest.class,
+             codeu.chat.server.IngestTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.RequestReaderTest.class,
+             codeu.chat.server.ServerTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.TextIndexTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.util.HistogramTest.class,
+             codeu.chat.util.LoggerTest.class,
+             codeu.chat.util.RecentSetTest.class,
+             codeu.chat.util.store.BTreeStoreRecoveryTest.class,
              codeu.chat.util.store.StoreTest.class
          );
       for (final Failure failure : result.getFailures()) {
@@ -0,0 +1,264 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class AsyncClientTest {
+
+  private final AsyncClient async = new AsyncClient();
+
+  @After
+  public void doAfter() {
+    async.close();
+  }
+
+  @Test
+  public void testCallsRunInOrder() throws Exception {
+
+    final List<Integer> order = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      async.run(new Runnable() {
+        @Override
+        public void run() {
+          order.add(index);
+        }
+      });
+    }
+
+    final CompletableFuture<Integer> last = async.call(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return order.size();
+      }
+    });
+
+    assertEquals(3, (int) last.get(1, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(0, 1, 2), order);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<Void> stuck = async.call(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        release.await();
+        return null;
+      }
+    }, 50, TimeUnit.MILLISECONDS);
+
+    try {
+      stuck.get(1, TimeUnit.SECONDS);
+      fail("Expected the call to time out");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof TimeoutException);
+    }
+
+    // The stuck call was interrupted so the next one still runs.
+    assertEquals("next", async.call(new Callable<String>() {
+      @Override
+      public String call() {
+        return "next";
+      }
+    }).get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTimedOutCallConnectionClosed() throws Exception {
+
+    // A server that takes connections and never answers.
+    try (final ServerSocket server = new ServerSocket(0)) {
+
+      final ConnectionSource source =
+          async.watch(new ClientConnectionSource("localhost", server.getLocalPort()));
+
+      final CompletableFuture<Integer> hung = async.call(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          try (final Connection connection = source.connect()) {
+            return connection.in().read();
+          }
+        }
+      }, 100, TimeUnit.MILLISECONDS);
+
+      try {
+        hung.get(1, TimeUnit.SECONDS);
+        fail("Expected the call to time out");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof TimeoutException);
+      }
+
+      // Interrupting alone would leave the I/O thread blocked in the read.
+      assertEquals("next", async.call(new Callable<String>() {
+        @Override
+        public String call() {
+          return "next";
+        }
+      }).get(1, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testCancelledCallNeverRuns() throws Exception {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean ran = new AtomicBoolean(false);
+
+    final CompletableFuture<Void> first = async.run(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          // Not expected - only the second call is cancelled.
+        }
+      }
+    });
+
+    final CompletableFuture<Void> second = async.run(new Runnable() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    });
+
+    started.await();
+    assertTrue(second.cancel(true));
+    release.countDown();
+
+    first.get(1, TimeUnit.SECONDS);
+
+    // Anything queued after the cancelled call runs after it would have.
+    async.run(new Runnable() {
+      @Override
+      public void run() { }
+    }).get(1, TimeUnit.SECONDS);
+
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testIdleWorkWaitsForCalls() throws Exception {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = new ArrayList<>();
+
+    async.run(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          // Not expected - nothing is cancelled.
+        }
+      }
+    });
+
+    final CompletableFuture<Void> idle = async.runWhenIdle(new Runnable() {
+      @Override
+      public void run() {
+        order.add("idle");
+      }
+    });
+
+    // Made after the idle work but runs before it.
+    async.run(new Runnable() {
+      @Override
+      public void run() {
+        order.add("call");
+      }
+    });
+
+    release.countDown();
+    idle.get(1, TimeUnit.SECONDS);
+
+    assertEquals(Arrays.asList("call", "idle"), order);
+  }
+
+  @Test
+  public void testCallGoesAheadOfQueuedIdleWork() throws Exception {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = new ArrayList<>();
+
+    async.runWhenIdle(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          // Not expected - nothing is cancelled.
+        }
+        order.add("idle 0");
+      }
+    });
+
+    final List<CompletableFuture<Void>> idle = new ArrayList<>();
+    for (int i = 1; i < 3; i++) {
+      final String name = "idle " + i;
+      idle.add(async.runWhenIdle(new Runnable() {
+        @Override
+        public void run() {
+          order.add(name);
+        }
+      }));
+    }
+
+    // Made while the first idle action runs, so it only waits for that one.
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    final CompletableFuture<Void> call = async.run(new Runnable() {
+      @Override
+      public void run() {
+        order.add("call");
+      }
+    });
+
+    release.countDown();
+    call.get(1, TimeUnit.SECONDS);
+    for (final CompletableFuture<Void> future : idle) {
+      future.get(1, TimeUnit.SECONDS);
+    }
+
+    assertEquals(Arrays.asList("idle 0", "call", "idle 1", "idle 2"), order);
+  }
+}
@@ -0,0 +1,245 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Delta;
+import codeu.chat.common.Message;
+import codeu.chat.common.Time;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Serializers;
+
+public final class ClientCacheTest {
+
+  // Every value below is a 10 character string, which serializes to 14 bytes.
+  private static final long VALUE_BYTES = 14;
+
+  private File file;
+
+  @Before
+  public void doBefore() throws Exception {
+    file = File.createTempFile("ClientCacheTest", ".cache");
+    file.delete();
+  }
+
+  @After
+  public void doAfter() {
+    file.delete();
+  }
+
+  @Test
+  public void testPutAndGet() {
+
+    final ClientCache<String> cache = newCache(1024);
+
+    cache.put(newTestId(1), 5, "value 0001");
+
+    assertEquals("value 0001", cache.get(newTestId(1)));
+    assertEquals(5, cache.generation(newTestId(1)));
+    assertEquals(VALUE_BYTES, cache.size());
+
+    assertNull(cache.get(newTestId(2)));
+    assertEquals(Delta.UNKNOWN, cache.generation(newTestId(2)));
+
+    cache.put(newTestId(1), 6, "value 0002");
+
+    assertEquals("value 0002", cache.get(newTestId(1)));
+    assertEquals(6, cache.generation(newTestId(1)));
+    assertEquals(VALUE_BYTES, cache.size());
+
+    cache.remove(newTestId(1));
+
+    assertNull(cache.get(newTestId(1)));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+
+    final ClientCache<String> cache = newCache(3 * VALUE_BYTES);
+    cache.setGeneration(7);
+
+    cache.put(newTestId(1), 1, "value 0001");
+    cache.put(newTestId(2), 1, "value 0002");
+    cache.put(newTestId(3), 1, "value 0003");
+
+    assertEquals(7, cache.generation());
+
+    // Using the first entry leaves the second as the least recently used.
+    cache.get(newTestId(1));
+    cache.put(newTestId(4), 1, "value 0004");
+
+    final List<Uuid> keys = cache.keys();
+    assertEquals(3, keys.size());
+    assertTrue(Uuids.equals(newTestId(3), keys.get(0)));
+    assertTrue(Uuids.equals(newTestId(1), keys.get(1)));
+    assertTrue(Uuids.equals(newTestId(4), keys.get(2)));
+
+    assertEquals(3, cache.count());
+    assertEquals(3 * VALUE_BYTES, cache.size());
+    assertNull(cache.get(newTestId(2)));
+    assertNotNull(cache.get(newTestId(1)));
+
+    // The cache no longer holds everything.
+    assertEquals(Delta.UNKNOWN, cache.generation());
+    cache.setGeneration(8);
+    assertEquals(Delta.UNKNOWN, cache.generation());
+
+    cache.clear();
+    cache.setGeneration(8);
+    assertEquals(8, cache.generation());
+  }
+
+  @Test
+  public void testValueLargerThanCapacity() {
+
+    final ClientCache<String> cache = newCache(VALUE_BYTES - 1);
+
+    cache.put(newTestId(1), 1, "value 0001");
+
+    assertEquals(0, cache.count());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testChangedCountsOnlyTheChange() {
+
+    final ClientCache<List<Message>> cache =
+        new ClientCache<>(file, ClientMessage.MESSAGES_SERIALIZER, 1024);
+
+    final List<Message> messages = new ArrayList<>();
+    cache.put(newTestId(1), 1, messages);
+
+    final Message first = newMessage(10, Uuids.NULL);
+    messages.add(first);
+    cache.changed(newTestId(1), 2, messages, size(first));
+
+    assertEquals(2, cache.generation(newTestId(1)));
+    assertEquals(ClientCache.sizeOf(ClientMessage.MESSAGES_SERIALIZER, messages), cache.size());
+
+    // Linking the first message to the next one changes its size too.
+    final Message second = newMessage(11, first.id);
+    long bytes = -size(first);
+    first.next = second.id;
+    bytes += size(first) + size(second);
+    messages.add(second);
+    cache.changed(newTestId(1), 3, messages, bytes);
+
+    assertEquals(3, cache.generation(newTestId(1)));
+    assertEquals(ClientCache.sizeOf(ClientMessage.MESSAGES_SERIALIZER, messages), cache.size());
+  }
+
+  @Test
+  public void testChangedAfterDropPutsAgain() {
+
+    final ClientCache<String> cache = newCache(1024);
+
+    cache.put(newTestId(1), 1, "value 0001");
+    cache.remove(newTestId(1));
+    cache.changed(newTestId(1), 2, "value 0002", 0);
+
+    assertEquals("value 0002", cache.get(newTestId(1)));
+    assertEquals(2, cache.generation(newTestId(1)));
+    assertEquals(VALUE_BYTES, cache.size());
+  }
+
+  @Test
+  public void testChangedPastCapacityEvicts() {
+
+    final ClientCache<String> cache = newCache(2 * VALUE_BYTES);
+
+    cache.put(newTestId(1), 1, "value 0001");
+    cache.put(newTestId(2), 1, "value 0002");
+    cache.changed(newTestId(1), 2, cache.get(newTestId(1)), VALUE_BYTES);
+
+    assertEquals(1, cache.count());
+    assertNull(cache.get(newTestId(2)));
+    assertEquals(2 * VALUE_BYTES, cache.size());
+    assertEquals(Delta.UNKNOWN, cache.generation());
+  }
+
+  @Test
+  public void testSaveAndReopen() throws Exception {
+
+    final ClientCache<String> cache = newCache(1024);
+    cache.setGeneration(9);
+    cache.put(newTestId(1), 3, "value 0001");
+    cache.put(newTestId(2), 4, "value 0002");
+    cache.put(newTestId(3), 5, "value 0003");
+    cache.get(newTestId(1));
+    cache.save();
+
+    final ClientCache<String> reopened = newCache(1024);
+
+    assertEquals(9, reopened.generation());
+    assertEquals(Arrays.asList("value 0002", "value 0003", "value 0001"), reopened.values());
+    assertEquals(4, reopened.generation(newTestId(2)));
+    assertEquals(3 * VALUE_BYTES, reopened.size());
+
+    // Opening with less room drops the least recently used entries.
+    final ClientCache<String> smaller = newCache(2 * VALUE_BYTES);
+
+    assertEquals(Arrays.asList("value 0003", "value 0001"), smaller.values());
+    assertEquals(Delta.UNKNOWN, smaller.generation());
+  }
+
+  @Test
+  public void testUnreadableFileStartsEmpty() throws Exception {
+
+    try (final OutputStream out = new FileOutputStream(file)) {
+      Serializers.LONG.write(out, 9L);
+      Serializers.INTEGER.write(out, 2);
+    }
+
+    final ClientCache<String> cache = newCache(1024);
+
+    assertEquals(0, cache.count());
+    assertEquals(Delta.UNKNOWN, cache.generation());
+  }
+
+  private static long size(Message message) {
+    return ClientCache.sizeOf(Message.SERIALIZER, message);
+  }
+
+  private static Message newMessage(int id, Uuid previous) {
+    return new Message(newTestId(id), Uuids.NULL, previous, Time.fromMs(id), newTestId(1), "message");
+  }
+
+  private ClientCache<String> newCache(long capacity) {
+    return new ClientCache<>(file, Serializers.STRING, capacity);
+  }
+
+  private static Uuid newTestId(final int id) {
+    return Uuids.complete(new Uuid() {
+      @Override
+      public Uuid root() { return null; }
+      @Override
+      public int id() { return id; }
+    });
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.simplegui;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.Time;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+public final class MessageListModelTest {
+
+  private static final Map<Uuid, String> NO_NAMES = Collections.emptyMap();
+
+  private final MessageListModel model = new MessageListModel();
+  private final List<String> events = new ArrayList<>();
+
+  @Before
+  public void doBefore() {
+    model.addListDataListener(new ListDataListener() {
+      @Override
+      public void intervalAdded(ListDataEvent e) {
+        events.add(String.format("added %d-%d size=%d", e.getIndex0(), e.getIndex1(), model.getSize()));
+      }
+      @Override
+      public void intervalRemoved(ListDataEvent e) {
+        events.add(String.format("removed %d-%d size=%d", e.getIndex0(), e.getIndex1(), model.getSize()));
+      }
+      @Override
+      public void contentsChanged(ListDataEvent e) {
+        events.add(String.format("changed %d-%d size=%d", e.getIndex0(), e.getIndex1(), model.getSize()));
+      }
+    });
+  }
+
+  @Test
+  public void testAddAtEitherEnd() {
+
+    model.setMessages(messages(10, 11, 12), NO_NAMES);
+    model.setMessages(messages(10, 11, 12, 13, 14), NO_NAMES);
+    model.setMessages(messages(8, 9, 10, 11, 12, 13, 14), NO_NAMES);
+
+    assertEquals(listOf("added 0-2 size=3", "added 3-4 size=5", "added 0-1 size=7"), events);
+    assertTrue(Uuids.equals(newTestId(8), model.getMessage(0).id));
+    assertTrue(model.getElementAt(6).endsWith("message 14"));
+  }
+
+  @Test
+  public void testRemoveInBetween() {
+
+    model.setMessages(messages(10, 11, 12, 13), NO_NAMES);
+    events.clear();
+
+    model.setMessages(messages(10, 13), NO_NAMES);
+
+    assertEquals(listOf("removed 1-2 size=2"), events);
+    assertTrue(Uuids.equals(newTestId(13), model.getMessage(1).id));
+  }
+
+  @Test
+  public void testReplaceAll() {
+
+    model.setMessages(messages(10, 11), NO_NAMES);
+    events.clear();
+
+    model.setMessages(messages(20, 21, 22), NO_NAMES);
+
+    assertEquals(listOf("removed 0-1 size=0", "added 0-2 size=3"), events);
+  }
+
+  @Test
+  public void testUnchanged() {
+
+    model.setMessages(messages(10, 11), NO_NAMES);
+    events.clear();
+
+    model.setMessages(messages(10, 11), NO_NAMES);
+
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void testAuthorNameReformatsRows() {
+
+    model.setMessages(messages(10), NO_NAMES);
+    assertTrue(model.getElementAt(0).startsWith(newTestId(1).toString()));
+    events.clear();
+
+    model.setMessages(messages(10), Collections.singletonMap(newTestId(1), "alice"));
+
+    assertEquals(listOf("changed 0-0 size=1"), events);
+    assertTrue(model.getElementAt(0).startsWith("alice: "));
+  }
+
+  private static List<Message> messages(int... ids) {
+    final List<Message> messages = new ArrayList<>();
+    for (final int id : ids) {
+      messages.add(new Message(newTestId(id), Uuids.NULL, Uuids.NULL, Time.now(), newTestId(1), "message " + id));
+    }
+    return messages;
+  }
+
+  private static List<String> listOf(String... values) {
+    final List<String> list = new ArrayList<>();
+    Collections.addAll(list, values);
+    return list;
+  }
+
+  private static Uuid newTestId(final int id) {
+    return Uuids.complete(new Uuid() {
+      @Override
+      public Uuid root() { return null; }
+      @Override
+      public int id() { return id; }
+    });
+  }
+}
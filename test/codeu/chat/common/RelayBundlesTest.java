@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.relay.Server;
+
+public final class RelayBundlesTest {
+
+  private static final byte[] SECRET = { 0x00, 0x01, 0x02 };
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final Collection<Relay.Bundle> bundles = makeBundles(16);
+    final Collection<Relay.Bundle> read = roundTrip(bundles);
+
+    assertEquals(bundles.size(), read.size());
+
+    final Iterator<Relay.Bundle> expected = bundles.iterator();
+    final Iterator<Relay.Bundle> actual = read.iterator();
+
+    while (expected.hasNext()) {
+
+      final Relay.Bundle want = expected.next();
+      final Relay.Bundle got = actual.next();
+
+      assertTrue(Uuids.equals(want.id(), got.id()));
+      assertTrue(Uuids.equals(want.team(), got.team()));
+      assertEquals(want.time().inMs(), got.time().inMs());
+      assertComponentEquals(want.user(), got.user());
+      assertComponentEquals(want.conversation(), got.conversation());
+      assertComponentEquals(want.message(), got.message());
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertTrue(roundTrip(new ArrayList<Relay.Bundle>()).isEmpty());
+  }
+
+  @Test
+  public void testRepeatedTextWrittenOnce() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RelayBundles.COMPRESSED_SERIALIZER.write(out, makeBundles(64));
+
+    // Every bundle repeats the same long user name and conversation title. Written
+    // out plainly those alone would be over 64 * 2 * 100 bytes.
+    assertTrue(out.size() < 64 * 100);
+  }
+
+  private static Collection<Relay.Bundle> roundTrip(Collection<Relay.Bundle> bundles)
+      throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RelayBundles.COMPRESSED_SERIALIZER.write(out, bundles);
+
+    return RelayBundles.COMPRESSED_SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private static Collection<Relay.Bundle> makeBundles(int count) {
+
+    final Server relay = new Server(count, count);
+    final Uuid team = Uuids.fromString("100.101");
+
+    relay.addTeam(team, SECRET);
+
+    final StringBuilder name = new StringBuilder();
+    while (name.length() < 100) {
+      name.append("relay bundle ");
+    }
+
+    final Time time = Time.now();
+
+    for (int i = 0; i < count; i++) {
+      relay.write(team,
+                  SECRET,
+                  relay.pack(Uuids.fromString("1.1"), "user " + name, time, "ABAB"),
+                  relay.pack(Uuids.fromString("2.1"), "conversation " + name, time, null),
+                  relay.pack(Uuids.fromString("3." + (i + 1)), "message " + i, Time.now(), null));
+    }
+
+    return relay.read(team, SECRET, Uuids.NULL, count);
+  }
+
+  private static void assertComponentEquals(Relay.Bundle.Component expected,
+                                            Relay.Bundle.Component actual) {
+    assertTrue(Uuids.equals(expected.id(), actual.id()));
+    assertEquals(expected.text(), actual.text());
+    assertEquals(expected.time().inMs(), actual.time().inMs());
+    assertEquals(expected.security(), actual.security());
+  }
+}
@@ -19,6 +19,12 @@ import org.junit.Test;
 import org.junit.BeforeClass;
 import org.junit.AfterClass;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
 public final class UuidsTest {
 
   @Test
@@ -45,4 +51,162 @@ public final class UuidsTest {
     assertEquals(id.id(), 200);
     assertEquals(id.root().id(), 100);
   }
+
+  @Test
+  public void testFlatMatchesChain() {
+
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 1000; i++) {
+
+      final int[] ids = randomIds(random);
+      final Uuid flat = Uuids.fromIds(ids, ids.length);
+      final Uuid chain = newChain(ids, ids.length);
+
+      assertTrue(flat instanceof CompactUuid);
+      assertTrue(Uuids.equals(flat, chain));
+      assertTrue(Uuids.equals(chain, flat));
+      assertEquals(Uuids.hash(chain), flat.hashCode());
+      assertEquals(Uuids.toString(chain), flat.toString());
+      assertEquals(ids[ids.length - 1], flat.id());
+      assertTrue(Uuids.equals(newChain(ids, ids.length - 1), flat.root()));
+    }
+  }
+
+  @Test
+  public void testFlatCompareMatchesChain() {
+
+    final Random random = new Random(2);
+
+    for (int i = 0; i < 10000; i++) {
+
+      // Small ids so that chains often share links.
+      final int[] a = randomIds(random);
+      final int[] b = random.nextBoolean() ? a.clone() : randomIds(random);
+      b[random.nextInt(b.length)] = random.nextInt(3);
+
+      final int expected = chainCompare(newChain(a, a.length), newChain(b, b.length));
+      final int actual = Uuids.compare(Uuids.fromIds(a, a.length), Uuids.fromIds(b, b.length));
+
+      assertEquals(Integer.signum(expected), Integer.signum(actual));
+      assertEquals(expected == 0,
+                   Uuids.equals(Uuids.fromIds(a, a.length), Uuids.fromIds(b, b.length)));
+    }
+  }
+
+  @Test
+  public void testFlatRootsMatchChain() {
+
+    final Random random = new Random(3);
+
+    for (int i = 0; i < 10000; i++) {
+
+      final int[] a = randomIds(random);
+      final int[] b = random.nextBoolean() ? a.clone() : randomIds(random);
+      b[random.nextInt(b.length)] = random.nextInt(3);
+
+      final Uuid chainA = newChain(a, a.length);
+      final Uuid chainB = newChain(b, b.length);
+
+      assertEquals(Uuids.related(chainA, chainB),
+                   Uuids.related(Uuids.fromIds(a, a.length), Uuids.fromIds(b, b.length)));
+      assertEquals(Uuids.related(chainA, chainB),
+                   Uuids.related(new UuidView().set(a, a.length), Uuids.fromIds(b, b.length)));
+      assertEquals(a[0], Uuids.rootId(Uuids.fromIds(a, a.length)));
+      assertEquals(a[0], Uuids.rootId(chainA));
+    }
+  }
+
+  @Test
+  public void testCompactRootIsKept() {
+
+    final Uuid id = Uuids.fromString("100.101.7");
+
+    assertEquals(Uuids.fromString("100.101"), id.root());
+    assertSame(id.root(), id.root());
+    assertSame(id.root().root(), id.root().root());
+    assertNull(Uuids.fromString("100").root());
+  }
+
+  @Test
+  public void testSerializerWritesFlatAsChain() throws IOException {
+
+    final int[] ids = { 100, 101, -5 };
+
+    final ByteArrayOutputStream flat = new ByteArrayOutputStream();
+    final ByteArrayOutputStream chain = new ByteArrayOutputStream();
+
+    Uuids.SERIALIZER.write(flat, Uuids.fromIds(ids, ids.length));
+    Uuids.SERIALIZER.write(chain, newChain(ids, ids.length));
+
+    assertTrue(Arrays.equals(chain.toByteArray(), flat.toByteArray()));
+
+    final Uuid read = Uuids.SERIALIZER.read(new ByteArrayInputStream(flat.toByteArray()));
+
+    assertTrue(read instanceof CompactUuid);
+    assertEquals(Uuids.fromIds(ids, ids.length), read);
+  }
+
+  @Test
+  public void testChild() {
+
+    final Uuid root = Uuids.fromString("100.101");
+
+    assertEquals(Uuids.fromString("100.101.7"), Uuids.child(root, 7));
+    assertEquals(Uuids.fromString("100.101.7"), Uuids.child(newChain(new int[] { 100, 101 }, 2), 7));
+    assertEquals(Uuids.fromString("7"), Uuids.child(null, 7));
+  }
+
+  @Test
+  public void testCompleteCopiesViews() {
+
+    final UuidView view = new UuidView().set(new int[] { 1, 2, 3 }, 3);
+    final Uuid kept = Uuids.complete(view);
+
+    view.set(new int[] { 4, 5 }, 2);
+
+    assertEquals(Uuids.fromString("1.2.3"), kept);
+    assertEquals(Uuids.fromString("4.5"), view);
+    assertEquals(Uuids.fromString("4.5").hashCode(), view.hashCode());
+  }
+
+  private static int[] randomIds(Random random) {
+    final int[] ids = new int[1 + random.nextInt(4)];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = random.nextInt(3) - 1;
+    }
+    return ids;
+  }
+
+  // A chain of links that are not flat, as Uuids were before CompactUuid.
+  private static Uuid newChain(int[] ids, int length) {
+
+    Uuid head = null;
+
+    for (int i = 0; i < length; i++) {
+      final Uuid root = head;
+      final int id = ids[i];
+      head = new Uuid() {
+        @Override
+        public Uuid root() { return root; }
+        @Override
+        public int id() { return id; }
+      };
+    }
+
+    return head;
+  }
+
+  // The order the server kept uuids in before they were flat.
+  private static int chainCompare(Uuid a, Uuid b) {
+
+    if (a == b) { return 0; }
+
+    if (a == null) { return -1; }
+
+    if (b == null) { return 1; }
+
+    final int order = Integer.compare(a.id(), b.id());
+    return order == 0 ? chainCompare(a.root(), b.root()) : order;
+  }
 }
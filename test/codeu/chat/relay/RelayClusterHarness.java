@@ -0,0 +1,345 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.client.Controller;
+import codeu.chat.client.View;
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.server.RemoteRelay;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.ConnectionSource;
+
+// RELAY CLUSTER HARNESS
+//
+// Starts a sharded relay cluster and a set of servers as separate processes on
+// loopback, writes messages through the first server and then checks what made
+// it to the relay shards and to the other servers. Every process runs in its own
+// directory under a temp directory so that their logs and stores do not collide.
+//
+// Usage: RelayClusterHarness [relays] [servers] [conversations] [messages] [base port]
+public final class RelayClusterHarness {
+
+  private static final String SECRET = "ABABAB";
+  private static final int READ_SIZE = 16;
+  private static final long START_TIMEOUT_MS = 10000;
+  private static final long REPLICA_TIMEOUT_MS = 30000;
+
+  private final List<Process> processes = new ArrayList<>();
+  private final File root;
+
+  private RelayClusterHarness(File root) {
+    this.root = root;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    final int relays = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    final int servers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    final int conversations = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+    final int messages = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+    final int basePort = args.length > 4 ? Integer.parseInt(args[4]) : 2100;
+
+    final RelayClusterHarness harness =
+        new RelayClusterHarness(Files.createTempDirectory("relay_cluster").toFile());
+
+    boolean passed = false;
+
+    try {
+      passed = harness.run(relays, servers, conversations, messages, basePort);
+    } finally {
+      harness.stop();
+    }
+
+    System.out.println(passed ? "PASS" : "FAIL");
+    System.exit(passed ? 0 : 1);
+  }
+
+  private boolean run(int relays, int servers, int conversations, int messages, int basePort)
+      throws Exception {
+
+    final List<String> teams = new ArrayList<>();
+    for (int i = 0; i < servers; i++) {
+      teams.add(teamId(i) + "=" + SECRET);
+    }
+
+    final List<ConnectionSource> shards = new ArrayList<>();
+    final StringBuilder relayAddresses = new StringBuilder();
+
+    for (int i = 0; i < relays; i++) {
+
+      final int port = basePort + i;
+
+      final List<String> relayArgs = new ArrayList<>();
+      relayArgs.add(Integer.toString(port));
+      relayArgs.addAll(teams);
+
+      start("relay_" + i, "codeu.chat.RelayMain", relayArgs);
+      waitForPort(port);
+
+      shards.add(new ClientConnectionSource("localhost", port));
+      relayAddresses.append(i == 0 ? "" : ",").append("localhost@").append(port);
+    }
+
+    for (int i = 0; i < servers; i++) {
+
+      final int port = basePort + relays + i;
+
+      start("server_" + i, "codeu.chat.ServerMain", Arrays.asList(
+          teamId(i),
+          SECRET,
+          Integer.toString(port),
+          relayAddresses.toString()));
+      waitForPort(port);
+    }
+
+    System.out.format("Started %d relays and %d servers in %s\n", relays, servers, root);
+
+    // Write everything through the first server.
+
+    final Controller controller =
+        new Controller(new ClientConnectionSource("localhost", basePort + relays));
+
+    final User user = controller.newUser("harness", "none");
+    if (user == null) {
+      System.out.println("Failed to create user.");
+      return false;
+    }
+
+    final long writeStart = System.nanoTime();
+
+    for (int c = 0; c < conversations; c++) {
+      final Conversation conversation = controller.newConversation("conversation " + c, user.id);
+      for (int m = 0; m < messages; m++) {
+        controller.newMessage(user.id, conversation.id, String.format("%d.%d", c, m));
+      }
+    }
+
+    final long writeMs = (System.nanoTime() - writeStart) / 1000000;
+    final int total = conversations * messages;
+
+    System.out.format("Wrote %d messages in %d ms\n", total, writeMs);
+
+    // Every shard should have some of the conversations and no conversation should
+    // be split across shards.
+
+    final Uuid team = Uuids.fromString(teamId(0));
+    final byte[] secret = Secret.parse(SECRET);
+
+    final Map<Uuid, Integer> shardByConversation = new HashMap<>();
+    boolean passed = true;
+
+    for (int i = 0; i < relays; i++) {
+
+      final Collection<Relay.Bundle> bundles =
+          readAll(new RemoteRelay(shards.get(i)), team, secret);
+
+      System.out.format("Shard %d has %d bundles\n", i, bundles.size());
+
+      for (final Relay.Bundle bundle : bundles) {
+        final Integer previous = shardByConversation.put(bundle.conversation().id(), i);
+        if (previous != null && previous != i) {
+          System.out.format("Conversation %s is on shards %d and %d\n",
+                            bundle.conversation().id(), previous, i);
+          passed = false;
+        }
+      }
+    }
+
+    // Reading through the sharded relay should see every message once and each
+    // conversation's messages in the order they were written.
+
+    final long readStart = System.nanoTime();
+    final Collection<Relay.Bundle> merged = readAll(new RemoteRelay(shards), team, secret);
+    final long readMs = (System.nanoTime() - readStart) / 1000000;
+
+    System.out.format("Read %d merged bundles in %d ms\n", merged.size(), readMs);
+
+    if (merged.size() != total) {
+      System.out.format("Expected %d merged bundles\n", total);
+      passed = false;
+    }
+
+    final Map<Uuid, Integer> nextByConversation = new HashMap<>();
+
+    for (final Relay.Bundle bundle : merged) {
+
+      final Integer next = nextByConversation.get(bundle.conversation().id());
+      final String[] position = bundle.message().text().split("\\.");
+      final int index = Integer.parseInt(position[1]);
+
+      if (index != (next == null ? 0 : next)) {
+        System.out.format("Message %s is out of order\n", bundle.message().text());
+        passed = false;
+      }
+
+      nextByConversation.put(bundle.conversation().id(), index + 1);
+    }
+
+    // Retrying a write that already went through should not add a second copy.
+
+    if (!merged.isEmpty()) {
+
+      final Relay relay = new RemoteRelay(shards);
+      final Relay.Bundle first = merged.iterator().next();
+
+      relay.write(team, secret, first.user(), first.conversation(), first.message());
+
+      if (readAll(new RemoteRelay(shards), team, secret).size() != merged.size()) {
+        System.out.println("Duplicate write was not dropped");
+        passed = false;
+      }
+    }
+
+    // Every other server should end up with every conversation and every message
+    // exactly once.
+
+    for (int i = 1; i < servers; i++) {
+      if (!waitForReplica(basePort + relays + i, conversations, messages)) {
+        System.out.format("Server %d did not catch up\n", i);
+        passed = false;
+      }
+    }
+
+    return passed;
+  }
+
+  private static boolean waitForReplica(int port, int conversations, int messages)
+      throws Exception {
+
+    final View view = new View(new ClientConnectionSource("localhost", port));
+    final long start = System.currentTimeMillis();
+
+    while (System.currentTimeMillis() - start < REPLICA_TIMEOUT_MS) {
+
+      final Collection<ConversationSummary> summaries = view.getAllConversations();
+
+      int complete = 0;
+
+      for (final ConversationSummary summary : summaries) {
+        for (final Conversation conversation : view.getConversations(Arrays.asList(summary.id))) {
+          if (view.getMessages(conversation.firstMessage, messages).size() == messages) {
+            complete++;
+          }
+        }
+      }
+
+      if (complete == conversations) {
+        System.out.format("Server on port %d caught up in %d ms\n",
+                          port, System.currentTimeMillis() - start);
+        return true;
+      }
+
+      Thread.sleep(250);
+    }
+
+    return false;
+  }
+
+  private static Collection<Relay.Bundle> readAll(Relay relay, Uuid team, byte[] secret) {
+
+    final Collection<Relay.Bundle> all = new ArrayList<>();
+
+    Uuid last = Uuids.NULL;
+
+    for (Collection<Relay.Bundle> read = relay.read(team, secret, last, READ_SIZE);
+         !read.isEmpty();
+         read = relay.read(team, secret, last, READ_SIZE)) {
+
+      for (final Relay.Bundle bundle : read) {
+        all.add(bundle);
+        last = bundle.id();
+      }
+    }
+
+    return all;
+  }
+
+  private void start(String name, String mainClass, List<String> args) throws IOException {
+
+    final File directory = new File(root, name);
+    directory.mkdirs();
+
+    final List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.add("-cp");
+    command.add(absoluteClassPath());
+    command.add(mainClass);
+    command.addAll(args);
+
+    processes.add(new ProcessBuilder(command)
+        .directory(directory)
+        .redirectErrorStream(true)
+        .redirectOutput(new File(directory, "output.txt"))
+        .start());
+  }
+
+  private void stop() {
+    for (final Process process : processes) {
+      process.destroy();
+    }
+  }
+
+  private static void waitForPort(int port) throws Exception {
+
+    final long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+
+    while (true) {
+      try {
+        new Socket("localhost", port).close();
+        return;
+      } catch (IOException ex) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException("Nothing listening on port " + port, ex);
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  // The processes run in their own directories so every part of the class path
+  // needs to be absolute.
+  private static String absoluteClassPath() {
+
+    final StringBuilder classPath = new StringBuilder();
+
+    for (final String part : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      classPath.append(classPath.length() == 0 ? "" : File.pathSeparator)
+               .append(new File(part).getAbsolutePath());
+    }
+
+    return classPath.toString();
+  }
+
+  private static String teamId(int server) {
+    return "100." + (101 + server);
+  }
+}
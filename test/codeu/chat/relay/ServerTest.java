@@ -216,6 +216,97 @@ public final class ServerTest {
     }
   }
 
+  @Test
+  public void testReadFromRoot() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = makeTestUuid(3);
+    final byte[] secret = { 0x00, 0x01, 0x02 };
+
+    assertTrue(relay.addTeam(team, secret));
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(makeTestUuid(4), "User", Time.now(),null),
+                             relay.pack(makeTestUuid(5), "Conversation", Time.now(),null),
+                             relay.pack(makeTestUuid(10 + i), "Hello World", Time.now(),null)));
+    }
+
+    final Collection<Relay.Bundle> first = relay.read(team, secret, Uuids.NULL, 1);
+    assertTrue(first.size() == 1);
+
+    final Relay.Bundle root = first.iterator().next();
+    assertTrue(Uuids.equals(root.message().id(), makeTestUuid(10)));
+
+    final Collection<Relay.Bundle> rest = relay.read(team, secret, root.id(), 8);
+    assertTrue(rest.size() == 2);
+
+    int expected = 11;
+    for (final Relay.Bundle bundle : rest) {
+      assertTrue(Uuids.equals(bundle.message().id(), makeTestUuid(expected++)));
+    }
+  }
+
+  @Test
+  public void testCursorAndLag() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = makeTestUuid(3);
+    final byte[] secret = { 0x00, 0x01, 0x02 };
+
+    assertTrue(relay.addTeam(team, secret));
+    assertTrue(Uuids.equals(relay.cursor(team, secret), Uuids.NULL));
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(makeTestUuid(4), "User", Time.now(),null),
+                             relay.pack(makeTestUuid(5), "Conversation", Time.now(),null),
+                             relay.pack(makeTestUuid(10 + i), "Hello World", Time.now(),null)));
+    }
+
+    assertEquals(3, relay.lag(team));
+
+    final Relay.Bundle root = relay.read(team, secret, Uuids.NULL, 1).iterator().next();
+
+    // Reading from a root acknowledges it.
+    relay.read(team, secret, root.id(), 8);
+
+    assertTrue(Uuids.equals(relay.cursor(team, secret), root.id()));
+    assertEquals(2, relay.lag(team));
+
+    // Reading from an older root must not move the cursor back.
+    relay.read(team, secret, Uuids.NULL, 8);
+    assertTrue(Uuids.equals(relay.cursor(team, secret), root.id()));
+
+    // Wrong secrets do not get to see the cursor.
+    assertTrue(Uuids.equals(relay.cursor(team, new byte[] { 0x00 }), Uuids.NULL));
+  }
+
+  @Test
+  public void testDuplicateWriteDropped() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = makeTestUuid(3);
+    final byte[] secret = { 0x00, 0x01, 0x02 };
+
+    assertTrue(relay.addTeam(team, secret));
+
+    for (int i = 0; i < 2; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(makeTestUuid(4), "User", Time.now(),null),
+                             relay.pack(makeTestUuid(5), "Conversation", Time.now(),null),
+                             relay.pack(makeTestUuid(6), "Hello World", Time.now(),null)));
+    }
+
+    assertTrue(relay.read(team, secret, Uuids.NULL, 8).size() == 1);
+  }
+
   private static Uuid makeTestUuid(final int id) {
     return Uuids.complete(new Uuid() {
       @Override
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+public final class ChangeLogTest {
+
+  private static final Uuid A = Uuids.fromString("100");
+  private static final Uuid B = Uuids.fromString("101");
+  private static final Uuid C = Uuids.fromString("102");
+
+  @Test
+  public void testNothingChanged() {
+
+    final ChangeLog log = new ChangeLog(4, 10);
+
+    assertEquals(10, log.generation());
+    assertTrue(log.changedSince(10).isEmpty());
+  }
+
+  @Test
+  public void testChangedSince() {
+
+    final ChangeLog log = new ChangeLog(4, 10);
+
+    log.record(11, A);
+    log.record(12, B);
+    log.record(13, A);
+
+    // Newest first and each id once.
+    assertEquals(Arrays.asList(A, B), new ArrayList<>(log.changedSince(10)));
+    assertEquals(Arrays.asList(A), new ArrayList<>(log.changedSince(12)));
+    assertTrue(log.changedSince(13).isEmpty());
+  }
+
+  @Test
+  public void testTooOld() {
+
+    final ChangeLog log = new ChangeLog(2, 10);
+
+    log.record(11, A);
+    log.record(12, B);
+    log.record(13, C);
+
+    assertNull(log.changedSince(10));
+
+    final List<Uuid> ids = new ArrayList<>(log.changedSince(11));
+    assertEquals(Arrays.asList(C, B), ids);
+  }
+
+  @Test
+  public void testUnknownGeneration() {
+
+    final ChangeLog log = new ChangeLog(4, 10);
+    log.record(11, A);
+
+    assertNull(log.changedSince(12));
+    assertNull(log.changedSince(-1));
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Time;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+public final class IngestTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private final NoOpRelay relay = new NoOpRelay();
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuids.NULL, model);
+    view = new View(model);
+  }
+
+  @After
+  public void cleanUp() {
+    String[] filenames = {"Model_StringConversation.log", "Model_StringMessage.log", "Model_StringUser.log",
+        "Model_TimeConversation.log", "Model_TimeMessage.log", "Model_TimeUser.log",
+        "Model_UuidConversation.log", "Model_UuidMessage.log", "Model_UuidUser.log"};
+    for (String filename : filenames) {
+      File toDelete = new File(filename);
+      toDelete.delete();
+    }
+  }
+
+  @Test
+  public void testIngestLinksInCreationOrder() {
+
+    final List<Relay.Bundle> bundles = new ArrayList<>();
+
+    // Deliver the messages out of creation order. They should still be linked in
+    // creation order.
+    bundles.add(newBundle(1, 2, 12, 3000));
+    bundles.add(newBundle(1, 2, 10, 1000));
+    bundles.add(newBundle(1, 2, 11, 2000));
+
+    assertEquals(3, controller.ingest(bundles).size());
+
+    final User user = view.findUser(newTestId(1));
+    assertNotNull(user);
+
+    final Conversation conversation = view.findConversation(newTestId(2));
+    assertNotNull(conversation);
+    assertTrue(Uuids.equals(conversation.firstMessage, newTestId(10)));
+    assertTrue(Uuids.equals(conversation.lastMessage, newTestId(12)));
+
+    final Collection<Message> messages = view.getMessages(conversation.firstMessage, 8);
+    assertEquals(3, messages.size());
+
+    int expected = 10;
+    for (final Message message : messages) {
+      assertTrue(Uuids.equals(message.id, newTestId(expected++)));
+    }
+  }
+
+  @Test
+  public void testIngestAppendsAndSkipsKnown() {
+
+    final List<Relay.Bundle> first = new ArrayList<>();
+    first.add(newBundle(1, 2, 10, 1000));
+    first.add(newBundle(1, 2, 10, 1000));
+
+    assertEquals(1, controller.ingest(first).size());
+
+    final List<Relay.Bundle> second = new ArrayList<>();
+    second.add(newBundle(1, 2, 10, 1000));
+    second.add(newBundle(1, 2, 11, 2000));
+
+    assertEquals(1, controller.ingest(second).size());
+
+    final Conversation conversation = view.findConversation(newTestId(2));
+    assertTrue(Uuids.equals(conversation.lastMessage, newTestId(11)));
+
+    final Message head = view.findMessage(newTestId(10));
+    assertTrue(Uuids.equals(head.next, newTestId(11)));
+
+    final Message tail = view.findMessage(newTestId(11));
+    assertTrue(Uuids.equals(tail.previous, newTestId(10)));
+  }
+
+  @Test
+  public void testIngestRecoveredFromLog() {
+
+    final List<Relay.Bundle> bundles = new ArrayList<>();
+    bundles.add(newBundle(1, 2, 10, 1000));
+    bundles.add(newBundle(1, 2, 11, 2000));
+
+    assertEquals(2, controller.ingest(bundles).size());
+
+    // A new model reads back everything that the batch wrote to the logs.
+    final View recovered = new View(new Model());
+
+    final Conversation conversation = recovered.findConversation(newTestId(2));
+    assertNotNull(conversation);
+    assertTrue(Uuids.equals(conversation.lastMessage, newTestId(11)));
+    assertEquals(2, recovered.getMessages(conversation.firstMessage, 8).size());
+  }
+
+  private Relay.Bundle newBundle(int user, int conversation, final int message, final long ms) {
+
+    final Relay.Bundle.Component userComponent =
+        relay.pack(newTestId(user), "user", Time.fromMs(0), "p1$p2$p3");
+    final Relay.Bundle.Component conversationComponent =
+        relay.pack(newTestId(conversation), "conversation", Time.fromMs(0), null);
+    final Relay.Bundle.Component messageComponent =
+        relay.pack(newTestId(message), "message " + message, Time.fromMs(ms), null);
+
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return newTestId(message); }
+      @Override
+      public Time time() { return Time.fromMs(ms); }
+      @Override
+      public Uuid team() { return Uuids.NULL; }
+      @Override
+      public Relay.Bundle.Component user() { return userComponent; }
+      @Override
+      public Relay.Bundle.Component conversation() { return conversationComponent; }
+      @Override
+      public Relay.Bundle.Component message() { return messageComponent; }
+    };
+  }
+
+  private static Uuid newTestId(final int id) {
+    return Uuids.complete(new Uuid() {
+      @Override
+      public Uuid root() { return null; }
+      @Override
+      public int id() { return id; }
+    });
+  }
+}
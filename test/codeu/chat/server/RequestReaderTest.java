@@ -0,0 +1,178 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import codeu.chat.common.Time;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Serializers;
+
+public final class RequestReaderTest {
+
+  private static final Uuid ID = Uuids.fromString("100.200.300");
+
+  @Test
+  public void testReadsWhatSerializersWrite() throws IOException {
+
+    final byte[] request = newRequest();
+
+    for (final boolean trickle : new boolean[] { false, true }) {
+
+      final RequestReader reader = new RequestReader();
+      reader.reset(trickle ? new Trickle(request) : new ByteArrayInputStream(request));
+
+      assertEquals(-7, reader.readInt());
+      assertEquals(0x123456789ABCDEFL, reader.readLong());
+      assertEquals(0x00000001FFFFFFFFL, reader.readTime().inMs());
+      assertEquals("hello", reader.readString());
+      assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, reader.readBytes()));
+      assertEquals(ID, reader.readUuid());
+      assertEquals(ID, reader.lookupUuid());
+      assertNull(reader.readUuid());
+
+      final Iterator<Uuid> ids = reader.lookupUuids().iterator();
+      assertEquals(Uuids.fromString("1"), ids.next());
+      assertEquals(ID, ids.next());
+      assertFalse(ids.hasNext());
+
+      assertEquals(request.length, reader.count());
+    }
+  }
+
+  @Test
+  public void testStringLargerThanBuffer() throws IOException {
+
+    final char[] chars = new char[20000];
+    Arrays.fill(chars, 'x');
+    final String large = new String(chars);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.STRING.write(out, large);
+    Serializers.STRING.write(out, "after");
+
+    final RequestReader reader = new RequestReader();
+    reader.reset(new Trickle(out.toByteArray()));
+
+    assertEquals(large, reader.readString());
+    assertEquals("after", reader.readString());
+  }
+
+  @Test
+  public void testLookupsAreEqualToMadeUuids() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuids.SERIALIZER.write(out, ID);
+
+    final RequestReader reader = new RequestReader();
+    reader.reset(new ByteArrayInputStream(out.toByteArray()));
+
+    final Uuid lookup = reader.lookupUuid();
+
+    assertTrue(Uuids.equals(ID, lookup));
+    assertEquals(ID.hashCode(), lookup.hashCode());
+    assertEquals(ID.toString(), lookup.toString());
+    assertEquals(ID, lookup);
+    assertEquals(lookup, ID);
+  }
+
+  @Test
+  public void testLookupsAreReused() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.collection(Uuids.SERIALIZER).write(out, Arrays.asList(ID, ID));
+    final byte[] request = out.toByteArray();
+
+    final RequestReader reader = new RequestReader();
+
+    reader.reset(new ByteArrayInputStream(request));
+    final Collection<Uuid> first = new ArrayList<>(reader.lookupUuids());
+
+    reader.reset(new ByteArrayInputStream(request));
+    final Collection<Uuid> second = reader.lookupUuids();
+
+    assertEquals(2, second.size());
+
+    // The same links are handed out again rather than new ones made.
+    final Iterator<Uuid> a = first.iterator();
+    final Iterator<Uuid> b = second.iterator();
+    while (a.hasNext()) {
+      assertSame(a.next(), b.next());
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedRequest() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, 10);
+    out.write(new byte[] { 'a', 'b' });
+
+    final RequestReader reader = new RequestReader();
+    reader.reset(new ByteArrayInputStream(out.toByteArray()));
+
+    reader.readString();
+  }
+
+  private static byte[] newRequest() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Serializers.INTEGER.write(out, -7);
+    Serializers.LONG.write(out, 0x123456789ABCDEFL);
+    Time.SERIALIZER.write(out, Time.fromMs(0x00000001FFFFFFFFL));
+    Serializers.STRING.write(out, "hello");
+    Serializers.BYTES.write(out, new byte[] { 1, 2, 3 });
+    Uuids.SERIALIZER.write(out, ID);
+    Uuids.SERIALIZER.write(out, ID);
+    Uuids.SERIALIZER.write(out, null);
+    Serializers.collection(Uuids.SERIALIZER).write(out, Arrays.asList(Uuids.fromString("1"), ID));
+
+    return out.toByteArray();
+  }
+
+  // Gives out one byte at a time, like a socket that the request arrives on slowly.
+  private static final class Trickle extends InputStream {
+
+    private final ByteArrayInputStream in;
+
+    public Trickle(byte[] bytes) {
+      in = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int read() {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      return in.read(bytes, offset, Math.min(length, 1));
+    }
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Time;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+
+public final class ServerTest {
+
+  private static final Uuid SERVER_ID = Uuids.fromString("100.101");
+  private static final byte[] SECRET = { 0x0A, 0x0B };
+
+  @Test(timeout = 10000)
+  public void testSlowRequestDoesNotHoldUpOthers() throws Exception {
+
+    final Server server = new Server(SERVER_ID, SECRET, new NoOpRelay());
+
+    // A client that sends the type of its request and then stalls. The server has
+    // read the type and is waiting for the rest once it goes back for more.
+    final CountDownLatch reads = new CountDownLatch(2);
+    final PipedOutputStream slowRequest = new PipedOutputStream();
+    final InputStream slowIn = new PipedInputStream(slowRequest) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        reads.countDown();
+        return super.read(b, off, len);
+      }
+    };
+    final ByteArrayOutputStream slowOut = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(slowRequest, NetworkCode.NEW_USER_REQUEST);
+
+    final Thread slow = handleInBackground(server, newConnection(slowIn, slowOut));
+    assertTrue(reads.await(5, TimeUnit.SECONDS));
+
+    // Other clients are answered while it stalls.
+    final InputStream response = callWithin(server, NetworkCode.GET_ALL_CONVERSATIONS_REQUEST, new byte[0]);
+    assertEquals(NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE, (int) Serializers.INTEGER.read(response));
+
+    Serializers.STRING.write(slowRequest, "slow");
+    Serializers.STRING.write(slowRequest, "security");
+    slowRequest.close();
+    slow.join();
+
+    final InputStream slowResponse = new ByteArrayInputStream(slowOut.toByteArray());
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(slowResponse));
+    assertEquals("slow", Serializers.nullable(User.SERIALIZER).read(slowResponse).name);
+  }
+
+  @Test(timeout = 10000)
+  public void testRelayWriteIsMadeAfterTheResponse() throws Exception {
+
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Server server = new Server(SERVER_ID, SECRET, new BlockingRelay(writing, release));
+
+    final User user = newUser(server, "author");
+    final Conversation conversation = newConversation(server, "title", user.id);
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Uuids.SERIALIZER.write(request, user.id);
+    Uuids.SERIALIZER.write(request, conversation.id);
+    Serializers.STRING.write(request, "hello");
+
+    final ByteArrayOutputStream messageOut = new ByteArrayOutputStream();
+    final Thread message = handleInBackground(
+        server, newConnection(request(NetworkCode.NEW_MESSAGE_REQUEST, request.toByteArray()), messageOut));
+
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+    // The client has its response while the relay write is still going.
+    final InputStream messageResponse = new ByteArrayInputStream(messageOut.toByteArray());
+    assertEquals(NetworkCode.NEW_MESSAGE_RESPONSE, (int) Serializers.INTEGER.read(messageResponse));
+
+    // Other clients do not wait on the relay.
+    final InputStream response = callWithin(server, NetworkCode.GET_ALL_CONVERSATIONS_REQUEST, new byte[0]);
+    assertEquals(NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE, (int) Serializers.INTEGER.read(response));
+
+    release.countDown();
+    message.join();
+  }
+
+  private static User newUser(Server server, String name) throws Exception {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.STRING.write(request, name);
+    Serializers.STRING.write(request, "security");
+
+    final InputStream response = call(server, NetworkCode.NEW_USER_REQUEST, request.toByteArray());
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(response));
+    return Serializers.nullable(User.SERIALIZER).read(response);
+  }
+
+  private static Conversation newConversation(Server server, String title, Uuid owner) throws Exception {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.STRING.write(request, title);
+    Uuids.SERIALIZER.write(request, owner);
+
+    final InputStream response = call(server, NetworkCode.NEW_CONVERSATION_REQUEST, request.toByteArray());
+    assertEquals(NetworkCode.NEW_CONVERSATION_RESPONSE, (int) Serializers.INTEGER.read(response));
+    return Serializers.nullable(Conversation.SERIALIZER).read(response);
+  }
+
+  // Send one request and return everything the server wrote back.
+  private static InputStream call(Server server, int type, byte[] body) throws Exception {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    server.handleConnection(newConnection(request(type, body), out));
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+
+  // Send one request from another thread and fail if it is not answered within a
+  // second, as it would be if it were waiting on the server's lock.
+  private static InputStream callWithin(Server server, int type, byte[] body) throws Exception {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final Thread thread = handleInBackground(server, newConnection(request(type, body), out));
+    thread.join(1000);
+    assertFalse("the request waited on another", thread.isAlive());
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+
+  private static InputStream request(int type, byte[] body) throws IOException {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, type);
+    request.write(body);
+    return new ByteArrayInputStream(request.toByteArray());
+  }
+
+  private static Thread handleInBackground(final Server server, final Connection connection) {
+
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          server.handleConnection(connection);
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static Connection newConnection(final InputStream in, final OutputStream out) {
+    return new Connection() {
+      @Override
+      public InputStream in() { return in; }
+
+      @Override
+      public OutputStream out() { return out; }
+
+      @Override
+      public void close() { }
+    };
+  }
+
+  // A relay whose writes wait to be let go of.
+  private static final class BlockingRelay implements Relay {
+
+    private final Relay relay = new NoOpRelay();
+    private final CountDownLatch writing;
+    private final CountDownLatch release;
+
+    public BlockingRelay(CountDownLatch writing, CountDownLatch release) {
+      this.writing = writing;
+      this.release = release;
+    }
+
+    @Override
+    public Relay.Bundle.Component pack(Uuid id, String text, Time time, String security) {
+      return relay.pack(id, text, time, security);
+    }
+
+    @Override
+    public boolean write(Uuid teamId,
+                         byte[] teamSecret,
+                         Relay.Bundle.Component user,
+                         Relay.Bundle.Component conversation,
+                         Relay.Bundle.Component message) {
+
+      writing.countDown();
+      try {
+        return release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
+      return relay.read(teamId, teamSecret, root, range);
+    }
+
+    @Override
+    public Uuid cursor(Uuid teamId, byte[] teamSecret) {
+      return relay.cursor(teamId, teamSecret);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Time;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  @Test
+  public void testOnlySubscribedConversations() throws Exception {
+
+    final PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+    final OutputStream serverOut = new PipedOutputStream(clientIn);
+
+    final Subscriptions subscriptions = new Subscriptions();
+    subscriptions.subscribe(newConnection(serverOut), Arrays.asList(newTestId(1)));
+
+    subscriptions.publish(newTestId(2), newMessage(20));
+    subscriptions.publish(newTestId(1), newMessage(10));
+
+    assertEquals(NetworkCode.MESSAGE_EVENT, (int) Serializers.INTEGER.read(clientIn));
+    assertTrue(Uuids.equals(newTestId(1), Uuids.SERIALIZER.read(clientIn)));
+    assertTrue(Uuids.equals(newTestId(10), Message.SERIALIZER.read(clientIn).id));
+  }
+
+  @Test
+  public void testRemovedMessage() throws Exception {
+
+    final PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+    final OutputStream serverOut = new PipedOutputStream(clientIn);
+
+    final Subscriptions subscriptions = new Subscriptions();
+    subscriptions.subscribe(newConnection(serverOut), Arrays.asList(newTestId(1)));
+
+    subscriptions.publishRemoved(newTestId(2), newTestId(20));
+    subscriptions.publishRemoved(newTestId(1), newTestId(10));
+
+    assertEquals(NetworkCode.MESSAGE_REMOVED_EVENT, (int) Serializers.INTEGER.read(clientIn));
+    assertTrue(Uuids.equals(newTestId(1), Uuids.SERIALIZER.read(clientIn)));
+    assertTrue(Uuids.equals(newTestId(10), Uuids.SERIALIZER.read(clientIn)));
+  }
+
+  @Test
+  public void testSlowSubscriberDisconnected() throws Exception {
+
+    // The first event the writer takes gets stuck writing, after that the queue
+    // fills up.
+    final CountDownLatch closed = new CountDownLatch(1);
+    final OutputStream stuck = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        try {
+          closed.await();
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+        throw new IOException("closed");
+      }
+    };
+
+    final Subscriptions subscriptions = new Subscriptions(4);
+    subscriptions.subscribe(newConnection(stuck, closed), Arrays.asList(newTestId(1)));
+
+    for (int i = 0; i < 6 && subscriptions.size() > 0; i++) {
+      subscriptions.publish(newTestId(1), newMessage(10 + i));
+      Thread.sleep(10);
+    }
+
+    assertEquals(0, subscriptions.size());
+    assertEquals(0, closed.getCount());
+  }
+
+  @Test
+  public void testGoneSubscriberDisconnected() throws Exception {
+
+    // Nothing is ever published to the subscriber, it is only found to be gone
+    // when it is pinged.
+    final CountDownLatch closed = new CountDownLatch(1);
+    final OutputStream gone = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+
+    final Subscriptions subscriptions = new Subscriptions(4, 1, 20);
+    subscriptions.subscribe(newConnection(gone, closed), Arrays.asList(newTestId(1)));
+
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertEquals(0, subscriptions.size());
+
+    subscriptions.close();
+  }
+
+  @Test
+  public void testQuietSubscriberPinged() throws Exception {
+
+    final PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+    final OutputStream serverOut = new PipedOutputStream(clientIn);
+
+    final Subscriptions subscriptions = new Subscriptions(4, 1, 20);
+    subscriptions.subscribe(newConnection(serverOut), Arrays.asList(newTestId(1)));
+
+    assertEquals(NetworkCode.SUBSCRIPTION_PING_EVENT, (int) Serializers.INTEGER.read(clientIn));
+    assertEquals(1, subscriptions.size());
+
+    subscriptions.close();
+  }
+
+  @Test
+  public void testStuckSubscriberFreesWriter() throws Exception {
+
+    // With a single writer, a subscriber that is stuck writing holds up every other
+    // subscriber until it is disconnected.
+    final CountDownLatch closed = new CountDownLatch(1);
+    final OutputStream stuck = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        try {
+          closed.await();
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+        throw new IOException("closed");
+      }
+    };
+
+    final PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+    final OutputStream serverOut = new PipedOutputStream(clientIn);
+
+    final Subscriptions subscriptions = new Subscriptions(16, 1, 50);
+    subscriptions.subscribe(newConnection(stuck, closed), Arrays.asList(newTestId(1)));
+    subscriptions.publish(newTestId(1), newMessage(10));
+
+    subscriptions.subscribe(newConnection(serverOut), Arrays.asList(newTestId(2)));
+    subscriptions.publish(newTestId(2), newMessage(20));
+
+    assertEquals(NetworkCode.MESSAGE_EVENT, (int) Serializers.INTEGER.read(clientIn));
+    assertEquals(0, closed.getCount());
+    assertEquals(1, subscriptions.size());
+
+    subscriptions.close();
+  }
+
+  private static Connection newConnection(OutputStream out) {
+    return newConnection(out, new CountDownLatch(1));
+  }
+
+  private static Connection newConnection(final OutputStream out, final CountDownLatch closed) {
+    return new Connection() {
+      @Override
+      public InputStream in() { return null; }
+      @Override
+      public OutputStream out() { return out; }
+      @Override
+      public void close() { closed.countDown(); }
+    };
+  }
+
+  private static Message newMessage(int id) {
+    return new Message(newTestId(id), Uuids.NULL, Uuids.NULL, Time.now(), newTestId(1), "hello");
+  }
+
+  private static Uuid newTestId(final int id) {
+    return Uuids.complete(new Uuid() {
+      @Override
+      public Uuid root() { return null; }
+      @Override
+      public int id() { return id; }
+    });
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+public final class TextIndexTest {
+
+  private static final Comparator<Uuid> ORDER = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) {
+      return Integer.compare(a.id(), b.id());
+    }
+  };
+
+  private static final Uuid A = Uuids.fromString("100");
+  private static final Uuid B = Uuids.fromString("101");
+  private static final Uuid C = Uuids.fromString("102");
+
+  @Test
+  public void testWords() {
+    assertEquals(Arrays.asList("hello", "world", "42"),
+                 new ArrayList<>(TextIndex.words("  Hello, WORLD! 42")));
+  }
+
+  @Test
+  public void testPrefixes() {
+
+    final TextIndex<Uuid> index = new TextIndex<>(ORDER);
+
+    index.add(C, "Hello world");
+    index.add(A, "help wanted");
+    index.add(B, "goodbye world");
+
+    assertEquals(Arrays.asList(A, C), new ArrayList<>(index.search("hel")));
+    assertEquals(Arrays.asList(C), new ArrayList<>(index.search("HEL wor")));
+    assertEquals(Arrays.asList(B, C), new ArrayList<>(index.search("world")));
+    assertTrue(index.search("elp").isEmpty());
+    assertTrue(index.search(" ,. ").isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+
+    final TextIndex<Uuid> index = new TextIndex<>(ORDER);
+
+    index.add(A, "hello there");
+    index.add(B, "hello again");
+    index.remove(A, "hello there");
+
+    assertEquals(Arrays.asList(B), new ArrayList<>(index.search("hello")));
+    assertTrue(index.search("there").isEmpty());
+  }
+
+  @Test
+  public void testSearchAfter() {
+
+    final TextIndex<Uuid> index = new TextIndex<>(ORDER);
+
+    // C has two words that start with "hel" but only comes back once.
+    index.add(C, "hello help");
+    index.add(A, "help wanted");
+    index.add(B, "hello world");
+
+    assertEquals(Arrays.asList(A, B, C), drain(index.search("hel", null)));
+    assertEquals(Arrays.asList(B, C), drain(index.search("hel", A)));
+    assertEquals(Arrays.asList(C), drain(index.search("hel", B)));
+    assertEquals(Arrays.asList(B), drain(index.search("wor hel", A)));
+    assertTrue(drain(index.search("hel", C)).isEmpty());
+    assertTrue(drain(index.search("hel nothing", null)).isEmpty());
+  }
+
+  private static List<Uuid> drain(Iterator<Uuid> it) {
+    final List<Uuid> items = new ArrayList<>();
+    while (it.hasNext()) {
+      items.add(it.next());
+    }
+    return items;
+  }
+}
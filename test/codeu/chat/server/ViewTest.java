@@ -0,0 +1,425 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Delta;
+import codeu.chat.common.Message;
+import codeu.chat.common.MessageMatch;
+import codeu.chat.common.Page;
+import codeu.chat.common.Time;
+import codeu.chat.common.User;
+import codeu.chat.common.Uuid;
+import codeu.chat.common.Uuids;
+
+public final class ViewTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private User user;
+  private Conversation conversation;
+  private final List<Message> messages = new ArrayList<>();
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuids.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user", "p1$p2$p3");
+    conversation = controller.newConversation("conversation", user.id);
+
+    for (int i = 0; i < 4; i++) {
+      messages.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    String[] filenames = {"Model_StringConversation.log", "Model_StringMessage.log", "Model_StringUser.log",
+        "Model_TimeConversation.log", "Model_TimeMessage.log", "Model_TimeUser.log",
+        "Model_UuidConversation.log", "Model_UuidMessage.log", "Model_UuidUser.log"};
+    for (String filename : filenames) {
+      File toDelete = new File(filename);
+      toDelete.delete();
+    }
+  }
+
+  @Test
+  public void testMessagesSinceStart() {
+
+    final List<Message> found =
+        new ArrayList<>(view.getMessagesSince(conversation.id, Uuids.NULL, 10));
+
+    assertEquals(4, found.size());
+    for (int i = 0; i < found.size(); i++) {
+      assertTrue(Uuids.equals(messages.get(i).id, found.get(i).id));
+    }
+  }
+
+  @Test
+  public void testMessagesSinceLast() {
+
+    final List<Message> found =
+        new ArrayList<>(view.getMessagesSince(conversation.id, messages.get(1).id, 10));
+
+    assertEquals(2, found.size());
+    assertTrue(Uuids.equals(messages.get(2).id, found.get(0).id));
+    assertTrue(Uuids.equals(messages.get(1).id, found.get(0).previous));
+    assertTrue(Uuids.equals(messages.get(3).id, found.get(1).id));
+
+    assertTrue(view.getMessagesSince(conversation.id, messages.get(3).id, 10).isEmpty());
+  }
+
+  @Test
+  public void testMessagesSinceLimit() {
+
+    final List<Message> found =
+        new ArrayList<>(view.getMessagesSince(conversation.id, messages.get(0).id, 2));
+
+    assertEquals(2, found.size());
+    assertTrue(Uuids.equals(messages.get(2).id, found.get(1).id));
+  }
+
+  @Test
+  public void testMessagesSinceUnknownConversation() {
+    assertTrue(view.getMessagesSince(messages.get(0).id, Uuids.NULL, 10).isEmpty());
+  }
+
+  @Test
+  public void testConversationMessages() {
+
+    final Page<Message> page =
+        view.getConversationMessages(conversation.id, Uuids.NULL, Time.fromMs(0), Integer.MAX_VALUE);
+    final List<Message> all = new ArrayList<>(page.items);
+
+    assertTrue(page.isLast());
+    assertEquals(4, all.size());
+    for (int i = 0; i < all.size(); i++) {
+      assertTrue(Uuids.equals(messages.get(i).id, all.get(i).id));
+    }
+
+    final Page<Message> afterPage =
+        view.getConversationMessages(conversation.id, messages.get(0).id, Time.fromMs(0), 2);
+    final List<Message> after = new ArrayList<>(afterPage.items);
+
+    assertFalse(afterPage.isLast());
+    assertEquals(2, after.size());
+    assertTrue(Uuids.equals(messages.get(1).id, after.get(0).id));
+    assertTrue(Uuids.equals(messages.get(2).id, after.get(1).id));
+
+    // Exactly the rest of the conversation is the last page.
+    assertTrue(view.getConversationMessages(conversation.id, messages.get(0).id, Time.fromMs(0), 3)
+        .isLast());
+
+    final Time later = Time.fromMs(messages.get(3).creation.inMs() + 1);
+    assertTrue(view.getConversationMessages(conversation.id, Uuids.NULL, later, 10).items.isEmpty());
+    assertTrue(view.getConversationMessages(messages.get(0).id, Uuids.NULL, Time.fromMs(0), 10)
+        .items.isEmpty());
+  }
+
+  @Test
+  public void testConversationMessagesPastServerLimit() {
+
+    for (int i = messages.size(); i < 5000; i++) {
+      messages.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+
+    // The server stops short of the whole conversation and says so, and the rest
+    // is read after the last message it sent.
+    final Page<Message> first =
+        view.getConversationMessages(conversation.id, Uuids.NULL, Time.fromMs(0), Integer.MAX_VALUE);
+    final List<Message> all = new ArrayList<>(first.items);
+
+    assertFalse(first.isLast());
+    assertTrue(all.size() < messages.size());
+
+    final Page<Message> rest = view.getConversationMessages(
+        conversation.id, all.get(all.size() - 1).id, Time.fromMs(0), Integer.MAX_VALUE);
+    all.addAll(rest.items);
+
+    assertTrue(rest.isLast());
+    assertEquals(messages.size(), all.size());
+    for (int i = 0; i < all.size(); i++) {
+      assertTrue(Uuids.equals(messages.get(i).id, all.get(i).id));
+    }
+  }
+
+  @Test
+  public void testMessagesByRangeAfterRemoval() {
+
+    controller.removeMessage(messages.get(1), conversation.id);
+
+    final List<Message> newer = new ArrayList<>(view.getMessages(messages.get(0).id, 10));
+    assertEquals(3, newer.size());
+    assertTrue(Uuids.equals(messages.get(0).id, newer.get(0).id));
+    assertTrue(Uuids.equals(messages.get(2).id, newer.get(1).id));
+    assertTrue(Uuids.equals(messages.get(3).id, newer.get(2).id));
+
+    // A negative range counts back and includes the message it starts from.
+    final List<Message> older = new ArrayList<>(view.getMessages(messages.get(3).id, -1));
+    assertEquals(2, older.size());
+    assertTrue(Uuids.equals(messages.get(2).id, older.get(0).id));
+    assertTrue(Uuids.equals(messages.get(3).id, older.get(1).id));
+  }
+
+  @Test
+  public void testConversationsPaged() {
+
+    // Titles that repeat across the end of a page should not be lost or repeated.
+    for (final String title : new String[] { "b", "a", "b", "c", "b" }) {
+      controller.newConversation(title, user.id);
+    }
+
+    final List<String> titles = new ArrayList<>();
+    final Set<Uuid> ids = new HashSet<>();
+
+    byte[] cursor = Page.FIRST;
+    int pages = 0;
+
+    do {
+      final Page<ConversationSummary> page = view.getConversationsPage(cursor, 2);
+      for (final ConversationSummary summary : page.items) {
+        titles.add(summary.title);
+        ids.add(summary.id);
+      }
+      cursor = page.next;
+      pages++;
+    } while (cursor.length > 0);
+
+    assertEquals(3, pages);
+    assertEquals(Arrays.asList("a", "b", "b", "b", "c", "conversation"), titles);
+    assertEquals(6, ids.size());
+  }
+
+  @Test
+  public void testPagedPastLongTitle() {
+
+    // A cursor holds the title of the last conversation of its page, however long.
+    final char[] chars = new char[70000];
+    Arrays.fill(chars, 'a');
+    final String longTitle = new String(chars);
+
+    controller.newConversation(longTitle, user.id);
+    controller.newConversation("b", user.id);
+
+    final Page<ConversationSummary> first = view.getConversationsPage(Page.FIRST, 1);
+    assertEquals(longTitle, first.items.iterator().next().title);
+    assertFalse(first.isLast());
+
+    final Page<ConversationSummary> second = view.getConversationsPage(first.next, 1);
+    assertEquals("b", second.items.iterator().next().title);
+  }
+
+  @Test
+  public void testUsersPaged() {
+
+    controller.newUser("another", "p1$p2$p3");
+
+    final Page<User> first = view.getUsersPage(Page.FIRST, 1);
+    assertEquals(1, first.items.size());
+    assertEquals("another", first.items.iterator().next().name);
+    assertFalse(first.isLast());
+
+    final Page<User> second = view.getUsersPage(first.next, 1);
+    assertEquals(1, second.items.size());
+    assertEquals("user", second.items.iterator().next().name);
+    assertTrue(second.isLast());
+  }
+
+  @Test
+  public void testGenerationsFromBeforeRestartReset() {
+
+    final long users = view.getUsersChangedSince(Delta.UNKNOWN).generation;
+    final long conversations = view.getConversationsChangedSince(Delta.UNKNOWN).generation;
+    final long messages =
+        view.getMessagesChangedSince(conversation.id, Delta.UNKNOWN, Uuids.NULL, 10).generation;
+
+    // The same stores, read back by a new model as they would be after a restart.
+    final View restarted = new View(new Model());
+
+    assertTrue(restarted.getUsersChangedSince(users).reset);
+    assertTrue(restarted.getConversationsChangedSince(conversations).reset);
+    assertTrue(restarted.getMessagesChangedSince(conversation.id, messages, Uuids.NULL, 10).reset);
+    assertFalse(Uuids.equals(view.getUserGeneration(), restarted.getUserGeneration()));
+  }
+
+  @Test
+  public void testUserGenerationMovesWithUsers() {
+
+    final Uuid before = view.getUserGeneration();
+    controller.newUser("another", "p1$p2$p3");
+
+    assertFalse(Uuids.equals(before, view.getUserGeneration()));
+  }
+
+  @Test
+  public void testUsersChangedSince() {
+
+    final Delta<User> all = view.getUsersChangedSince(Delta.UNKNOWN);
+    assertTrue(all.reset);
+
+    final long generation = all.generation;
+    assertTrue(view.getUsersChangedSince(generation).isNotModifiedSince(generation));
+
+    final User added = controller.newUser("another", "p1$p2$p3");
+
+    final Delta<User> delta = view.getUsersChangedSince(generation);
+    assertFalse(delta.reset);
+    assertTrue(delta.generation > generation);
+    assertEquals(1, delta.changed.size());
+    assertTrue(Uuids.equals(added.id, delta.changed.iterator().next().id));
+    assertTrue(delta.removed.isEmpty());
+  }
+
+  @Test
+  public void testConversationsChangedSince() {
+
+    final long generation = view.getConversationsChangedSince(Delta.UNKNOWN).generation;
+
+    final Conversation added = controller.newConversation("another", user.id);
+    controller.removeConversation(conversation);
+
+    final Delta<ConversationSummary> delta = view.getConversationsChangedSince(generation);
+    assertFalse(delta.reset);
+    assertEquals(1, delta.changed.size());
+    assertTrue(Uuids.equals(added.id, delta.changed.iterator().next().id));
+    assertEquals(1, delta.removed.size());
+    assertTrue(Uuids.equals(conversation.id, delta.removed.iterator().next()));
+  }
+
+  @Test
+  public void testMessagesChangedSince() {
+
+    final Delta<Message> all =
+        view.getMessagesChangedSince(conversation.id, Delta.UNKNOWN, Uuids.NULL, 10);
+    assertEquals(4, all.changed.size());
+
+    final long generation = all.generation;
+    assertTrue(view.getMessagesChangedSince(conversation.id, generation, messages.get(3).id, 10)
+        .isNotModifiedSince(generation));
+
+    final Message added = controller.newMessage(user.id, conversation.id, "message 4");
+
+    final Delta<Message> delta =
+        view.getMessagesChangedSince(conversation.id, generation, messages.get(3).id, 10);
+    assertFalse(delta.reset);
+    assertEquals(1, delta.changed.size());
+    assertTrue(Uuids.equals(added.id, delta.changed.iterator().next().id));
+  }
+
+  @Test
+  public void testMessagesChangedSinceRemoval() {
+
+    final long generation =
+        view.getMessagesChangedSince(conversation.id, Delta.UNKNOWN, Uuids.NULL, 10).generation;
+
+    controller.removeMessage(messages.get(1), conversation.id);
+
+    // The client's copy of the messages around the removed one is out of date so
+    // it gets everything again.
+    final Delta<Message> delta =
+        view.getMessagesChangedSince(conversation.id, generation, messages.get(3).id, 10);
+    assertTrue(delta.reset);
+    assertEquals(3, delta.changed.size());
+    assertTrue(Uuids.equals(messages.get(0).id, delta.changed.iterator().next().id));
+  }
+
+  @Test
+  public void testSearchUsers() {
+
+    controller.newUser("username", "p1$p2$p3");
+    controller.newUser("other", "p1$p2$p3");
+
+    final Page<User> first = view.searchUsers("USER", Page.FIRST, 1);
+    assertEquals(1, first.items.size());
+    assertEquals("user", first.items.iterator().next().name);
+    assertFalse(first.isLast());
+
+    final Page<User> second = view.searchUsers("USER", first.next, 1);
+    assertEquals(1, second.items.size());
+    assertEquals("username", second.items.iterator().next().name);
+    assertTrue(second.isLast());
+
+    assertTrue(view.searchUsers("nobody", Page.FIRST, 10).items.isEmpty());
+  }
+
+  @Test
+  public void testSearchConversations() {
+
+    controller.newConversation("another", user.id);
+    controller.newConversation("Convo", user.id);
+
+    final List<String> titles = new ArrayList<>();
+    for (final ConversationSummary summary : view.searchConversations("conv", Page.FIRST, 10).items) {
+      titles.add(summary.title);
+    }
+
+    assertEquals(Arrays.asList("conversation", "Convo"), titles);
+  }
+
+  @Test
+  public void testSearchMessages() {
+
+    final Page<MessageMatch> first = view.searchMessages("MESSAGE", Page.FIRST, 3);
+    assertEquals(3, first.items.size());
+    assertFalse(first.isLast());
+    assertEquals(conversation.title, first.items.iterator().next().conversation.title);
+
+    final Page<MessageMatch> second = view.searchMessages("MESSAGE", first.next, 3);
+    assertEquals(1, second.items.size());
+    assertTrue(second.isLast());
+
+    final Set<Uuid> ids = new HashSet<>();
+    for (final MessageMatch match : first.items) {
+      ids.add(match.message.id);
+    }
+    ids.add(second.items.iterator().next().message.id);
+    assertEquals(4, ids.size());
+
+    // Every word has to match and the text has to appear as it was given.
+    assertEquals(1, view.searchMessages("message 2", Page.FIRST, 10).items.size());
+    assertTrue(view.searchMessages("2 message", Page.FIRST, 10).items.isEmpty());
+    assertTrue(view.searchMessages("essage", Page.FIRST, 10).items.isEmpty());
+  }
+
+  @Test
+  public void testSearchMessagesAfterRemoveAndRestart() {
+
+    controller.removeMessage(messages.get(0), conversation.id);
+
+    assertEquals(3, view.searchMessages("message", Page.FIRST, 10).items.size());
+
+    // The index is not written out, a new model rebuilds it from the stores.
+    final View recovered = new View(new Model());
+    assertEquals(3, recovered.searchMessages("message", Page.FIRST, 10).items.size());
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class HistogramTest {
+
+  @Test
+  public void testEmpty() {
+
+    final Histogram histogram = new Histogram();
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentile(0.5));
+    assertEquals(0, histogram.max());
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+
+    final Histogram histogram = new Histogram();
+
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(10, histogram.count());
+    assertEquals(5, histogram.percentile(0.5));
+    assertEquals(10, histogram.percentile(1.0));
+    assertEquals(5.5, histogram.mean(), 0.001);
+  }
+
+  @Test
+  public void testPercentilesWithinBucket() {
+
+    final Histogram histogram = new Histogram();
+
+    for (long i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    assertEquals(100000, histogram.count());
+    assertEquals(100000000L, histogram.max());
+
+    // Each power of two has 16 buckets, so a percentile is at most 1/16 too high.
+    assertWithin(50000000L, histogram.percentile(0.5));
+    assertWithin(99000000L, histogram.percentile(0.99));
+    assertEquals(100000000L, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void testNegativeCountedAsZero() {
+
+    final Histogram histogram = new Histogram();
+    histogram.record(-5);
+
+    assertEquals(1, histogram.count());
+    assertEquals(0, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void testMetricsDump() {
+
+    Metrics.histogram("test.latency").record(2000);
+    Metrics.counter("test.count").addAndGet(3);
+
+    assertSame(Metrics.histogram("test.latency"), Metrics.histogram("test.latency"));
+
+    final String dump = Metrics.dump();
+    assertTrue(dump.contains("test.count 3\n"));
+    assertTrue(dump.contains("test.latency count=1 "));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " below " + expected, actual >= expected);
+    assertTrue(actual + " too far above " + expected, actual <= expected + expected / 16);
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public final class LoggerTest {
+
+  private static final Logger.Log LOG = Logger.newLog(LoggerTest.class);
+
+  private final List<LogRecord> records = new ArrayList<>();
+
+  private final Handler handler = new Handler() {
+    @Override
+    public void publish(LogRecord record) {
+      // Other tests may still be logging in the background.
+      if (LoggerTest.class.getName().equals(record.getLoggerName())) {
+        synchronized (records) {
+          records.add(record);
+        }
+      }
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+  };
+
+  @Before
+  public void doBefore() {
+    Logger.flush();
+    java.util.logging.Logger.getLogger("codeu.chat").addHandler(handler);
+  }
+
+  @After
+  public void doAfter() {
+    java.util.logging.Logger.getLogger("codeu.chat").removeHandler(handler);
+  }
+
+  @Test
+  public void testRecordWritten() {
+
+    LOG.warning("Logged %d times", 1);
+    Logger.flush();
+
+    synchronized (records) {
+      assertEquals(1, records.size());
+      final LogRecord record = records.get(0);
+      assertEquals(Level.WARNING, record.getLevel());
+      assertEquals("Logged 1 times", record.getMessage());
+      assertEquals(LoggerTest.class.getName(), record.getSourceClassName());
+      assertEquals("testRecordWritten", record.getSourceMethodName());
+    }
+  }
+
+  @Test
+  public void testFilteredLevelNotFormatted() {
+
+    final Object param = new Object() {
+      @Override
+      public String toString() {
+        fail("A record below the level should not be formatted.");
+        return "";
+      }
+    };
+
+    LOG.verbose("%s", param);
+    Logger.flush();
+
+    synchronized (records) {
+      assertTrue(records.isEmpty());
+    }
+  }
+
+  @Test
+  public void testFullBufferDrops() throws Exception {
+
+    final Logger.Buffer buffer = new Logger.Buffer(2);
+
+    assertTrue(buffer.add(newEntry("1"), 0));
+    assertTrue(buffer.add(newEntry("2"), 0));
+    assertFalse(buffer.add(newEntry("3"), 0));
+    assertFalse(buffer.add(newEntry("4"), 1));
+
+    assertEquals(2, buffer.takeDropped());
+    assertEquals(0, buffer.takeDropped());
+
+    // The oldest records are kept.
+    assertEquals("1", buffer.take().record.getMessage());
+    assertTrue(buffer.add(newEntry("5"), 0));
+    assertEquals("2", buffer.take().record.getMessage());
+    assertEquals("5", buffer.take().record.getMessage());
+  }
+
+  private static Logger.Entry newEntry(String message) {
+    return new Logger.Entry(null, new LogRecord(Level.INFO, message));
+  }
+}
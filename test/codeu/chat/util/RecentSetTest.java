@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class RecentSetTest {
+
+  @Test
+  public void testAddRepeat() {
+
+    final RecentSet<String> set = new RecentSet<>(4);
+
+    assertTrue(set.add("a"));
+    assertFalse(set.add("a"));
+    assertTrue(set.contains("a"));
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void testOldestForgotten() {
+
+    final RecentSet<Integer> set = new RecentSet<>(2);
+
+    assertTrue(set.add(1));
+    assertTrue(set.add(2));
+    assertTrue(set.add(3));
+
+    assertFalse(set.contains(1));
+    assertTrue(set.contains(2));
+    assertTrue(set.contains(3));
+    assertEquals(2, set.size());
+  }
+
+  @Test
+  public void testZeroCapacity() {
+
+    final RecentSet<Integer> set = new RecentSet<>(0);
+
+    assertTrue(set.add(1));
+    assertTrue(set.add(1));
+    assertEquals(0, set.size());
+  }
+}
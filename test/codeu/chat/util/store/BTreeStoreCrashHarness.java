@@ -0,0 +1,347 @@
+package codeu.chat.util.store;
+
+import codeu.chat.util.Serializers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Crashes a BTreeStore part way through writing its log and checks what comes back.
+ *
+ * Each trial makes random inserts, updates and deletes (some of them in batches)
+ * through an output that stops writing at a chosen byte, as if the process died
+ * there, or flips a chosen byte of the finished log. The store is then opened
+ * again and must hold exactly the changes whose records were written in full
+ * before the crash or the damaged byte, and the log must take new records after
+ * that. A damaged header loses nothing, as the records after it are still good.
+ *
+ * The store reports the failed writes and cleans up after them, but a process
+ * that died would not have, so the log is put back the way it was at the crash
+ * before it is opened again.
+ *
+ * Run on its own it also times recovering a large log:
+ *
+ * Usage: BTreeStoreCrashHarness [trials] [operations] [recovery records] [seed]
+ */
+public final class BTreeStoreCrashHarness {
+
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return a.compareTo(b);
+        }
+    };
+
+    // keys are drawn from a small range so that updates and deletes find them
+    private static final int KEYS = 64;
+
+    // an insert or update of an integer key and value, and a delete of a key
+    private static final int VALUE_RECORD = BTreeLog.RECORD_OVERHEAD + 8;
+    private static final int KEY_RECORD = BTreeLog.RECORD_OVERHEAD + 4;
+
+    private BTreeStoreCrashHarness() { }
+
+    /**
+     * An output that writes the first "limit" bytes of the log and then fails every
+     * write after that, like a process that died part way through a write.
+     */
+    static final class CrashingOutput implements BTreeLog.Output {
+        private long remaining;
+        private long written = 0;
+        private byte[] atCrash;
+
+        CrashingOutput(long limit) {
+            remaining = limit;
+        }
+
+        long written() {
+            return written;
+        }
+
+        /**
+         * @return what the file held when the first write failed, or null if none has
+         */
+        byte[] atCrash() {
+            return atCrash;
+        }
+
+        @Override
+        public OutputStream open(File file) throws IOException {
+            final FileOutputStream out = new FileOutputStream(file, true);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{ (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    final int allowed = (int) Math.min(len, remaining);
+                    out.write(b, off, allowed);
+                    remaining -= allowed;
+                    written += allowed;
+                    if (allowed < len) {
+                        if (atCrash == null) {
+                            out.flush();
+                            atCrash = Files.readAllBytes(file.toPath());
+                        }
+                        throw new IOException("Crashed after " + written + " bytes");
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * Runs one trial against the given file, which must not exist yet. Stops the
+     * log after "crashAt" bytes if that is not negative, then flips the byte at
+     * "corruptAt" if that is not negative.
+     *
+     * @return null if the store recovered as it should, otherwise what went wrong
+     */
+    static String trial(long seed, int operations, long crashAt, long corruptAt, File file) throws IOException {
+
+        final Random random = new Random(seed);
+        final CrashingOutput output = new CrashingOutput(crashAt < 0 ? Long.MAX_VALUE : crashAt);
+
+        BTreeStore<Integer, Integer> store = new BTreeStore<>(2 + random.nextInt(3), COMPARATOR,
+            Serializers.INTEGER, Serializers.INTEGER, file.getPath(), output);
+
+        // every change that should be logged, in order, with the offset its record ends at
+        final TreeMap<Integer, Integer> current = new TreeMap<>();
+        final List<int[]> changes = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+        long offset = BTreeLog.HEADER_SIZE;
+
+        int batchLeft = 0;
+
+        for (int i = 0; i < operations; i++) {
+
+            if (batchLeft == 0 && random.nextInt(10) == 0) {
+                store.beginBatch();
+                batchLeft = 1 + random.nextInt(8);
+            }
+
+            final int key = random.nextInt(KEYS);
+            final int value = key * 1000 + random.nextInt(1000);
+            final int choice = random.nextInt(10);
+
+            // a change whose record could not be written throws and is not made, and
+            // the process is taken to have died there
+            try {
+                if (choice < 5) {
+                    store = store.insert(key, value, false);
+                    if (!current.containsKey(key)) {
+                        current.put(key, value);
+                        changes.add(new int[]{ BTreeStore.INSERTION, key, value });
+                        ends.add(offset += VALUE_RECORD);
+                    }
+                } else if (choice < 7) {
+                    if (store.update(key, value)) {
+                        current.put(key, value);
+                        changes.add(new int[]{ BTreeStore.UPDATE, key, value });
+                        ends.add(offset += VALUE_RECORD);
+                    }
+                } else {
+                    store = store.delete(key);
+                    if (current.remove(key) != null) {
+                        changes.add(new int[]{ BTreeStore.DELETION, key, 0 });
+                        ends.add(offset += KEY_RECORD);
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                if (output.atCrash() == null) {
+                    return "failed before the crash: " + e;
+                }
+                break;
+            }
+
+            if (batchLeft > 0 && --batchLeft == 0 && !endBatch(store, output)) {
+                break;
+            }
+        }
+        if (output.atCrash() == null) {
+            endBatch(store, output);
+        }
+
+        // the changes that made it to the log in full, in the log as it was at the crash
+        long kept = output.written();
+        if (output.atCrash() != null) {
+            Files.write(file.toPath(), output.atCrash());
+        }
+
+        if (corruptAt >= 0 && corruptAt < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(corruptAt);
+                final int b = raf.read();
+                raf.seek(corruptAt);
+                raf.write(b ^ (1 + random.nextInt(255)));
+            }
+            if (corruptAt >= BTreeLog.HEADER_SIZE) {
+                kept = Math.min(kept, corruptAt);
+            }
+        }
+
+        final TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < changes.size() && ends.get(i) <= kept; i++) {
+            final int[] change = changes.get(i);
+            if (change[0] == BTreeStore.DELETION) {
+                expected.remove(change[1]);
+            } else {
+                expected.put(change[1], change[2]);
+            }
+        }
+
+        BTreeStore<Integer, Integer> recovered = open(file);
+
+        final String mismatch = compare("recovered", expected, recovered);
+        if (mismatch != null) {
+            return mismatch;
+        }
+
+        // the log has to take new records after whatever was cut from it
+        recovered = recovered.insert(KEYS, KEYS * 1000, false);
+        expected.put(KEYS, KEYS * 1000);
+
+        return compare("reopened", expected, open(file));
+    }
+
+    /**
+     * Ends the batch. A batch whose records cannot all be written throws, and is
+     * not durable.
+     *
+     * @return false if the log crashed while the batch was written
+     */
+    private static boolean endBatch(BTreeStore<Integer, Integer> store, CrashingOutput output) {
+        try {
+            store.endBatch();
+            return true;
+        } catch (UncheckedIOException e) {
+            if (output.atCrash() == null) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes a log of "records" inserts and times opening a store over it.
+     *
+     * @return the number of records recovered per second
+     */
+    static double recoveryRate(int records, File file) {
+
+        final Random random = new Random(records);
+
+        BTreeStore<Integer, Integer> store = open(file);
+        store.beginBatch();
+        for (int i = 0; i < records; i++) {
+            final int key = random.nextInt();
+            store = store.insert(key, key, true);
+        }
+        store.endBatch();
+
+        final long start = System.nanoTime();
+        final BTreeStore<Integer, Integer> recovered = open(file);
+        final long elapsed = System.nanoTime() - start;
+
+        if (recovered.size() != records) {
+            throw new IllegalStateException("Recovered " + recovered.size() + " of " + records + " records");
+        }
+
+        return records / (elapsed / 1e9);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        final int trials = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int records = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        final long seed = args.length > 3 ? Long.parseLong(args[3]) : System.currentTimeMillis();
+
+        System.out.format("Seed %d\n", seed);
+
+        final Random random = new Random(seed);
+        final long maxLog = BTreeLog.HEADER_SIZE + (long) operations * VALUE_RECORD;
+
+        int failures = 0;
+
+        for (int i = 0; i < trials; i++) {
+
+            final long trialSeed = random.nextLong();
+            final boolean crash = random.nextBoolean();
+            final long at = (long) (random.nextDouble() * maxLog);
+
+            final File file = tempFile();
+            try {
+                final String failure = crash ?
+                    trial(trialSeed, operations, at, -1, file) :
+                    trial(trialSeed, operations, -1, at, file);
+                if (failure != null) {
+                    failures++;
+                    System.out.format("Trial seed %d %s at %d: %s\n",
+                        trialSeed, crash ? "crash" : "corruption", at, failure);
+                }
+            } finally {
+                delete(file);
+            }
+        }
+
+        System.out.format("%d of %d trials recovered correctly\n", trials - failures, trials);
+
+        final File file = tempFile();
+        try {
+            final long start = System.nanoTime();
+            final double rate = recoveryRate(records, file);
+            final double seconds = records / rate;
+            System.out.format("Recovered %d records (%.1f MB) in %.0f ms: %.0f records/s, %.1f MB/s\n",
+                records, file.length() / 1e6, seconds * 1000, rate, file.length() / 1e6 / seconds);
+            System.out.format("Writing and recovering took %d ms\n", (System.nanoTime() - start) / 1000000);
+        } finally {
+            delete(file);
+        }
+
+        System.out.println(failures == 0 ? "PASS" : "FAIL");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    static File tempFile() throws IOException {
+        final File file = File.createTempFile("btree_crash", ".log");
+        file.delete();
+        return file;
+    }
+
+    static void delete(File file) {
+        file.delete();
+        new File(file.getPath() + ".corrupt").delete();
+    }
+
+    private static BTreeStore<Integer, Integer> open(File file) {
+        return new BTreeStore<>(2, COMPARATOR, Serializers.INTEGER, Serializers.INTEGER, file.getPath());
+    }
+
+    private static String compare(String when, Map<Integer, Integer> expected, BTreeStore<Integer, Integer> store) {
+        final List<Integer> actual = new ArrayList<>();
+        for (final Integer value : store.all()) {
+            actual.add(value);
+        }
+        final List<Integer> wanted = new ArrayList<>(expected.values());
+        return actual.equals(wanted) ? null : String.format("%s %s, expected %s", when, actual, wanted);
+    }
+}
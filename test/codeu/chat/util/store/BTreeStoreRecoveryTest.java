@@ -0,0 +1,292 @@
+package codeu.chat.util.store;
+
+import codeu.chat.util.Serializers;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BTreeStoreRecoveryTest {
+    private static final int OPERATIONS = 40;
+
+    private File file;
+
+    @After
+    public void cleanup() {
+        if (file != null) {
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testCrashAtEveryByte() throws IOException {
+        final long length = logLength(1);
+        for (long crashAt = 0; crashAt <= length; crashAt++) {
+            file = BTreeStoreCrashHarness.tempFile();
+            assertNull("crash at " + crashAt, BTreeStoreCrashHarness.trial(1, OPERATIONS, crashAt, -1, file));
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testCorruptionAtEveryByte() throws IOException {
+        final long length = logLength(2);
+        for (long corruptAt = 0; corruptAt < length; corruptAt++) {
+            file = BTreeStoreCrashHarness.tempFile();
+            assertNull("corruption at " + corruptAt, BTreeStoreCrashHarness.trial(2, OPERATIONS, -1, corruptAt, file));
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testRandomCrashes() throws IOException {
+        final Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            file = BTreeStoreCrashHarness.tempFile();
+            final long crashAt = random.nextInt(4000);
+            assertNull(BTreeStoreCrashHarness.trial(random.nextLong(), 400, crashAt, -1, file));
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testDuplicatesAreRecovered() throws IOException {
+        file = BTreeStoreCrashHarness.tempFile();
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        for (int i = 0; i < 3; i++) {
+            test = test.insert(7, i, true);
+        }
+
+        BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        assertEquals(3, copy.size());
+    }
+
+    @Test
+    public void testLegacyLogIsRewritten() throws IOException {
+        file = BTreeStoreCrashHarness.tempFile();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(BTreeStore.INSERTION);
+            Serializers.INTEGER.write(outputStream, 3);
+            Serializers.INTEGER.write(outputStream, 30);
+            outputStream.write(BTreeStore.SUCCESS);
+            outputStream.write(BTreeStore.INSERTION);
+            Serializers.INTEGER.write(outputStream, 4);
+            Serializers.INTEGER.write(outputStream, 40);
+            outputStream.write(BTreeStore.ABORT);
+        }
+
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        assertEquals("30", test.toString());
+        assertEquals(BTreeLog.Format.CHECKED, BTreeLog.format(file));
+
+        test = test.insert(5, 50, false);
+        BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        assertEquals("30 50", copy.toString());
+    }
+
+    @Test
+    public void testTruncatedLegacyLogKeepsRecords() throws IOException {
+        final ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        for (int key = 1; key <= 3; key++) {
+            legacy.write(BTreeStore.INSERTION);
+            Serializers.INTEGER.write(legacy, key);
+            Serializers.INTEGER.write(legacy, key * 10);
+            legacy.write(BTreeStore.SUCCESS);
+        }
+        final byte[] bytes = legacy.toByteArray();
+        final int record = bytes.length / 3;
+
+        // every place the last record could have been cut
+        for (int length = 2 * record + 1; length < bytes.length; length++) {
+            file = BTreeStoreCrashHarness.tempFile();
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                outputStream.write(bytes, 0, length);
+            }
+
+            BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+                Serializers.INTEGER, file.getPath());
+            assertEquals("cut at " + length, "10 20", test.toString());
+            assertEquals(BTreeLog.Format.CHECKED, BTreeLog.format(file));
+
+            test = test.insert(4, 40, false);
+            test.sync();
+            BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+                Serializers.INTEGER, file.getPath());
+            assertEquals("cut at " + length, "10 20 40", copy.toString());
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecordsAreSyncedTogether() throws IOException {
+        file = BTreeStoreCrashHarness.tempFile();
+
+        final int[] opens = { 0 };
+        final int[] syncs = { 0 };
+        final BTreeLog.Output output = new BTreeLog.Output() {
+            @Override
+            public OutputStream open(File file) throws IOException {
+                opens[0]++;
+                return new FilterOutputStream(new FileOutputStream(file, true)) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        syncs[0]++;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+        };
+
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath(), output);
+        // the header is written and synced on its own
+        assertEquals(1, opens[0]);
+        assertEquals(1, syncs[0]);
+
+        // a batch of records is written in one go and costs one sync
+        test.beginBatch();
+        for (int i = 0; i < 20; i++) {
+            test = test.insert(i, i * 10, false);
+        }
+        test.update(0, 1);
+        test = test.delete(1);
+        assertEquals(1, syncs[0]);
+        test.endBatch();
+        assertEquals(2, syncs[0]);
+
+        // records written one at a time wait for the next sync, and all share it
+        for (int i = 20; i < 30; i++) {
+            test = test.insert(i, i * 10, false);
+        }
+        assertEquals(2, syncs[0]);
+        test.sync();
+        test.sync();
+        assertEquals(3, syncs[0]);
+
+        // every record after the header went through the one stream
+        assertEquals(2, opens[0]);
+
+        // a record that is written is in the file before it is synced
+        test = test.insert(30, 300, false);
+        BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        assertEquals(test.toString(), copy.toString());
+        assertEquals(30, copy.size());
+    }
+
+    @Test
+    public void testFailedWriteIsReportedAndNotMade() throws IOException {
+        file = BTreeStoreCrashHarness.tempFile();
+
+        // the second record written after the header fails half way through
+        final int[] writes = { 0 };
+        final BTreeLog.Output output = new BTreeLog.Output() {
+            @Override
+            public OutputStream open(File file) throws IOException {
+                final OutputStream out = new FileOutputStream(file, true);
+                return new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[]{ (byte) b }, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        if (writes[0]++ == 2) {
+                            out.write(b, off, len / 2);
+                            throw new IOException("Failed part way");
+                        }
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+        };
+
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath(), output);
+        test = test.insert(1, 10, false);
+        try {
+            test = test.insert(2, 20, false);
+            fail("the failed write was not reported");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        assertEquals("10", test.toString());
+        assertEquals(1, test.size());
+
+        // the part of the failed record is not left in the way of the next one
+        test = test.insert(3, 30, false);
+        BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, file.getPath());
+        assertEquals("10 30", copy.toString());
+    }
+
+    @Test
+    public void testDamagedHeaderKeepsRecords() throws IOException {
+        for (int at = 0; at < BTreeLog.HEADER_SIZE; at++) {
+            file = BTreeStoreCrashHarness.tempFile();
+            BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+                Serializers.INTEGER, file.getPath());
+            for (int i = 0; i < 3; i++) {
+                test = test.insert(i, i * 10, false);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(at);
+                // a first byte that could pass for a record type
+                raf.write(at == 0 ? BTreeStore.INSERTION : 0xFF);
+            }
+
+            BTreeStore<Integer, Integer> copy = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+                Serializers.INTEGER, file.getPath());
+            assertEquals("damaged at " + at, "0 10 20", copy.toString());
+            assertEquals(BTreeLog.Format.CHECKED, BTreeLog.format(file));
+            assertFalse(new File(file.getPath() + ".corrupt").exists());
+            BTreeStoreCrashHarness.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecoveryRate() throws IOException {
+        file = BTreeStoreCrashHarness.tempFile();
+        assertTrue(BTreeStoreCrashHarness.recoveryRate(10000, file) > 0);
+    }
+
+    // the length of the log the trial with this seed writes when nothing goes wrong
+    private static long logLength(long seed) throws IOException {
+        final File log = BTreeStoreCrashHarness.tempFile();
+        try {
+            assertNull(BTreeStoreCrashHarness.trial(seed, OPERATIONS, -1, -1, log));
+            return log.length();
+        } finally {
+            BTreeStoreCrashHarness.delete(log);
+        }
+    }
+}
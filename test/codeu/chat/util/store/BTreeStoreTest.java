@@ -8,7 +8,11 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -27,6 +31,80 @@ public class BTreeStoreTest {
         assertEquals("-5 5 7 12 18 19 27 29 31 33 44 63 81 93 99", test.toString());
     }
 
+    @Test
+    public void testShape() {
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, FILENAME);
+        assertEquals(1, test.height());
+        assertEquals(1, test.nodeCount());
+        assertEquals(0, test.size());
+
+        for (int i = 0; i < 100; i++) {
+            test = test.insert(i, i, true);
+        }
+        assertEquals(100, test.size());
+        assertTrue(test.height() > 1);
+        // a node holds at most three elements and, apart from the root, at least one
+        assertTrue(test.nodeCount() >= 100 / 3);
+        assertTrue(test.nodeCount() <= 100);
+        assertTrue(test.logSize() > 0);
+        assertEquals(FILENAME, test.logName());
+    }
+
+    @Test
+    public void testShapeKeptThroughChanges() {
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, FILENAME);
+        final BTreeStore<Integer, Integer> first = test;
+        final Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            final int key = random.nextInt(200);
+            test = random.nextInt(3) == 0 ? test.delete(key) : test.insert(key, key, true);
+            assertShape(test);
+            // every node shares the counts, even one that is no longer the root
+            assertEquals(test.size(), first.size());
+        }
+        while (test.size() > 0) {
+            test = test.delete(test.all().iterator().getKey());
+            assertShape(test);
+        }
+        assertEquals(1, test.height());
+        assertEquals(1, test.nodeCount());
+
+        for (int i = 0; i < 50; i++) {
+            test = test.insert(i, i, true);
+        }
+        final BTreeStore<Integer, Integer> recovered = new BTreeStore<>(2, Integer::compareTo,
+            Serializers.INTEGER, Serializers.INTEGER, FILENAME);
+        assertShape(recovered);
+        assertEquals(50, recovered.size());
+    }
+
+    // checks the kept counts against a walk of the tree
+    private static void assertShape(BTreeStore<Integer, Integer> root) {
+        int height = 1;
+        for (BTreeStore<Integer, Integer> curr = root; curr.getChild(0) != null; curr = curr.getChild(0)) {
+            height++;
+        }
+        int size = 0;
+        for (Integer ignored : root.all()) {
+            size++;
+        }
+        assertEquals(height, root.height());
+        assertEquals(countNodes(root), root.nodeCount());
+        assertEquals(size, root.size());
+    }
+
+    private static int countNodes(BTreeStore<Integer, Integer> node) {
+        int count = 1;
+        for (int i = 0; i <= node.getNumElems(); i++) {
+            if (node.getChild(i) != null) {
+                count += countNodes(node.getChild(i));
+            }
+        }
+        return count;
+    }
+
     @Test
     public void testDuplicatesNotAllowed() {
         BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
@@ -274,6 +352,33 @@ public class BTreeStoreTest {
         assertEquals("-5 5 7 12 18 19 27 29 31 33 44 63 81 93 99", test.toString());
     }
 
+    @Test
+    public void testDeleteKeepsAllInOrder() {
+        BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
+            Serializers.INTEGER, FILENAME);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(0));
+        for (int key : keys) {
+            test = test.insert(key, key, false);
+        }
+        // deleting in a random order borrows and merges nodes deep in the tree
+        Collections.shuffle(keys, new Random(1));
+        for (int key : keys) {
+            if (key % 2 == 0) {
+                test = test.delete(key);
+            }
+        }
+        int expected = 1;
+        for (Integer value : test.all()) {
+            assertEquals(expected, (int) value);
+            expected += 2;
+        }
+        assertEquals(201, expected);
+    }
+
     @Test
     public void testAllEmpty() {
         BTreeStore<Integer, Integer> test = new BTreeStore<>(2, Integer::compareTo, Serializers.INTEGER,
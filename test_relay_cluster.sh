@@ -0,0 +1,22 @@
+#!/bin/bash
+
+# Copyright 2017 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Starts a sharded relay cluster and servers on this machine and checks that
+# messages are partitioned and merged correctly. Arguments are passed through:
+#
+#   sh test_relay_cluster.sh [relays] [servers] [conversations] [messages] [base port]
+
+java -cp ./third_party/junit4.jar:./bin codeu.chat.relay.RelayClusterHarness "$@"